@@ -0,0 +1,56 @@
+package CardGame.Cluster;
+
+/**
+ * This class is one GameServer node of the cluster, named by the host and
+ * port its clients connect to. The name is what a client is told when it
+ * must connect to another node, so it must be reachable by the clients.
+ */
+public class ClusterMember {
+    private final String host;
+    private final int port;
+
+    /**
+     * Constructor for the ClusterMember class.
+     *
+     * @param host the host clients connect to the node on.
+     * @param port the port clients connect to the node on.
+     */
+    public ClusterMember(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return the name of the node, which is its host and port.
+     */
+    public String getId() {
+        return host + ":" + port;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        ClusterMember member = (ClusterMember) o;
+        return port == member.port && host.equals(member.host);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * host.hashCode() + port;
+    }
+
+    @Override
+    public String toString() {
+        return getId();
+    }
+}
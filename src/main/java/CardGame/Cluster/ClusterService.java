@@ -0,0 +1,738 @@
+package CardGame.Cluster;
+
+import CardGame.GameEngine.GameLobby;
+import CardGame.GameEngine.LobbyRegistry;
+import CardGame.GameEngine.LobbyState;
+import CardGame.GameServerThread;
+import CardGame.Network.SessionRegistry;
+import CardGame.Network.SessionTokens;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonSyntaxException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class joins a GameServer to the other nodes of its cluster. Each
+ * node listens for the others on its cluster port, and every second tells
+ * every node in its list of peers which lobbies it owns, so each keeps a
+ * LobbyDirectory of the lobbies of the others. A node which stops telling
+ * the others is taken to be down once the directory expires it.
+ *
+ * The nodes talk to each other directly over TCP, so no other service is
+ * needed, and several nodes can run on one machine on loopback. A message
+ * is an int length, the time it was sent, a random nonce, the message in
+ * JSON, and an HMAC-SHA256 of the rest with the secret the nodes share.
+ * A node drops a message which is not signed with the secret, was sent
+ * more than a minute ago or has a nonce it has seen, so only the nodes of
+ * the cluster can tell it where games are or move games to it, and a
+ * message cannot be sent to it again.
+ *
+ * A running lobby can be moved to another node. The lobby is frozen by a
+ * command on its queue and sent whole, with the round where it was. The
+ * other node holds it as pending, and only takes it once this node confirms,
+ * so the lobby is never running on both. Once the other node has it the
+ * players are told to connect there and resume their sessions in it. The
+ * pause is from the freeze until the other node has the lobby.
+ *
+ * With a rebalance threshold set, a node with that many more players seated
+ * than the least loaded node moves lobbies to it, which keeps the work of
+ * each node about even as tables fill and empty.
+ *
+ * The nodes are configured with these system properties:
+ * cardgame.clusterPort   the port this node listens for the others on.
+ * cardgame.clusterPeers  the cluster addresses of the others, as host:port,host:port.
+ * cardgame.clusterHost   the host clients of other nodes connect to this node on.
+ * cardgame.clusterRebalance  how many more players than another node this node has before it moves lobbies there.
+ * cardgame.clusterSecret the secret the nodes sign their messages with, which is the
+ *                        session token key if it is not set, as the nodes share that too.
+ */
+public class ClusterService {
+    public static final String PORT_PROPERTY = "cardgame.clusterPort";
+    public static final String PEERS_PROPERTY = "cardgame.clusterPeers";
+    public static final String HOST_PROPERTY = "cardgame.clusterHost";
+    public static final String REBALANCE_PROPERTY = "cardgame.clusterRebalance";
+    public static final String SECRET_PROPERTY = "cardgame.clusterSecret";
+    public static final String SECRET_ENVIRONMENT = "CARDGAME_CLUSTER_SECRET";
+
+    public static final long GOSSIP_INTERVAL_MILLIS = 1000;
+    public static final long EXPIRY_MILLIS = 5000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 500;
+    private static final int MAX_MESSAGE_BYTES = 16 * 1024 * 1024;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int MAC_BYTES = 32;
+    private static final long MAX_MESSAGE_AGE_MILLIS = 60 * 1000;
+    private static final int MOVE_TIMEOUT_MILLIS = 1000;
+
+    // long enough for the node moving a lobby here to hear it is pending and confirm it
+    private static final int PENDING_TIMEOUT_MILLIS = 2 * MOVE_TIMEOUT_MILLIS;
+
+    // long enough for both nodes to hear the loads after a move, so a lobby is not moved back and forth
+    private static final long REBALANCE_COOLDOWN_MILLIS = 3 * GOSSIP_INTERVAL_MILLIS;
+
+    private static final String GOSSIP = "gossip";
+    private static final String MOVE = "move";
+    private static final String COMMIT = "commit";
+    private static final String QUERY = "query";
+
+    private final ClusterMember self;
+    private final InetSocketAddress clusterAddress;
+    private final List<InetSocketAddress> peers;
+    private final LobbyRegistry lobbies;
+    private final LobbyDirectory directory;
+    private final SecretKeySpec secret;
+    private final SecureRandom nonces;
+    private final Gson gson;
+
+    // the nonces of the messages read, with when they were sent, until they are too old to be read again
+    private final Map<Long, Long> seenNonces;
+
+    // the connections to the peers, only used by the gossip thread
+    private final Map<InetSocketAddress, Socket> peerSockets;
+
+    // the cluster address of each node, as heard in its gossip
+    private final Map<ClusterMember, InetSocketAddress> clusterAddresses;
+
+    // the lobbies moved here which the node moving them has not confirmed yet
+    private final Map<String, LobbyState> pending;
+
+    private volatile SessionRegistry sessions;
+    private volatile int rebalanceThreshold;
+    private volatile long lastMovedAt;
+
+    private final LongAdder moves;
+    private final LongAdder movePauseNanos;
+    private final AtomicLong maxMovePauseNanos;
+
+    private ServerSocket serverSocket;
+    private ScheduledExecutorService gossipTimer;
+    private volatile boolean closed;
+
+    /**
+     * Constructor for the ClusterService class.
+     *
+     * @param self           this node, as its clients connect to it.
+     * @param clusterAddress the address this node listens for the other nodes on.
+     * @param peers          the cluster addresses of the other nodes.
+     * @param lobbies        the lobbies this node owns.
+     * @param secret         the secret the nodes of the cluster sign their messages with.
+     */
+    public ClusterService(ClusterMember self, InetSocketAddress clusterAddress, List<InetSocketAddress> peers,
+                          LobbyRegistry lobbies, byte[] secret) {
+        this.self = self;
+        this.secret = new SecretKeySpec(secret, MAC_ALGORITHM);
+        this.nonces = new SecureRandom();
+        this.seenNonces = new ConcurrentHashMap<>();
+        this.clusterAddress = clusterAddress;
+        this.peers = new ArrayList<>(peers);
+        this.lobbies = lobbies;
+        this.directory = new LobbyDirectory(self, EXPIRY_MILLIS);
+        this.gson = new Gson();
+        this.peerSockets = new HashMap<>();
+        this.clusterAddresses = new ConcurrentHashMap<>();
+        this.pending = new ConcurrentHashMap<>();
+        this.moves = new LongAdder();
+        this.movePauseNanos = new LongAdder();
+        this.maxMovePauseNanos = new AtomicLong();
+    }
+
+    /**
+     * @param sessions the sessions of this node, whose players are told where a moved lobby went.
+     */
+    public void setSessions(SessionRegistry sessions) {
+        this.sessions = sessions;
+    }
+
+    /**
+     * @param players how many more players than the least loaded node this node has before
+     *                it moves a lobby there, or 0 to never move lobbies by itself.
+     */
+    public void setRebalanceThreshold(int players) {
+        this.rebalanceThreshold = players;
+    }
+
+    /**
+     * This method starts listening for the other nodes and telling them which lobbies this node owns.
+     *
+     * @throws IOException if the cluster port cannot be listened on.
+     */
+    public void start() throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.bind(clusterAddress);
+
+        Thread acceptThread = new Thread(this::acceptPeers, "cluster-acceptor");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+
+        gossipTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cluster-gossip");
+            thread.setDaemon(true);
+            return thread;
+        });
+        gossipTimer.scheduleWithFixedDelay(this::gossip, 0, GOSSIP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        System.out.println("Cluster node " + self + " listening on " + serverSocket.getLocalSocketAddress()
+                + " with peers " + peers);
+    }
+
+    /**
+     * This method tells every peer which lobbies this node owns, and forgets the nodes not heard from.
+     */
+    private void gossip() {
+        byte[] message = gson.toJson(new Gossip(self, serverSocket.getLocalPort(), lobbies.getNames(),
+                getPlayersSeated())).getBytes(StandardCharsets.UTF_8);
+
+        for (InetSocketAddress peer : peers) {
+            try {
+                Socket socket = peerSockets.get(peer);
+                if (socket == null) {
+                    socket = new Socket();
+                    socket.connect(peer, CONNECT_TIMEOUT_MILLIS);
+                    peerSockets.put(peer, socket);
+                }
+
+                writeMessage(socket, message);
+            } catch (IOException e) {
+                // the peer is down, or not up yet, so try again next time
+                closeQuietly(peerSockets.remove(peer));
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        directory.expire(now);
+        seenNonces.values().removeIf(sentAt -> sentAt < now - MAX_MESSAGE_AGE_MILLIS);
+        if (rebalanceThreshold > 0) {
+            rebalance();
+        }
+    }
+
+    /**
+     * This method moves a lobby to the least loaded node, if this node has more
+     * players seated than it by the threshold. Moving a lobby of n players closes
+     * the gap by 2n, so the largest lobby which does not overshoot is moved.
+     */
+    private void rebalance() {
+        if (System.currentTimeMillis() - lastMovedAt < REBALANCE_COOLDOWN_MILLIS) {
+            return;
+        }
+
+        ClusterMember coolest = null;
+        int coolestLoad = Integer.MAX_VALUE;
+        for (ClusterMember member : directory.getMembers()) {
+            int load = directory.getLoad(member);
+            if (load >= 0 && load < coolestLoad && clusterAddresses.containsKey(member)) {
+                coolest = member;
+                coolestLoad = load;
+            }
+        }
+        int gap = coolest == null ? 0 : getPlayersSeated() - coolestLoad;
+        if (gap <= rebalanceThreshold) {
+            return;
+        }
+
+        GameLobby toMove = null;
+        for (GameLobby lobby : lobbies.getLobbies()) {
+            int players = lobby.getPlayers().size();
+            if (players > 0 && 2 * players <= gap
+                    && (toMove == null || players > toMove.getPlayers().size())) {
+                toMove = lobby;
+            }
+        }
+        if (toMove != null) {
+            moveLobby(toMove.getLobbyName(), clusterAddresses.get(coolest));
+        }
+    }
+
+    /**
+     * This method moves a running lobby to another node. The lobby is frozen by a
+     * command, so the round stops where it is, and sent to the node, which holds
+     * it as pending. Once the node answers it can take the lobby, this node confirms
+     * the move, the node carries on from where the round stopped, and the players
+     * of the lobby are told to connect to it. If the node cannot take the lobby, or
+     * does not answer before it is confirmed, the lobby is thawed and stays here.
+     * If the node does not answer the confirmation, the lobby stays frozen until
+     * the node says whether it took it.
+     *
+     * @param lobbyName
+     * @param peer      the cluster address of the node to move the lobby to.
+     * @return the nanoseconds the lobby was frozen for, or -1 if it was not moved yet.
+     */
+    public long moveLobby(String lobbyName, InetSocketAddress peer) {
+        GameLobby lobby = lobbies.get(lobbyName);
+        if (lobby == null) {
+            return -1;
+        }
+
+        long[] frozenAt = new long[1];
+        LobbyState state;
+        try {
+            state = lobby.submit(game -> {
+                frozenAt[0] = System.nanoTime();
+                return game.isFrozen() ? null : game.freeze();
+            }).get();
+        } catch (InterruptedException | ExecutionException e) {
+            System.out.println("Cannot freeze lobby " + lobbyName + " to move it.");
+            return -1;
+        }
+        if (state == null) {
+            // it is being moved already
+            return -1;
+        }
+
+        Moved committed = null;
+        boolean confirmed = false;
+        try (Socket socket = new Socket()) {
+            socket.connect(peer, CONNECT_TIMEOUT_MILLIS);
+            socket.setSoTimeout(MOVE_TIMEOUT_MILLIS);
+            DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+            writeMessage(socket, gson.toJson(new Move(state)).getBytes(StandardCharsets.UTF_8));
+            Moved prepared = gson.fromJson(readMessage(inputStream), Moved.class);
+            if (prepared != null && prepared.adopted) {
+                confirmed = true;
+                writeMessage(socket, gson.toJson(new LobbyMessage(COMMIT, lobbyName))
+                        .getBytes(StandardCharsets.UTF_8));
+                committed = gson.fromJson(readMessage(inputStream), Moved.class);
+            }
+        } catch (IOException | JsonSyntaxException e) {
+            System.out.println("Problem moving lobby " + lobbyName + " to " + peer + ".");
+        }
+
+        if (confirmed && committed == null) {
+            // the node may have taken the lobby, so it must not run here until the node says it did not
+            System.out.println("Lobby " + lobbyName + " stays frozen until " + peer + " says whether it has it.");
+            resolveMove(lobby, state, peer, frozenAt[0]);
+            return -1;
+        }
+        if (committed == null || !committed.adopted) {
+            lobby.thaw();
+            System.out.println("Lobby " + lobbyName + " was not moved, it stays on this node.");
+            return -1;
+        }
+        return handOff(lobby, state, new ClusterMember(committed.host, committed.port), frozenAt[0]);
+    }
+
+    /**
+     * This method asks the node a lobby was confirmed to whether it took it, and asks
+     * again a second later while it is still pending there or the node does not answer.
+     *
+     * @param lobby    the frozen lobby.
+     * @param state    the copy of the lobby sent to the node.
+     * @param peer     the cluster address of the node.
+     * @param frozenAt when the lobby was frozen, in nanoseconds.
+     */
+    private void resolveMove(GameLobby lobby, LobbyState state, InetSocketAddress peer, long frozenAt) {
+        if (closed) {
+            return;
+        }
+
+        Moved status = null;
+        try (Socket socket = new Socket()) {
+            socket.connect(peer, CONNECT_TIMEOUT_MILLIS);
+            socket.setSoTimeout(MOVE_TIMEOUT_MILLIS);
+            writeMessage(socket, gson.toJson(new LobbyMessage(QUERY, state.getLobbyName()))
+                    .getBytes(StandardCharsets.UTF_8));
+            status = gson.fromJson(readMessage(new DataInputStream(socket.getInputStream())), Moved.class);
+        } catch (IOException | JsonSyntaxException e) {
+            // the node is down or slow, so ask again
+        }
+
+        if (status == null || status.pending) {
+            gossipTimer.schedule(() -> resolveMove(lobby, state, peer, frozenAt),
+                    GOSSIP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        } else if (status.adopted) {
+            handOff(lobby, state, new ClusterMember(status.host, status.port), frozenAt);
+        } else {
+            lobby.thaw();
+            System.out.println("Lobby " + state.getLobbyName() + " was not moved, it stays on this node.");
+        }
+    }
+
+    /**
+     * This method forgets a lobby another node took, and tells its players to connect there.
+     *
+     * @param lobby    the frozen lobby.
+     * @param state    the copy of the lobby the node took.
+     * @param owner    the node, as its clients connect to it.
+     * @param frozenAt when the lobby was frozen, in nanoseconds.
+     * @return the nanoseconds the lobby was frozen for.
+     */
+    private long handOff(GameLobby lobby, LobbyState state, ClusterMember owner, long frozenAt) {
+        String lobbyName = lobby.getLobbyName();
+        lobbies.remove(lobby);
+        directory.handOff(lobbyName, owner, System.currentTimeMillis());
+        long pause = System.nanoTime() - frozenAt;
+        recordMove(pause);
+        System.out.println("Moved lobby " + lobbyName + " to " + owner + ", paused for "
+                + String.format("%.1f", pause / 1e6) + "ms.");
+
+        SessionRegistry sessions = this.sessions;
+        if (sessions != null) {
+            for (String username : state.getPlayerNames()) {
+                GameServerThread session = sessions.getSession(username);
+                if (session != null) {
+                    session.redirectTo(owner, lobbyName);
+                }
+            }
+        }
+        return pause;
+    }
+
+    /**
+     * This method holds a lobby another node is moving here as pending, and takes
+     * it once the node confirms the move. A lobby which is not confirmed in time
+     * is dropped, and the node keeps it.
+     *
+     * @param socket      the connection the lobby came on.
+     * @param inputStream
+     * @param move
+     * @throws IOException
+     */
+    private void adopt(Socket socket, DataInputStream inputStream, Move move) throws IOException {
+        String lobbyName = move.lobby.getLobbyName();
+        boolean prepared = lobbies.get(lobbyName) == null && pending.putIfAbsent(lobbyName, move.lobby) == null;
+        if (!prepared) {
+            System.out.println("Lobby " + lobbyName + " cannot be moved here, one has its name.");
+        }
+
+        try {
+            writeMessage(socket, gson.toJson(new Moved(self, prepared, false)).getBytes(StandardCharsets.UTF_8));
+            if (!prepared) {
+                return;
+            }
+
+            socket.setSoTimeout(PENDING_TIMEOUT_MILLIS);
+            LobbyMessage commit = gson.fromJson(readMessage(inputStream), LobbyMessage.class);
+            if (commit == null || !COMMIT.equals(commit.kind) || !lobbyName.equals(commit.lobbyName)) {
+                System.out.println("Lobby " + lobbyName + " was not confirmed, it is not moved here.");
+                return;
+            }
+            boolean adopted = lobbies.adopt(move.lobby) != null;
+            writeMessage(socket, gson.toJson(new Moved(self, adopted, false)).getBytes(StandardCharsets.UTF_8));
+        } catch (SocketTimeoutException e) {
+            System.out.println("Lobby " + lobbyName + " was not confirmed in time, it is not moved here.");
+        } finally {
+            if (prepared) {
+                pending.remove(lobbyName);
+            }
+        }
+    }
+
+    /**
+     * This method answers whether this node took a lobby, or still holds it as pending.
+     *
+     * @param socket the connection the question came on.
+     * @param query
+     * @throws IOException
+     */
+    private void answer(Socket socket, LobbyMessage query) throws IOException {
+        boolean isPending = pending.containsKey(query.lobbyName);
+        boolean adopted = !isPending && lobbies.get(query.lobbyName) != null;
+        writeMessage(socket, gson.toJson(new Moved(self, adopted, isPending)).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void recordMove(long pauseNanos) {
+        lastMovedAt = System.currentTimeMillis();
+        moves.increment();
+        movePauseNanos.add(pauseNanos);
+        maxMovePauseNanos.accumulateAndGet(pauseNanos, Math::max);
+    }
+
+    /**
+     * @return the players seated in the lobbies of this node.
+     */
+    private int getPlayersSeated() {
+        int players = 0;
+        for (GameLobby lobby : lobbies.getLobbies()) {
+            players += lobby.getPlayers().size();
+        }
+        return players;
+    }
+
+    /**
+     * This method signs the message and writes it at once, so a small message
+     * answered by the peer is not held back waiting for the ack of its length.
+     *
+     * @param socket
+     * @param message
+     * @throws IOException
+     */
+    private void writeMessage(Socket socket, byte[] message) throws IOException {
+        long sentAt = System.currentTimeMillis();
+        long nonce = nonces.nextLong();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(20 + message.length + MAC_BYTES);
+        DataOutputStream outputStream = new DataOutputStream(buffer);
+        outputStream.writeInt(message.length);
+        outputStream.writeLong(sentAt);
+        outputStream.writeLong(nonce);
+        outputStream.write(message);
+        outputStream.write(sign(sentAt, nonce, message));
+        buffer.writeTo(socket.getOutputStream());
+        socket.getOutputStream().flush();
+    }
+
+    /**
+     * @param inputStream
+     * @return the next message, or null if it is too long, not signed with the secret, too old or read before.
+     * @throws IOException
+     */
+    private String readMessage(DataInputStream inputStream) throws IOException {
+        int length = inputStream.readInt();
+        if (length < 0 || length > MAX_MESSAGE_BYTES) {
+            return null;
+        }
+
+        long sentAt = inputStream.readLong();
+        long nonce = inputStream.readLong();
+        byte[] message = new byte[length];
+        inputStream.readFully(message);
+        byte[] signature = new byte[MAC_BYTES];
+        inputStream.readFully(signature);
+        if (!MessageDigest.isEqual(signature, sign(sentAt, nonce, message))
+                || Math.abs(System.currentTimeMillis() - sentAt) > MAX_MESSAGE_AGE_MILLIS
+                || seenNonces.putIfAbsent(nonce, sentAt) != null) {
+            return null;
+        }
+        return new String(message, StandardCharsets.UTF_8);
+    }
+
+    private byte[] sign(long sentAt, long nonce, byte[] message) {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(secret);
+            mac.update(ByteBuffer.allocate(16).putLong(sentAt).putLong(nonce).array());
+            return mac.doFinal(message);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available.", e);
+        }
+    }
+
+    private void acceptPeers() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread receiveThread = new Thread(() -> receive(socket), "cluster-peer");
+                receiveThread.setDaemon(true);
+                receiveThread.start();
+            } catch (IOException e) {
+                if (!closed) {
+                    System.out.println("Problem accepting cluster peer.");
+                }
+            }
+        }
+    }
+
+    /**
+     * This method reads what a peer tells this node until it disconnects.
+     *
+     * @param socket
+     */
+    private void receive(Socket socket) {
+        try {
+            DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+            while (!closed) {
+                String message = readMessage(inputStream);
+                if (message == null) {
+                    System.out.println("Malformed or unsigned message from cluster peer "
+                            + socket.getRemoteSocketAddress() + ".");
+                    return;
+                }
+
+                JsonElement kind = gson.fromJson(message, JsonObject.class).get("kind");
+                if (kind != null && kind.getAsString().equals(MOVE)) {
+                    adopt(socket, inputStream, gson.fromJson(message, Move.class));
+                    return;
+                }
+                if (kind != null && kind.getAsString().equals(QUERY)) {
+                    answer(socket, gson.fromJson(message, LobbyMessage.class));
+                    return;
+                }
+
+                Gossip gossip = gson.fromJson(message, Gossip.class);
+                ClusterMember member = new ClusterMember(gossip.host, gossip.port);
+                clusterAddresses.put(member, new InetSocketAddress(socket.getInetAddress(), gossip.clusterPort));
+                directory.update(member, gossip.lobbies, gossip.players, System.currentTimeMillis());
+            }
+        } catch (IOException e) {
+            // the peer disconnected, and is forgotten once it expires
+        } catch (JsonSyntaxException | NullPointerException e) {
+            System.out.println("Malformed message from cluster peer.");
+        } finally {
+            closeQuietly(socket);
+        }
+    }
+
+    public LobbyDirectory getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return the port this node listens for the other nodes on.
+     */
+    public int getClusterPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public long getMoveCount() {
+        return moves.sum();
+    }
+
+    /**
+     * @return the average and longest pauses of the lobbies moved, and how many were moved.
+     */
+    public String movesToString() {
+        long count = moves.sum();
+        double averageMillis = count == 0 ? 0 : movePauseNanos.sum() / 1e6 / count;
+        return String.format("Cluster: lobbies moved=%d pause avg=%.1fms max=%.1fms",
+                count, averageMillis, maxMovePauseNanos.get() / 1e6);
+    }
+
+    /**
+     * This method stops listening for and telling the other nodes, who forget this node once it expires.
+     */
+    public void close() {
+        closed = true;
+        if (gossipTimer != null) {
+            gossipTimer.shutdownNow();
+        }
+        closeQuietly(serverSocket);
+        for (Socket socket : peerSockets.values()) {
+            closeQuietly(socket);
+        }
+    }
+
+    /**
+     * @return the configured cluster secret, or else the configured session token
+     * key, or null if neither is set.
+     */
+    public static byte[] loadSecret() {
+        String configured = System.getProperty(SECRET_PROPERTY, System.getenv(SECRET_ENVIRONMENT));
+        if (configured == null || configured.isEmpty()) {
+            configured = System.getProperty(SessionTokens.KEY_PROPERTY, System.getenv(SessionTokens.KEY_ENVIRONMENT));
+        }
+        return configured == null || configured.isEmpty() ? null : configured.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param addresses the addresses as host:port,host:port.
+     * @return the addresses, or none if there are none.
+     */
+    public static List<InetSocketAddress> parseAddresses(String addresses) {
+        List<InetSocketAddress> parsed = new ArrayList<>();
+        if (addresses == null) {
+            return parsed;
+        }
+
+        for (String address : addresses.split(",")) {
+            address = address.trim();
+            int colon = address.lastIndexOf(':');
+            if (colon > 0) {
+                parsed.add(new InetSocketAddress(address.substring(0, colon),
+                        Integer.parseInt(address.substring(colon + 1))));
+            }
+        }
+        return parsed;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            System.out.println("Problem closing cluster connection.");
+        }
+    }
+
+    /**
+     * What a node tells the others: where its clients and the other nodes connect,
+     * the lobbies it owns and the players seated in them.
+     */
+    private static class Gossip {
+        private final String kind = GOSSIP;
+        private final String host;
+        private final int port;
+        private final int clusterPort;
+        private final Collection<String> lobbies;
+        private final int players;
+
+        Gossip(ClusterMember from, int clusterPort, Collection<String> lobbies, int players) {
+            this.host = from.getHost();
+            this.port = from.getPort();
+            this.clusterPort = clusterPort;
+            this.lobbies = lobbies;
+            this.players = players;
+        }
+    }
+
+    /**
+     * A lobby moved from one node to another.
+     */
+    private static class Move {
+        private final String kind = MOVE;
+        private final LobbyState lobby;
+
+        Move(LobbyState lobby) {
+            this.lobby = lobby;
+        }
+    }
+
+    /**
+     * The confirmation of a move, or the question whether a node took a lobby.
+     */
+    private static class LobbyMessage {
+        private final String kind;
+        private final String lobbyName;
+
+        LobbyMessage(String kind, String lobbyName) {
+            this.kind = kind;
+            this.lobbyName = lobbyName;
+        }
+    }
+
+    /**
+     * The answer to a move: whether the node holds or took the lobby, or still
+     * holds it as pending, and where its clients connect.
+     */
+    private static class Moved {
+        private final String host;
+        private final int port;
+        private final boolean adopted;
+        private final boolean pending;
+
+        Moved(ClusterMember to, boolean adopted, boolean pending) {
+            this.host = to.getHost();
+            this.port = to.getPort();
+            this.adopted = adopted;
+            this.pending = pending;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package CardGame.Cluster;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * This class is the lobbies of the other nodes in the cluster, with the node
+ * which owns each one. A lobby is owned by the node it was created on, and
+ * only lives there, so a client joining it must be connected to that node.
+ *
+ * Each node tells the others which lobbies it owns every few seconds, and
+ * the directory replaces everything it knew of the node with that. A node
+ * not heard from for the expiry time is taken to be down, and its lobbies
+ * are forgotten. The directory is only as new as the last message from
+ * each node, so a lobby created a moment ago may not be in it yet. If two
+ * nodes say they own a lobby of the same name, the node with the lower
+ * name is taken to own it.
+ *
+ * A lobby this node moves to another is handed off to it straight away,
+ * and kept as the other node's until it says it owns it, so clients are
+ * sent there before the next message from it. Each node also says how many
+ * players are seated in its lobbies, which is its load for rebalancing.
+ */
+public class LobbyDirectory {
+    private final ClusterMember self;
+    private final long expiryMillis;
+
+    // the lobbies and last message of each node, and the owner of each lobby of another node
+    private final Map<ClusterMember, Set<String>> lobbiesOfMembers;
+    private final Map<ClusterMember, Long> lastSeen;
+    private final Map<ClusterMember, Integer> loads;
+    private volatile SortedMap<String, ClusterMember> owners;
+
+    // lobbies moved to another node, and when they are dropped if the node never says it owns them
+    private final Map<String, ClusterMember> handedOff;
+    private final Map<String, Long> handedOffUntil;
+    private volatile Runnable listener;
+
+    /**
+     * Constructor for the LobbyDirectory class.
+     *
+     * @param self         this node, whose own lobbies are not in the directory.
+     * @param expiryMillis how long a node can go unheard from before it is taken to be down.
+     */
+    public LobbyDirectory(ClusterMember self, long expiryMillis) {
+        this.self = self;
+        this.expiryMillis = expiryMillis;
+        this.lobbiesOfMembers = new HashMap<>();
+        this.lastSeen = new HashMap<>();
+        this.loads = new HashMap<>();
+        this.handedOff = new HashMap<>();
+        this.handedOffUntil = new HashMap<>();
+        this.owners = Collections.emptySortedMap();
+    }
+
+    /**
+     * This method records the lobbies a node owns, in place of those it owned before.
+     *
+     * @param member     the node.
+     * @param lobbyNames every lobby the node owns.
+     * @param load       the players seated in the lobbies of the node.
+     * @param now        the time the node was heard from.
+     * @return true if the lobbies of the node changed.
+     */
+    public synchronized boolean update(ClusterMember member, Collection<String> lobbyNames, int load, long now) {
+        if (member.equals(self)) {
+            return false;
+        }
+
+        lastSeen.put(member, now);
+        loads.put(member, load);
+        Set<String> names = new HashSet<>(lobbyNames);
+        for (Map.Entry<String, ClusterMember> moved : new HashMap<>(handedOff).entrySet()) {
+            if (!moved.getValue().equals(member)) {
+                continue;
+            }
+            if (names.contains(moved.getKey())) {
+                // the node says it owns the lobby now
+                handedOff.remove(moved.getKey());
+                handedOffUntil.remove(moved.getKey());
+            } else {
+                // the message was sent before the lobby got there
+                names.add(moved.getKey());
+            }
+        }
+        Set<String> previous = lobbiesOfMembers.put(member, names);
+        if (names.equals(previous)) {
+            return false;
+        }
+
+        for (String lobbyName : names) {
+            ClusterMember owner = owners.get(lobbyName);
+            if (owner != null && !owner.equals(member)) {
+                System.out.println("Lobby " + lobbyName + " is owned by both " + owner + " and " + member + ".");
+            }
+        }
+        changed();
+        return true;
+    }
+
+    /**
+     * This method records a lobby this node has moved to another node as owned by it,
+     * before the other node says it owns it.
+     *
+     * @param lobbyName
+     * @param member    the node the lobby moved to.
+     * @param now
+     */
+    public synchronized void handOff(String lobbyName, ClusterMember member, long now) {
+        handedOff.put(lobbyName, member);
+        handedOffUntil.put(lobbyName, now + expiryMillis);
+        if (!lastSeen.containsKey(member)) {
+            lastSeen.put(member, now);
+        }
+        lobbiesOfMembers.computeIfAbsent(member, m -> new HashSet<>()).add(lobbyName);
+        changed();
+    }
+
+    /**
+     * This method forgets the nodes not heard from within the expiry time, and their lobbies.
+     *
+     * @param now
+     * @return true if any node was forgotten.
+     */
+    public synchronized boolean expire(long now) {
+        boolean expired = false;
+
+        for (Map.Entry<ClusterMember, Long> seen : new HashMap<>(lastSeen).entrySet()) {
+            if (now - seen.getValue() > expiryMillis) {
+                ClusterMember member = seen.getKey();
+                System.out.println("Cluster node " + member + " is down.");
+                lastSeen.remove(member);
+                loads.remove(member);
+                lobbiesOfMembers.remove(member);
+                expired = true;
+            }
+        }
+
+        for (Map.Entry<String, Long> until : new HashMap<>(handedOffUntil).entrySet()) {
+            if (now > until.getValue()) {
+                handedOff.remove(until.getKey());
+                handedOffUntil.remove(until.getKey());
+            }
+        }
+
+        if (expired) {
+            changed();
+        }
+        return expired;
+    }
+
+    /**
+     * @param lobbyName
+     * @return the node which owns the lobby, or null if no other node does.
+     */
+    public ClusterMember getOwner(String lobbyName) {
+        return lobbyName == null ? null : owners.get(lobbyName);
+    }
+
+    /**
+     * @return the sorted names of the lobbies of the other nodes, which must not be changed.
+     */
+    public Set<String> getRemoteNames() {
+        return owners.keySet();
+    }
+
+    /**
+     * @param localNames the names of the lobbies of this node.
+     * @return the sorted names of the lobbies of the whole cluster.
+     */
+    public Set<String> withRemoteNames(Set<String> localNames) {
+        Set<String> remote = owners.keySet();
+        if (remote.isEmpty()) {
+            return localNames;
+        }
+
+        TreeSet<String> names = new TreeSet<>(localNames);
+        names.addAll(remote);
+        return Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * @return the other nodes which are up.
+     */
+    public synchronized Set<ClusterMember> getMembers() {
+        return new HashSet<>(lastSeen.keySet());
+    }
+
+    /**
+     * @param member
+     * @return the players seated in the lobbies of the node, or -1 if it is not up.
+     */
+    public synchronized int getLoad(ClusterMember member) {
+        return loads.getOrDefault(member, -1);
+    }
+
+    /**
+     * @param listener called whenever the lobbies of the other nodes change.
+     */
+    public void setListener(Runnable listener) {
+        this.listener = listener;
+    }
+
+    private void changed() {
+        // the nodes in order of name, so the lowest named owner of a lobby is kept
+        List<ClusterMember> members = new ArrayList<>(lobbiesOfMembers.keySet());
+        members.sort(Comparator.comparing(ClusterMember::getId));
+
+        TreeMap<String, ClusterMember> nextOwners = new TreeMap<>();
+        for (ClusterMember member : members) {
+            for (String lobbyName : lobbiesOfMembers.get(member)) {
+                nextOwners.putIfAbsent(lobbyName, member);
+            }
+        }
+        owners = Collections.unmodifiableSortedMap(nextOwners);
+
+        Runnable listener = this.listener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+}
@@ -0,0 +1,604 @@
+package CardGame.Codec;
+
+import CardGame.GameEngine.Card;
+import CardGame.GameEngine.LobbyState;
+import CardGame.Pushes.*;
+import CardGame.Requests.*;
+import CardGame.Responses.*;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This codec sends messages as compact binary instead of JSON. A frame is
+ * the message class id followed by the fields of the message, with no
+ * field names. Numbers are varints, strings are UTF-8 with their length,
+ * and a card is packed into a single byte.
+ *
+ * The fields of a class are found once with reflection, in the order of
+ * the class hierarchy and then by name, so both sides must run the same
+ * message classes. New message classes must be added to the end of
+ * MESSAGE_CLASSES.
+ */
+public class BinaryCodec implements WireCodec {
+    static final Class<?>[] MESSAGE_CLASSES = {
+            RequestProtocol.class, RequestRegisterUser.class, RequestLoginUser.class, RequestLogOut.class,
+            RequestSendMessage.class, RequestGetMessages.class, RequestGiveClientId.class, RequestSubscribe.class,
+            RequestHello.class, RequestCreateGame.class, RequestJoinGame.class, RequestQuitGame.class,
+            RequestBet.class, RequestHit.class, RequestDoubleBet.class, RequestStand.class, RequestFold.class,
+            RequestGetGameNames.class, RequestGetPlayerHands.class, RequestGetPlayerNames.class,
+            RequestGetPlayerBets.class, RequestGetPlayerBudgets.class, RequestGetDealerHand.class,
+            RequestGetAllPlayersFinished.class, RequestGetPlayersWon.class, RequestGetPlayersBust.class,
+            RequestGetPlayersStand.class, RequestGetAllBetsPlaced.class, RequestGetGameState.class,
+            ResponseProtocol.class, ResponseRegisterUser.class, ResponseLoginUser.class, ResponseLogOut.class,
+            ResponseSendMessage.class, ResponseGetMessages.class, ResponseGiveClientId.class,
+            ResponseSubscribe.class, ResponseHello.class, ResponseCreateGame.class, ResponseJoinGame.class,
+            ResponseQuitGame.class, ResponseBet.class, ResponseHit.class, ResponseDoubleBet.class,
+            ResponseStand.class, ResponseFold.class,
+            PushGameNames.class, PushPlayerHands.class, PushPlayerNames.class, PushPlayerBets.class,
+            PushPlayerBudgets.class, PushDealerHand.class, PushAreAllPlayersFinished.class, PushPlayersWon.class,
+            PushPlayersBust.class, PushPlayersStand.class, PushAreAllBetsPlaced.class, PushGameState.class,
+            ResponseSlowDown.class, RequestHeartbeat.class, ResponseHeartbeat.class, RequestResumeSession.class,
+            ResponseResumeSession.class, PushRedirect.class, LobbyState.class
+    };
+
+    private static final Object UNSAFE;
+    private static final java.lang.reflect.Method ALLOCATE_INSTANCE;
+
+    static {
+        // messages have no no-arg constructors, so they are allocated as Gson does
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            UNSAFE = theUnsafe.get(null);
+            ALLOCATE_INSTANCE = unsafeClass.getMethod("allocateInstance", Class.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Frames frames;
+    private final Map<Class<?>, Integer> classIds;
+    private final Map<Class<?>, ObjectCodec> objectCodecs;
+
+    public BinaryCodec(Frames frames) {
+        this.frames = frames;
+        this.classIds = new HashMap<>();
+        for (int i = 0; i < MESSAGE_CLASSES.length; i++) {
+            classIds.put(MESSAGE_CLASSES[i], i);
+        }
+        this.objectCodecs = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public String getName() {
+        return Codecs.BINARY;
+    }
+
+    @Override
+    public Frames getFrames() {
+        return frames;
+    }
+
+    @Override
+    public byte[] encode(Object message) {
+        Integer classId = classIds.get(message.getClass());
+        if (classId == null) {
+            throw new IllegalArgumentException("Not a message class: " + message.getClass().getName());
+        }
+
+        Output out = new Output(frames);
+        out.writeVarInt(classId);
+        objectCodec(message.getClass()).writeFields(out, message);
+        return out.toFrame();
+    }
+
+    @Override
+    public <T> T decode(byte[] frame, Class<T> messageClass) {
+        try {
+            Input in = new Input(frame, frames);
+            int classId = in.readVarInt();
+            if (classId < 0 || classId >= MESSAGE_CLASSES.length) {
+                throw new IllegalArgumentException("Unknown message class id " + classId);
+            }
+
+            Object message = objectCodec(MESSAGE_CLASSES[classId]).readFields(in);
+            if (!in.isFinished()) {
+                throw new IllegalArgumentException("Malformed frame.");
+            }
+            return messageClass.cast(message);
+        } catch (ArrayIndexOutOfBoundsException | ClassCastException e) {
+            throw new IllegalArgumentException("Malformed frame.", e);
+        }
+    }
+
+    private ObjectCodec objectCodec(Class<?> type) {
+        ObjectCodec codec = objectCodecs.get(type);
+        if (codec == null) {
+            codec = new ObjectCodec(type);
+            objectCodecs.putIfAbsent(type, codec);
+        }
+        return codec;
+    }
+
+    /**
+     * This method finds the codec for the declared type of a field.
+     *
+     * @param type
+     * @return
+     */
+    private ValueCodec valueCodec(Type type) {
+        if (type == int.class) {
+            return INT;
+        } else if (type == Integer.class) {
+            return new NullableCodec(INT);
+        } else if (type == long.class) {
+            return LONG;
+        } else if (type == Long.class) {
+            return new NullableCodec(LONG);
+        } else if (type == boolean.class || type == Boolean.class) {
+            return BOOLEAN;
+        } else if (type == String.class) {
+            return STRING;
+        } else if (type == Date.class) {
+            return DATE;
+        } else if (type == Card.class) {
+            return CARD;
+        } else if (type instanceof ParameterizedType) {
+            ParameterizedType parameterizedType = (ParameterizedType) type;
+            Class<?> rawType = (Class<?>) parameterizedType.getRawType();
+            Type[] arguments = parameterizedType.getActualTypeArguments();
+
+            if (Map.class.isAssignableFrom(rawType)) {
+                return new MapCodec(rawType, valueCodec(arguments[0]), valueCodec(arguments[1]));
+            } else if (Collection.class.isAssignableFrom(rawType)) {
+                return new CollectionCodec(rawType, valueCodec(arguments[0]));
+            }
+        } else if (type instanceof Class && !((Class<?>) type).isInterface()
+                && !((Class<?>) type).isArray() && !((Class<?>) type).isPrimitive()) {
+            final Class<?> objectType = (Class<?>) type;
+            // looked up when first used, so a class can hold itself
+            return new NullableCodec(new ValueCodec() {
+                @Override
+                public void write(Output out, Object value) {
+                    objectCodec(objectType).writeFields(out, value);
+                }
+
+                @Override
+                public Object read(Input in) {
+                    return objectCodec(objectType).readFields(in);
+                }
+            });
+        }
+        throw new IllegalArgumentException("Cannot encode " + type);
+    }
+
+    // VALUE CODECS
+
+    private interface ValueCodec {
+        void write(Output out, Object value);
+
+        Object read(Input in);
+    }
+
+    private static final ValueCodec INT = new ValueCodec() {
+        @Override
+        public void write(Output out, Object value) {
+            out.writeVarInt((Integer) value);
+        }
+
+        @Override
+        public Object read(Input in) {
+            return in.readVarInt();
+        }
+    };
+
+    private static final ValueCodec LONG = new ValueCodec() {
+        @Override
+        public void write(Output out, Object value) {
+            out.writeVarLong((Long) value);
+        }
+
+        @Override
+        public Object read(Input in) {
+            return in.readVarLong();
+        }
+    };
+
+    // 0 false, 1 true, 2 null
+    private static final ValueCodec BOOLEAN = new ValueCodec() {
+        @Override
+        public void write(Output out, Object value) {
+            out.writeByte(value == null ? 2 : ((Boolean) value ? 1 : 0));
+        }
+
+        @Override
+        public Object read(Input in) {
+            int value = in.readByte();
+            return value == 2 ? null : value == 1;
+        }
+    };
+
+    // length + 1, or 0 for null, then UTF-8
+    private static final ValueCodec STRING = new ValueCodec() {
+        @Override
+        public void write(Output out, Object value) {
+            if (value == null) {
+                out.writeVarInt(0);
+                return;
+            }
+            byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+            out.writeVarInt(bytes.length + 1);
+            out.writeBytes(bytes);
+        }
+
+        @Override
+        public Object read(Input in) {
+            int length = in.readVarInt() - 1;
+            if (length < 0) {
+                return null;
+            }
+            return new String(in.readBytes(length), StandardCharsets.UTF_8);
+        }
+    };
+
+    private static final ValueCodec DATE = new NullableCodec(new ValueCodec() {
+        @Override
+        public void write(Output out, Object value) {
+            out.writeVarLong(((Date) value).getTime());
+        }
+
+        @Override
+        public Object read(Input in) {
+            return new Date(in.readVarLong());
+        }
+    });
+
+    // value in bits 3-6, suit in bits 1-2, face up in bit 0, or 0 for null
+    private static final ValueCodec CARD = new ValueCodec() {
+        @Override
+        public void write(Output out, Object value) {
+            if (value == null) {
+                out.writeByte(0);
+                return;
+            }
+
+            Card card = (Card) value;
+            if (!card.validateValue(card.getValue()) || !card.validateSuit(card.getSuit())) {
+                throw new IllegalArgumentException("Cannot encode " + card);
+            }
+            out.writeByte(card.getValue() << 3 | card.getSuit() << 1 | (card.isFaceUp() ? 1 : 0));
+        }
+
+        @Override
+        public Object read(Input in) {
+            int packed = in.readByte();
+            if (packed == 0) {
+                return null;
+            }
+
+            Card card = new Card(packed >>> 3, (packed >>> 1) & 3);
+            card.setFaceUp((packed & 1) == 1);
+            return card;
+        }
+    };
+
+    private static class NullableCodec implements ValueCodec {
+        private final ValueCodec codec;
+
+        NullableCodec(ValueCodec codec) {
+            this.codec = codec;
+        }
+
+        @Override
+        public void write(Output out, Object value) {
+            out.writeByte(value == null ? 0 : 1);
+            if (value != null) {
+                codec.write(out, value);
+            }
+        }
+
+        @Override
+        public Object read(Input in) {
+            return in.readByte() == 0 ? null : codec.read(in);
+        }
+    }
+
+    // size + 1, or 0 for null, then the entries
+    private static class MapCodec implements ValueCodec {
+        private final Class<?> mapType;
+        private final ValueCodec keyCodec;
+        private final ValueCodec valueCodec;
+
+        MapCodec(Class<?> mapType, ValueCodec keyCodec, ValueCodec valueCodec) {
+            this.mapType = mapType;
+            this.keyCodec = keyCodec;
+            this.valueCodec = valueCodec;
+        }
+
+        @Override
+        public void write(Output out, Object value) {
+            if (value == null) {
+                out.writeVarInt(0);
+                return;
+            }
+
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeVarInt(map.size() + 1);
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                keyCodec.write(out, entry.getKey());
+                valueCodec.write(out, entry.getValue());
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object read(Input in) {
+            int size = in.readVarInt() - 1;
+            if (size < 0) {
+                return null;
+            }
+
+            Map<Object, Object> map = (Map<Object, Object>) newMap(mapType);
+            for (int i = 0; i < size; i++) {
+                map.put(keyCodec.read(in), valueCodec.read(in));
+            }
+            return map;
+        }
+    }
+
+    // size + 1, or 0 for null, then the elements
+    private static class CollectionCodec implements ValueCodec {
+        private final Class<?> collectionType;
+        private final ValueCodec elementCodec;
+
+        CollectionCodec(Class<?> collectionType, ValueCodec elementCodec) {
+            this.collectionType = collectionType;
+            this.elementCodec = elementCodec;
+        }
+
+        @Override
+        public void write(Output out, Object value) {
+            if (value == null) {
+                out.writeVarInt(0);
+                return;
+            }
+
+            Collection<?> collection = (Collection<?>) value;
+            out.writeVarInt(collection.size() + 1);
+            for (Object element : collection) {
+                elementCodec.write(out, element);
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object read(Input in) {
+            int size = in.readVarInt() - 1;
+            if (size < 0) {
+                return null;
+            }
+
+            Collection<Object> collection = (Collection<Object>) newCollection(collectionType);
+            for (int i = 0; i < size; i++) {
+                collection.add(elementCodec.read(in));
+            }
+            return collection;
+        }
+    }
+
+    /**
+     * This class writes the fields of one class, found once with reflection.
+     */
+    private class ObjectCodec {
+        private final Class<?> type;
+        private final Field[] fields;
+        private volatile ValueCodec[] fieldCodecs;
+
+        ObjectCodec(Class<?> type) {
+            this.type = type;
+
+            List<Class<?>> hierarchy = new ArrayList<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                hierarchy.add(0, c);
+            }
+
+            List<Field> fieldList = new ArrayList<>();
+            for (Class<?> c : hierarchy) {
+                Field[] declaredFields = c.getDeclaredFields();
+                Arrays.sort(declaredFields, Comparator.comparing(Field::getName));
+                for (Field field : declaredFields) {
+                    int modifiers = field.getModifiers();
+                    if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers) && !field.isSynthetic()) {
+                        field.setAccessible(true);
+                        fieldList.add(field);
+                    }
+                }
+            }
+            this.fields = fieldList.toArray(new Field[0]);
+        }
+
+        private ValueCodec[] fieldCodecs() {
+            ValueCodec[] codecs = fieldCodecs;
+            if (codecs == null) {
+                codecs = new ValueCodec[fields.length];
+                for (int i = 0; i < fields.length; i++) {
+                    codecs[i] = valueCodec(fields[i].getGenericType());
+                }
+                fieldCodecs = codecs;
+            }
+            return codecs;
+        }
+
+        void writeFields(Output out, Object value) {
+            ValueCodec[] codecs = fieldCodecs();
+            try {
+                for (int i = 0; i < fields.length; i++) {
+                    codecs[i].write(out, fields[i].get(value));
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException("Cannot encode " + type.getName(), e);
+            }
+        }
+
+        Object readFields(Input in) {
+            ValueCodec[] codecs = fieldCodecs();
+            try {
+                Object value = ALLOCATE_INSTANCE.invoke(UNSAFE, type);
+                for (int i = 0; i < fields.length; i++) {
+                    Object fieldValue = codecs[i].read(in);
+                    if (fieldValue != null || !fields[i].getType().isPrimitive()) {
+                        fields[i].set(value, fieldValue);
+                    }
+                }
+                return value;
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalArgumentException("Cannot decode " + type.getName(), e);
+            }
+        }
+    }
+
+    private static Object newMap(Class<?> mapType) {
+        if (!mapType.isInterface()) {
+            return newInstance(mapType);
+        } else if (SortedMap.class.isAssignableFrom(mapType)) {
+            return new TreeMap<>();
+        }
+        return new LinkedHashMap<>();
+    }
+
+    private static Object newCollection(Class<?> collectionType) {
+        if (!collectionType.isInterface()) {
+            return newInstance(collectionType);
+        } else if (SortedSet.class.isAssignableFrom(collectionType)) {
+            return new TreeSet<>();
+        } else if (Set.class.isAssignableFrom(collectionType)) {
+            return new LinkedHashSet<>();
+        } else if (Queue.class.isAssignableFrom(collectionType)) {
+            return new ArrayDeque<>();
+        }
+        return new ArrayList<>();
+    }
+
+    private static Object newInstance(Class<?> type) {
+        try {
+            return type.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Cannot create " + type.getName(), e);
+        }
+    }
+
+    // BYTES
+
+    /**
+     * A growable buffer which leaves room for the frame length.
+     */
+    private static class Output {
+        private final Frames frames;
+        private byte[] bytes = new byte[64];
+        private int size;
+
+        Output(Frames frames) {
+            this.frames = frames;
+            this.size = frames.getHeader();
+        }
+
+        void writeByte(int value) {
+            ensureCapacity(1);
+            bytes[size++] = (byte) value;
+        }
+
+        void writeBytes(byte[] values) {
+            ensureCapacity(values.length);
+            System.arraycopy(values, 0, bytes, size, values.length);
+            size += values.length;
+        }
+
+        // zigzag, so small negative numbers are small too
+        void writeVarInt(int value) {
+            int zigzag = (value << 1) ^ (value >> 31);
+            while ((zigzag & ~0x7F) != 0) {
+                writeByte((zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            writeByte(zigzag);
+        }
+
+        void writeVarLong(long value) {
+            long zigzag = (value << 1) ^ (value >> 63);
+            while ((zigzag & ~0x7FL) != 0) {
+                writeByte((int) (zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            writeByte((int) zigzag);
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+
+        byte[] toFrame() {
+            frames.writeLength(bytes, size);
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+
+    private static class Input {
+        private final byte[] bytes;
+        private int position;
+
+        Input(byte[] frame, Frames frames) {
+            this.bytes = frame;
+            this.position = frames.getHeader();
+        }
+
+        int readByte() {
+            return bytes[position++] & 0xFF;
+        }
+
+        byte[] readBytes(int length) {
+            if (position + length > bytes.length) {
+                throw new IllegalArgumentException("Malformed frame.");
+            }
+            byte[] values = Arrays.copyOfRange(bytes, position, position + length);
+            position += length;
+            return values;
+        }
+
+        int readVarInt() {
+            int zigzag = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                zigzag |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return (zigzag >>> 1) ^ -(zigzag & 1);
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint.");
+        }
+
+        long readVarLong() {
+            long zigzag = 0;
+            for (int shift = 0; shift < 70; shift += 7) {
+                int b = readByte();
+                zigzag |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return (zigzag >>> 1) ^ -(zigzag & 1);
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint.");
+        }
+
+        boolean isFinished() {
+            return position == bytes.length;
+        }
+    }
+}
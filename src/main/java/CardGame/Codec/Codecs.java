@@ -0,0 +1,80 @@
+package CardGame.Codec;
+
+/**
+ * This class holds the codecs a client and server can negotiate, in
+ * each framing, with or without compression.
+ */
+public class Codecs {
+    public static final String JSON = "json";
+    public static final String BINARY = "binary";
+    public static final String NO_COMPRESSION = "none";
+    public static final String DEFLATE = "deflate";
+
+    public static final WireCodec JSON_CODEC = new JsonCodec(Frames.SHORT);
+    public static final WireCodec BINARY_CODEC = new BinaryCodec(Frames.SHORT);
+    public static final WireCodec JSON_LONG_CODEC = new JsonCodec(Frames.LONG);
+    public static final WireCodec BINARY_LONG_CODEC = new BinaryCodec(Frames.LONG);
+    public static final WireCodec JSON_DEFLATE_CODEC = new DeflateCodec(JSON_CODEC);
+    public static final WireCodec BINARY_DEFLATE_CODEC = new DeflateCodec(BINARY_CODEC);
+    public static final WireCodec JSON_LONG_DEFLATE_CODEC = new DeflateCodec(JSON_LONG_CODEC);
+    public static final WireCodec BINARY_LONG_DEFLATE_CODEC = new DeflateCodec(BINARY_LONG_CODEC);
+
+    /**
+     * @param name
+     * @return the codec with the name in the short framing, or null if there is none.
+     */
+    public static WireCodec get(String name) {
+        return get(name, Frames.SHORT_NAME);
+    }
+
+    /**
+     * @param name
+     * @param framing the name of the framing, or null for the short framing.
+     * @return the codec with the name in the framing, or null if there is none.
+     */
+    public static WireCodec get(String name, String framing) {
+        boolean isLong = Frames.LONG_NAME.equals(framing);
+        if (!isLong && framing != null && !Frames.SHORT_NAME.equals(framing)) {
+            return null;
+        }
+
+        if (JSON.equals(name)) {
+            return isLong ? JSON_LONG_CODEC : JSON_CODEC;
+        } else if (BINARY.equals(name)) {
+            return isLong ? BINARY_LONG_CODEC : BINARY_CODEC;
+        }
+        return null;
+    }
+
+    /**
+     * @param name
+     * @param framing     the name of the framing, or null for the short framing.
+     * @param compression the name of the compression, or null for none.
+     * @return the codec with the name in the framing and compression, or null if there is none.
+     */
+    public static WireCodec get(String name, String framing, String compression) {
+        WireCodec codec = get(name, framing);
+        if (codec == null || compression == null || NO_COMPRESSION.equals(compression)) {
+            return codec;
+        } else if (!DEFLATE.equals(compression)) {
+            return null;
+        }
+
+        if (codec == JSON_CODEC) {
+            return JSON_DEFLATE_CODEC;
+        } else if (codec == BINARY_CODEC) {
+            return BINARY_DEFLATE_CODEC;
+        } else if (codec == JSON_LONG_CODEC) {
+            return JSON_LONG_DEFLATE_CODEC;
+        }
+        return BINARY_LONG_DEFLATE_CODEC;
+    }
+
+    /**
+     * @param codec
+     * @return the name of the compression the codec uses.
+     */
+    public static String getCompression(WireCodec codec) {
+        return codec instanceof DeflateCodec ? DEFLATE : NO_COMPRESSION;
+    }
+}
@@ -0,0 +1,250 @@
+package CardGame.Codec;
+
+import CardGame.GameEngine.Card;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * This codec compresses the frames of another codec with Deflater. After
+ * the length every frame has one flag byte: RAW frames hold the message as
+ * the other codec wrote it, and DEFLATED frames hold the size of that
+ * message as 4 bytes followed by the compressed message. Messages smaller
+ * than MIN_DEFLATE_SIZE are sent raw, as they would not get much smaller.
+ *
+ * Both sides preset the same dictionary, built from the field names of the
+ * message classes and the JSON of every card, so even a single push finds
+ * the names and cards it repeats from its first byte.
+ *
+ * A Deflater and Inflater are kept for each thread, as they are not safe to
+ * share and are slow to create.
+ */
+public class DeflateCodec implements WireCodec {
+    public static final int MIN_DEFLATE_SIZE = 128;
+
+    private static final byte RAW = 0;
+    private static final byte DEFLATED = 1;
+    private static final int SIZE_BYTES = 4;
+
+    private static final byte[] DICTIONARY = buildDictionary();
+
+    private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(Deflater::new);
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(Inflater::new);
+
+    private final WireCodec codec;
+
+    public DeflateCodec(WireCodec codec) {
+        this.codec = codec;
+    }
+
+    @Override
+    public String getName() {
+        return codec.getName();
+    }
+
+    @Override
+    public Frames getFrames() {
+        return codec.getFrames();
+    }
+
+    /**
+     * @return the codec the messages are written in before they are compressed.
+     */
+    public WireCodec getCodec() {
+        return codec;
+    }
+
+    @Override
+    public byte[] encode(Object message) {
+        Frames frames = codec.getFrames();
+        int header = frames.getHeader();
+        byte[] frame = codec.encode(message);
+        int size = frame.length - header;
+
+        if (size >= MIN_DEFLATE_SIZE) {
+            byte[] deflated = deflate(frame, header, size, frames);
+            if (deflated != null) {
+                return deflated;
+            }
+        }
+
+        // send it raw, after the flag byte
+        byte[] rawFrame = new byte[frame.length + 1];
+        rawFrame[header] = RAW;
+        System.arraycopy(frame, header, rawFrame, header + 1, size);
+        frames.writeLength(rawFrame, rawFrame.length);
+        return rawFrame;
+    }
+
+    @Override
+    public <T> T decode(byte[] frame, Class<T> messageClass) {
+        Frames frames = codec.getFrames();
+        int header = frames.getHeader();
+        if (frame.length < header + 1) {
+            throw new IllegalArgumentException("Malformed frame.");
+        }
+
+        if (frame[header] == RAW) {
+            byte[] rawFrame = new byte[frame.length - 1];
+            System.arraycopy(frame, header + 1, rawFrame, header, rawFrame.length - header);
+            frames.writeLength(rawFrame, rawFrame.length);
+            return codec.decode(rawFrame, messageClass);
+        } else if (frame[header] == DEFLATED) {
+            return codec.decode(inflate(frame, header, frames), messageClass);
+        }
+        throw new IllegalArgumentException("Unknown compression flag " + frame[header]);
+    }
+
+    /**
+     * This method compresses the message in the frame.
+     *
+     * @param frame
+     * @param header
+     * @param size   the size of the message after the length.
+     * @param frames
+     * @return the compressed frame, or null if it is no smaller than the message.
+     */
+    private static byte[] deflate(byte[] frame, int header, int size, Frames frames) {
+        Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY);
+        deflater.setInput(frame, header, size);
+        deflater.finish();
+
+        // a frame which would not be smaller is sent raw
+        int start = header + 1 + SIZE_BYTES;
+        byte[] deflated = new byte[start + size];
+        int length = start;
+        while (!deflater.finished() && length < deflated.length) {
+            length += deflater.deflate(deflated, length, deflated.length - length);
+        }
+        if (!deflater.finished()) {
+            return null;
+        }
+
+        deflated[header] = DEFLATED;
+        for (int i = 0; i < SIZE_BYTES; i++) {
+            deflated[header + 1 + i] = (byte) (size >>> (8 * (SIZE_BYTES - 1 - i)));
+        }
+        frames.writeLength(deflated, length);
+        return Arrays.copyOf(deflated, length);
+    }
+
+    /**
+     * This method decompresses the frame into the frame the codec wrote.
+     *
+     * @param frame
+     * @param header
+     * @param frames
+     * @return
+     * @throws IllegalArgumentException if the frame is malformed.
+     */
+    private static byte[] inflate(byte[] frame, int header, Frames frames) {
+        int start = header + 1 + SIZE_BYTES;
+        if (frame.length < start) {
+            throw new IllegalArgumentException("Malformed frame.");
+        }
+
+        int size = 0;
+        for (int i = 0; i < SIZE_BYTES; i++) {
+            size = (size << 8) | (frame[header + 1 + i] & 0xFF);
+        }
+        // the size is checked before anything is allocated for it
+        if (size < 0 || size > frames.getMaxPayload()) {
+            throw new IllegalArgumentException("Frame length " + size + " is too large.");
+        }
+
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setInput(frame, start, frame.length - start);
+
+        byte[] inflated = new byte[header + size];
+        int length = header;
+        try {
+            while (!inflater.finished() && length < inflated.length) {
+                int read = inflater.inflate(inflated, length, inflated.length - length);
+                if (read == 0 && inflater.needsDictionary()) {
+                    inflater.setDictionary(DICTIONARY);
+                } else if (read == 0) {
+                    break;
+                }
+                length += read;
+            }
+            // the end of the stream may still need reading once the buffer is full
+            if (!inflater.finished() && inflater.inflate(new byte[1]) != 0) {
+                throw new IllegalArgumentException("Frame is larger than its size.");
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Malformed frame.", e);
+        }
+
+        if (!inflater.finished() || length != inflated.length) {
+            throw new IllegalArgumentException("Malformed frame.");
+        }
+        frames.writeLength(inflated, inflated.length);
+        return inflated;
+    }
+
+    /**
+     * This method builds the dictionary from the JSON field names of every
+     * message class and the classes they hold, and the JSON of every card.
+     * Deflate finds the end of the dictionary cheapest, so what every push
+     * sends is last.
+     *
+     * @return
+     */
+    private static byte[] buildDictionary() {
+        StringBuilder dictionary = new StringBuilder();
+        for (int suit = Card.SPADES; suit <= Card.CLUBS; suit++) {
+            for (int value = Card.ACE; value <= Card.KING; value++) {
+                dictionary.append("{\"suit\":").append(suit).append(",\"value\":").append(value)
+                        .append(",\"isFaceUp\":true}");
+            }
+        }
+
+        Set<String> fieldNames = new LinkedHashSet<>();
+        Set<Class<?>> visited = new LinkedHashSet<>();
+        for (Class<?> messageClass : BinaryCodec.MESSAGE_CLASSES) {
+            addFieldNames(messageClass, fieldNames, visited);
+        }
+        for (String fieldName : fieldNames) {
+            dictionary.append('"').append(fieldName).append("\":");
+        }
+
+        dictionary.append("\"protocolId\":0,\"type\":");
+        dictionary.append(",\"requestSuccess\":1,\"errorMsg\":\"\"}");
+        return dictionary.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void addFieldNames(Type type, Set<String> fieldNames, Set<Class<?>> visited) {
+        if (type instanceof ParameterizedType) {
+            for (Type argument : ((ParameterizedType) type).getActualTypeArguments()) {
+                addFieldNames(argument, fieldNames, visited);
+            }
+            return;
+        }
+        if (!(type instanceof Class) || !((Class<?>) type).getName().startsWith("CardGame.")
+                || !visited.add((Class<?>) type)) {
+            return;
+        }
+
+        for (Class<?> c = (Class<?>) type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers())) {
+                    continue;
+                }
+                fieldNames.add(field.getName());
+                addFieldNames(field.getGenericType(), fieldNames, visited);
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package CardGame.Codec;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * This class reads and writes the frame length at the start of every frame.
+ * There are two framings a client and server can negotiate:
+ *
+ * SHORT is a 2 byte unsigned length, as written by DataOutputStream.writeUTF,
+ * so a frame holds at most 65535 bytes. Every connection starts with it.
+ *
+ * LONG is a 4 byte length, so large chat histories and game lists fit in one
+ * frame. Frames larger than MAX_LONG_PAYLOAD are refused so a bad length
+ * cannot make us allocate a huge buffer.
+ */
+public class Frames {
+    public static final String SHORT_NAME = "short";
+    public static final String LONG_NAME = "long";
+    public static final int MAX_SHORT_PAYLOAD = 65535;
+    public static final int MAX_LONG_PAYLOAD = 16 * 1024 * 1024;
+
+    public static final Frames SHORT = new Frames(SHORT_NAME, 2, MAX_SHORT_PAYLOAD);
+    public static final Frames LONG = new Frames(LONG_NAME, 4, MAX_LONG_PAYLOAD);
+
+    private final String name;
+    private final int header;
+    private final int maxPayload;
+
+    private Frames(String name, int header, int maxPayload) {
+        this.name = name;
+        this.header = header;
+        this.maxPayload = maxPayload;
+    }
+
+    /**
+     * @param name
+     * @return the framing with the name, or null if there is none.
+     */
+    public static Frames get(String name) {
+        if (SHORT_NAME.equals(name)) {
+            return SHORT;
+        } else if (LONG_NAME.equals(name)) {
+            return LONG;
+        }
+        return null;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of bytes of the length at the start of a frame.
+     */
+    public int getHeader() {
+        return header;
+    }
+
+    public int getMaxPayload() {
+        return maxPayload;
+    }
+
+    /**
+     * This method reads one frame, including its length, from the stream.
+     *
+     * @param inputStream
+     * @return
+     * @throws IOException              if the stream is closed.
+     * @throws IllegalArgumentException if the length is too large.
+     */
+    public byte[] readFrame(DataInputStream inputStream) throws IOException {
+        int length = header == 2 ? inputStream.readUnsignedShort() : inputStream.readInt();
+        checkLength(length);
+
+        byte[] frame = new byte[header + length];
+        writeLength(frame, header + length);
+        inputStream.readFully(frame, header, length);
+        return frame;
+    }
+
+    /**
+     * This method reads the payload length of the frame starting at the position,
+     * without moving the buffer position.
+     *
+     * @param buffer
+     * @param position
+     * @return
+     * @throws IllegalArgumentException if the length is too large.
+     */
+    public int readLength(ByteBuffer buffer, int position) {
+        int length = header == 2 ? buffer.getShort(position) & 0xFFFF : buffer.getInt(position);
+        checkLength(length);
+        return length;
+    }
+
+    /**
+     * This method writes the payload length at the start of the frame.
+     *
+     * @param frame the frame, with the payload after the length.
+     * @param size  the size of the frame used.
+     * @throws IllegalArgumentException if the frame is too large.
+     */
+    public void writeLength(byte[] frame, int size) {
+        int length = size - header;
+        if (length > maxPayload) {
+            throw new IllegalArgumentException("Frame is too large to write.");
+        }
+
+        for (int i = 0; i < header; i++) {
+            frame[i] = (byte) (length >>> (8 * (header - 1 - i)));
+        }
+    }
+
+    private void checkLength(int length) {
+        if (length < 0 || length > maxPayload) {
+            throw new IllegalArgumentException("Frame length " + length + " is too large.");
+        }
+    }
+}
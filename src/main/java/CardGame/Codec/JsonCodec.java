@@ -0,0 +1,185 @@
+package CardGame.Codec;
+
+import CardGame.Requests.RequestProtocol;
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * This codec sends messages as Gson JSON strings. In the short framing they
+ * are written as writeUTF would, which is what every client speaks before
+ * another codec is negotiated. In the long framing Gson writes UTF-8 straight
+ * into the frame and reads straight from it, so no String of the whole
+ * message is built.
+ *
+ * Gson is safe to share between threads, so one instance is used for every message.
+ */
+public class JsonCodec implements WireCodec {
+    public static final Gson GSON = new Gson();
+
+    private final Frames frames;
+
+    public JsonCodec(Frames frames) {
+        this.frames = frames;
+    }
+
+    @Override
+    public String getName() {
+        return Codecs.JSON;
+    }
+
+    @Override
+    public Frames getFrames() {
+        return frames;
+    }
+
+    @Override
+    public byte[] encode(Object message) {
+        if (frames == Frames.SHORT) {
+            return encodeFrame(GSON.toJson(message));
+        }
+
+        FrameOutputStream frameOutput = new FrameOutputStream(frames);
+        try (Writer writer = new OutputStreamWriter(frameOutput, StandardCharsets.UTF_8)) {
+            GSON.toJson(message, writer);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot encode " + message.getClass().getName(), e);
+        }
+        return frameOutput.toFrame();
+    }
+
+    /**
+     * This method reads a frame as the class given. A frame read as a
+     * RequestProtocol is read as the request class for its type.
+     *
+     * @param frame        the frame, including the length.
+     * @param messageClass the class to read the message as.
+     * @param <T>
+     * @return
+     */
+    @Override
+    public <T> T decode(byte[] frame, Class<T> messageClass) {
+        if (frames == Frames.SHORT) {
+            String json = decodeFrame(frame);
+            if (messageClass == RequestProtocol.class) {
+                return messageClass.cast(decodeRequest(json));
+            }
+            return GSON.fromJson(json, messageClass);
+        }
+
+        int header = frames.getHeader();
+        if (frame.length < header) {
+            throw new IllegalArgumentException("Malformed frame.");
+        }
+        if (messageClass == RequestProtocol.class) {
+            return messageClass.cast(decodeRequest(new String(frame, header, frame.length - header,
+                    StandardCharsets.UTF_8)));
+        }
+        return GSON.fromJson(new InputStreamReader(new ByteArrayInputStream(frame, header, frame.length - header),
+                StandardCharsets.UTF_8), messageClass);
+    }
+
+    /**
+     * This method reads a request as the request class for its type. The type
+     * is found with a streaming reader which skips over the other values without
+     * binding them, and then the request is bound once as its own class.
+     *
+     * @param json
+     * @return the request, or null if the string is empty.
+     * @throws JsonSyntaxException if the string is not a json request.
+     */
+    public static RequestProtocol decodeRequest(String json) {
+        if (json == null) {
+            return null;
+        }
+        return GSON.fromJson(json, RequestRegistry.requestClass(readType(json)));
+    }
+
+    /**
+     * This method reads the type field at the top level of a json object.
+     *
+     * @param json
+     * @return the type, or -1 if there is no type field.
+     * @throws JsonSyntaxException if the string is not a json object.
+     */
+    private static int readType(String json) {
+        try {
+            JsonReader reader = new JsonReader(new StringReader(json));
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                return -1;
+            }
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("type") && reader.peek() == JsonToken.NUMBER) {
+                    return reader.nextInt();
+                }
+                reader.skipValue();
+            }
+            return -1;
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    /**
+     * This method writes the string as a frame as DataOutputStream.writeUTF would.
+     *
+     * @param output
+     * @return
+     */
+    public static byte[] encodeFrame(String output) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(output.length() + Frames.SHORT.getHeader());
+        try {
+            new DataOutputStream(bytes).writeUTF(output);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Frame is too large to write.", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * This method reads a frame written by DataOutputStream.writeUTF.
+     *
+     * @param frame
+     * @return
+     */
+    public static String decodeFrame(byte[] frame) {
+        try {
+            return new DataInputStream(new ByteArrayInputStream(frame)).readUTF();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed frame.", e);
+        }
+    }
+
+    /**
+     * A growable buffer which leaves room for the frame length.
+     */
+    private static class FrameOutputStream extends ByteArrayOutputStream {
+        private final Frames frames;
+
+        FrameOutputStream(Frames frames) {
+            super(256);
+            this.frames = frames;
+            this.count = frames.getHeader();
+        }
+
+        byte[] toFrame() {
+            frames.writeLength(buf, count);
+            return buf.length == count ? buf : Arrays.copyOf(buf, count);
+        }
+    }
+}
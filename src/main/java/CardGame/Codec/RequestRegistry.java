@@ -0,0 +1,58 @@
+package CardGame.Codec;
+
+import CardGame.Requests.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static CardGame.ProtocolTypes.*;
+
+/**
+ * This class maps each request type to the request class sent for it, so
+ * a request can be read as its own class the first time it is read.
+ */
+public class RequestRegistry {
+    private static final Map<Integer, Class<? extends RequestProtocol>> REQUEST_CLASSES = new HashMap<>();
+
+    static {
+        REQUEST_CLASSES.put(REGISTER_USER, RequestRegisterUser.class);
+        REQUEST_CLASSES.put(LOGIN_USER, RequestLoginUser.class);
+        REQUEST_CLASSES.put(SEND_MESSAGE, RequestSendMessage.class);
+        REQUEST_CLASSES.put(GET_MESSAGE, RequestGetMessages.class);
+        REQUEST_CLASSES.put(CLIENT_ID, RequestGiveClientId.class);
+        REQUEST_CLASSES.put(LOG_OUT_USER, RequestLogOut.class);
+        REQUEST_CLASSES.put(SUBSCRIBE, RequestSubscribe.class);
+        REQUEST_CLASSES.put(HELLO, RequestHello.class);
+        REQUEST_CLASSES.put(HEARTBEAT, RequestHeartbeat.class);
+        REQUEST_CLASSES.put(RESUME_SESSION, RequestResumeSession.class);
+        REQUEST_CLASSES.put(CREATE_GAME, RequestCreateGame.class);
+        REQUEST_CLASSES.put(JOIN_GAME, RequestJoinGame.class);
+        REQUEST_CLASSES.put(QUIT_GAME, RequestQuitGame.class);
+        REQUEST_CLASSES.put(BET, RequestBet.class);
+        REQUEST_CLASSES.put(HIT, RequestHit.class);
+        REQUEST_CLASSES.put(DOUBLE, RequestDoubleBet.class);
+        REQUEST_CLASSES.put(STAND, RequestStand.class);
+        REQUEST_CLASSES.put(FOLD, RequestFold.class);
+        REQUEST_CLASSES.put(PUSH_GAME_NAMES, RequestGetGameNames.class);
+        REQUEST_CLASSES.put(PUSH_PLAYER_HANDS, RequestGetPlayerHands.class);
+        REQUEST_CLASSES.put(PUSH_PLAYER_NAMES, RequestGetPlayerNames.class);
+        REQUEST_CLASSES.put(PUSH_PLAYER_BETS, RequestGetPlayerBets.class);
+        REQUEST_CLASSES.put(PUSH_PLAYER_BUDGETS, RequestGetPlayerBudgets.class);
+        REQUEST_CLASSES.put(PUSH_DEALER_HAND, RequestGetDealerHand.class);
+        REQUEST_CLASSES.put(PUSH_PLAYERS_WON, RequestGetPlayersWon.class);
+        REQUEST_CLASSES.put(PUSH_PLAYERS_BUST, RequestGetPlayersBust.class);
+        REQUEST_CLASSES.put(PUSH_PLAYERS_STAND, RequestGetPlayersStand.class);
+        REQUEST_CLASSES.put(PUSH_ARE_PLAYERS_FINISHED, RequestGetAllPlayersFinished.class);
+        REQUEST_CLASSES.put(PUSH_ARE_ALL_BETS_PLACED, RequestGetAllBetsPlaced.class);
+        REQUEST_CLASSES.put(PUSH_GAME_STATE, RequestGetGameState.class);
+    }
+
+    /**
+     * @param type
+     * @return the request class for the type, or RequestProtocol if the type is unknown.
+     */
+    public static Class<? extends RequestProtocol> requestClass(int type) {
+        Class<? extends RequestProtocol> requestClass = REQUEST_CLASSES.get(type);
+        return requestClass != null ? requestClass : RequestProtocol.class;
+    }
+}
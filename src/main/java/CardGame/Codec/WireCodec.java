@@ -0,0 +1,40 @@
+package CardGame.Codec;
+
+/**
+ * This interface turns the request, response and push objects into frames
+ * sent to the other side, and back. Every frame starts with its length, in
+ * the framing the codec was made with.
+ *
+ * Codecs are shared by all connections and must be safe to use from any thread.
+ */
+public interface WireCodec {
+
+    /**
+     * @return the name the codec is negotiated by.
+     */
+    String getName();
+
+    /**
+     * @return the framing the length of each frame is written in.
+     */
+    Frames getFrames();
+
+    /**
+     * This method writes a request, response or push as a frame.
+     *
+     * @param message
+     * @return the frame, including the length.
+     */
+    byte[] encode(Object message);
+
+    /**
+     * This method reads a frame as the class given.
+     *
+     * @param frame        the frame, including the length.
+     * @param messageClass the class to read the message as.
+     * @param <T>
+     * @return
+     * @throws IllegalArgumentException if the frame is malformed.
+     */
+    <T> T decode(byte[] frame, Class<T> messageClass);
+}
@@ -1,6 +1,7 @@
 package CardGame;
 
 import java.sql.*;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * CREATE TABLE users (
@@ -38,6 +39,8 @@ import java.sql.*;
  * @version 2017-02-26
  */
 public class FunctionDB {
+    // a lock rather than synchronized, so virtual threads waiting on a query do not pin their carrier
+    private final ReentrantLock lock = new ReentrantLock();
     private Connection con = null;
     private static final String DRIVER = "org.postgresql.Driver";
     private static final String URL = "jdbc:postgresql://mod-fund-databases.cs.bham.ac.uk/tlb646";
@@ -105,103 +108,141 @@ public class FunctionDB {
         }
     }
 
-    public synchronized boolean insertUserIntoDatabase(User user) throws SQLException {
-        String sql = "INSERT INTO users(username,password,firstname,lastname) VALUES(?,?,?,?)";
-        PreparedStatement stat = con.prepareStatement(sql);
-        stat.setString(1, user.getUserName());
-        stat.setString(2, user.getPassword());
-        stat.setString(3, user.getFirstName());
-        stat.setString(4, user.getLastName());
-        int update = stat.executeUpdate();
-        return update > 0;
-
+    public boolean insertUserIntoDatabase(User user) throws SQLException {
+        lock.lock();
+        try {
+            String sql = "INSERT INTO users(username,password,firstname,lastname) VALUES(?,?,?,?)";
+            PreparedStatement stat = con.prepareStatement(sql);
+            stat.setString(1, user.getUserName());
+            stat.setString(2, user.getPassword());
+            stat.setString(3, user.getFirstName());
+            stat.setString(4, user.getLastName());
+            int update = stat.executeUpdate();
+            return update > 0;
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public synchronized User retrieveUserFromDatabase(String username) throws SQLException {
-        String sql = "SELECT username,password,firstname,lastname FROM users WHERE username = ?";
-        PreparedStatement stat = con.prepareStatement(sql);
-        stat.setString(1, username);
-        ResultSet rs = stat.executeQuery();
-        User user = new User();
-        if (rs.next()) {
-            user.setUserName(rs.getString(1));
-            user.setPassword(rs.getString(2));
-            user.setFirstName(rs.getString(3));
-            user.setLastName(rs.getString(4));
+    public User retrieveUserFromDatabase(String username) throws SQLException {
+        lock.lock();
+        try {
+            String sql = "SELECT username,password,firstname,lastname FROM users WHERE username = ?";
+            PreparedStatement stat = con.prepareStatement(sql);
+            stat.setString(1, username);
+            ResultSet rs = stat.executeQuery();
+            User user = new User();
+            if (rs.next()) {
+                user.setUserName(rs.getString(1));
+                user.setPassword(rs.getString(2));
+                user.setFirstName(rs.getString(3));
+                user.setLastName(rs.getString(4));
+            }
+            return user;
+        } finally {
+            lock.unlock();
         }
-        return user;
-
     }
 
-    public synchronized User retrieveUserFromDatabaseWithUserId(int userid) throws SQLException {
-        String sql = "SELECT username,password,firstname,lastname FROM users WHERE user_id =?";
-        PreparedStatement stat = con.prepareStatement(sql);
-        stat.setInt(1, userid);
-        ResultSet rs = stat.executeQuery();
-        User user = new User();
-        if (rs.next()) {
-            user.setUserName(rs.getString(1));
-            user.setPassword(rs.getString(2));
-            user.setFirstName(rs.getString(3));
-            user.setLastName(rs.getString(4));
-        }
+    public User retrieveUserFromDatabaseWithUserId(int userid) throws SQLException {
+        lock.lock();
+        try {
+            String sql = "SELECT username,password,firstname,lastname FROM users WHERE user_id =?";
+            PreparedStatement stat = con.prepareStatement(sql);
+            stat.setInt(1, userid);
+            ResultSet rs = stat.executeQuery();
+            User user = new User();
+            if (rs.next()) {
+                user.setUserName(rs.getString(1));
+                user.setPassword(rs.getString(2));
+                user.setFirstName(rs.getString(3));
+                user.setLastName(rs.getString(4));
+            }
 
-        return user;
+            return user;
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public synchronized boolean isUserRegistered(String username) throws SQLException {
-        String sql = "SELECT username FROM users WHERE username =?";
-        PreparedStatement stat = con.prepareStatement(sql);
-        stat.setString(1, username);
-        ResultSet rs = stat.executeQuery();
-        return rs.next() != false;
+    public boolean isUserRegistered(String username) throws SQLException {
+        lock.lock();
+        try {
+            String sql = "SELECT username FROM users WHERE username =?";
+            PreparedStatement stat = con.prepareStatement(sql);
+            stat.setString(1, username);
+            ResultSet rs = stat.executeQuery();
+            return rs.next() != false;
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public synchronized boolean insertNewGameIntoDatabase(int timelength, int totalpot) throws SQLException {
-        String sql = "INSERT INTO games(time_length,total_wining_pot) VALUES(?,?)";
-        PreparedStatement stat = con.prepareStatement(sql);
-        stat.setInt(1, timelength);
-        stat.setInt(2, totalpot);
-        int update = stat.executeUpdate();
-        return update > 0;
+    public boolean insertNewGameIntoDatabase(int timelength, int totalpot) throws SQLException {
+        lock.lock();
+        try {
+            String sql = "INSERT INTO games(time_length,total_wining_pot) VALUES(?,?)";
+            PreparedStatement stat = con.prepareStatement(sql);
+            stat.setInt(1, timelength);
+            stat.setInt(2, totalpot);
+            int update = stat.executeUpdate();
+            return update > 0;
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public synchronized int insertGameOutcomeIntoDatabse(String outcomes) throws SQLException {
-        String sql = "INSERT INTO game_outcomes(outcome) SELECT ? WHERE NOT EXISTS (SELECT 1 FROM game_outcomes WHERE outcome=?) RETURNING outcome_id";
-        PreparedStatement stat = con.prepareStatement(sql);
-        stat.setString(1, outcomes);
-        stat.setString(2, outcomes);
-        ResultSet rs = stat.executeQuery();
-        if (rs.next()) {
-            int result = rs.getInt(1);
-            rs.close();
-            return result;
+    public int insertGameOutcomeIntoDatabse(String outcomes) throws SQLException {
+        lock.lock();
+        try {
+            String sql = "INSERT INTO game_outcomes(outcome) SELECT ? WHERE NOT EXISTS (SELECT 1 FROM game_outcomes WHERE outcome=?) RETURNING outcome_id";
+            PreparedStatement stat = con.prepareStatement(sql);
+            stat.setString(1, outcomes);
+            stat.setString(2, outcomes);
+            ResultSet rs = stat.executeQuery();
+            if (rs.next()) {
+                int result = rs.getInt(1);
+                rs.close();
+                return result;
+            }
+            // if any else happen throw a wrong result
+            return -1;
+        } finally {
+            lock.unlock();
         }
-        // if any else happen throw a wrong result
-        return -1;
     }
 
-    public synchronized boolean updateGameOutcomeFromDatabse(int outcome_id, String outcomes) throws SQLException {
-        String sql = "UPDATE game_outcomes SET outcomes = (?) WHERE outcoms_id = (?)";
-        PreparedStatement stat = con.prepareStatement(sql);
-        stat.setInt(1, outcome_id);
-        stat.setString(2, outcomes);
-        ResultSet rs = stat.executeQuery();
-        int update = stat.executeUpdate();
-        return update > 0;
+    public boolean updateGameOutcomeFromDatabse(int outcome_id, String outcomes) throws SQLException {
+        lock.lock();
+        try {
+            String sql = "UPDATE game_outcomes SET outcomes = (?) WHERE outcoms_id = (?)";
+            PreparedStatement stat = con.prepareStatement(sql);
+            stat.setInt(1, outcome_id);
+            stat.setString(2, outcomes);
+            ResultSet rs = stat.executeQuery();
+            int update = stat.executeUpdate();
+            return update > 0;
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public synchronized boolean insertGameStatsIntoDatabase(int gameid, int userid, int chip_amount_changed) throws SQLException {
-        // initialise the outcome result
-        int outcomeid = insertGameOutcomeIntoDatabse("");
-        String sql = "INSERT INTO users_games(user_id,game_id,outcom_id,chip_amount_changed) VALUES(?,?,?,?)";
-        PreparedStatement stat = con.prepareStatement(sql);
-        stat.setInt(1, userid);
-        stat.setInt(2, gameid);
-        stat.setInt(3, outcomeid);
-        stat.setInt(4, chip_amount_changed);
-        int update = stat.executeUpdate();
-        return update > 0;
+    public boolean insertGameStatsIntoDatabase(int gameid, int userid, int chip_amount_changed) throws SQLException {
+        lock.lock();
+        try {
+            // initialise the outcome result
+            int outcomeid = insertGameOutcomeIntoDatabse("");
+            String sql = "INSERT INTO users_games(user_id,game_id,outcom_id,chip_amount_changed) VALUES(?,?,?,?)";
+            PreparedStatement stat = con.prepareStatement(sql);
+            stat.setInt(1, userid);
+            stat.setInt(2, gameid);
+            stat.setInt(3, outcomeid);
+            stat.setInt(4, chip_amount_changed);
+            int update = stat.executeUpdate();
+            return update > 0;
+        } finally {
+            lock.unlock();
+        }
     }
 
 
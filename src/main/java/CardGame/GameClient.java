@@ -1,6 +1,10 @@
 package CardGame;
 
+import CardGame.Codec.Codecs;
+import CardGame.Codec.Frames;
+import CardGame.Codec.WireCodec;
 import CardGame.GameEngine.Card;
+import CardGame.GameEngine.GameState;
 import CardGame.GameEngine.Hand;
 import CardGame.Pushes.*;
 import CardGame.Requests.*;
@@ -14,11 +18,20 @@ import java.net.ConnectException;
 import java.net.Socket;
 import java.net.UnknownHostException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static CardGame.Gui.Screens.*;
+import static CardGame.ProtocolTypes.*;
 
 /**
  * This client connects to the servers.
@@ -31,15 +44,36 @@ import static CardGame.Gui.Screens.*;
  */
 public class GameClient extends Observable {
 
+    // seconds between heartbeats when nothing else is sent, well inside the server's idle timeout
+    public static final int HEARTBEAT_SECONDS = 15;
+
+    // one timer sends the heartbeats of every client
+    private static final ScheduledExecutorService HEARTBEATS = Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+                Thread thread = new Thread(runnable, "heartbeats");
+                thread.setDaemon(true);
+                return thread;
+            });
+
     // connection variables
-    private final String HOST;
-    private final int PORT;
+    private String HOST;
+    private int PORT;
+
+    // the server the user logged in to, the only one the password is sent to again
+    private final String loginHost;
+    private final int loginPort;
     private Socket socket;
     private DataInputStream serverInputStream;
     private DataOutputStream serverOutputStream;
     private Gson gson;
+    private final String preferredCodec;
+    private final String preferredCompression;
+    private volatile WireCodec codec;
     private User loggedInUser;
 
+    // given at login, to resume the session after a reconnect
+    private String sessionToken;
+
     // Screen state variable
     private int currentScreen;
 
@@ -60,6 +94,7 @@ public class GameClient extends Observable {
     private ArrayList<String> playerAvatars;
     private boolean allPlayersFinished;
     private boolean allBetsPlaced;
+    private long gameStateVersion;
 
     // chat variables
     private int chatOffset;
@@ -75,20 +110,81 @@ public class GameClient extends Observable {
     private boolean isServerDown;
     private int reconnectAttempts;
 
+    // pushes
+    private final boolean subscribe;
+
+    // requests in flight, matched to their response by protocol id
+    private Thread readFromServerThread;
+    private volatile Map<Integer, CompletableFuture<byte[]>> pendingResponses;
+    private final ReentrantLock writeLock;
+    private final AtomicInteger protocolIds;
+    private final ThreadLocal<CompletableFuture<byte[]>> lastRequest;
+    private volatile long lastWriteAt;
+    private ScheduledFuture<?> heartbeat;
+
 
     public GameClient(String HOST, int PORT) {
+        this(HOST, PORT, false);
+    }
+
+    /**
+     * Constructor for a client which can subscribe to pushes. A subscribed client
+     * has its game names, game data and messages pushed by the server when they change
+     * instead of polling for them.
+     *
+     * @param HOST
+     * @param PORT
+     * @param subscribe true to subscribe to pushes.
+     */
+    public GameClient(String HOST, int PORT, boolean subscribe) {
+        this(HOST, PORT, subscribe, Codecs.JSON);
+    }
+
+    /**
+     * Constructor for a client which asks the server for a codec when it connects.
+     * If the server does not know the codec every message is sent as JSON.
+     *
+     * @param HOST
+     * @param PORT
+     * @param subscribe true to subscribe to pushes.
+     * @param codec     the name of the codec to use, json or binary.
+     */
+    public GameClient(String HOST, int PORT, boolean subscribe, String codec) {
+        this(HOST, PORT, subscribe, codec, Codecs.NO_COMPRESSION);
+    }
+
+    /**
+     * Constructor for a client which asks the server for a codec and compression
+     * when it connects. If the server does not know them every message is sent
+     * as uncompressed JSON.
+     *
+     * @param HOST
+     * @param PORT
+     * @param subscribe   true to subscribe to pushes.
+     * @param codec       the name of the codec to use, json or binary.
+     * @param compression the name of the compression to use, none or deflate.
+     */
+    public GameClient(String HOST, int PORT, boolean subscribe, String codec, String compression) {
         // connection variables
         this.HOST = HOST;
         this.PORT = PORT;
+        this.loginHost = HOST;
+        this.loginPort = PORT;
         this.gson = new Gson();
-
-        connectToServer();
+        this.subscribe = subscribe;
+        this.preferredCodec = codec;
+        this.preferredCompression = compression;
+        this.codec = Codecs.JSON_CODEC;
+        this.writeLock = new ReentrantLock();
+        this.protocolIds = new AtomicInteger(PUSH_PROTOCOL_ID);
+        this.lastRequest = new ThreadLocal<>();
 
         // set current screen to login
         setCurrentScreen(LOGINSCREEN);
 
         // instantiate game variables
         this.chatOffset = -1;
+        this.gameStateVersion = -1;
         this.listOfGames = new ConcurrentSkipListSet<>();
         dealerHand = new Hand();
         playerBets = new TreeMap<>();
@@ -106,6 +202,8 @@ public class GameClient extends Observable {
 
         // chat variables
         this.messages = new ConcurrentLinkedDeque<>();
+
+        connectToServer();
     }
 
     /**
@@ -119,6 +217,26 @@ public class GameClient extends Observable {
             connectDataStreams();
             this.isServerDown = false;
             this.reconnectAttempts = 0;
+
+            // every connection starts in JSON in the short framing
+            this.codec = Codecs.JSON_CODEC;
+            ResponseHello responseHello = requestHello();
+
+            // a server with no room answers with server full instead, and closes the connection
+            if (responseHello != null && responseHello.getType() == SERVER_FULL_TYPE) {
+                System.out.println("Server full: " + responseHello.getErrorMsg());
+                this.isServerDown = true;
+                this.socket.close();
+                return;
+            }
+
+            // from here on one thread reads everything the server sends
+            startReadingFromServer();
+            startHeartbeat();
+
+            if (subscribe) {
+                requestSubscribe();
+            }
         } catch (ConnectException e) {
             System.out.println("Cannot connect to server. Ensure server is up.");
         } catch (UnknownHostException e) {
@@ -172,46 +290,97 @@ public class GameClient extends Observable {
     // OVERALL REQUEST METHOD
 
     /**
-     * This method takes in the request and writes it to the server.
+     * This method takes in the request and writes it to the server. The
+     * response is got with getResponse on the same thread.
+     *
+     * @param request
+     * @param <T>
+     */
+    public <T extends RequestProtocol> void sendRequest(T request) {
+        lastRequest.set(writeRequest(request));
+    }
+
+    /**
+     * This method writes the request to the server and returns the response without
+     * waiting for it. Any number of requests can be in flight at once, each response
+     * is matched to its request by protocol id. The future fails if the server is down.
      *
      * @param request
+     * @param responseClass the expected response class.
      * @param <T>
+     * @return
+     */
+    public <T> CompletableFuture<T> sendRequestAsync(RequestProtocol request, Class<T> responseClass) {
+        return writeRequest(request).thenApplyAsync(frameInput -> {
+            T response = handleResponse(responseClass, frameInput);
+            System.out.println(response);
+
+            setChanged();
+            notifyObservers();
+            return response;
+        });
+    }
+
+    /**
+     * This method numbers the request, so no two requests in flight have the same
+     * protocol id, and writes it to the server. Only the write is done under a lock.
+     *
+     * @param request
+     * @return the frame of the response, once it has been read.
      */
-    public synchronized <T extends RequestProtocol> void sendRequest(T request) {
-        // convert to json string
-        String jsonOutput = gson.toJson(request);
+    private CompletableFuture<byte[]> writeRequest(RequestProtocol request) {
+        CompletableFuture<byte[]> responseFuture = new CompletableFuture<>();
 
+        writeLock.lock();
         try {
-            // write request to server
-            this.serverOutputStream.writeUTF(jsonOutput);
+            Map<Integer, CompletableFuture<byte[]>> pending = this.pendingResponses;
+            if (pending == null) {
+                throw new IOException("Not reading from server.");
+            }
+
+            request.setProtocolId(nextProtocolId());
+            byte[] frame = codec.encode(request);
+            pending.put(request.getProtocolId(), responseFuture);
+
+            // write request to server, in the codec negotiated
+            this.serverOutputStream.write(frame);
             this.serverOutputStream.flush();
-        } catch (NullPointerException e) {
-            System.out.println("Server down.");
-        } catch (IOException e) {
+            lastWriteAt = System.currentTimeMillis();
+        } catch (NullPointerException | IOException e) {
             System.out.println("Server down.");
+            responseFuture.completeExceptionally(e);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Request is too large for the framing.");
+            responseFuture.completeExceptionally(e);
+        } finally {
+            writeLock.unlock();
         }
+
+        return responseFuture;
+    }
+
+    /**
+     * @return the next protocol id, skipping the one pushes are sent with.
+     */
+    private int nextProtocolId() {
+        return protocolIds.updateAndGet(id -> id == Integer.MAX_VALUE ? PUSH_PROTOCOL_ID + 1 : id + 1);
     }
 
     // RESPONSE METHODS
 
     /**
-     * This method takes in the expected response class. It reads from the server and
-     * returns the response.
+     * This method takes in the expected response class. It waits for the response
+     * to the last request sent by this thread and returns it.
      *
      * @param responseClass
      * @param <T>
      * @return
      */
-    public synchronized <T> T getResponse(Class<T> responseClass) {
-        String jsonInput = null;
+    public <T> T getResponse(Class<T> responseClass) {
+        byte[] frameInput = null;
         try {
-            // read response from server
-            jsonInput = this.serverInputStream.readUTF();
-
-            // print out response
-            System.out.println(jsonInput);
-        } catch (NullPointerException e) {
-            System.out.println("Null pointer exception when trying to get a response.");
+            // wait for the thread reading from the server
+            frameInput = waitForResponse(lastRequest.get());
         } catch (IOException e) {
             System.out.println("Server down. Please try restarting client");
         }
@@ -219,22 +388,254 @@ public class GameClient extends Observable {
         setChanged();
         notifyObservers();
 
-        // return the correct response
-        return handleResponse(responseClass, jsonInput);
+        // return the correct response and print it out
+        T response = handleResponse(responseClass, frameInput);
+        System.out.println(response);
+        return response;
+    }
+
+    /**
+     * This method waits until the thread reading from the server has read
+     * the response. It waits on the client, so a request method which holds the
+     * client lock lets other requests and pushes in while it waits.
+     *
+     * @param responseFuture
+     * @return
+     * @throws IOException if the server is down.
+     */
+    private synchronized byte[] waitForResponse(CompletableFuture<byte[]> responseFuture) throws IOException {
+        if (responseFuture == null) {
+            throw new IOException("No request sent.");
+        }
+
+        while (!responseFuture.isDone()) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for a response.");
+            }
+        }
+
+        try {
+            return responseFuture.join();
+        } catch (CompletionException e) {
+            throw new IOException("Server down.", e.getCause());
+        }
+    }
+
+    /**
+     * This method sends a HEARTBEAT whenever nothing else has been sent for a while,
+     * so the server does not close the connection of a client which is only
+     * waiting for pushes.
+     */
+    private synchronized void startHeartbeat() {
+        if (heartbeat != null) {
+            heartbeat.cancel(false);
+        }
+        lastWriteAt = System.currentTimeMillis();
+
+        long period = TimeUnit.SECONDS.toMillis(HEARTBEAT_SECONDS);
+        heartbeat = HEARTBEATS.scheduleAtFixedRate(() -> {
+            if (pendingResponses != null && System.currentTimeMillis() - lastWriteAt >= period / 2) {
+                writeRequest(new RequestHeartbeat());
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * This method starts a thread which reads everything the server sends. Pushes
+     * update the client data, responses complete the request waiting for them.
+     */
+    private void startReadingFromServer() {
+        final DataInputStream inputStream = this.serverInputStream;
+        final Map<Integer, CompletableFuture<byte[]>> pending = new ConcurrentHashMap<>();
+        this.pendingResponses = pending;
+
+        Runnable readJob = () -> {
+            try {
+                while (true) {
+                    byte[] frameInput = codec.getFrames().readFrame(inputStream);
+                    ResponseProtocol response = codec.decode(frameInput, ResponseProtocol.class);
+
+                    if (response.getType() == SLOW_DOWN_TYPE) {
+                        System.out.println("Too many requests, server asked to slow down: " + response);
+                    }
+
+                    if (response.getProtocolId() == PUSH_PROTOCOL_ID) {
+                        synchronized (this) {
+                            System.out.println(response);
+                            handlePush(response, frameInput);
+                            setChanged();
+                            notifyObservers();
+                        }
+                        continue;
+                    }
+
+                    CompletableFuture<byte[]> responseFuture = pending.remove(response.getProtocolId());
+                    if (responseFuture == null) {
+                        System.out.println("Response to no request: " + response);
+                        continue;
+                    }
+                    responseFuture.complete(frameInput);
+
+                    // wake up requests waiting for a response
+                    synchronized (this) {
+                        notifyAll();
+                    }
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                System.out.println("Server down. Stopped reading from server.");
+            } finally {
+                // no more requests can be sent on this connection
+                writeLock.lock();
+                try {
+                    if (pendingResponses == pending) {
+                        pendingResponses = null;
+                    }
+                } finally {
+                    writeLock.unlock();
+                }
+
+                // fail requests waiting for a response
+                IOException serverDown = new IOException("Stopped reading from server.");
+                for (CompletableFuture<byte[]> responseFuture : pending.values()) {
+                    responseFuture.completeExceptionally(serverDown);
+                }
+                pending.clear();
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        };
+
+        readFromServerThread = new Thread(readJob);
+        readFromServerThread.setDaemon(true);
+        readFromServerThread.start();
+    }
+
+    /**
+     * This method updates the client data with a push from the server.
+     *
+     * @param push       the push, read as a ResponseProtocol.
+     * @param frameInput the frame the push was read from.
+     */
+    private void handlePush(ResponseProtocol push, byte[] frameInput) {
+        switch (push.getType()) {
+            case PUSH_GAME_STATE:
+                PushGameState pushGameState = decodePush(push, frameInput, PushGameState.class);
+                if (!pushGameState.isUnchanged()) {
+                    setGameState(pushGameState.getGameState());
+                }
+                break;
+            case PUSH_REDIRECT:
+                // the game moved to another server, so follow it there off the reading thread
+                PushRedirect pushRedirect = decodePush(push, frameInput, PushRedirect.class);
+                new Thread(() -> moveToServer(pushRedirect.getHost(), pushRedirect.getPort(),
+                        pushRedirect.getGameName())).start();
+                break;
+            case PUSH_GAME_NAMES:
+                listOfGames.clear();
+                listOfGames.addAll(decodePush(push, frameInput, PushGameNames.class).getGameNames());
+                break;
+            case PUSH_ARE_PLAYERS_FINISHED:
+                this.allPlayersFinished = decodePush(push, frameInput, PushAreAllPlayersFinished.class).isAllPlayersFinished();
+                break;
+            case PUSH_ARE_ALL_BETS_PLACED:
+                this.allBetsPlaced = decodePush(push, frameInput, PushAreAllBetsPlaced.class).isAllBetsPlaced();
+                break;
+            case PUSH_DEALER_HAND:
+                this.dealerHand = decodePush(push, frameInput, PushDealerHand.class).getDealerHand();
+                break;
+            case PUSH_PLAYER_BETS:
+                this.playerBets = decodePush(push, frameInput, PushPlayerBets.class).getPlayerBets();
+                break;
+            case PUSH_PLAYER_BUDGETS:
+                this.playerBudgets = decodePush(push, frameInput, PushPlayerBudgets.class).getPlayerBudgets();
+                break;
+            case PUSH_PLAYER_HANDS:
+                this.playerHands = decodePush(push, frameInput, PushPlayerHands.class).getPlayerHands();
+                break;
+            case PUSH_PLAYER_NAMES:
+                this.playerNames = decodePush(push, frameInput, PushPlayerNames.class).getPlayerNames();
+                break;
+            case PUSH_PLAYERS_BUST:
+                this.playersBust = decodePush(push, frameInput, PushPlayersBust.class).getPlayersBust();
+                break;
+            case PUSH_PLAYERS_STAND:
+                this.playersStand = decodePush(push, frameInput, PushPlayersStand.class).getPlayersStand();
+                break;
+            case PUSH_PLAYERS_WON:
+                this.playersWon = decodePush(push, frameInput, PushPlayersWon.class).getPlayersWon();
+                break;
+            case GET_MESSAGE:
+                addPushedMessages(decodePush(push, frameInput, ResponseGetMessages.class));
+                break;
+            default:
+                System.out.println("Unknown push from server.");
+        }
+    }
+
+    /**
+     * This method returns the push as the class given. The binary codec already
+     * read it as its own class, so it is only read again for JSON.
+     *
+     * @param push
+     * @param frameInput
+     * @param pushClass
+     * @param <T>
+     * @return
+     */
+    private <T> T decodePush(ResponseProtocol push, byte[] frameInput, Class<T> pushClass) {
+        if (pushClass.isInstance(push)) {
+            return pushClass.cast(push);
+        }
+        return codec.decode(frameInput, pushClass);
+    }
+
+    /**
+     * This method adds the pushed messages the client does not have yet. The
+     * push offset is the size of the message queue, as for a GET_MESSAGE response.
+     *
+     * @param responseGetMessages
+     */
+    private void addPushedMessages(ResponseGetMessages responseGetMessages) {
+        ArrayList<MessageObject> pushedMessages = responseGetMessages.getMessages();
+        int responseOffset = responseGetMessages.getOffset();
+        int firstIndex = responseOffset - pushedMessages.size();
+        int messagesHeld = getChatOffset() + 1;
+
+        if (responseOffset <= messagesHeld) {
+            return;
+        }
+
+        // skip any messages already got with a GET_MESSAGE request
+        int skip = Math.max(0, messagesHeld - firstIndex);
+        addMessages(new ArrayList<>(pushedMessages.subList(skip, pushedMessages.size())));
+        setChatOffset(responseOffset - 1);
     }
 
     /**
-     * This method takes in the expected response class and the jsonInput read from the server.
-     * It then returns the expected response.
+     * This method takes in the expected response class and the frame read from the server.
+     * It then returns the expected response, or null if nothing was read.
      *
      * @param responseClass
-     * @param jsonInput
+     * @param frameInput
      * @param <T>
      * @return
      */
-    private <T> T handleResponse(Class<T> responseClass, String jsonInput) {
+    private <T> T handleResponse(Class<T> responseClass, byte[] frameInput) {
+        if (frameInput == null) {
+            return null;
+        }
+
         // return the correct response
-        return responseClass.cast(gson.fromJson(jsonInput, responseClass));
+        try {
+            return codec.decode(frameInput, responseClass);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Malformed response from server.");
+            return null;
+        }
     }
 
     /**
@@ -249,6 +650,61 @@ public class GameClient extends Observable {
 
     // SPECIFIC REQUEST METHODS
 
+    /**
+     * This method asks the server for the preferred codec and compression, and the long framing.
+     * The request and response are always JSON in the short framing, and the
+     * codec, framing and compression the server chose are used for everything after them.
+     * A server which does not know HELLO keeps JSON in the short framing.
+     *
+     * @return
+     */
+    private synchronized ResponseHello requestHello() {
+        // create request and send request, before the thread reading from the server starts
+        RequestHello requestHello = new RequestHello(new String[]{preferredCodec, Codecs.JSON},
+                new String[]{Frames.LONG_NAME, Frames.SHORT_NAME},
+                new String[]{preferredCompression, Codecs.NO_COMPRESSION});
+
+        // read the response before anything else, as it is the last JSON frame
+        ResponseHello responseHello = null;
+        try {
+            this.serverOutputStream.write(Codecs.JSON_CODEC.encode(requestHello));
+            this.serverOutputStream.flush();
+            responseHello = Codecs.JSON_CODEC.decode(Frames.SHORT.readFrame(this.serverInputStream),
+                    ResponseHello.class);
+        } catch (NullPointerException e) {
+            System.out.println("Null pointer exception when trying to get a response.");
+        } catch (IOException e) {
+            System.out.println("Server down. Please try restarting client");
+        } catch (IllegalArgumentException e) {
+            System.out.println("Malformed response to HELLO.");
+        }
+
+        if (responseHello != null && responseHello.getRequestSuccess() == 1 && responseHello.getCodec() != null) {
+            WireCodec chosenCodec = Codecs.get(responseHello.getCodec(), responseHello.getFraming(),
+                    responseHello.getCompression());
+            if (chosenCodec != null) {
+                this.codec = chosenCodec;
+            }
+        }
+        System.out.println("Using codec: " + codec.getName() + ", framing: " + codec.getFrames().getName()
+                + ", compression: " + Codecs.getCompression(codec));
+        return responseHello;
+    }
+
+    /**
+     * This method subscribes to pushes.
+     *
+     * @return
+     */
+    public synchronized ResponseSubscribe requestSubscribe() {
+        // create request and send request
+        RequestSubscribe requestSubscribe = new RequestSubscribe(true);
+        sendRequest(requestSubscribe);
+
+        // get response from server and return it
+        return getResponse(ResponseSubscribe.class);
+    }
+
     /**
      * method that sends login request to server and updates loggedin and user
      * fields.
@@ -279,6 +735,7 @@ public class GameClient extends Observable {
         // log user in if successful
         if (success == 1) {
             setLoggedInUser(responseLoginUser.getUser());
+            sessionToken = responseLoginUser.getSessionToken();
             setCurrentScreen(HOMESCREEN);
             startGettingGameNames();
         }
@@ -314,6 +771,7 @@ public class GameClient extends Observable {
         // log user in if successful
         if (success == 1) {
             setLoggedInUser(responseLoginUser.getUser());
+            sessionToken = responseLoginUser.getSessionToken();
             setCurrentScreen(HOMESCREEN);
             startGettingGameNames();
         }
@@ -323,6 +781,42 @@ public class GameClient extends Observable {
     }
 
 
+    /**
+     * This method sends a request to resume the session after the server disconnects,
+     * with the token given at login, so the password is not checked again. The
+     * client asks to be seated in the game it was in.
+     *
+     * @return the response, or null if the server could not be reached.
+     */
+    public synchronized ResponseResumeSession requestResumeSession() {
+        sendRequest(new RequestResumeSession(sessionToken, getGameJoined()));
+
+        ResponseResumeSession responseResumeSession;
+        try {
+            responseResumeSession = getResponse(ResponseResumeSession.class);
+            if (responseResumeSession.getRequestSuccess() != 1) {
+                return responseResumeSession;
+            }
+        } catch (NullPointerException e) {
+            System.out.println("Cannot resume session.");
+            return null;
+        }
+
+        sessionToken = responseResumeSession.getSessionToken();
+        String gameRejoined = responseResumeSession.getGameJoined();
+        if (gameRejoined != null) {
+            setCurrentScreen(GAMESCREEN);
+            startGettingMessages();
+            startGettingGameData();
+        } else {
+            setCurrentScreen(HOMESCREEN);
+            startGettingGameNames();
+        }
+        setGameJoined(gameRejoined);
+
+        return responseResumeSession;
+    }
+
     /**
      * This method send a request and returns a response for register user.
      *
@@ -399,6 +893,27 @@ public class GameClient extends Observable {
         return getResponse(ResponseSendMessage.class);
     }
 
+    /**
+     * This method sends a message without waiting for the response.
+     *
+     * @param message
+     * @return the response, once it has been read.
+     */
+    public CompletableFuture<ResponseSendMessage> requestSendMessageAsync(String message) {
+        RequestSendMessage requestSendMessage = new RequestSendMessage(getLoggedInUser().getUserName(), message);
+        return sendRequestAsync(requestSendMessage, ResponseSendMessage.class);
+    }
+
+    /**
+     * This method requests the messages after the offset without waiting for the response.
+     *
+     * @param offset
+     * @return the response, once it has been read.
+     */
+    public CompletableFuture<ResponseGetMessages> requestGetMessagesAsync(int offset) {
+        return sendRequestAsync(new RequestGetMessages(offset), ResponseGetMessages.class);
+    }
+
     /**
      * send message request
      *
@@ -463,11 +978,113 @@ public class GameClient extends Observable {
             startGettingMessages();
             startGettingGameData();
             setGameJoined(gameToJoin);
+        } else if (responseJoinGame.getRedirectHost() != null) {
+            return followRedirect(responseJoinGame, gameToJoin);
+        }
+
+        return responseJoinGame;
+    }
+
+    /**
+     * This method moves to the server the game is on, when the server says the
+     * game is on another server in the cluster.
+     *
+     * @param redirect   the response saying which server the game is on.
+     * @param gameToJoin
+     * @return the response to joining the game on the other server.
+     */
+    private ResponseJoinGame followRedirect(ResponseJoinGame redirect, String gameToJoin) {
+        System.out.println("Game " + gameToJoin + " is on " + redirect.getRedirectHost() + ":"
+                + redirect.getRedirectPort() + ", connecting to it.");
+        ResponseJoinGame responseJoinGame = moveToServer(redirect.getRedirectHost(), redirect.getRedirectPort(),
+                gameToJoin);
+        return responseJoinGame == null ? redirect : responseJoinGame;
+    }
+
+    /**
+     * This method connects to another server in the cluster and resumes the session
+     * there in the game, which keeps the seat if the game moved there with it. If the
+     * session cannot be resumed the password is not sent there, as the server was only
+     * named by a redirect, so it goes back to the server the user logged in to and logs
+     * in again there.
+     *
+     * @param host
+     * @param port
+     * @param gameToJoin
+     * @return the response to joining the game, or null if the game could not be joined there.
+     */
+    private synchronized ResponseJoinGame moveToServer(String host, int port, String gameToJoin) {
+        stopGettingGameNames();
+        stopGettingGameData();
+        stopGettingMessages();
+        try {
+            socket.close();
+        } catch (IOException e) {
+            System.out.println("IO exception when closing connection to server.");
+        }
+        this.HOST = host;
+        this.PORT = port;
+        connectToServer();
+        if (isServerDown()) {
+            return null;
+        }
+
+        setGameJoined(gameToJoin);
+        ResponseResumeSession resumed = sessionToken == null ? null : requestResumeSession();
+        if (resumed != null && resumed.getRequestSuccess() == 1 && gameToJoin.equals(resumed.getGameJoined())) {
+            return new ResponseJoinGame(resumed.getProtocolId(), 1);
         }
 
+        setGameJoined(null);
+        if (resumed == null || resumed.getRequestSuccess() != 1) {
+            // the servers do not share a token key, or the token was refused
+            if (returnToLoginServer()) {
+                requestReLogin(loggedInUser.getUserName(), loggedInUser.getPassword());
+            }
+            return null;
+        }
+        RequestJoinGame requestJoinGame = new RequestJoinGame(gameToJoin, getLoggedInUser().getUserName());
+        sendRequest(requestJoinGame);
+        ResponseJoinGame responseJoinGame = getResponse(ResponseJoinGame.class);
+        if (responseJoinGame.getRequestSuccess() == 1) {
+            setCurrentScreen(GAMESCREEN);
+            stopGettingGameNames();
+            startGettingMessages();
+            startGettingGameData();
+            setGameJoined(gameToJoin);
+        }
         return responseJoinGame;
     }
 
+    /**
+     * This method connects back to the server the user logged in to, if a redirect
+     * moved the client to another server, since the password is only sent there.
+     *
+     * @return true if connected to the server the user logged in to.
+     */
+    private boolean returnToLoginServer() {
+        if (HOST.equals(loginHost) && PORT == loginPort) {
+            return !isServerDown();
+        }
+
+        System.out.println("Cannot resume the session on " + HOST + ":" + PORT + ", logging in again on "
+                + loginHost + ":" + loginPort + ".");
+        stopGettingGameNames();
+        stopGettingGameData();
+        stopGettingMessages();
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            System.out.println("IO exception when closing connection to server.");
+        }
+        this.HOST = loginHost;
+        this.PORT = loginPort;
+        connectToServer();
+        return !isServerDown();
+    }
+
     /**
      * send quit game request
      *
@@ -491,6 +1108,7 @@ public class GameClient extends Observable {
             startGettingGameNames();
             messages.clear();
             setChatOffset(-1);
+            this.gameStateVersion = -1;
 
         }
 
@@ -668,6 +1286,100 @@ public class GameClient extends Observable {
         return pushAreAllBetsPlaced;
     }
 
+    public synchronized PushGameState requestGetGameState() {
+        // create request with the version we have and send request
+        RequestGetGameState requestGetGameState = new RequestGetGameState(gameStateVersion);
+        sendRequest(requestGetGameState);
+
+        // get response from server and return it
+        PushGameState pushGameState = getResponse(PushGameState.class);
+        if (pushGameState.getRequestSuccess() == 1 && !pushGameState.isUnchanged()) {
+            setGameState(pushGameState.getGameState());
+        }
+
+        return pushGameState;
+    }
+
+    /**
+     * This method requests what changed in the game without waiting for the response.
+     * The game data is updated once the response has been read.
+     *
+     * @return the response, once it has been read.
+     */
+    public CompletableFuture<PushGameState> requestGetGameStateAsync() {
+        RequestGetGameState requestGetGameState = new RequestGetGameState(gameStateVersion);
+
+        return sendRequestAsync(requestGetGameState, PushGameState.class).thenApply(pushGameState -> {
+            if (pushGameState != null && pushGameState.getRequestSuccess() == 1 && !pushGameState.isUnchanged()) {
+                setGameState(pushGameState.getGameState());
+            }
+            return pushGameState;
+        });
+    }
+
+    /**
+     * This method updates the game data from a snapshot of the game. A full
+     * snapshot replaces the game data, otherwise the seats and fields which
+     * changed are updated. Snapshots older than the game data are ignored.
+     *
+     * @param gameState
+     */
+    private synchronized void setGameState(GameState gameState) {
+        if (gameState.getVersion() < gameStateVersion
+                || (!gameState.isFull() && gameState.getVersion() == gameStateVersion)) {
+            return;
+        }
+
+        // player names first, the seats of players who left are removed
+        if (gameState.getPlayerNames() != null) {
+            this.playerNames = gameState.getPlayerNames();
+        }
+
+        if (gameState.isFull()) {
+            this.playerBets = gameState.getPlayerBets();
+            this.playerBudgets = gameState.getPlayerBudgets();
+            this.playerHands = gameState.getPlayerHands();
+            this.playersBust = gameState.getPlayersBust();
+            this.playersStand = gameState.getPlayersStand();
+            this.playersWon = gameState.getPlayersWon();
+        } else {
+            this.playerBets = updateSeats(playerBets, gameState.getPlayerBets());
+            this.playerBudgets = updateSeats(playerBudgets, gameState.getPlayerBudgets());
+            this.playerHands = updateSeats(playerHands, gameState.getPlayerHands());
+            this.playersBust = updateSeats(playersBust, gameState.getPlayersBust());
+            this.playersStand = updateSeats(playersStand, gameState.getPlayersStand());
+            this.playersWon = updateSeats(playersWon, gameState.getPlayersWon());
+        }
+
+        if (gameState.getDealerHand() != null) {
+            this.dealerHand = gameState.getDealerHand();
+        }
+        if (gameState.getAllPlayersFinished() != null) {
+            this.allPlayersFinished = gameState.getAllPlayersFinished();
+        }
+        if (gameState.getAllBetsPlaced() != null) {
+            this.allBetsPlaced = gameState.getAllBetsPlaced();
+        }
+
+        this.gameStateVersion = gameState.getVersion();
+    }
+
+    /**
+     * This method returns a copy of the seats with the changed seats updated
+     * and the seats of players who left removed.
+     *
+     * @param seats
+     * @param changedSeats
+     * @param <T>
+     * @return
+     */
+    private <T> Map<String, T> updateSeats(Map<String, T> seats, Map<String, T> changedSeats) {
+        Map<String, T> updatedSeats = new TreeMap<>(seats);
+        updatedSeats.putAll(changedSeats);
+        updatedSeats.keySet().retainAll(playerNames);
+        return updatedSeats;
+    }
+
     /**
      * getter for current screen
      *
@@ -708,6 +1420,18 @@ public class GameClient extends Observable {
      */
     public void startGettingGameNames() {
 
+        // game names are pushed once subscribed, so we only get them once
+        if (subscribe) {
+            try {
+                Set<String> responseGamesNames = requestGetGameNames().getGameNames();
+                getListOfGames().clear();
+                getListOfGames().addAll(responseGamesNames);
+            } catch (NullPointerException e) {
+                System.out.println("Can't get game names. Server down.");
+            }
+            return;
+        }
+
         // set flag to true
         isGettingGames = true;
 
@@ -767,10 +1491,14 @@ public class GameClient extends Observable {
             notifyObservers();
         }
 
-        // send login request if connected to server
+        // resume the session if connected to server, or else log in again
         if (!isServerDown()) {
-            requestReLogin(loggedInUser.getUserName(), loggedInUser.getPassword());
-            startGettingGameNames();
+            ResponseResumeSession resumed = sessionToken == null ? null : requestResumeSession();
+            if ((resumed == null || resumed.getRequestSuccess() != 1) && returnToLoginServer()) {
+                setGameJoined(null);
+                requestReLogin(loggedInUser.getUserName(), loggedInUser.getPassword());
+                startGettingGameNames();
+            }
         }
     }
 
@@ -785,6 +1513,16 @@ public class GameClient extends Observable {
      */
     public void startGettingMessages() {
 
+        // messages are pushed once subscribed, so we only get them once
+        if (subscribe) {
+            try {
+                getMessagesAndAddToQueue();
+            } catch (NullPointerException e) {
+                System.out.println("Can't get messages. Server down.");
+            }
+            return;
+        }
+
         this.isGettingMessages = true;
 
         // create the job
@@ -849,42 +1587,14 @@ public class GameClient extends Observable {
     }
 
     /**
-     * This method sends requests for the game data
+     * This method sends a request for a snapshot of the game data
      */
     public void getGameData() {
 
         isGameDataUpdated = false;
 
-        // All players finished
-        requestGetAreAllPlayersFinished();
-
-        // bets placed
-        requestGetAreAllBetsPlaced();
-
-        // Dealer hand
-        requestGetDealerHand();
-
-        // player bets
-        requestGetPlayerBets();
-
-        // player budgets
-        requestGetPlayerBudgets();
-
-        // player hands
-        requestGetPlayerHands();
-
-        // player names
-        requestGetPlayerNames();
-
-        // players bust
-        requestGetPlayersBust();
-
-        // players stand
-        requestGetPlayersStand();
-
-        // players won
-        requestGetPlayersWon();
-
+        // all the game data in one response
+        requestGetGameState();
 
         isGameDataUpdated = true;
 
@@ -896,6 +1606,16 @@ public class GameClient extends Observable {
      */
     public void startGettingGameData() {
 
+        // game data is pushed once subscribed, so we only get it once
+        if (subscribe) {
+            try {
+                getGameData();
+            } catch (NullPointerException e) {
+                System.out.println("Can't get game data. Server down.");
+            }
+            return;
+        }
+
         this.isGettingGameData = true;
 
         // create the job
@@ -1026,6 +1746,7 @@ public class GameClient extends Observable {
 
     public synchronized void resetGameDataWhenQuitting() {
         this.chatOffset = -1;
+        this.gameStateVersion = -1;
         this.dealerHand = new Hand();
         this.playerBets = new TreeMap<>();
         this.playerBudgets = new TreeMap<>();
@@ -10,6 +10,13 @@ package CardGame.GameEngine;
  */
 public class BlackjackHand extends Hand {
 
+    public BlackjackHand() {
+    }
+
+    public BlackjackHand(BlackjackHand other) {
+        super(other);
+    }
+
     public int getBlackjackValue() {
         // Returns the value of this hand for the
         // game of Blackjack.
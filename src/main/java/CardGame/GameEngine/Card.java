@@ -36,6 +36,13 @@ public class Card {
         this.isFaceUp = true;
     }
 
+    public Card(Card card) {
+        // Construct a copy of a card, face up or down as it is.
+        this.value = card.value;
+        this.suit = card.suit;
+        this.isFaceUp = card.isFaceUp;
+    }
+
     public boolean validateValue(int value){
         return value >= 1 && value <= 13;
     }
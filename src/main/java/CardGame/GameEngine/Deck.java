@@ -17,15 +17,30 @@ public class Deck {
     private int testSeed = 1;
 
     public Deck() {
+        deckOfCards = newCards();
+        cardsUsed = 0;
+    }
+
+    public Deck(Deck deck) {
+        // Copy a deck, with copies of its cards, in the same order and with the same cards dealt.
         deckOfCards = new ArrayList<Card>();
+        for (Card card : deck.deckOfCards) {
+            deckOfCards.add(new Card(card));
+        }
+        cardsUsed = deck.cardsUsed;
+        testSeed = deck.testSeed;
+    }
+
+    private static ArrayList<Card> newCards() {
+        ArrayList<Card> cards = new ArrayList<Card>();
 
         for (int suit = 0; suit <= 3; suit++) {
             for (int value = 1; value <= 13; value++) {
-                deckOfCards.add(new Card(value, suit));
+                cards.add(new Card(value, suit));
             }
 
         }
-        cardsUsed = 0;
+        return cards;
     }
 
 
@@ -41,7 +56,17 @@ public class Deck {
      * Randomises the cards
      */
     public void shuffle() {
-        long seed = System.nanoTime();
+        shuffle(System.nanoTime());
+    }
+
+    /**
+     * Randomises a new set of cards with the seed, so the same seed always
+     * gives the same order whatever was dealt before.
+     *
+     * @param seed
+     */
+    public void shuffle(long seed) {
+        deckOfCards = newCards();
         Collections.shuffle(deckOfCards, new Random(seed));
         cardsUsed = 0;
     }
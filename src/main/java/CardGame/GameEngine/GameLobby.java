@@ -4,15 +4,32 @@ import CardGame.MessageObject;
 import CardGame.User;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
 
 /**
  * Created by tom on 09/03/17.
+ *
+ * A lobby is run by its command queue, one command at a time on the shard it is pinned to.
  */
 public class GameLobby {
+    // the most recent chat messages kept with the lobby in the log and its snapshots
+    private static final int LOGGED_MESSAGES = 100;
+
+    // held by a command while it runs, so all it changes is one version and one notification;
+    // only players joining and leaving take it from outside the queue
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Executor commands;
     private String lobbyName;
     private ArrayList<Player> players;
     private Deck deck;
@@ -33,6 +50,30 @@ public class GameLobby {
     // chat variables
     private volatile ConcurrentLinkedDeque<MessageObject> messageQueue;
 
+    // change notifications
+    private final CopyOnWriteArrayList<GameLobbyListener> listeners;
+    private boolean gameChanged;
+    private boolean messagesChanged;
+
+    // state versions
+    private volatile long version;
+    private Map<String, SeatState> seats;
+    private TableState table;
+
+    // set while the lobby is being moved to another server, which carries on from its copy;
+    // the server passes no commands to a frozen lobby, and thaws it if the move fails
+    private volatile boolean frozen;
+
+    // set under the lock once the lobby is removed from the server, so no player can join it after
+    private boolean closed;
+
+    // the log the lobby is appended to each time its version goes up, or null if changes are not logged
+    private LobbyEventLog eventLog;
+
+    // where the seed of every shuffle comes from, and where actions are recorded, or null
+    private LongSupplier shuffleSeeds = System::nanoTime;
+    private LobbyRecorder recorder;
+
 
     /**
      * creates gamelobby with lobbyname set  : user1's lobby
@@ -40,7 +81,18 @@ public class GameLobby {
      * @param user user1's name
      */
     public GameLobby(User user) {
+        this(user, LobbyShards.getDefault());
+    }
+
+    /**
+     * creates gamelobby with lobbyname set  : user1's lobby
+     *
+     * @param user   user1's name
+     * @param shards the shards, one of which runs the commands of the lobby.
+     */
+    public GameLobby(User user, LobbyShards shards) {
         this.lobbyName = user.getUserName();
+        this.commands = shards.forLobby(lobbyName);
         this.players = new ArrayList<>();
 
         this.players.add(new Player(user));
@@ -66,9 +118,55 @@ public class GameLobby {
         // chat variables
         this.messageQueue = new ConcurrentLinkedDeque<>();
 
+        // change notifications
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.gameChanged = false;
+
+        // state versions
+        this.version = 0;
+        this.seats = new HashMap<>();
+        commitVersion();
 
     }
 
+    /**
+     * creates a gamelobby moved from another server, carrying on where it was
+     *
+     * @param state  the lobby as it was copied on the other server.
+     * @param shards the shards, one of which runs the commands of the lobby.
+     */
+    public GameLobby(LobbyState state, LobbyShards shards) {
+        this.lobbyName = state.getLobbyName();
+        this.commands = shards.forLobby(lobbyName);
+        this.players = new ArrayList<>(state.getPlayers());
+        this.deck = state.getDeck();
+
+        // boolean flags
+        this.allPlayersStand = state.isAllPlayersStand();
+        this.allPlayersBetPlaced = state.isAllPlayersBetPlaced();
+        this.dealerCardLeft = state.isDealerCardLeft();
+        this.allPlayersFinished = state.isAllPlayersFinished();
+
+        // variables that will be sent to client
+        this.playerBudgets = new HashMap<>(state.getPlayerBudgets());
+        this.playersBust = new HashMap<>(state.getPlayersBust());
+        this.playersWon = new HashMap<>(state.getPlayersWon());
+        this.playersStand = new HashMap<>(state.getPlayersStand());
+        this.dealerHand = state.getDealerHand();
+
+        // chat variables
+        this.messageQueue = new ConcurrentLinkedDeque<>(state.getMessages());
+
+        // change notifications
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.gameChanged = false;
+
+        // state versions carry on from the other server, so clients only get what changed
+        this.version = state.getVersion();
+        this.seats = new HashMap<>();
+        commitVersion();
+    }
+
     private void setAllPlayersStandToFalse() {
         for (Player p : players) {
             getPlayersStand().put(p.getUsername(), false);
@@ -90,9 +188,13 @@ public class GameLobby {
     /**
      * @return true if bust, false if not
      */
-    public synchronized boolean isDealerBust() {
-        return dealerHand.getBlackjackValue() > 21;
-
+    public boolean isDealerBust() {
+        lock.lock();
+        try {
+            return dealerHand.getBlackjackValue() > 21;
+        } finally {
+            unlock();
+        }
     }
 
 
@@ -102,61 +204,66 @@ public class GameLobby {
      * @param player
      * @return
      */
-    public synchronized boolean wonAgainstDealer(Player player) {
-        int playerValue = player.getPlayerHand().getBlackjackValue();
-
-
-        if (playerValue > 21) {
-            // lost - set bet to zero
-            playersBust.put(player.getUsername(), true);
-            playersStand.put(player.getUsername(), true);
-            setBetToZero(player);
-            return false;
-        }
-
-        // check if all players have finished or stand
-        setAllPlayersStand();
-
-        if (allPlayersStand) {
-
-            // deal cards to dealer while hand value is less than 17
-            setDealerHandFaceUp();
-
-
-            while (getDealerHand().getBlackjackValue() < 17) {
-                dealToDealer();
-            }
+    public boolean wonAgainstDealer(Player player) {
+        lock.lock();
+        try {
+            int playerValue = player.getPlayerHand().getBlackjackValue();
 
 
-            if (dealerHand.getBlackjackValue() == 21) {
-                // lost - set bet to zero
-                setBetToZero(player);
-                return false;
-            } else if (isPlayerBust(player)) {
-                // lost - set bet to zero
-                setBetToZero(player);
-                return false;
-            } else if (dealerHand.getBlackjackValue() < 21 && playerValue == 21) {
-                // won - add bet to budget
-                addBetToBudget(player);
-                return true;
-            } else if (isDealerBust() && !isPlayerBust(player)) {
-                // won - add bet to budget
-                addBetToBudget(player);
-                return true;
-            } else if (!isDealerBust() && playerValue > dealerHand.getBlackjackValue()) {
-                // won - add bet to budget
-                addBetToBudget(player);
-                return true;
-            } else {
+            if (playerValue > 21) {
                 // lost - set bet to zero
+                playersBust.put(player.getUsername(), true);
+                playersStand.put(player.getUsername(), true);
                 setBetToZero(player);
                 return false;
             }
 
-        }
+            // check if all players have finished or stand
+            setAllPlayersStand();
+
+            if (allPlayersStand) {
+
+                // deal cards to dealer while hand value is less than 17
+                setDealerHandFaceUp();
+
+
+                while (getDealerHand().getBlackjackValue() < 17) {
+                    dealToDealer();
+                }
+
+
+                if (dealerHand.getBlackjackValue() == 21) {
+                    // lost - set bet to zero
+                    setBetToZero(player);
+                    return false;
+                } else if (isPlayerBust(player)) {
+                    // lost - set bet to zero
+                    setBetToZero(player);
+                    return false;
+                } else if (dealerHand.getBlackjackValue() < 21 && playerValue == 21) {
+                    // won - add bet to budget
+                    addBetToBudget(player);
+                    return true;
+                } else if (isDealerBust() && !isPlayerBust(player)) {
+                    // won - add bet to budget
+                    addBetToBudget(player);
+                    return true;
+                } else if (!isDealerBust() && playerValue > dealerHand.getBlackjackValue()) {
+                    // won - add bet to budget
+                    addBetToBudget(player);
+                    return true;
+                } else {
+                    // lost - set bet to zero
+                    setBetToZero(player);
+                    return false;
+                }
+
+            }
 
-        return false;
+            return false;
+        } finally {
+            unlock();
+        }
     }
 
     private boolean isPlayerBust(Player player) {
@@ -179,108 +286,199 @@ public class GameLobby {
      * add card to dealerHand if value < 17 (check this!)
      * stand if > 17
      */
-    public synchronized void dealToDealer() {
-        // set the dealer's card faced up
-        dealerHand.getHand().get(0).setFaceUp(true);
-        dealerHand.getHand().get(1).setFaceUp(true);
-
-        if (dealerHand.getBlackjackValue() < 17) {
-            Card newCard = deck.dealCard();
-            newCard.setFaceUp(true);
-            dealerHand.addCard(newCard);
+    public void dealToDealer() {
+        lock.lock();
+        try {
+            // set the dealer's card faced up
+            dealerHand.getHand().get(0).setFaceUp(true);
+            dealerHand.getHand().get(1).setFaceUp(true);
+
+            if (dealerHand.getBlackjackValue() < 17) {
+                Card newCard = deck.dealCard();
+                newCard.setFaceUp(true);
+                dealerHand.addCard(newCard);
+            }
+            markChanged();
+        } finally {
+            unlock();
         }
     }
 
-    public synchronized void addPlayer(User user) {
-        players.add(new Player(user));
+    public void addPlayer(User user) {
+        lock.lock();
+        try {
+            record(LobbyRecorder.JOIN, user.getUserName(), 0);
+            players.add(new Player(user));
 
-        // when players joins set all to false
-        setAllPlayersBustToFalse();
-        setAllPlayersWonToFalse();
-        setAllPlayersStandToFalse();
+            // when players joins set all to false
+            setAllPlayersBustToFalse();
+            setAllPlayersWonToFalse();
+            setAllPlayersStandToFalse();
+            markChanged();
+        } finally {
+            unlock();
+        }
     }
 
-    public synchronized Player getPlayer(User user) {
-        // check
-        for (Player player : players) {
-            if (player.getUsername().equals(user.getUserName())) {
-                return player;
+    /**
+     * This method seats the user, unless the lobby is full, being moved to another
+     * server or removed. These are checked under the lock, so the lobby cannot be
+     * frozen and sent away, or removed, between the check and the seat.
+     *
+     * @param user
+     * @param maxPlayers the most players the lobby can hold.
+     * @return true if the user was seated.
+     */
+    public boolean addPlayer(User user, int maxPlayers) {
+        lock.lock();
+        try {
+            if (frozen || closed || players.size() >= maxPlayers) {
+                return false;
             }
+            addPlayer(user);
+            return true;
+        } finally {
+            unlock();
         }
-        return null;
     }
 
-    public synchronized Player getPlayer(String username) {
-        // check
-        for (Player player : players) {
-            if (player.getUsername().equals(username)) {
-                return player;
+    /**
+     * This method closes the lobby to players if none is left in it, before it is removed.
+     *
+     * @return true if the lobby was closed, or false if a player is in it or it is closed already.
+     */
+    boolean closeIfEmpty() {
+        lock.lock();
+        try {
+            if (closed || !players.isEmpty()) {
+                return false;
             }
+            closed = true;
+            return true;
+        } finally {
+            unlock();
         }
-        return null;
     }
 
-    public synchronized boolean removePlayer(User user) {
-        // fill out
-        int removeID = -1;
-        int index = 0;
-        for (Player player : players) {
-            if (player.getUsername().equals(user.getUserName())) {
-                removeID = index;
+    public Player getPlayer(User user) {
+        lock.lock();
+        try {
+            // check
+            for (Player player : players) {
+                if (player.getUsername().equals(user.getUserName())) {
+                    return player;
+                }
             }
-            index++;
-        }
-        if (removeID != -1) {
-            players.remove(removeID);
-            return true;
-        } else {
-            return false;
+            return null;
+        } finally {
+            unlock();
         }
     }
 
-    public synchronized boolean removePlayer(String username) {
-        int removeID = -1;
-        int index = 0;
-        for (Player player : players) {
-            if (player.getUsername().equals(username)) {
-                removeID = index;
-                break;
+    public Player getPlayer(String username) {
+        lock.lock();
+        try {
+            // check
+            for (Player player : players) {
+                if (player.getUsername().equals(username)) {
+                    return player;
+                }
             }
-            index++;
-        }
-        if (removeID != -1) {
-            players.remove(removeID);
-            return true;
-        } else {
-            return false;
+            return null;
+        } finally {
+            unlock();
         }
     }
 
-    public synchronized boolean setAllPlayersFinished() {
-        // change to check player.isfinishedround
+    public boolean removePlayer(User user) {
+        lock.lock();
+        try {
+            // fill out
+            int removeID = -1;
+            int index = 0;
+            for (Player player : players) {
+                if (player.getUsername().equals(user.getUserName())) {
+                    removeID = index;
+                }
+                index++;
+            }
+            if (removeID != -1) {
+                record(LobbyRecorder.LEAVE, players.get(removeID).getUsername(), 0);
+                players.remove(removeID);
+                markChanged();
+                return true;
+            } else {
+                return false;
+            }
+        } finally {
+            unlock();
+        }
+    }
 
-        for (Player p : players) {
-            boolean isPlayerWon = getPlayersWon().get(p.getUsername());
-            boolean isPlayerStand = getPlayersStand().get(p.getUsername());
-            if (!isPlayerWon && !isPlayerStand) {
-                setAllPlayersFinished(false);
+    public boolean removePlayer(String username) {
+        lock.lock();
+        try {
+            int removeID = -1;
+            int index = 0;
+            for (Player player : players) {
+                if (player.getUsername().equals(username)) {
+                    removeID = index;
+                    break;
+                }
+                index++;
+            }
+            if (removeID != -1) {
+                record(LobbyRecorder.LEAVE, players.get(removeID).getUsername(), 0);
+                players.remove(removeID);
+                markChanged();
+                return true;
+            } else {
                 return false;
             }
+        } finally {
+            unlock();
         }
-        setAllPlayersFinished(true);
-        return true;
     }
 
+    public boolean setAllPlayersFinished() {
+        lock.lock();
+        try {
+            // change to check player.isfinishedround
+
+            for (Player p : players) {
+                boolean isPlayerWon = getPlayersWon().get(p.getUsername());
+                boolean isPlayerStand = getPlayersStand().get(p.getUsername());
+                if (!isPlayerWon && !isPlayerStand) {
+                    setAllPlayersFinished(false);
+                    markChanged();
+                    return false;
+                }
+            }
+            setAllPlayersFinished(true);
+            markChanged();
+            return true;
+        } finally {
+            unlock();
+        }
+    }
 
-    public synchronized boolean allPlayersBetPlaced() {
-        for (Player p : players) {
-            if (!p.isBetPlaced()) {
-                setAllPlayersBetPlaced(false);
-                return false;
+
+    public boolean allPlayersBetPlaced() {
+        lock.lock();
+        try {
+            for (Player p : players) {
+                if (!p.isBetPlaced()) {
+                    setAllPlayersBetPlaced(false);
+                    markChanged();
+                    return false;
+                }
             }
+            setAllPlayersBetPlaced(true);
+            markChanged();
+            return true;
+        } finally {
+            unlock();
         }
-        setAllPlayersBetPlaced(true);
-        return true;
     }
 
     /**
@@ -288,73 +486,99 @@ public class GameLobby {
      *
      * @return
      */
-    public synchronized Map<String, Integer> getPlayerBets() {
-        Map<String, Integer> playerBets = new HashMap<>();
+    public Map<String, Integer> getPlayerBets() {
+        lock.lock();
+        try {
+            Map<String, Integer> playerBets = new HashMap<>();
 
-        for (Player player : players) {
-            playerBets.put(player.getUsername(), player.getBet());
-        }
+            for (Player player : players) {
+                playerBets.put(player.getUsername(), player.getBet());
+            }
 
-        return playerBets;
+            return playerBets;
+        } finally {
+            unlock();
+        }
     }
 
-    public synchronized void startGameForTesting() {
-        // shuffles deck with random seed = 1
-        deck.shuffleForTests();
+    public void startGameForTesting() {
+        lock.lock();
+        try {
+            // shuffles deck with random seed = 1
+            deck.shuffleForTests();
 
-        nextGame();
+            nextGame();
+        } finally {
+            unlock();
+        }
     }
 
     /**
      * deals 2 cards to everyone, all cards face up
      * deals 2 card to dealer, 1 card face down, 1 card face up
      */
-    public synchronized void startGame() {
-        // start the game
-        deck.shuffle();
-        // shuffle the deck
-        nextGame();
+    public void startGame() {
+        lock.lock();
+        try {
+            // start the game
+            shuffleDeck();
+            // shuffle the deck
+            nextGame();
+        } finally {
+            unlock();
+        }
     }
 
-    public synchronized void nextGame() {
-        if (deck.cardsLeft() == 0) {
-            deck = new Deck();
-            deck.shuffle();
-        }
+    public void nextGame() {
+        lock.lock();
+        try {
+            if (deck.cardsLeft() == 0) {
+                deck = new Deck();
+                shuffleDeck();
+            }
 
-        // remove the cards from each players
-        for (Player p : players) {
-            p.removeAllCards();
-        }
-        // remove the cards from dealer
-        removeDealerCards();
+            // remove the cards from each players
+            for (Player p : players) {
+                p.removeAllCards();
+            }
+            // remove the cards from dealer
+            removeDealerCards();
 
-        // For players:
-        for (Player p : players) {
+            // For players:
+            for (Player p : players) {
 
-            // deal cards to all players and make them face up
+                // deal cards to all players and make them face up
 
-            // first card
-            Card firstCard = deck.dealCard();
-            firstCard.setFaceUp(true);
-            p.addCardToPlayerHand(firstCard);
+                // first card
+                Card firstCard = deck.dealCard();
+                firstCard.setFaceUp(true);
+                p.addCardToPlayerHand(firstCard);
 
-            // second card
-            Card secondCard = deck.dealCard();
-            secondCard.setFaceUp(true);
-            p.addCardToPlayerHand(secondCard);
-        }
+                // second card
+                Card secondCard = deck.dealCard();
+                secondCard.setFaceUp(true);
+                p.addCardToPlayerHand(secondCard);
+            }
 
-        // For the dealer:
+            // For the dealer:
 
-        Card dealerFirstCard = deck.dealCard();
-        dealerFirstCard.setFaceUp(false);
-        dealerHand.addCard(dealerFirstCard);
+            Card dealerFirstCard = deck.dealCard();
+            dealerFirstCard.setFaceUp(false);
+            dealerHand.addCard(dealerFirstCard);
 
-        Card dealerSecondCard = deck.dealCard();
-        dealerSecondCard.setFaceUp(true);
-        dealerHand.addCard(dealerSecondCard);
+            Card dealerSecondCard = deck.dealCard();
+            dealerSecondCard.setFaceUp(true);
+            dealerHand.addCard(dealerSecondCard);
+            markChanged();
+        } finally {
+            unlock();
+        }
+    }
 
+    private void shuffleDeck() {
+        long seed = shuffleSeeds.getAsLong();
+        record(LobbyRecorder.SHUFFLE, null, seed);
+        deck.shuffle(seed);
     }
 
     private void removeDealerCards() {
@@ -366,30 +590,42 @@ public class GameLobby {
         }
     }
 
-    public synchronized void setDealerHandFaceUp() {
-        for (Card card : dealerHand.getHand()) {
-            card.setFaceUp(true);
+    public void setDealerHandFaceUp() {
+        lock.lock();
+        try {
+            for (Card card : dealerHand.getHand()) {
+                card.setFaceUp(true);
+            }
+            markChanged();
+        } finally {
+            unlock();
         }
     }
 
-    public synchronized void setPlayersWon() {
-        for (Player player : players) {
-            if (wonAgainstDealer(player)) {
-                playersWon.put(player.getUsername(), true);
+    public void setPlayersWon() {
+        lock.lock();
+        try {
+            for (Player player : players) {
+                if (wonAgainstDealer(player)) {
+                    playersWon.put(player.getUsername(), true);
+                }
             }
-        }
 
-        setAllPlayersFinished();
+            setAllPlayersFinished();
 
-        if (isAllPlayersFinished()) {
-            setAllPlayersBustToFalse();
-            setAllPlayersWonToFalse();
-            setAllPlayersStandToFalse();
-            setAllPlayersBetPlaced(false);
+            if (isAllPlayersFinished()) {
+                setAllPlayersBustToFalse();
+                setAllPlayersWonToFalse();
+                setAllPlayersStandToFalse();
+                setAllPlayersBetPlaced(false);
 
-            resetPlayers();
+                resetPlayers();
 
 
+            }
+            markChanged();
+        } finally {
+            unlock();
         }
     }
 
@@ -413,16 +649,23 @@ public class GameLobby {
      *
      * @param user //     * @return if the user is bet and than hit ,or return false
      */
-    public synchronized boolean hit(User user) {
-        Player player = getPlayer(user);
+    public boolean hit(User user) {
+        lock.lock();
+        try {
+            record(LobbyRecorder.HIT, user.getUserName(), 0);
+            Player player = getPlayer(user);
 
-        Card newCard = deck.dealCard();
-        newCard.setFaceUp(true);
-        player.addCardToPlayerHand(newCard);
+            Card newCard = deck.dealCard();
+            newCard.setFaceUp(true);
+            player.addCardToPlayerHand(newCard);
 
-        setPlayersWon();
+            setPlayersWon();
 
-        return true;
+            markChanged();
+            return true;
+        } finally {
+            unlock();
+        }
     }
 
 
@@ -433,16 +676,23 @@ public class GameLobby {
      *
      * @param username //     * @return if the user is bet and than hit ,or return false
      */
-    public synchronized boolean hit(String username) {
-        Player player = getPlayer(username);
+    public boolean hit(String username) {
+        lock.lock();
+        try {
+            record(LobbyRecorder.HIT, username, 0);
+            Player player = getPlayer(username);
 
-        Card newCard = deck.dealCard();
-        newCard.setFaceUp(true);
-        player.addCardToPlayerHand(newCard);
+            Card newCard = deck.dealCard();
+            newCard.setFaceUp(true);
+            player.addCardToPlayerHand(newCard);
 
-        setPlayersWon();
+            setPlayersWon();
 
-        return true;
+            markChanged();
+            return true;
+        } finally {
+            unlock();
+        }
     }
 
 
@@ -507,27 +757,464 @@ public class GameLobby {
         return this.getLobbyName().equals(gameLobby.getLobbyName());
     }
 
-    public synchronized void setPlayerStand(String username) {
+    public void setPlayerStand(String username) {
+        lock.lock();
+        try {
+            record(LobbyRecorder.STAND, username, 0);
+            for (Player player : players) {
+                if (player.getUsername().equals(username)) {
+                    player.setPlayerStand(true);
+                    playersStand.put(username, true);
+                }
+            }
+
+            setAllPlayersStand();
+            setPlayersWon();
+            markChanged();
+        } finally {
+            unlock();
+        }
+    }
+
+    public void setAllPlayersStand() {
+        lock.lock();
+        try {
+            for (Map.Entry<String, Boolean> playerStand : playersStand.entrySet()) {
+                if (!playerStand.getValue()) {
+                    allPlayersStand = false;
+                    return;
+                }
+            }
+
+            allPlayersStand = true;
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * This method places a bet for the player. If the last round has
+     * finished a new one is dealt first, and once every player has bet
+     * the cards are dealt.
+     *
+     * @param username  the player placing the bet.
+     * @param betAmount the amount to bet.
+     */
+    public void placeBet(String username, int betAmount) {
+        lock.lock();
+        try {
+            record(LobbyRecorder.BET, username, betAmount);
+            if (isAllPlayersBetPlaced()) {
+                nextGame();
+            }
+
+            // set player bet and bet placed
+            Player player = getPlayer(username);
+            player.setBet(betAmount);
+            player.setBetPlaced(true);
+
+            // check all bets are placed and if so deal cards to players and dealer i.e. start game
+            if (allPlayersBetPlaced()) {
+                startGame();
+            }
+            markChanged();
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * This method starts recording the actions of a new lobby, beginning with
+     * its players as they are now, or stops it if the recorder is null.
+     *
+     * @param recorder
+     */
+    void setRecorder(LobbyRecorder recorder) {
+        lock.lock();
+        try {
+            this.recorder = recorder;
+            for (int i = 0; i < players.size(); i++) {
+                record(i == 0 ? LobbyRecorder.CREATE : LobbyRecorder.JOIN, players.get(i).getUsername(), 0);
+            }
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * This method sets where the seed of every shuffle comes from, to replay a recorded lobby.
+     *
+     * @param shuffleSeeds
+     */
+    void setShuffleSeeds(LongSupplier shuffleSeeds) {
+        lock.lock();
+        try {
+            this.shuffleSeeds = shuffleSeeds;
+        } finally {
+            unlock();
+        }
+    }
+
+    private void record(String action, String player, long amount) {
+        if (recorder != null) {
+            recorder.record(lobbyName, action, player, amount);
+        }
+    }
+
+    /**
+     * This method queues a command for the lobby. Commands run one at a time, in
+     * the order they were submitted, on the shard of the lobby with the lobby locked, and listeners are
+     * told of what the command changed before its result is returned.
+     *
+     * @param command the command, which is given this lobby.
+     * @param <T>     the type of the result.
+     * @return the result of the command, once it has run.
+     */
+    public <T> CompletableFuture<T> submit(Function<GameLobby, T> command) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+
+        commands.execute(() -> {
+            T value = null;
+            RuntimeException error = null;
+            lock.lock();
+            try {
+                value = command.apply(this);
+            } catch (RuntimeException e) {
+                error = e;
+            } finally {
+                unlock();
+            }
+
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                result.complete(value);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * This method freezes the lobby to move it to another server, and copies it.
+     * It must be run as a command, so no other command runs while it is copied.
+     *
+     * @return the copy of the lobby.
+     */
+    public LobbyState freeze() {
+        lock.lock();
+        try {
+            frozen = true;
+            return copyState(Integer.MAX_VALUE);
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * This method copies the lobby with only its most recent messages.
+     */
+    private LobbyState copyState(int maxMessages) {
+        ArrayList<MessageObject> messages = new ArrayList<>();
+        Iterator<MessageObject> newest = messageQueue.descendingIterator();
+        while (newest.hasNext() && messages.size() < maxMessages) {
+            messages.add(newest.next());
+        }
+        Collections.reverse(messages);
+        // The copy must not share anything the lobby goes on changing once the lock is released.
+        ArrayList<Player> playersCopy = new ArrayList<>();
         for (Player player : players) {
-            if (player.getUsername().equals(username)) {
-                player.setPlayerStand(true);
-                playersStand.put(username, true);
+            playersCopy.add(new Player(player));
+        }
+        return new LobbyState(lobbyName, playersCopy, new Deck(deck), allPlayersStand, allPlayersBetPlaced,
+                dealerCardLeft, allPlayersFinished, playerBudgets, playersBust, playersWon, playersStand,
+                new BlackjackHand(dealerHand), messages, version);
+    }
+
+    /**
+     * This method adds a copy of the lobby to a snapshot of the log, unless it is no longer logged.
+     *
+     * @param snapshot
+     */
+    void copyTo(LobbyEventLog.Snapshot snapshot) {
+        lock.lock();
+        try {
+            if (eventLog != null) {
+                snapshot.add(copyState(LOGGED_MESSAGES));
             }
+        } finally {
+            unlock();
         }
+    }
 
-        setAllPlayersStand();
-        setPlayersWon();
+    /**
+     * This method starts appending every change of the lobby to the log, beginning
+     * with the lobby as it is now, or stops it if the log is null.
+     *
+     * @param eventLog
+     */
+    void setEventLog(LobbyEventLog eventLog) {
+        lock.lock();
+        try {
+            this.eventLog = eventLog;
+            if (eventLog != null) {
+                eventLog.append(copyState(LOGGED_MESSAGES));
+            }
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * This method lets commands change the lobby again after a move failed.
+     */
+    public void thaw() {
+        frozen = false;
+    }
+
+    /**
+     * @return true if the lobby is being moved, or was moved, to another server.
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * This method adds a chat message to the lobby, and tells the listeners once the lock is released.
+     *
+     * @param message
+     */
+    public void addMessage(MessageObject message) {
+        lock.lock();
+        try {
+            messageQueue.add(message);
+            messagesChanged = true;
+        } finally {
+            unlock();
+        }
     }
 
-    public synchronized void setAllPlayersStand() {
-        for (Map.Entry<String, Boolean> playerStand : playersStand.entrySet()) {
-            if (!playerStand.getValue()) {
-                allPlayersStand = false;
-                return;
+    /**
+     * This method takes a snapshot of the whole game.
+     *
+     * @return
+     */
+    public GameState getGameState() {
+        return getGameState(-1);
+    }
+
+    /**
+     * This method takes a snapshot of what changed in the game since the version
+     * the client has, under one hold of the lock. A client without a version (-1), or
+     * with a version of another lobby, gets the whole game.
+     *
+     * @param sinceVersion the version the client has.
+     * @return null if nothing changed since the version.
+     */
+    public GameState getGameState(long sinceVersion) {
+        lock.lock();
+        try {
+            if (sinceVersion == version) {
+                return null;
             }
+
+            boolean full = sinceVersion < 0 || sinceVersion > version;
+            Map<String, Integer> playerBets = new HashMap<>();
+            Map<String, Integer> playerBudgets = new HashMap<>();
+            Map<String, Hand> playerHands = new HashMap<>();
+            Map<String, Boolean> playersBust = new HashMap<>();
+            Map<String, Boolean> playersStand = new HashMap<>();
+            Map<String, Boolean> playersWon = new HashMap<>();
+
+            for (Map.Entry<String, SeatState> seat : seats.entrySet()) {
+                if (full || seat.getValue().version > sinceVersion) {
+                    String username = seat.getKey();
+                    playerBets.put(username, seat.getValue().bet);
+                    playerBudgets.put(username, seat.getValue().budget);
+                    playerHands.put(username, seat.getValue().hand);
+                    playersBust.put(username, seat.getValue().bust);
+                    playersStand.put(username, seat.getValue().stand);
+                    playersWon.put(username, seat.getValue().won);
+                }
+            }
+
+            if (full || table.version > sinceVersion) {
+                return new GameState(version, full, table.dealerHand, playerBets, playerBudgets, playerHands,
+                        table.playerNames, playersBust, playersStand, playersWon,
+                        table.allPlayersFinished, table.allBetsPlaced);
+            }
+            return new GameState(version, false, null, playerBets, playerBudgets, playerHands,
+                    null, playersBust, playersStand, playersWon, null, null);
+        } finally {
+            unlock();
         }
+    }
 
-        allPlayersStand = true;
+    /**
+     * @return the version of the game, which goes up every time the game changes.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * This method compares the game with the last version while the lock is held.
+     * Seats and the table which changed get the next version, so a snapshot
+     * since a version only has to hold what changed.
+     *
+     * @return true if anything changed.
+     */
+    private boolean commitVersion() {
+        long nextVersion = version + 1;
+        boolean changed = false;
+        Map<String, SeatState> nextSeats = new HashMap<>();
+
+        for (Player player : players) {
+            String username = player.getUsername();
+            SeatState seat = new SeatState(player,
+                    Boolean.TRUE.equals(playersBust.get(username)),
+                    Boolean.TRUE.equals(playersStand.get(username)),
+                    Boolean.TRUE.equals(playersWon.get(username)));
+            SeatState lastSeat = seats.get(username);
+
+            if (lastSeat != null && lastSeat.sameAs(seat)) {
+                nextSeats.put(username, lastSeat);
+            } else {
+                seat.version = nextVersion;
+                nextSeats.put(username, seat);
+                changed = true;
+            }
+        }
+
+        TableState nextTable = new TableState(dealerHand, players, allPlayersFinished, allPlayersBetPlaced);
+        if (table == null || !table.sameAs(nextTable)) {
+            nextTable.version = nextVersion;
+            table = nextTable;
+            changed = true;
+        }
+
+        seats = nextSeats;
+        if (changed) {
+            version = nextVersion;
+        }
+        return changed;
+    }
+
+    private static boolean sameHand(Hand hand, Hand otherHand) {
+        if (hand.getCardCount() != otherHand.getCardCount()) {
+            return false;
+        }
+
+        for (int i = 0; i < hand.getCardCount(); i++) {
+            Card card = hand.getCard(i);
+            Card otherCard = otherHand.getCard(i);
+            if (card.getValue() != otherCard.getValue() || card.getSuit() != otherCard.getSuit()
+                    || card.isFaceUp() != otherCard.isFaceUp()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A copy of one player's seat at the version it last changed.
+     */
+    private static class SeatState {
+        private final Hand hand;
+        private final int bet;
+        private final int budget;
+        private final boolean bust;
+        private final boolean stand;
+        private final boolean won;
+        private long version;
+
+        SeatState(Player player, boolean bust, boolean stand, boolean won) {
+            this.hand = new Hand(player.getPlayerHand());
+            this.bet = player.getBet();
+            this.budget = player.getBudget();
+            this.bust = bust;
+            this.stand = stand;
+            this.won = won;
+        }
+
+        boolean sameAs(SeatState seat) {
+            return bet == seat.bet && budget == seat.budget && bust == seat.bust && stand == seat.stand
+                    && won == seat.won && sameHand(hand, seat.hand);
+        }
+    }
+
+    /**
+     * A copy of the dealer hand, player names and flags at the version they last changed.
+     */
+    private static class TableState {
+        private final Hand dealerHand;
+        private final TreeSet<String> playerNames;
+        private final boolean allPlayersFinished;
+        private final boolean allBetsPlaced;
+        private long version;
+
+        TableState(Hand dealerHand, ArrayList<Player> players, boolean allPlayersFinished, boolean allBetsPlaced) {
+            this.dealerHand = new Hand(dealerHand);
+            this.playerNames = new TreeSet<>();
+            for (Player player : players) {
+                playerNames.add(player.getUsername());
+            }
+            this.allPlayersFinished = allPlayersFinished;
+            this.allBetsPlaced = allBetsPlaced;
+        }
+
+        boolean sameAs(TableState table) {
+            return allPlayersFinished == table.allPlayersFinished && allBetsPlaced == table.allBetsPlaced
+                    && playerNames.equals(table.playerNames) && sameHand(dealerHand, table.dealerHand);
+        }
+    }
+
+    public void addListener(GameLobbyListener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(GameLobbyListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * This method records that the game state changed while the lock is held.
+     */
+    private void markChanged() {
+        gameChanged = true;
+    }
+
+    /**
+     * This method releases the lock. When the outermost hold of a change is
+     * released the version goes up and the listeners are told once, after the
+     * lock has been released, so a hit which also settles the round is one notification
+     * and one record in the event log.
+     */
+    private void unlock() {
+        boolean notify = false;
+        boolean notifyMessages = false;
+        if (lock.getHoldCount() == 1) {
+            if (gameChanged) {
+                gameChanged = false;
+                notify = commitVersion();
+                if (notify && eventLog != null) {
+                    eventLog.append(copyState(LOGGED_MESSAGES));
+                }
+            }
+            notifyMessages = messagesChanged;
+            messagesChanged = false;
+        }
+        lock.unlock();
+
+        if (notify) {
+            for (GameLobbyListener listener : listeners) {
+                listener.gameChanged(this);
+            }
+        }
+        if (notifyMessages) {
+            for (GameLobbyListener listener : listeners) {
+                listener.messagesChanged(this);
+            }
+        }
     }
 
     public ConcurrentLinkedDeque<MessageObject> getMessageQueue() {
@@ -0,0 +1,24 @@
+package CardGame.GameEngine;
+
+/**
+ * A GameLobbyListener is told when the state of a game lobby changes,
+ * so the server can push the new state to the players instead of
+ * waiting for them to ask for it.
+ */
+public interface GameLobbyListener {
+
+    /**
+     * Called once after a change to the players, hands, bets or flags of the lobby.
+     * It is called without the lobby lock held.
+     *
+     * @param lobby the lobby which changed.
+     */
+    void gameChanged(GameLobby lobby);
+
+    /**
+     * Called after a chat message is added to the lobby.
+     *
+     * @param lobby the lobby which changed.
+     */
+    void messagesChanged(GameLobby lobby);
+}
@@ -0,0 +1,128 @@
+package CardGame.GameEngine;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class is a snapshot of everything a client shows about a game. It is
+ * taken by GameLobby under one hold of its lock, so the hands, bets and flags
+ * all belong to the same moment of the game. The snapshot has its own copies of
+ * the hands and maps, so it can be sent after the lock has been released.
+ *
+ * A snapshot which is not full only holds what changed since the version the
+ * client had: the maps only have the seats which changed, and the dealer hand,
+ * player names and flags are null if they did not change. Seats of players not
+ * in the player names have left the game.
+ */
+public class GameState {
+    private long version;
+    private boolean full;
+    private Hand dealerHand;
+    private Map<String, Integer> playerBets;
+    private Map<String, Integer> playerBudgets;
+    private Map<String, Hand> playerHands;
+    private Set<String> playerNames;
+    private Map<String, Boolean> playersBust;
+    private Map<String, Boolean> playersStand;
+    private Map<String, Boolean> playersWon;
+    private Boolean allPlayersFinished;
+    private Boolean allBetsPlaced;
+
+    public GameState(long version,
+                     boolean full,
+                     Hand dealerHand,
+                     Map<String, Integer> playerBets,
+                     Map<String, Integer> playerBudgets,
+                     Map<String, Hand> playerHands,
+                     Set<String> playerNames,
+                     Map<String, Boolean> playersBust,
+                     Map<String, Boolean> playersStand,
+                     Map<String, Boolean> playersWon,
+                     Boolean allPlayersFinished,
+                     Boolean allBetsPlaced) {
+        this.version = version;
+        this.full = full;
+        this.dealerHand = dealerHand;
+        this.playerBets = playerBets;
+        this.playerBudgets = playerBudgets;
+        this.playerHands = playerHands;
+        this.playerNames = playerNames;
+        this.playersBust = playersBust;
+        this.playersStand = playersStand;
+        this.playersWon = playersWon;
+        this.allPlayersFinished = allPlayersFinished;
+        this.allBetsPlaced = allBetsPlaced;
+    }
+
+    /**
+     * @return the version of the game this snapshot was taken at.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return true if the snapshot holds the whole game, false if only what changed.
+     */
+    public boolean isFull() {
+        return full;
+    }
+
+    public Hand getDealerHand() {
+        return dealerHand;
+    }
+
+    public Map<String, Integer> getPlayerBets() {
+        return playerBets;
+    }
+
+    public Map<String, Integer> getPlayerBudgets() {
+        return playerBudgets;
+    }
+
+    public Map<String, Hand> getPlayerHands() {
+        return playerHands;
+    }
+
+    public Set<String> getPlayerNames() {
+        return playerNames;
+    }
+
+    public Map<String, Boolean> getPlayersBust() {
+        return playersBust;
+    }
+
+    public Map<String, Boolean> getPlayersStand() {
+        return playersStand;
+    }
+
+    public Map<String, Boolean> getPlayersWon() {
+        return playersWon;
+    }
+
+    public Boolean getAllPlayersFinished() {
+        return allPlayersFinished;
+    }
+
+    public Boolean getAllBetsPlaced() {
+        return allBetsPlaced;
+    }
+
+    @Override
+    public String toString() {
+        return "GameState{" +
+                "version=" + version +
+                ", full=" + full +
+                ", dealerHand=" + dealerHand +
+                ", playerBets=" + playerBets +
+                ", playerBudgets=" + playerBudgets +
+                ", playerHands=" + playerHands +
+                ", playerNames=" + playerNames +
+                ", playersBust=" + playersBust +
+                ", playersStand=" + playersStand +
+                ", playersWon=" + playersWon +
+                ", allPlayersFinished=" + allPlayersFinished +
+                ", allBetsPlaced=" + allBetsPlaced +
+                '}';
+    }
+}
@@ -22,6 +22,14 @@ public class Hand {
         hand = new ArrayList<>();
     }
 
+    public Hand(Hand other) {
+        // Create a copy of another hand, with copies of its cards.
+        hand = new ArrayList<>();
+        for (Card card : other.hand) {
+            hand.add(new Card(card));
+        }
+    }
+
     public void clear() {
         // Discard all the cards from the hand.
 //        hand.removeAllElements();
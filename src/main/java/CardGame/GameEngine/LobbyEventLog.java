@@ -0,0 +1,655 @@
+package CardGame.GameEngine;
+
+import CardGame.Codec.Codecs;
+import CardGame.Codec.WireCodec;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * This class is an append-only log of every change to the lobbies, so they
+ * can be rebuilt after the server dies. Every command which changes a lobby
+ * (a player joining or leaving, a bet, a hit, a stand, the next round being
+ * dealt and the round being settled) appends the lobby as it is after the
+ * change, and a lobby which is removed appends a removal. Each record is
+ *
+ * length (4 bytes), crc32 (4 bytes), kind (1 byte), version (8 bytes), name length (2 bytes), name, lobby
+ *
+ * where the length is of the name and lobby, the crc32 is of everything after
+ * it, and the lobby is a LobbyState in the binary codec, or nothing for a removal.
+ *
+ * The log is written to memory mapped segment files, so an append is a copy
+ * into memory and never waits for the disk. The pages are forced to disk
+ * together every few milliseconds (group commit): the lobbies survive the
+ * server process dying at once, and a crash of the machine loses at most
+ * the changes since the last force. A record only half written when the
+ * server died fails its crc, and the segment is read up to it.
+ *
+ * Appends take no more than a copy under the log's lock. The forcer thread
+ * maps the next segment ahead of time, and forces a full segment after the
+ * log has moved on from it, so moving to the next segment does not wait
+ * for the disk. If the next segment cannot be started, the changes are
+ * dropped and the log is not healthy until it can, which is tried again
+ * every second, and then the lobbies are snapshot to catch up.
+ *
+ * Every so often a background thread snapshots the lobbies: each lobby is
+ * locked only while it is copied, so play goes on, and the copies are
+ * written to a snapshot file with the place in the log it was started at.
+ * The segments before that place are then deleted. A snapshot is
+ *
+ * magic (4 bytes), segment (4 bytes), offset (4 bytes), count (4 bytes),
+ * then for each lobby: version (8 bytes), name length (2 bytes), name, length (4 bytes), lobby,
+ * then the crc32 of everything before it (4 bytes)
+ *
+ * On restart the newest whole snapshot is memory mapped and read, and only
+ * the log after its place is replayed over it. Only the last copy of each
+ * lobby is decoded.
+ */
+public class LobbyEventLog {
+    public static final String DIRECTORY_PROPERTY = "cardgame.lobbyLog";
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    public static final int DEFAULT_FORCE_MILLIS = 5;
+    public static final int DEFAULT_SNAPSHOT_SECONDS = 60;
+
+    static final byte STATE = 1;
+    static final byte REMOVED = 2;
+
+    private static final int HEADER = 19;
+    private static final long RETRY_MILLIS = 1000;
+    private static final int SNAPSHOT_MAGIC = 0x4c534e50;
+    private static final int SNAPSHOT_HEADER = 16;
+    private static final byte[] NO_LOBBY = new byte[0];
+    private static final String SEGMENT_PREFIX = "lobbies-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+
+    private final File directory;
+    private final int segmentSize;
+    private final WireCodec codec;
+    private final Map<String, LobbyState> recovered;
+    private final ScheduledExecutorService forcer;
+    private final ScheduledExecutorService snapshotter;
+    private final Object snapshotLock;
+    private volatile LobbyRegistry lobbies;
+    private int segmentNumber;
+    private MappedByteBuffer segment;
+    private MappedByteBuffer spare;
+    private final List<MappedByteBuffer> retired;
+    private boolean unforced;
+    private boolean closed;
+    private boolean failing;
+    private long failedAt;
+    private long appendCount;
+    private long forceCount;
+    private long droppedCount;
+    private long snapshotCount;
+    private int snapshotLobbies;
+    private long snapshotMillis;
+
+    /**
+     * Constructor for the LobbyEventLog class, which reads the lobbies from
+     * the newest snapshot and the log after it, and starts a new segment.
+     *
+     * @param directory       the directory of the segment and snapshot files, created if it does not exist.
+     * @param segmentSize     the bytes of each segment file.
+     * @param forceMillis     the milliseconds between forcing the changes to disk.
+     * @param snapshotSeconds the seconds between snapshots, or 0 to only snapshot when asked.
+     * @throws IOException if the files cannot be read or written.
+     */
+    public LobbyEventLog(File directory, int segmentSize, int forceMillis, int snapshotSeconds) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.codec = Codecs.BINARY_LONG_CODEC;
+        this.recovered = new LinkedHashMap<>();
+        this.snapshotLock = new Object();
+        this.retired = new ArrayList<>();
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create lobby log directory " + directory + ".");
+        }
+
+        recover();
+        synchronized (this) {
+            segmentNumber++;
+            segment = mapSegment(segmentNumber, segmentSize);
+        }
+
+        this.forcer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lobby-log-forcer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        forcer.scheduleWithFixedDelay(() -> {
+            force();
+            prepareSpare();
+        }, 0, forceMillis, TimeUnit.MILLISECONDS);
+
+        this.snapshotter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lobby-log-snapshotter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (snapshotSeconds > 0) {
+            snapshotter.scheduleWithFixedDelay(this::snapshot, snapshotSeconds, snapshotSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Constructor for a log with the default segment size, forced every few
+     * milliseconds and snapshot every minute.
+     *
+     * @param directory the directory of the segment and snapshot files, created if it does not exist.
+     * @throws IOException if the files cannot be read or written.
+     */
+    public LobbyEventLog(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_FORCE_MILLIS, DEFAULT_SNAPSHOT_SECONDS);
+    }
+
+    /**
+     * @return the lobbies as they were last logged, before the server restarted.
+     */
+    public Collection<LobbyState> getRecovered() {
+        return Collections.unmodifiableCollection(recovered.values());
+    }
+
+    /**
+     * This method sets the lobbies which are snapshot.
+     *
+     * @param lobbies
+     */
+    void setLobbies(LobbyRegistry lobbies) {
+        this.lobbies = lobbies;
+    }
+
+    /**
+     * This method appends the lobby as it is after a change. It must be called
+     * with the lobby locked, so the changes to a lobby are logged in order.
+     *
+     * @param state the lobby after the change.
+     */
+    void append(LobbyState state) {
+        byte[] lobby = codec.encode(state);
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            write(STATE, state.getVersion(), state.getLobbyName(), lobby);
+        }
+    }
+
+    /**
+     * This method appends the removal of a lobby, so it is not rebuilt.
+     *
+     * @param lobbyName
+     */
+    void remove(String lobbyName) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            write(REMOVED, 0, lobbyName, NO_LOBBY);
+        }
+    }
+
+    /**
+     * This method forces every record appended so far to disk, in the
+     * segment being written and the full segments not yet forced.
+     */
+    public void force() {
+        List<MappedByteBuffer> toForce;
+        synchronized (this) {
+            if (!unforced) {
+                return;
+            }
+            unforced = false;
+            forceCount++;
+            toForce = new ArrayList<>(retired);
+            toForce.add(segment);
+            retired.clear();
+        }
+        for (MappedByteBuffer buffer : toForce) {
+            buffer.force();
+        }
+    }
+
+    /**
+     * @return false if changes are being dropped because the next segment could not be started.
+     */
+    public synchronized boolean isHealthy() {
+        return !failing;
+    }
+
+    /**
+     * This method snapshots every lobby, one at a time, while play goes on,
+     * and deletes the segments and snapshots it makes unneeded.
+     */
+    public void snapshot() {
+        LobbyRegistry lobbies = this.lobbies;
+        if (lobbies == null) {
+            return;
+        }
+
+        synchronized (snapshotLock) {
+            long start = System.nanoTime();
+            int fromSegment;
+            int fromOffset;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                fromSegment = segmentNumber;
+                fromOffset = segment.position();
+            }
+
+            // every lobby copied from here on has every change logged before the place
+            Snapshot snapshot = new Snapshot();
+            for (GameLobby lobby : lobbies.getLobbies()) {
+                lobby.copyTo(snapshot);
+            }
+
+            try {
+                writeSnapshot(snapshot, fromSegment, fromOffset);
+            } catch (IOException e) {
+                System.out.println("Cannot write lobby snapshot, the log is kept until the next one.");
+                return;
+            }
+
+            for (File old : listFiles(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+                if (fileNumber(old, SEGMENT_PREFIX, SEGMENT_SUFFIX) < fromSegment && !old.delete()) {
+                    System.out.println("Cannot delete old lobby log segment " + old + ".");
+                }
+            }
+
+            synchronized (this) {
+                snapshotCount++;
+                snapshotLobbies = snapshot.names.size();
+                snapshotMillis = (System.nanoTime() - start) / 1000000;
+            }
+        }
+    }
+
+    /**
+     * This method forces the log to disk and stops appending to it.
+     */
+    public void close() {
+        snapshotter.shutdownNow();
+        forcer.shutdownNow();
+        force();
+        synchronized (this) {
+            closed = true;
+        }
+    }
+
+    /**
+     * @return the counts of records appended, forces and snapshots, to tune the segment size and periods.
+     */
+    public synchronized String countersToString() {
+        return "Lobby log records: " + appendCount + ", forces: " + forceCount + ", segment: " + segmentNumber
+                + ", snapshots: " + snapshotCount + ", last snapshot: " + snapshotLobbies + " lobbies in "
+                + snapshotMillis + "ms, dropped: " + droppedCount + (failing ? ", NOT LOGGING" : "");
+    }
+
+    /**
+     * This method writes a record to the segment, starting the next segment if it is full.
+     */
+    private void write(byte kind, long version, String lobbyName, byte[] lobby) {
+        byte[] name = lobbyName.getBytes(StandardCharsets.UTF_8);
+        if (segment.remaining() < HEADER + name.length + lobby.length
+                && !startSegment(HEADER + name.length + lobby.length)) {
+            droppedCount++;
+            return;
+        }
+
+        segment.putInt(name.length + lobby.length);
+        segment.putInt(checksum(kind, version, name, lobby));
+        segment.put(kind);
+        segment.putLong(version);
+        segment.putShort((short) name.length);
+        segment.put(name);
+        segment.put(lobby);
+        unforced = true;
+        appendCount++;
+    }
+
+    /**
+     * @return the crc32 of a record, over its header after the crc, the name and the lobby.
+     */
+    private static int checksum(byte kind, long version, byte[] name, byte[] lobby) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER - 8);
+        header.put(kind).putLong(version).putShort((short) name.length);
+        CRC32 crc = new CRC32();
+        crc.update(header.array(), 0, header.capacity());
+        crc.update(name, 0, name.length);
+        crc.update(lobby, 0, lobby.length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * This method starts the next segment, with the spare the forcer mapped
+     * if it is big enough. The full segment is left for the forcer to force,
+     * and the segments before it are kept until a snapshot is taken.
+     *
+     * @param needed the bytes of the record which did not fit.
+     * @return false if the next segment cannot be started.
+     */
+    private boolean startSegment(int needed) {
+        MappedByteBuffer next = spare;
+        spare = null;
+        if (next == null || next.capacity() < needed) {
+            if (failing && System.currentTimeMillis() - failedAt < RETRY_MILLIS) {
+                return false;
+            }
+            try {
+                next = mapSegment(segmentNumber + 1, Math.max(segmentSize, needed));
+            } catch (IOException e) {
+                if (!failing) {
+                    System.out.println("Cannot start the next lobby log segment, changes are dropped until it can.");
+                }
+                failing = true;
+                failedAt = System.currentTimeMillis();
+                return false;
+            }
+        }
+
+        retired.add(segment);
+        segment = next;
+        segmentNumber++;
+        unforced = true;
+        if (failing) {
+            failing = false;
+            System.out.println("Lobby log segment " + segmentNumber + " started, changes are logged again.");
+            snapshotter.execute(this::snapshot);
+        }
+        return true;
+    }
+
+    /**
+     * This method maps the next segment ahead of time, on the forcer thread.
+     */
+    private void prepareSpare() {
+        int number;
+        synchronized (this) {
+            if (closed || spare != null) {
+                return;
+            }
+            number = segmentNumber + 1;
+        }
+
+        MappedByteBuffer mapped;
+        try {
+            mapped = mapSegment(number, segmentSize);
+        } catch (IOException e) {
+            // tried again on the next force, and by the next append which does not fit
+            return;
+        }
+        synchronized (this) {
+            if (!closed && spare == null && segmentNumber + 1 == number) {
+                spare = mapped;
+            }
+        }
+    }
+
+    private MappedByteBuffer mapSegment(int number, int size) throws IOException {
+        File file = numberedFile(SEGMENT_PREFIX, SEGMENT_SUFFIX, number);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /**
+     * This method writes the snapshot to a new file, which replaces the older snapshots once it is on disk.
+     */
+    private void writeSnapshot(Snapshot snapshot, int fromSegment, int fromOffset) throws IOException {
+        long size = SNAPSHOT_HEADER + 4;
+        for (int i = 0; i < snapshot.names.size(); i++) {
+            size += 14 + snapshot.names.get(i).length + snapshot.lobbies.get(i).length;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Lobby snapshot too large.");
+        }
+
+        File temporary = new File(directory, SNAPSHOT_PREFIX + "next.tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(temporary, "rw")) {
+            raf.setLength(size);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(SNAPSHOT_MAGIC);
+            buffer.putInt(fromSegment);
+            buffer.putInt(fromOffset);
+            buffer.putInt(snapshot.names.size());
+            for (int i = 0; i < snapshot.names.size(); i++) {
+                buffer.putLong(snapshot.versions.get(i));
+                buffer.putShort((short) snapshot.names.get(i).length);
+                buffer.put(snapshot.names.get(i));
+                buffer.putInt(snapshot.lobbies.get(i).length);
+                buffer.put(snapshot.lobbies.get(i));
+            }
+
+            CRC32 crc = new CRC32();
+            ByteBuffer written = buffer.duplicate();
+            written.flip();
+            crc.update(written);
+            buffer.putInt((int) crc.getValue());
+            buffer.force();
+        }
+
+        File file = new File(directory, String.format("%s%08d-%010d%s", SNAPSHOT_PREFIX, fromSegment, fromOffset,
+                SNAPSHOT_SUFFIX));
+        if (!temporary.renameTo(file)) {
+            throw new IOException("Cannot rename lobby snapshot to " + file + ".");
+        }
+
+        for (File old : listSnapshots()) {
+            if (!old.equals(file) && !old.delete()) {
+                System.out.println("Cannot delete old lobby snapshot " + old + ".");
+            }
+        }
+    }
+
+    /**
+     * This method reads the newest whole snapshot, then the log after it, and
+     * decodes the last copy of every lobby.
+     */
+    private void recover() throws IOException {
+        Map<String, Record> latest = new LinkedHashMap<>();
+        int fromSegment = 0;
+        int fromOffset = 0;
+
+        List<File> snapshots = listSnapshots();
+        for (int i = snapshots.size() - 1; i >= 0; i--) {
+            int[] place = readSnapshot(snapshots.get(i), latest);
+            if (place != null) {
+                fromSegment = place[0];
+                fromOffset = place[1];
+                break;
+            }
+        }
+
+        // a lobby logged after the snapshot was copied is as it was logged, unless only its chat is newer
+        Map<String, Record> tail = new LinkedHashMap<>();
+        Set<String> removed = new HashSet<>();
+        for (File file : listFiles(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+            int number = fileNumber(file, SEGMENT_PREFIX, SEGMENT_SUFFIX);
+            if (number >= fromSegment) {
+                replay(file, number == fromSegment ? fromOffset : 0, tail, removed);
+            }
+            segmentNumber = Math.max(segmentNumber, number);
+        }
+        segmentNumber = Math.max(segmentNumber, fromSegment);
+
+        for (Map.Entry<String, Record> record : tail.entrySet()) {
+            Record copy = latest.get(record.getKey());
+            if (record.getValue().kind == REMOVED) {
+                latest.remove(record.getKey());
+            } else if (copy == null || removed.contains(record.getKey())
+                    || copy.version != record.getValue().version) {
+                latest.put(record.getKey(), record.getValue());
+            }
+        }
+
+        for (Map.Entry<String, Record> lobby : latest.entrySet()) {
+            try {
+                recovered.put(lobby.getKey(), codec.decode(lobby.getValue().lobby, LobbyState.class));
+            } catch (IllegalArgumentException e) {
+                System.out.println("Malformed lobby " + lobby.getKey() + " in lobby log.");
+            }
+        }
+    }
+
+    /**
+     * This method reads the lobbies of a snapshot.
+     *
+     * @return the segment and offset the snapshot was started at, or null if it is not whole.
+     */
+    private int[] readSnapshot(File file, Map<String, Record> latest) throws IOException {
+        MappedByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() < SNAPSHOT_HEADER + 4) {
+                return null;
+            }
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+
+        ByteBuffer written = buffer.duplicate();
+        written.limit(buffer.capacity() - 4);
+        CRC32 crc = new CRC32();
+        crc.update(written);
+        if (buffer.getInt(0) != SNAPSHOT_MAGIC || buffer.getInt(buffer.capacity() - 4) != (int) crc.getValue()) {
+            System.out.println("Lobby snapshot " + file.getName() + " is not whole, trying an older one.");
+            return null;
+        }
+
+        buffer.position(4);
+        int[] place = {buffer.getInt(), buffer.getInt()};
+        int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            long version = buffer.getLong();
+            byte[] name = new byte[buffer.getShort() & 0xffff];
+            buffer.get(name);
+            byte[] lobby = new byte[buffer.getInt()];
+            buffer.get(lobby);
+            latest.put(new String(name, StandardCharsets.UTF_8), new Record(STATE, version, lobby));
+        }
+        return place;
+    }
+
+    /**
+     * This method reads the records of a segment from the offset, up to the first one not wholly written.
+     */
+    private void replay(File file, int offset, Map<String, Record> tail, Set<String> removed) throws IOException {
+        MappedByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+        buffer.position(Math.min(offset, buffer.capacity()));
+
+        while (buffer.remaining() >= HEADER) {
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            byte kind = buffer.get();
+            long version = buffer.getLong();
+            int nameLength = buffer.getShort() & 0xffff;
+            if (length <= 0 || length > buffer.remaining() || nameLength > length) {
+                break;
+            }
+
+            byte[] name = new byte[nameLength];
+            byte[] lobby = new byte[length - nameLength];
+            buffer.get(name);
+            buffer.get(lobby);
+            if (checksum(kind, version, name, lobby) != checksum) {
+                System.out.println("Lobby log " + file.getName() + " ends with a record not wholly written.");
+                break;
+            }
+
+            String lobbyName = new String(name, StandardCharsets.UTF_8);
+            tail.put(lobbyName, new Record(kind, version, lobby));
+            if (kind == REMOVED) {
+                removed.add(lobbyName);
+            }
+        }
+    }
+
+    private List<File> listSnapshots() {
+        List<File> snapshots = new ArrayList<>();
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SNAPSHOT_PREFIX)
+                && name.endsWith(SNAPSHOT_SUFFIX));
+        if (files != null) {
+            Collections.addAll(snapshots, files);
+        }
+        // the names are padded, so they sort by segment and then offset
+        snapshots.sort((a, b) -> a.getName().compareTo(b.getName()));
+        return snapshots;
+    }
+
+    private List<File> listFiles(String prefix, String suffix) {
+        List<File> segments = new ArrayList<>();
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(prefix) && name.endsWith(suffix));
+        if (files != null) {
+            Collections.addAll(segments, files);
+        }
+        segments.sort((a, b) -> Integer.compare(fileNumber(a, prefix, suffix), fileNumber(b, prefix, suffix)));
+        return segments;
+    }
+
+    private File numberedFile(String prefix, String suffix, int number) {
+        return new File(directory, String.format("%s%08d%s", prefix, number, suffix));
+    }
+
+    private static int fileNumber(File file, String prefix, String suffix) {
+        String name = file.getName();
+        return Integer.parseInt(name.substring(prefix.length(), name.length() - suffix.length()));
+    }
+
+    /**
+     * The last record of a lobby, from a snapshot or the log.
+     */
+    private static class Record {
+        private final byte kind;
+        private final long version;
+        private final byte[] lobby;
+
+        Record(byte kind, long version, byte[] lobby) {
+            this.kind = kind;
+            this.version = version;
+            this.lobby = lobby;
+        }
+    }
+
+    /**
+     * The lobbies copied for a snapshot, each encoded while it is locked.
+     */
+    class Snapshot {
+        private final List<byte[]> names = new ArrayList<>();
+        private final List<Long> versions = new ArrayList<>();
+        private final List<byte[]> lobbies = new ArrayList<>();
+
+        /**
+         * This method adds a copy of a lobby. It must be called with the lobby locked.
+         *
+         * @param state
+         */
+        void add(LobbyState state) {
+            names.add(state.getLobbyName().getBytes(StandardCharsets.UTF_8));
+            versions.add(state.getVersion());
+            lobbies.add(codec.encode(state));
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package CardGame.GameEngine;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class records the history of the lobbies created on the server, so
+ * a lobby can be played again with LobbyReplay. Every player action is
+ * recorded in the order the lobby ran it, with the seed of every shuffle,
+ * and as the engine is deterministic for the same seeds the replay deals
+ * the same cards and settles the same way.
+ *
+ * The history is a file of one action as JSON on each line, for every
+ * lobby, and is appended to across restarts. A lobby's history starts with
+ * its create action; a lobby moved here from another server, or rebuilt
+ * from the lobby log, is not recorded, as its start is not here.
+ *
+ * Lines are written to a buffer and flushed every second.
+ */
+public class LobbyRecorder {
+    public static final String FILE_PROPERTY = "cardgame.lobbyHistory";
+
+    public static final String CREATE = "create";
+    public static final String JOIN = "join";
+    public static final String LEAVE = "leave";
+    public static final String BET = "bet";
+    public static final String HIT = "hit";
+    public static final String STAND = "stand";
+    public static final String SHUFFLE = "shuffle";
+
+    private static final int FLUSH_SECONDS = 1;
+
+    private final Gson gson;
+    private final Writer writer;
+    private final ScheduledExecutorService flusher;
+    private boolean closed;
+    private long actionCount;
+
+    /**
+     * Constructor for the LobbyRecorder class.
+     *
+     * @param file the history file, appended to if it exists.
+     * @throws IOException if the file cannot be written.
+     */
+    public LobbyRecorder(File file) throws IOException {
+        this.gson = new Gson();
+        this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true),
+                StandardCharsets.UTF_8));
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lobby-recorder-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, FLUSH_SECONDS, FLUSH_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * This method records an action. It must be called with the lobby locked,
+     * so the actions of a lobby are recorded in the order they ran.
+     *
+     * @param lobbyName
+     * @param action    one of the action names.
+     * @param player    the player acting, or null for a shuffle.
+     * @param amount    the bet, or the seed of a shuffle.
+     */
+    void record(String lobbyName, String action, String player, long amount) {
+        String line = gson.toJson(new Action(System.currentTimeMillis(), lobbyName, action, player, amount));
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            try {
+                writer.write(line);
+                writer.write('\n');
+                actionCount++;
+            } catch (IOException e) {
+                System.out.println("Cannot write the lobby history, actions are not being recorded.");
+                closed = true;
+            }
+        }
+    }
+
+    /**
+     * This method writes the buffered actions to the file.
+     */
+    public synchronized void flush() {
+        if (closed) {
+            return;
+        }
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            System.out.println("Cannot write the lobby history, actions are not being recorded.");
+            closed = true;
+        }
+    }
+
+    /**
+     * This method writes the buffered actions and closes the file.
+     */
+    public void close() {
+        flusher.shutdownNow();
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                writer.close();
+            } catch (IOException e) {
+                System.out.println("Problem closing the lobby history.");
+            }
+        }
+    }
+
+    /**
+     * @return the number of actions recorded.
+     */
+    public synchronized long getActionCount() {
+        return actionCount;
+    }
+
+    /**
+     * This method reads every action in a history file, skipping lines which are not actions.
+     *
+     * @param file
+     * @return the actions, in the order they were recorded.
+     * @throws IOException if the file cannot be read.
+     */
+    public static List<Action> read(File file) throws IOException {
+        Gson gson = new Gson();
+        List<Action> actions = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    Action action = gson.fromJson(line, Action.class);
+                    if (action != null && action.getLobby() != null && action.getAction() != null) {
+                        actions.add(action);
+                    }
+                } catch (JsonSyntaxException e) {
+                    System.out.println("Skipping malformed line in lobby history.");
+                }
+            }
+        }
+        return actions;
+    }
+
+    /**
+     * One action of a lobby, as it is written to the history.
+     */
+    public static class Action {
+        private final long time;
+        private final String lobby;
+        private final String action;
+        private final String player;
+        private final long amount;
+
+        Action(long time, String lobby, String action, String player, long amount) {
+            this.time = time;
+            this.lobby = lobby;
+            this.action = action;
+            this.player = player;
+            this.amount = amount;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public String getLobby() {
+            return lobby;
+        }
+
+        public String getAction() {
+            return action;
+        }
+
+        public String getPlayer() {
+            return player;
+        }
+
+        public long getAmount() {
+            return amount;
+        }
+
+        @Override
+        public String toString() {
+            return action + (player != null ? " " + player : "") + (amount != 0 ? " " + amount : "");
+        }
+    }
+}
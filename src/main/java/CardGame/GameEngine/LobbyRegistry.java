@@ -0,0 +1,232 @@
+package CardGame.GameEngine;
+
+import CardGame.User;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class holds the game lobbies of the server, keyed by lobby name, so
+ * a lobby is found without walking every game. Creating a lobby, joining
+ * it and removing it once it is empty are each atomic for that lobby, so
+ * a player cannot join a lobby as it is being removed.
+ *
+ * The sorted lobby names are kept as a snapshot, which is only built again
+ * after a lobby is created or removed, so pushing the names to every client
+ * does not copy them for each one.
+ *
+ * The lobbies are spread over the LobbyShards by name, and each runs its
+ * commands on its own shard.
+ *
+ * If an event log is set, every lobby appends its changes to it, and a
+ * lobby removed is logged as removed, so the lobbies can be rebuilt after
+ * a restart with recover. If a recorder is set, the actions of every
+ * lobby created here are recorded, to be replayed with LobbyReplay.
+ */
+public class LobbyRegistry {
+    private final ConcurrentHashMap<String, GameLobby> lobbies;
+    private final LobbyShards shards;
+    private volatile LobbyEventLog eventLog;
+    private volatile LobbyRecorder recorder;
+
+    // bumped after every create and remove, so a snapshot knows when it is stale
+    private final AtomicLong version;
+    private volatile NamesSnapshot names;
+
+    public LobbyRegistry() {
+        this(LobbyShards.getDefault());
+    }
+
+    /**
+     * Constructor for the LobbyRegistry class.
+     *
+     * @param shards the shards the lobbies run their commands on.
+     */
+    public LobbyRegistry(LobbyShards shards) {
+        this.lobbies = new ConcurrentHashMap<>();
+        this.shards = shards;
+        this.version = new AtomicLong();
+        this.names = new NamesSnapshot(0, Collections.<String>emptySortedSet());
+    }
+
+    /**
+     * @param lobbyName
+     * @return the lobby with the name, or null if there is none.
+     */
+    public GameLobby get(String lobbyName) {
+        return lobbyName == null ? null : lobbies.get(lobbyName);
+    }
+
+    /**
+     * This method creates a lobby named after its owner, unless a lobby
+     * with that name already exists.
+     *
+     * @param owner the user creating the lobby, who is its first player.
+     * @return the lobby created, or null if one with the name exists.
+     */
+    public GameLobby create(User owner) {
+        GameLobby[] created = new GameLobby[1];
+        lobbies.computeIfAbsent(owner.getUserName(), lobbyName -> created[0] = new GameLobby(owner, shards));
+        if (created[0] != null) {
+            version.incrementAndGet();
+            startLogging(created[0]);
+            LobbyRecorder recorder = this.recorder;
+            if (recorder != null) {
+                created[0].setRecorder(recorder);
+            }
+        }
+        return created[0];
+    }
+
+    /**
+     * This method adds a lobby moved from another server, unless a lobby
+     * with its name already exists.
+     *
+     * @param state the lobby as it was copied on the other server.
+     * @return the lobby added, or null if one with the name exists.
+     */
+    public GameLobby adopt(LobbyState state) {
+        GameLobby[] adopted = new GameLobby[1];
+        lobbies.computeIfAbsent(state.getLobbyName(), lobbyName -> adopted[0] = new GameLobby(state, shards));
+        if (adopted[0] != null) {
+            version.incrementAndGet();
+            startLogging(adopted[0]);
+        }
+        return adopted[0];
+    }
+
+    /**
+     * This method sets the log the lobbies append their changes to, and adds
+     * the lobbies it recovered from before the server restarted, and has the
+     * log snapshot these lobbies. It must be called before any lobby is created.
+     *
+     * @param eventLog
+     * @return the number of lobbies recovered.
+     */
+    public int recover(LobbyEventLog eventLog) {
+        this.eventLog = eventLog;
+        eventLog.setLobbies(this);
+        int count = 0;
+        for (LobbyState state : eventLog.getRecovered()) {
+            if (adopt(state) != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * This method sets the recorder the actions of the lobbies created from now on are recorded to.
+     *
+     * @param recorder
+     */
+    public void setRecorder(LobbyRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    private void startLogging(GameLobby lobby) {
+        LobbyEventLog eventLog = this.eventLog;
+        if (eventLog != null) {
+            lobby.setEventLog(eventLog);
+        }
+    }
+
+    private void stopLogging(GameLobby lobby) {
+        LobbyEventLog eventLog = this.eventLog;
+        if (eventLog != null) {
+            lobby.setEventLog(null);
+            eventLog.remove(lobby.getLobbyName());
+        }
+    }
+
+    /**
+     * This method adds the user to the lobby, unless the lobby no longer
+     * exists, is full or is being moved to another server.
+     *
+     * @param lobbyName
+     * @param user
+     * @param maxPlayers the most players the lobby can hold.
+     * @return the lobby joined, or null if it could not be joined.
+     */
+    public GameLobby join(String lobbyName, User user, int maxPlayers) {
+        GameLobby lobby = get(lobbyName);
+        // a lobby removed since it was found is closed, and does not seat the user
+        return lobby != null && lobby.addPlayer(user, maxPlayers) ? lobby : null;
+    }
+
+    /**
+     * This method removes the lobby if no player is left in it.
+     *
+     * @param lobbyName
+     * @return true if the lobby was removed.
+     */
+    public boolean removeIfEmpty(String lobbyName) {
+        GameLobby lobby = get(lobbyName);
+        // closed while it is empty, so no player joins it between the check and the removal
+        return lobby != null && lobby.closeIfEmpty() && remove(lobby);
+    }
+
+    /**
+     * This method removes the lobby once it has moved to another server, or been closed.
+     *
+     * @param lobby
+     * @return true if the lobby was removed.
+     */
+    public boolean remove(GameLobby lobby) {
+        boolean removed = lobbies.remove(lobby.getLobbyName(), lobby);
+        if (removed) {
+            version.incrementAndGet();
+            stopLogging(lobby);
+        }
+        return removed;
+    }
+
+    /**
+     * @return the sorted names of the lobbies, which must not be changed.
+     */
+    public Set<String> getNames() {
+        NamesSnapshot snapshot = this.names;
+        long current = version.get();
+        if (snapshot.version == current) {
+            return snapshot.names;
+        }
+
+        // a lobby created while the names are copied bumps the version again, so it is not missed
+        snapshot = new NamesSnapshot(current, Collections.unmodifiableSortedSet(new TreeSet<>(lobbies.keySet())));
+        this.names = snapshot;
+        return snapshot.names;
+    }
+
+    /**
+     * @return the lobbies, in no order.
+     */
+    public Collection<GameLobby> getLobbies() {
+        return Collections.unmodifiableCollection(lobbies.values());
+    }
+
+    public LobbyShards getShards() {
+        return shards;
+    }
+
+    public int size() {
+        return lobbies.size();
+    }
+
+    public boolean isEmpty() {
+        return lobbies.isEmpty();
+    }
+
+    private static class NamesSnapshot {
+        private final long version;
+        private final Set<String> names;
+
+        NamesSnapshot(long version, Set<String> names) {
+            this.version = version;
+            this.names = names;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package CardGame.GameEngine;
+
+import CardGame.User;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This class plays recorded lobbies again, offline, from the history a
+ * LobbyRecorder wrote. Each lobby is run through a new GameLobby with the
+ * recorded shuffle seeds, so it deals the same cards and settles the same
+ * way as it did on the server, as fast as the engine can go.
+ *
+ * Given a lobby, every action is printed with the budgets, bets and hand
+ * values after it, to go through a disputed round. Given a number of
+ * times, every lobby in the history is played that many times and the
+ * actions a second are printed, to compare the engine before and after a
+ * change on real games. A history which no longer fits the engine (a
+ * shuffle left over, or one missing) is reported.
+ *
+ * Run with: java CardGame.GameEngine.LobbyReplay [history file] [lobby|*] [times]
+ */
+public class LobbyReplay {
+
+    /**
+     * This method splits a history into the games played, each from a lobby
+     * being created to the end of the history or the lobby being created again.
+     *
+     * @param actions   the actions of every lobby, in the order they were recorded.
+     * @param lobbyName the lobby to keep, or null for every lobby.
+     * @return the actions of each game, in the order the games were created.
+     */
+    public static List<List<LobbyRecorder.Action>> split(List<LobbyRecorder.Action> actions, String lobbyName) {
+        List<List<LobbyRecorder.Action>> games = new ArrayList<>();
+        Map<String, List<LobbyRecorder.Action>> running = new LinkedHashMap<>();
+
+        for (LobbyRecorder.Action action : actions) {
+            if (lobbyName != null && !lobbyName.equals(action.getLobby())) {
+                continue;
+            }
+
+            if (action.getAction().equals(LobbyRecorder.CREATE)) {
+                List<LobbyRecorder.Action> game = new ArrayList<>();
+                games.add(game);
+                running.put(action.getLobby(), game);
+            }
+            List<LobbyRecorder.Action> game = running.get(action.getLobby());
+            if (game != null) {
+                game.add(action);
+            }
+        }
+        return games;
+    }
+
+    /**
+     * This method plays one game again.
+     *
+     * @param game     the actions of the game, starting with its create.
+     * @param printing true to print every action and the game after it.
+     * @return the lobby as it was after the last action.
+     * @throws IllegalStateException if the engine shuffles more or less often than it was recorded.
+     */
+    public static GameLobby replay(List<LobbyRecorder.Action> game, boolean printing) {
+        Deque<Long> seeds = new ArrayDeque<>();
+        for (LobbyRecorder.Action action : game) {
+            if (action.getAction().equals(LobbyRecorder.SHUFFLE)) {
+                seeds.add(action.getAmount());
+            }
+        }
+
+        GameLobby lobby = new GameLobby(new User(game.get(0).getPlayer()));
+        lobby.setShuffleSeeds(() -> {
+            Long seed = seeds.poll();
+            if (seed == null) {
+                throw new IllegalStateException("The game shuffled more often than it was recorded.");
+            }
+            return seed;
+        });
+
+        for (LobbyRecorder.Action action : game) {
+            String player = action.getPlayer();
+            switch (action.getAction()) {
+                case LobbyRecorder.JOIN:
+                    lobby.addPlayer(new User(player));
+                    break;
+                case LobbyRecorder.LEAVE:
+                    lobby.removePlayer(player);
+                    break;
+                case LobbyRecorder.BET:
+                    lobby.placeBet(player, (int) action.getAmount());
+                    break;
+                case LobbyRecorder.HIT:
+                    lobby.hit(player);
+                    break;
+                case LobbyRecorder.STAND:
+                    lobby.setPlayerStand(player);
+                    break;
+                default:
+                    // the create is the lobby itself, and shuffles are dealt as the game asks for them
+                    continue;
+            }
+
+            if (printing) {
+                System.out.println(action + " -> " + describe(lobby));
+            }
+        }
+
+        if (!seeds.isEmpty()) {
+            throw new IllegalStateException("The game shuffled " + seeds.size()
+                    + " times less often than it was recorded.");
+        }
+        return lobby;
+    }
+
+    private static String describe(GameLobby lobby) {
+        Map<String, Integer> handValues = new TreeMap<>();
+        for (Player player : lobby.getPlayers()) {
+            handValues.put(player.getUsername(), player.getPlayerHand().getBlackjackValue());
+        }
+        return "budgets=" + new TreeMap<>(lobby.getPlayerBudgets()) + " bets=" + new TreeMap<>(lobby.getPlayerBets())
+                + " hands=" + handValues + " dealer=" + lobby.getDealerHand().getBlackjackValue()
+                + " won=" + new TreeMap<>(lobby.getPlayersWon());
+    }
+
+    /**
+     * This method is run to replay a history file from the command line.
+     *
+     * @param args the history file, then the lobby to print or * for all, then the times to play every game.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0 || args[0].equals("-h")) {
+            System.out.println("Enter: \'[history file]\' or \'[history file] [lobby|*]\'"
+                    + " or \'[history file] [lobby|*] [times]\'");
+            return;
+        }
+
+        String lobbyName = args.length > 1 && !args[1].equals("*") ? args[1] : null;
+        int times = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        List<List<LobbyRecorder.Action>> games = split(LobbyRecorder.read(new File(args[0])), lobbyName);
+        System.out.println("Replaying " + games.size() + " games.");
+
+        long actions = 0;
+        long start = System.nanoTime();
+        for (int time = 0; time < times; time++) {
+            for (List<LobbyRecorder.Action> game : games) {
+                boolean printing = lobbyName != null && time == 0;
+                if (printing) {
+                    System.out.println("Game " + game.get(0).getLobby() + " created at " + game.get(0).getTime());
+                }
+                try {
+                    GameLobby lobby = replay(game, printing);
+                    if (time == 0 && lobbyName == null) {
+                        System.out.println(lobby.getLobbyName() + ": " + game.size() + " actions, budgets="
+                                + new TreeMap<>(lobby.getPlayerBudgets()));
+                    }
+                } catch (IllegalStateException e) {
+                    System.out.println(game.get(0).getLobby() + ": " + e.getMessage());
+                }
+                actions += game.size();
+            }
+        }
+        long nanos = System.nanoTime() - start;
+
+        if (times > 1) {
+            System.out.printf("%d actions in %.1fms, %.0f actions a second%n", actions, nanos / 1e6,
+                    actions / (nanos / 1e9));
+        }
+    }
+}
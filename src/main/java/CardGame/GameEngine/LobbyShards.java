@@ -0,0 +1,88 @@
+package CardGame.GameEngine;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * This class is the fixed set of threads the lobbies run their commands on.
+ * Each lobby is pinned to one shard by the hash of its name, so all of its
+ * commands, and the pushes they make, run on the same thread: the lobby
+ * stays in the cache of the core running that thread, and no two cores
+ * work on the same lobby. A shard is one thread, so the commands of a
+ * lobby run one at a time, in the order they were submitted.
+ *
+ * The number of shards is read from the cardgame.lobbyShards system
+ * property, and is the number of cores if it is not set.
+ */
+public class LobbyShards {
+    public static final String SHARDS_PROPERTY = "cardgame.lobbyShards";
+
+    private static LobbyShards defaultShards;
+
+    private final ExecutorService[] shards;
+
+    /**
+     * Constructor for the LobbyShards class.
+     *
+     * @param shardCount the number of shards, each of which is one thread.
+     */
+    public LobbyShards(int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("There must be at least one lobby shard.");
+        }
+
+        this.shards = new ExecutorService[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            final String name = "lobby-shard-" + i;
+            shards[i] = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * @param lobbyName
+     * @return the shard the lobby runs its commands on.
+     */
+    public Executor forLobby(String lobbyName) {
+        return shards[shardOf(lobbyName)];
+    }
+
+    /**
+     * @param lobbyName
+     * @return the index of the shard the lobby is pinned to.
+     */
+    public int shardOf(String lobbyName) {
+        // spread the high bits, as names often differ only in their last characters
+        int hash = lobbyName.hashCode();
+        hash ^= hash >>> 16;
+        return Math.floorMod(hash, shards.length);
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * This method stops the shards once the commands already submitted have run.
+     */
+    public void shutdown() {
+        for (ExecutorService shard : shards) {
+            shard.shutdown();
+        }
+    }
+
+    /**
+     * @return the shards used by lobbies not given any, sized by the cardgame.lobbyShards property.
+     */
+    public static synchronized LobbyShards getDefault() {
+        if (defaultShards == null) {
+            defaultShards = new LobbyShards(Integer.getInteger(SHARDS_PROPERTY,
+                    Runtime.getRuntime().availableProcessors()));
+        }
+        return defaultShards;
+    }
+}
@@ -0,0 +1,125 @@
+package CardGame.GameEngine;
+
+import CardGame.MessageObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class is a copy of everything in a running game lobby: the players
+ * with their hands, budgets and bets, the deck and how far it has been dealt,
+ * the dealer hand, the round flags and the chat. It is sent as JSON to move
+ * a lobby to another server, which carries on the round where it was.
+ */
+public class LobbyState {
+    private final String lobbyName;
+    private final List<Player> players;
+    private final Deck deck;
+
+    private final boolean allPlayersStand;
+    private final boolean allPlayersBetPlaced;
+    private final boolean dealerCardLeft;
+    private final boolean allPlayersFinished;
+
+    private final Map<String, Integer> playerBudgets;
+    private final Map<String, Boolean> playersBust;
+    private final Map<String, Boolean> playersWon;
+    private final Map<String, Boolean> playersStand;
+    private final BlackjackHand dealerHand;
+
+    private final List<MessageObject> messages;
+    private final long version;
+
+    LobbyState(String lobbyName, List<Player> players, Deck deck, boolean allPlayersStand,
+               boolean allPlayersBetPlaced, boolean dealerCardLeft, boolean allPlayersFinished,
+               Map<String, Integer> playerBudgets, Map<String, Boolean> playersBust,
+               Map<String, Boolean> playersWon, Map<String, Boolean> playersStand,
+               BlackjackHand dealerHand, List<MessageObject> messages, long version) {
+        this.lobbyName = lobbyName;
+        this.players = new ArrayList<>(players);
+        this.deck = deck;
+        this.allPlayersStand = allPlayersStand;
+        this.allPlayersBetPlaced = allPlayersBetPlaced;
+        this.dealerCardLeft = dealerCardLeft;
+        this.allPlayersFinished = allPlayersFinished;
+        this.playerBudgets = new HashMap<>(playerBudgets);
+        this.playersBust = new HashMap<>(playersBust);
+        this.playersWon = new HashMap<>(playersWon);
+        this.playersStand = new HashMap<>(playersStand);
+        this.dealerHand = dealerHand;
+        this.messages = new ArrayList<>(messages);
+        this.version = version;
+    }
+
+    public String getLobbyName() {
+        return lobbyName;
+    }
+
+    /**
+     * @return the usernames of the players, in the order they are seated.
+     */
+    public List<String> getPlayerNames() {
+        List<String> playerNames = new ArrayList<>();
+        for (Player player : players) {
+            playerNames.add(player.getUsername());
+        }
+        return playerNames;
+    }
+
+    List<Player> getPlayers() {
+        return players;
+    }
+
+    Deck getDeck() {
+        return deck;
+    }
+
+    boolean isAllPlayersStand() {
+        return allPlayersStand;
+    }
+
+    boolean isAllPlayersBetPlaced() {
+        return allPlayersBetPlaced;
+    }
+
+    boolean isDealerCardLeft() {
+        return dealerCardLeft;
+    }
+
+    boolean isAllPlayersFinished() {
+        return allPlayersFinished;
+    }
+
+    Map<String, Integer> getPlayerBudgets() {
+        return playerBudgets;
+    }
+
+    Map<String, Boolean> getPlayersBust() {
+        return playersBust;
+    }
+
+    Map<String, Boolean> getPlayersWon() {
+        return playersWon;
+    }
+
+    Map<String, Boolean> getPlayersStand() {
+        return playersStand;
+    }
+
+    BlackjackHand getDealerHand() {
+        return dealerHand;
+    }
+
+    List<MessageObject> getMessages() {
+        return messages;
+    }
+
+    /**
+     * @return the version of the game when it was copied.
+     */
+    public long getVersion() {
+        return version;
+    }
+}
@@ -26,6 +26,17 @@ public class Player {
         this.isCardLeft = false;
     }
 
+    public Player(Player player) {
+        this.username = player.username;
+        this.playerHand = new BlackjackHand(player.playerHand);
+        this.budget = player.budget;
+        this.bet = player.bet;
+        this.isBetPlaced = player.isBetPlaced;
+        this.isFinishedRound = player.isFinishedRound;
+        this.isCardLeft = player.isCardLeft;
+        this.isPlayerStand = player.isPlayerStand;
+    }
+
     public String getUsername() {
         return username;
     }
@@ -1,17 +1,37 @@
 package CardGame;
 
-import CardGame.GameEngine.GameLobby;
+import CardGame.Cluster.ClusterMember;
+import CardGame.Cluster.ClusterService;
+import CardGame.GameEngine.LobbyEventLog;
+import CardGame.GameEngine.LobbyRecorder;
+import CardGame.GameEngine.LobbyRegistry;
+import CardGame.Gateway.GatewayBackend;
+import CardGame.Network.AdmissionController;
+import CardGame.Network.IdleReaper;
+import CardGame.Network.NioGameServer;
+import CardGame.Network.RateLimiter;
+import CardGame.Network.SessionRegistry;
+import CardGame.Network.SessionTokens;
+import CardGame.Responses.ResponseServerFull;
 import com.google.gson.Gson;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class runs a server for a
@@ -21,20 +41,55 @@ import java.util.concurrent.Executors;
  */
 public class GameServer {
 
+    // server modes
+    public static final String THREAD_MODE = "threads";
+    public static final String NIO_MODE = "nio";
+    public static final String VIRTUAL_MODE = "virtual";
+
+    // the port gateways connect to, if the server is behind gateways
+    public static final String GATEWAY_PORT_PROPERTY = "cardgame.gatewayPort";
+
+    // pending connections queued by the server socket until the accepting thread takes them; one thread
+    // accepts in every mode, as an accept takes microseconds, so this only holds a burst while it catches up
+    private static final int CONNECTION_BACKLOG = 1024;
+
+    // clients connected at once in the virtual and nio modes, and from one address in every mode
+    public static final int DEFAULT_MAX_CONNECTIONS = 10000;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ADDRESS = 64;
+
+    // how often the rate limit and idle counters are printed
+    private static final int COUNTERS_LOG_SECONDS = 60;
+
+    // seconds a client can send nothing, not even a heartbeat, before it is disconnected
+    public static final int DEFAULT_IDLE_TIMEOUT_SECONDS = 60;
+
     // connection variables
     private final int PORT;
     private final String HOST;
     private final int NUMBER_OF_THREADS;
     private ServerSocket serverSocket;
+    private ExecutorService threadPool;
+    private ExecutorService writerPool;
+    private NioGameServer nioServer;
+    private ScheduledExecutorService countersLogger;
+    private IdleReaper idleReaper;
+    private int idleTimeoutSeconds;
+    private AdmissionController admission;
+    private ClusterService cluster;
+    private GatewayBackend gatewayBackend;
+    private LobbyEventLog eventLog;
+    private LobbyRecorder recorder;
+    private int maxConnections;
+    private int maxConnectionsPerAddress;
     protected FunctionDB functionDB;
     private Gson gson;
 
     // Shared data structures
     private volatile ConcurrentLinkedDeque<MessageObject> messageQueue;
     private volatile ConcurrentLinkedDeque<Socket> socketList;
-    private volatile CopyOnWriteArrayList<User> users;
-    private volatile CopyOnWriteArrayList<GameLobby> games;
-    private volatile ConcurrentLinkedDeque<String> gameNames;
+    private SessionRegistry sessions;
+    private final LobbyRegistry lobbies;
+    private final Set<GameServerThread> subscribers;
 
     /**
      * Constructor for the GameServer class.
@@ -45,14 +100,124 @@ public class GameServer {
      */
     public GameServer(int port, String host, int maxNumberOfClients) {
         this.HOST = host;
-        this.gameNames = new ConcurrentLinkedDeque<>();
         this.gson = new Gson();
         this.messageQueue = new ConcurrentLinkedDeque<>();
         this.socketList = new ConcurrentLinkedDeque<>();
-        this.users = new CopyOnWriteArrayList<>();
-        this.games = new CopyOnWriteArrayList<>();
+        this.sessions = new SessionRegistry();
+        this.lobbies = new LobbyRegistry();
+        this.subscribers = ConcurrentHashMap.newKeySet();
         this.PORT = port;
         this.NUMBER_OF_THREADS = maxNumberOfClients;
+        this.idleTimeoutSeconds = DEFAULT_IDLE_TIMEOUT_SECONDS;
+        this.maxConnections = DEFAULT_MAX_CONNECTIONS;
+        this.maxConnectionsPerAddress = DEFAULT_MAX_CONNECTIONS_PER_ADDRESS;
+    }
+
+    /**
+     * This method sets how many clients can be connected at once. In the threads
+     * mode there are never more than maxNumberOfClients, one for each thread.
+     * It must be called before the server starts connecting to clients.
+     *
+     * @param maxConnections           the most clients connected at once.
+     * @param maxConnectionsPerAddress the most clients connected at once from one address.
+     */
+    public void setConnectionLimits(int maxConnections, int maxConnectionsPerAddress) {
+        this.maxConnections = maxConnections;
+        this.maxConnectionsPerAddress = maxConnectionsPerAddress;
+    }
+
+    /**
+     * @return the admission controller taking clients, or null if the server has not started.
+     */
+    public AdmissionController getAdmissionController() {
+        return admission;
+    }
+
+    /**
+     * This method sets how long a client can send nothing before it is disconnected.
+     * It must be called before the server starts connecting to clients.
+     *
+     * @param idleTimeoutSeconds
+     */
+    public void setIdleTimeout(int idleTimeoutSeconds) {
+        this.idleTimeoutSeconds = idleTimeoutSeconds;
+    }
+
+    /**
+     * @return the reaper closing idle connections, or null if the server has not started.
+     */
+    public IdleReaper getIdleReaper() {
+        return idleReaper;
+    }
+
+    /**
+     * This method signs the session tokens with the configured key, or the key
+     * kept in the key file, so they stay valid when the server restarts.
+     * It must be called before the server joins a cluster or starts connecting to clients.
+     *
+     * @param keyFile the file the key is kept in when none is configured.
+     * @throws IOException if the key file can neither be read nor written.
+     */
+    public void loadSessionTokenKey(File keyFile) throws IOException {
+        this.sessions = new SessionRegistry(SessionTokens.load(keyFile));
+    }
+
+    /**
+     * This method joins the server to a cluster of servers, which tell each other
+     * the games they have. It must be called before the server starts connecting to clients.
+     * The servers must share the session token key, so a client sent to another server
+     * can resume its session there without logging in again.
+     *
+     * @param clusterAddress the address the server listens for the other servers on.
+     * @param peers          the cluster addresses of the other servers.
+     * @param clientHost     the host clients connecting from other servers are told to use.
+     * @param secret         the secret the servers of the cluster sign their messages with.
+     * @throws IOException if the cluster address cannot be listened on.
+     */
+    public void joinCluster(InetSocketAddress clusterAddress, List<InetSocketAddress> peers, String clientHost,
+                            byte[] secret) throws IOException {
+        this.cluster = new ClusterService(new ClusterMember(clientHost, this.PORT), clusterAddress, peers,
+                this.lobbies, secret);
+        cluster.getDirectory().setListener(() ->
+                GameServerThread.pushGameNames(subscribers, cluster.getDirectory().withRemoteNames(lobbies.getNames())));
+        cluster.setSessions(sessions);
+        cluster.setRebalanceThreshold(Integer.getInteger(ClusterService.REBALANCE_PROPERTY, 0));
+        cluster.start();
+    }
+
+    /**
+     * @return the cluster the server has joined, or null if it has not joined one.
+     */
+    public ClusterService getCluster() {
+        return cluster;
+    }
+
+    /**
+     * This method rebuilds the games from the log in the directory, and logs
+     * every change to the games there from now on. It must be called before
+     * the server starts connecting to clients.
+     *
+     * @param directory the directory of the log.
+     * @throws IOException if the log cannot be read or written.
+     */
+    public void recoverLobbies(File directory) throws IOException {
+        long start = System.currentTimeMillis();
+        this.eventLog = new LobbyEventLog(directory);
+        int recovered = lobbies.recover(eventLog);
+        System.out.println("Recovered " + recovered + " games from the lobby log in " + directory + " in "
+                + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * This method records every action in the games created from now on to the file.
+     *
+     * @param file the history file, appended to if it exists.
+     * @throws IOException if the file cannot be written.
+     */
+    public void recordLobbies(File file) throws IOException {
+        this.recorder = new LobbyRecorder(file);
+        lobbies.setRecorder(recorder);
+        System.out.println("Recording the games to " + file);
     }
 
     /**
@@ -66,20 +231,63 @@ public class GameServer {
      * This method starts and thread pool of size as denoted by NUMBER_OF_THREADS.
      * It then opens a server socket and waits for clients to connect. Upon
      * connection, the socket is passed into a thread, which now handles the
-     * communication for that client.
+     * communication for that client. A client which connects while every thread
+     * is taken is told the server is full.
      */
     public void connectToClients() {
-        ExecutorService threadPool = Executors.newFixedThreadPool(this.NUMBER_OF_THREADS);
+        acceptClients(Executors.newFixedThreadPool(this.NUMBER_OF_THREADS), Executors.newCachedThreadPool(),
+                Math.min(maxConnections, this.NUMBER_OF_THREADS));
+    }
+
+    /**
+     * This method runs each GameServerThread on its own virtual thread, so the
+     * blocking reads no longer limit the number of clients to NUMBER_OF_THREADS.
+     * Virtual threads need Java 21; on older runtimes a thread is started per
+     * client instead.
+     */
+    public void connectToClientsVirtual() {
+        acceptClients(newThreadPerClientExecutor(), newThreadPerClientExecutor(), maxConnections);
+    }
+
+    /**
+     * This method opens a server socket and waits for clients to connect. Each
+     * connected socket is passed into a GameServerThread which runs on the thread pool.
+     * Responses are written to the sockets on the writer pool, which only holds a
+     * thread for a client while there is something to write to it.
+     *
+     * @param threadPool     the executor which runs the GameServerThreads.
+     * @param writerPool     the executor which writes responses to the clients.
+     * @param maxConnections the most clients connected at once.
+     */
+    private void acceptClients(ExecutorService threadPool, ExecutorService writerPool, int maxConnections) {
+        this.threadPool = threadPool;
+        this.writerPool = writerPool;
+        this.idleReaper = new IdleReaper(idleTimeoutSeconds);
+        // a client is only taken while a pool thread is free for it, and is told the server is full otherwise
+        this.admission = new AdmissionController(maxConnections, maxConnectionsPerAddress);
 
         try {
             InetAddress inetAddress = InetAddress.getByName(HOST);
-            this.serverSocket = new ServerSocket(this.PORT, this.NUMBER_OF_THREADS, inetAddress);
+            this.serverSocket = new ServerSocket(this.PORT, CONNECTION_BACKLOG, inetAddress);
+        } catch (IOException e) {
+            System.out.println("Cannot open server socket, host likely already in use.");
+            return;
+        }
 
-            while (true) {
+        try {
+            while (!this.serverSocket.isClosed()) {
                 // Wait for a client to connect
                 System.out.println("Waiting for connection from GameClient");
                 Socket socket = this.serverSocket.accept();
+                long acceptedAt = System.nanoTime();
 
+                // tell the client straight away if there is no room for it
+                InetAddress address = socket.getInetAddress();
+                ResponseServerFull refusal = admission.admit(address);
+                if (refusal != null) {
+                    refuse(socket, refusal);
+                    continue;
+                }
 
                 // Add client socket to socketList
                 socketList.add(socket);
@@ -87,21 +295,218 @@ public class GameServer {
 
 
                 // pass the socket to a new clientSideThread
-                threadPool.execute(new GameServerThread(socket,
-                        this.users, this.functionDB, this.games, this.gameNames));
+                GameServerThread serverThread = new GameServerThread(socket,
+                        this.sessions, this.functionDB, this.lobbies, this.subscribers);
+                serverThread.setWriters(writerPool);
+                serverThread.setIdleReaper(idleReaper);
+                if (cluster != null) {
+                    serverThread.setLobbyDirectory(cluster.getDirectory());
+                }
+                threadPool.execute(() -> {
+                    admission.recordQueueWait(System.nanoTime() - acceptedAt);
+                    try {
+                        serverThread.run();
+                    } finally {
+                        socketList.remove(socket);
+                        admission.release(address);
+                    }
+                });
+            }
+        } catch (IOException e) {
+            System.out.println("Server socket closed.");
+        }
+    }
+
+    /**
+     * This method tells a client the server has no room for it and closes the socket.
+     *
+     * @param socket
+     * @param refusal
+     */
+    private static void refuse(Socket socket, ResponseServerFull refusal) {
+        try {
+            OutputStream outputStream = socket.getOutputStream();
+            outputStream.write(AdmissionController.encodeRefusal(refusal));
+            outputStream.flush();
+        } catch (IOException e) {
+            System.out.println("Problem refusing connection from client.");
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                System.out.println("Problem closing client socket.");
+            }
+        }
+    }
+
+    /**
+     * This method creates an executor which starts a virtual thread per task,
+     * which is only available from Java 21. We look it up by reflection as the
+     * server is compiled for Java 8. If it is not there we start a platform
+     * thread per task.
+     *
+     * @return an executor with no limit on the number of clients.
+     */
+    private static ExecutorService newThreadPerClientExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            System.out.println("Running clients on virtual threads.");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.out.println("Virtual threads need Java 21, running a thread per client instead.");
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * This method stops the server accepting clients and stops the server threads.
+     */
+    public void shutdown() {
+        try {
+            if (this.serverSocket != null) {
+                this.serverSocket.close();
             }
+        } catch (IOException e) {
+            System.out.println("Problem closing server socket.");
+        }
+
+        for (Socket socket : socketList) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                System.out.println("Problem closing client socket.");
+            }
+        }
+
+        if (this.threadPool != null) {
+            this.threadPool.shutdownNow();
+        }
+        if (this.writerPool != null) {
+            this.writerPool.shutdownNow();
+        }
+        if (this.nioServer != null) {
+            this.nioServer.close();
+        }
+        if (this.idleReaper != null) {
+            this.idleReaper.shutdown();
+        }
+        if (this.cluster != null) {
+            this.cluster.close();
+        }
+        if (this.gatewayBackend != null) {
+            this.gatewayBackend.close();
+        }
+        if (this.eventLog != null) {
+            this.eventLog.snapshot();
+            this.eventLog.close();
+        }
+        if (this.recorder != null) {
+            this.recorder.close();
+        }
+        if (this.countersLogger != null) {
+            this.countersLogger.shutdownNow();
+        }
+    }
+
+    /**
+     * This method prints how many requests of each budget were allowed and limited,
+     * for all clients, how many idle connections were closed, and how many clients
+     * were accepted and refused and how long they waited to be served, every so often.
+     * The counts are used to tune the budgets, the idle timeout and the connection limits.
+     *
+     * @param periodSeconds the seconds between each print.
+     */
+    public void logCounters(int periodSeconds) {
+        this.countersLogger = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "counters-logger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        countersLogger.scheduleAtFixedRate(() -> {
+            System.out.println(RateLimiter.totalsToString());
+            if (idleReaper != null) {
+                System.out.println("Idle connections closed: " + idleReaper.getReapedCount()
+                        + ", watched: " + idleReaper.getSessionCount());
+            }
+            if (admission != null) {
+                System.out.println(admission.countersToString());
+            }
+            if (cluster != null) {
+                System.out.println(cluster.movesToString());
+            }
+            if (eventLog != null) {
+                System.out.println(eventLog.countersToString());
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * This method runs the server on a few event loops instead of a thread per client.
+     * Clients talk the same protocol as with connectToClients, but the
+     * number of connected clients is no longer limited by NUMBER_OF_THREADS.
+     *
+     * @param numberOfLoops the number of event loop threads doing the socket reads and writes.
+     */
+    public void connectToClientsNio(int numberOfLoops) {
+        try {
+            InetSocketAddress address = new InetSocketAddress(InetAddress.getByName(HOST), this.PORT);
+            this.idleReaper = new IdleReaper(idleTimeoutSeconds);
+            this.admission = new AdmissionController(maxConnections, maxConnectionsPerAddress);
+            this.nioServer = new NioGameServer(address, CONNECTION_BACKLOG, numberOfLoops,
+                    Runtime.getRuntime().availableProcessors(),
+                    () -> {
+                        GameServerThread session = new GameServerThread(this.sessions, this.functionDB, this.lobbies,
+                                this.subscribers);
+                        session.setIdleReaper(idleReaper);
+                        if (cluster != null) {
+                            session.setLobbyDirectory(cluster.getDirectory());
+                        }
+                        return session;
+                    });
+            nioServer.setAdmissionController(admission);
+            nioServer.bind();
+
+            System.out.println("Waiting for connections from GameClients on " + numberOfLoops + " event loops");
+            nioServer.acceptConnections();
         } catch (IOException e) {
             System.out.println("Cannot open server socket, host likely already in use.");
         }
     }
 
+    /**
+     * This method lets gateways connect to the server, on a thread of its own. A
+     * gateway holds the client sockets and sends the requests of all its clients
+     * over a few connections, so the clients behind it cost the server no socket,
+     * and heartbeats and idle clients are dealt with by the gateway.
+     *
+     * @param gatewayPort the port gateways connect to.
+     * @throws IOException if the port is already in use.
+     */
+    public void acceptGateways(int gatewayPort) throws IOException {
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getByName(HOST), gatewayPort);
+        this.gatewayBackend = new GatewayBackend(address, () -> {
+            GameServerThread session = new GameServerThread(this.sessions, this.functionDB, this.lobbies,
+                    this.subscribers);
+            if (cluster != null) {
+                session.setLobbyDirectory(cluster.getDirectory());
+            }
+            return session;
+        }, Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()));
+        gatewayBackend.bind();
+
+        Thread acceptThread = new Thread(gatewayBackend::acceptGateways, "gateway-acceptor");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        System.out.println("Waiting for gateways on " + address);
+    }
+
     /**
      * This method gets a list of gameNames
      *
      * @return
      */
     public synchronized ArrayList<String> getGameNames() {
-        return new ArrayList<>(this.gameNames);
+        return new ArrayList<>(this.lobbies.getNames());
     }
 
 
@@ -116,11 +521,15 @@ public class GameServer {
         int port = 0;
         String host = "";
         int maxNumberOfClients = 0;
+        String mode = THREAD_MODE;
+        int idleTimeout = DEFAULT_IDLE_TIMEOUT_SECONDS;
 
         if (args.length == 1 && args[0].equals("-h")) {
             System.out.println("Enter: \'[port]\' or \'[port] [host]\' " +
                     "\nOr \'[port] [host] [max number of clients]\'" +
-                    "\nOr default is \'[7654] [0.0.0.0] [20]\'");
+                    "\nOr \'[port] [host] [max number of clients] [threads|nio|virtual]\'" +
+                    "\nOr \'[port] [host] [max number of clients] [threads|nio|virtual] [idle timeout seconds]\'" +
+                    "\nOr default is \'[7654] [0.0.0.0] [20] [threads] [60]\'");
             return;
         } else if (args.length == 0) {
             port = 7654;
@@ -137,21 +546,109 @@ public class GameServer {
         } else if (args.length == 3) {
             port = Integer.parseInt(args[0]);
             host = args[1];
-            maxNumberOfClients = Integer.parseInt(args[1]);
+            maxNumberOfClients = Integer.parseInt(args[2]);
+        } else if (args.length == 4) {
+            port = Integer.parseInt(args[0]);
+            host = args[1];
+            maxNumberOfClients = Integer.parseInt(args[2]);
+            mode = args[3];
+        } else if (args.length == 5) {
+            port = Integer.parseInt(args[0]);
+            host = args[1];
+            maxNumberOfClients = Integer.parseInt(args[2]);
+            mode = args[3];
+            idleTimeout = Integer.parseInt(args[4]);
         } else {
             System.out.println("Enter: \'[port]\' or \'[port] [host]\' " +
                     "\nOr \'[port] [host] [max number of clients]\'" +
-                    "\nOr default is \'[7654] [0.0.0.0] [20]\'");
+                    "\nOr \'[port] [host] [max number of clients] [threads|nio|virtual]\'" +
+                    "\nOr \'[port] [host] [max number of clients] [threads|nio|virtual] [idle timeout seconds]\'" +
+                    "\nOr default is \'[7654] [0.0.0.0] [20] [threads] [60]\'");
         }
 
-        System.out.println("Host: " + host + ", Port: " + port + ", Max number of client: " + maxNumberOfClients);
+        System.out.println("Host: " + host + ", Port: " + port + ", Max number of client: " + maxNumberOfClients
+                + ", Mode: " + mode + ", Idle timeout: " + idleTimeout + "s");
 
 
         // start server and connect to database
         GameServer server = new GameServer(port, host, maxNumberOfClients);
         server.connectToDatabase();
+        server.setIdleTimeout(idleTimeout);
+        server.logCounters(COUNTERS_LOG_SECONDS);
+
+        // sign the session tokens with a key that survives a restart
+        String lobbyLog = System.getProperty(LobbyEventLog.DIRECTORY_PROPERTY);
+        File tokenKeyFile = new File(System.getProperty(SessionTokens.KEY_FILE_PROPERTY,
+                new File(lobbyLog != null ? lobbyLog : ".", SessionTokens.DEFAULT_KEY_FILE).getPath()));
+        try {
+            server.loadSessionTokenKey(tokenKeyFile);
+        } catch (IOException e) {
+            System.out.println("Cannot read or write the session token key in " + tokenKeyFile + ": "
+                    + e.getMessage());
+            return;
+        }
+
+        // rebuild the games from the lobby log if a directory is set
+        if (lobbyLog != null) {
+            try {
+                server.recoverLobbies(new File(lobbyLog));
+            } catch (IOException e) {
+                System.out.println("Cannot open the lobby log in " + lobbyLog + ".");
+                return;
+            }
+        }
+
+        // record the games if a history file is set
+        String lobbyHistory = System.getProperty(LobbyRecorder.FILE_PROPERTY);
+        if (lobbyHistory != null) {
+            try {
+                server.recordLobbies(new File(lobbyHistory));
+            } catch (IOException e) {
+                System.out.println("Cannot open the lobby history " + lobbyHistory + ".");
+                return;
+            }
+        }
+
+        // join the cluster if a cluster port is set
+        Integer clusterPort = Integer.getInteger(ClusterService.PORT_PROPERTY);
+        if (clusterPort != null) {
+            String clientHost = System.getProperty(ClusterService.HOST_PROPERTY,
+                    host.equals("0.0.0.0") ? "localhost" : host);
+            byte[] clusterSecret = ClusterService.loadSecret();
+            if (clusterSecret == null) {
+                System.out.println("Cannot join the cluster without a secret, set " + ClusterService.SECRET_PROPERTY
+                        + " or " + SessionTokens.KEY_PROPERTY + " to the same value on every server.");
+                return;
+            }
+            try {
+                // only the other servers connect here, so listen on the cluster host rather than every address
+                server.joinCluster(new InetSocketAddress(clientHost, clusterPort),
+                        ClusterService.parseAddresses(System.getProperty(ClusterService.PEERS_PROPERTY)), clientHost,
+                        clusterSecret);
+            } catch (IOException e) {
+                System.out.println("Cannot listen on cluster port " + clientHost + ":" + clusterPort + ".");
+                return;
+            }
+        }
+
+        // let gateways connect if a gateway port is set
+        Integer gatewayPort = Integer.getInteger(GATEWAY_PORT_PROPERTY);
+        if (gatewayPort != null) {
+            try {
+                server.acceptGateways(gatewayPort);
+            } catch (IOException e) {
+                System.out.println("Cannot listen on gateway port " + gatewayPort + ".");
+                return;
+            }
+        }
 
         // wait for client connections
-        server.connectToClients();
+        if (mode.equals(NIO_MODE)) {
+            server.connectToClientsNio(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        } else if (mode.equals(VIRTUAL_MODE)) {
+            server.connectToClientsVirtual();
+        } else {
+            server.connectToClients();
+        }
     }
 }
@@ -1,12 +1,25 @@
 package CardGame;
 
+import CardGame.Cluster.ClusterMember;
+import CardGame.Cluster.LobbyDirectory;
+import CardGame.Codec.Codecs;
+import CardGame.Codec.Frames;
+import CardGame.Codec.RequestRegistry;
+import CardGame.Codec.WireCodec;
 import CardGame.GameEngine.GameLobby;
+import CardGame.GameEngine.GameLobbyListener;
+import CardGame.GameEngine.GameState;
 import CardGame.GameEngine.Hand;
+import CardGame.GameEngine.LobbyRegistry;
 import CardGame.GameEngine.Player;
+import CardGame.Network.ClientConnection;
+import CardGame.Network.IdleReaper;
+import CardGame.Network.OutboundQueue;
+import CardGame.Network.RateLimiter;
+import CardGame.Network.SessionRegistry;
 import CardGame.Pushes.*;
 import CardGame.Requests.*;
 import CardGame.Responses.*;
-import com.google.gson.Gson;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
@@ -15,16 +28,20 @@ import java.io.IOException;
 import java.net.Socket;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.concurrent.ConcurrentLinkedDeque;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static CardGame.ProtocolMessages.*;
 import static CardGame.ProtocolTypes.*;
 import static CardGame.Requests.RequestProtocol.decodeRequest;
-import static CardGame.Responses.ResponseProtocol.encodeResponse;
 
 /**
  * This class implements the Runnable interface and
@@ -32,7 +49,9 @@ import static CardGame.Responses.ResponseProtocol.encodeResponse;
  *
  * @Author Tom Brereton
  */
-public class GameServerThread implements Runnable {
+public class GameServerThread implements Runnable, ClientConnection, GameLobbyListener {
+    private static final int MAX_PLAYERS_PER_GAME = 4;
+
     private Socket toClientSocket;
     private boolean clientAlive;
     private long clientID;
@@ -40,40 +59,94 @@ public class GameServerThread implements Runnable {
     private DataInputStream inputStream;
     private DataOutputStream outputStream;
     private FunctionDB functionDB;
-    private Gson gson;
-    private String gameJoined;
+    private volatile String gameJoined;
+    private volatile WireCodec codec = Codecs.JSON_CODEC;
+    private volatile RateLimiter rateLimiter = new RateLimiter();
+    private volatile IdleReaper idleReaper;
+    private volatile LobbyDirectory directory;
+    private volatile long lastActive = System.currentTimeMillis();
+
+    // pushes
+    private volatile ClientConnection connection;
+    private volatile boolean subscribed;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final OutboundQueue writeQueue = new OutboundQueue();
+    private final AtomicBoolean writing = new AtomicBoolean();
+    private Executor writers = Runnable::run;
+    private final ReentrantLock pushLock = new ReentrantLock();
+    private int messagesPushed;
+    private long gameStatePushed;
+
+    private final SessionRegistry sessions;
+    private final LobbyRegistry lobbies;
+    private final Set<GameServerThread> subscribers;
 
-    private volatile CopyOnWriteArrayList<User> users;
-    private volatile CopyOnWriteArrayList<GameLobby> games;
-    private volatile ConcurrentLinkedDeque<String> gameNames;
 
+    /**
+     * The constructor for the server thread.
+     *
+     * @param toClientSocket socket for the connected client.
+     * @param sessions       The users logged in, by username.
+     * @param functionsDB    The class which gives the thread access the database.
+     * @param lobbies        The game lobbies, by name.
+     */
+    public GameServerThread(Socket toClientSocket,
+                            SessionRegistry sessions,
+                            FunctionDB functionsDB,
+                            LobbyRegistry lobbies) {
+        this(toClientSocket, sessions, functionsDB, lobbies, ConcurrentHashMap.newKeySet());
+    }
 
     /**
      * The constructor for the server thread.
      *
      * @param toClientSocket socket for the connected client.
-     * @param users          The list of users joined.
+     * @param sessions       The users logged in, by username.
      * @param functionsDB    The class which gives the thread access the database.
-     * @param games          The list of games
-     * @param gameNames      The list of game names.
+     * @param lobbies        The game lobbies, by name.
+     * @param subscribers    The server threads whose clients subscribed to pushes.
      */
     public GameServerThread(Socket toClientSocket,
-                            CopyOnWriteArrayList<User> users,
+                            SessionRegistry sessions,
                             FunctionDB functionsDB,
-                            CopyOnWriteArrayList<GameLobby> games,
-                            ConcurrentLinkedDeque<String> gameNames) {
+                            LobbyRegistry lobbies,
+                            Set<GameServerThread> subscribers) {
         this.toClientSocket = toClientSocket;
         this.clientID = Thread.currentThread().getId();
-        this.users = users;
+        this.sessions = sessions;
         this.functionDB = functionsDB;
-        this.games = games;
-        this.gameNames = gameNames;
-        this.gson = new Gson();
+        this.lobbies = lobbies;
+        this.subscribers = subscribers;
         this.user = null;
         this.clientAlive = true;
+        this.connection = this;
         connectStreams();
     }
 
+    /**
+     * The constructor for a server thread which is not bound to a socket.
+     * The transport serving the client passes the requests to handleInput,
+     * sets the connection pushes are sent on, and calls handleDisconnect
+     * once the client has gone.
+     *
+     * @param sessions    The users logged in, by username.
+     * @param functionsDB The class which gives the thread access the database.
+     * @param lobbies     The game lobbies, by name.
+     * @param subscribers The server threads whose clients subscribed to pushes.
+     */
+    public GameServerThread(SessionRegistry sessions,
+                            FunctionDB functionsDB,
+                            LobbyRegistry lobbies,
+                            Set<GameServerThread> subscribers) {
+        this.clientID = Thread.currentThread().getId();
+        this.sessions = sessions;
+        this.functionDB = functionsDB;
+        this.lobbies = lobbies;
+        this.subscribers = subscribers;
+        this.user = null;
+        this.clientAlive = true;
+    }
+
     /**
      * This method runs when the clientSideThread starts.
      * It handles the request received from the client and
@@ -84,40 +157,214 @@ public class GameServerThread implements Runnable {
         try {
             while (clientAlive) {
                 // We read in the request from the client and handle it
-                ResponseProtocol response = handleInput(inputStream.readUTF());
+                ResponseProtocol response = handleFrame(codec.getFrames().readFrame(inputStream));
 
                 // We write the response to the client
-                outputStream.writeUTF(encodeResponse(response));
-                outputStream.flush();
+                writeResponse(response);
                 System.out.println(response);
 
-                // sleep thread
-                try {
-                    Thread.sleep(10);
-                } catch (InterruptedException e) {
-                    System.out.println("Sleep interrupted while waiting reading and writing to client.");
+                // stop reading from a client over its budget until it may send again
+                if (response instanceof ResponseSlowDown) {
+                    try {
+                        Thread.sleep(((ResponseSlowDown) response).getRetryAfter());
+                    } catch (InterruptedException e) {
+                        System.out.println("Sleep interrupted while waiting reading and writing to client.");
+                    }
                 }
             }
         } catch (NullPointerException e) {
             e.printStackTrace();
             System.out.println("Null pointer exception while handling requests.");
+        } catch (IllegalArgumentException e) {
+            System.out.println("Malformed request. GameClient disconnected.");
         } catch (EOFException e) {
             System.out.println("GameClient disconnected.");
         } catch (IOException e) {
             System.out.println("IO problem. GameClient disconnected.");
         } finally {
-            // log user out of client and game on disconnect
-            if (gameJoined != null) {
-                quitGame(gameJoined, getLoggedInUser().getUserName());
-                gameJoined = null;
-            }
-            logUserOut();
+            handleDisconnect();
             System.out.println("Logged in user set to: " + getLoggedInUser());
             System.out.println("Game joined set to: " + gameJoined);
             closeConnections();
         }
     }
 
+    /**
+     * This method logs the user out of the client and the game they joined.
+     * It is called once the connection to the client is lost, by whichever
+     * transport is serving this client.
+     */
+    public void handleDisconnect() {
+        if (idleReaper != null) {
+            idleReaper.remove(this);
+        }
+        subscribers.remove(this);
+        subscribed = false;
+        System.out.println("Requests allowed/limited: " + rateLimiter);
+
+        if (gameJoined != null && !isLoggedInUserNull()) {
+            quitGame(gameJoined, getLoggedInUser().getUserName());
+        }
+        gameJoined = null;
+        logUserOut();
+    }
+
+    /**
+     * This method queues a response to be written to the client socket by a
+     * writer, so a client slow to read does not hold up the thread handling its
+     * requests. Pushes may be queued by other threads, so frames are encoded and
+     * queued one at a time.
+     *
+     * @param response
+     * @throws IOException if the response is too large for the framing, or the client is too slow to read.
+     */
+    private void writeResponse(ResponseProtocol response) throws IOException {
+        writeLock.lock();
+        try {
+            byte[] frame;
+            try {
+                frame = encodeFrame(response);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Response is too large for the framing.", e);
+            }
+            if (!writeQueue.add(response, frame)) {
+                close();
+                throw new IOException("GameClient too slow to read responses.");
+            }
+        } finally {
+            writeLock.unlock();
+        }
+
+        if (writing.compareAndSet(false, true)) {
+            writers.execute(this::writeQueuedFrames);
+        }
+    }
+
+    /**
+     * This method writes the queued frames to the client socket, a batch in each
+     * write. Only one writer runs at a time for each client.
+     */
+    private void writeQueuedFrames() {
+        try {
+            while (true) {
+                byte[][] batch = writeQueue.pollBatch();
+                if (batch == null) {
+                    writing.set(false);
+
+                    // a frame may have been queued after the last poll and before writing was cleared
+                    if (writeQueue.isEmpty() || !writing.compareAndSet(false, true)) {
+                        return;
+                    }
+                    continue;
+                }
+
+                int size = 0;
+                for (byte[] frame : batch) {
+                    size += frame.length;
+                }
+                byte[] frames = new byte[size];
+                int position = 0;
+                for (byte[] frame : batch) {
+                    System.arraycopy(frame, 0, frames, position, frame.length);
+                    position += frame.length;
+                }
+
+                outputStream.write(frames);
+                outputStream.flush();
+            }
+        } catch (IOException e) {
+            System.out.println("IO problem. Cannot write to GameClient.");
+            close();
+        }
+    }
+
+    /**
+     * This method closes the client socket so the thread reading from it stops.
+     * It is the connection used when the thread owns the socket.
+     */
+    @Override
+    public void close() {
+        try {
+            if (toClientSocket != null) {
+                toClientSocket.close();
+            }
+        } catch (IOException e) {
+            System.out.println("Problem closing connections.");
+        }
+    }
+
+    /**
+     * This method closes the connection to the client, whichever transport it is on.
+     *
+     * @return false if there is no connection yet.
+     */
+    public boolean closeConnection() {
+        ClientConnection connection = this.connection;
+        if (connection == null) {
+            return false;
+        }
+        connection.close();
+        return true;
+    }
+
+    /**
+     * @return the time the last request was read from the client.
+     */
+    public long getLastActive() {
+        return lastActive;
+    }
+
+    /**
+     * This method sets the reaper which closes the connection once the client
+     * has sent nothing for the idle timeout.
+     *
+     * @param idleReaper
+     */
+    public void setIdleReaper(IdleReaper idleReaper) {
+        this.idleReaper = idleReaper;
+        idleReaper.add(this);
+    }
+
+    /**
+     * This method sets the executor the queued frames are written to the client socket
+     * on. By default they are written by the thread which queued them.
+     *
+     * @param writers
+     */
+    public void setWriters(Executor writers) {
+        this.writers = writers;
+    }
+
+    /**
+     * This method sends a push to the client socket. It is
+     * the connection used when the thread owns the socket.
+     *
+     * @param response
+     */
+    @Override
+    public void send(ResponseProtocol response) {
+        try {
+            writeResponse(response);
+        } catch (IOException e) {
+            System.out.println("IO problem. Cannot push to GameClient.");
+        }
+    }
+
+    @Override
+    public boolean hasQueued(int pushType) {
+        return writeQueue.hasQueued(pushType);
+    }
+
+    /**
+     * This method sets the connection pushes are sent on, for transports
+     * which do not use a socket owned by this thread.
+     *
+     * @param connection
+     */
+    public void setConnection(ClientConnection connection) {
+        this.connection = connection;
+    }
+
     /**
      * This method connects the input and output data stream to the client socket.
      */
@@ -157,75 +404,493 @@ public class GameServerThread implements Runnable {
      */
     public ResponseProtocol handleInput(String JSONInput) {
 
-        // Deserialize request object
-        RequestProtocol request = decodeRequest(JSONInput);
+        // Deserialize request object as the class for its type
+        return await(handleRequest(decodeRequest(JSONInput)));
+    }
+
+    /**
+     * This method handles a frame read from the client, in the codec
+     * negotiated for this client.
+     *
+     * @param frame the frame, including the length.
+     * @return ResponseProtocol which is sent to the client.
+     * @throws IllegalArgumentException if the frame is malformed.
+     */
+    public ResponseProtocol handleFrame(byte[] frame) {
+        return await(handleFrameAsync(frame));
+    }
+
+    /**
+     * This method handles a frame read from the client, in the codec negotiated
+     * for this client, without waiting for a request about the game to be run.
+     * The next frame must not be handled until the response has been returned.
+     *
+     * @param frame the frame, including the length.
+     * @return the ResponseProtocol which is sent to the client, once it is ready.
+     * @throws IllegalArgumentException if the frame is malformed.
+     */
+    public CompletableFuture<ResponseProtocol> handleFrameAsync(byte[] frame) {
+        return handleRequest(codec.decode(frame, RequestProtocol.class));
+    }
+
+    /**
+     * This method waits for the response, and throws what the request threw if it failed.
+     *
+     * @param response
+     * @return
+     */
+    private static ResponseProtocol await(CompletableFuture<ResponseProtocol> response) {
+        try {
+            return response.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * This method writes the response as a frame in the codec negotiated for
+     * this client. The response to a HELLO is written as JSON, and the codec it
+     * names is used from the next frame on. Callers must encode and write frames
+     * one at a time, so the switch happens between the right two frames.
+     *
+     * @param response
+     * @return the frame, including the length.
+     */
+    public byte[] encodeFrame(ResponseProtocol response) {
+        byte[] frame = codec.encode(response);
+        if (response instanceof ResponseHello && response.getRequestSuccess() == SUCCESS) {
+            ResponseHello responseHello = (ResponseHello) response;
+            codec = Codecs.get(responseHello.getCodec(), responseHello.getFraming(),
+                    responseHello.getCompression());
+        }
+        return frame;
+    }
+
+    /**
+     * @return the limiter for the requests of this client.
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * @param rateLimiter the limiter for the requests of this client.
+     */
+    public void setRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * This method sets the directory of the lobbies on the other servers of the
+     * cluster, so their games are listed and joins for them are sent there.
+     *
+     * @param directory
+     */
+    public void setLobbyDirectory(LobbyDirectory directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return the framing frames from the client are read in.
+     */
+    public Frames getFrames() {
+        return codec.getFrames();
+    }
+
+    /**
+     * @return the codec frames from the client are read and written in.
+     */
+    public WireCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * This method returns a response as per the request sent. A request about
+     * the game joined is queued as one command on the game, so its checks and
+     * its change are made together; the others are handled straight away.
+     *
+     * @param request the request, as the class for its type.
+     * @return ResponseProtocol which is sent to the client, once the request has been handled.
+     */
+    private CompletableFuture<ResponseProtocol> handleRequest(RequestProtocol request) {
 
         // Get packet ID and its type
         int protocolId = request.getProtocolId();
         int requestType = request.getType();
+        lastActive = System.currentTimeMillis();
+
+        if (!RequestRegistry.requestClass(requestType).isInstance(request)) {
+            // return fail if the request is not the class for its type
+            return CompletableFuture.completedFuture(
+                    new ResponseProtocol(protocolId, UNKNOWN_TYPE, FAIL, UNKNOWN_ERROR));
+        }
+
+        long retryAfter = rateLimiter.tryAcquire(requestType);
+        if (retryAfter > 0) {
+            // tell the client to slow down if it is over its budget
+            return CompletableFuture.completedFuture(new ResponseSlowDown(protocolId, retryAfter));
+        }
+
+        GameLobby game = isGameRequest(requestType) ? getGame(gameJoined) : null;
+        if (game != null) {
+            // a command queued before the lobby was frozen to move it must not change it
+            return game.submit(lobby -> handleGameRequest(request, requestType, protocolId,
+                    lobby.isFrozen() ? null : lobby));
+        }
+        return CompletableFuture.completedFuture(handleRequest(request, requestType, protocolId));
+    }
+
+    /**
+     * @param requestType
+     * @return true if the request is about the game joined, and is run as a command on the game.
+     */
+    private static boolean isGameRequest(int requestType) {
+        switch (requestType) {
+            case BET:
+            case HIT:
+            case STAND:
+            case PUSH_PLAYER_NAMES:
+            case PUSH_PLAYER_HANDS:
+            case PUSH_PLAYER_BETS:
+            case PUSH_PLAYER_BUDGETS:
+            case PUSH_PLAYERS_STAND:
+            case PUSH_PLAYERS_WON:
+            case PUSH_PLAYERS_BUST:
+            case PUSH_DEALER_HAND:
+            case PUSH_GAME_STATE:
+            case PUSH_ARE_PLAYERS_FINISHED:
+            case PUSH_ARE_ALL_BETS_PLACED:
+            case SEND_MESSAGE:
+            case GET_MESSAGE:
+                return true;
+            default:
+                return false;
+        }
+    }
 
+    /**
+     * This method returns a response as per the request sent, for requests
+     * which are not run on a game.
+     *
+     * @param request     the request, as the class for its type.
+     * @param requestType
+     * @param protocolId
+     * @return ResponseProtocol which is sent to the client.
+     */
+    private ResponseProtocol handleRequest(RequestProtocol request, int requestType, int protocolId) {
         switch (requestType) {
+            case HELLO:
+                return handleHello(request, protocolId);
+            case HEARTBEAT:
+                return new ResponseHeartbeat(protocolId, SUCCESS);
+            case RESUME_SESSION:
+                return handleResumeSession(request, protocolId);
             case REGISTER_USER:
-                return handleRegisterUser(JSONInput, protocolId);
+                return handleRegisterUser(request, protocolId);
             case LOGIN_USER:
-                return handleLoginUser(JSONInput, protocolId);
+                return handleLoginUser(request, protocolId);
             case LOG_OUT_USER:
-                return handleLogoutUser(JSONInput, protocolId);
-            case SEND_MESSAGE:
-                return handleSendMessage(JSONInput, protocolId);
-            case GET_MESSAGE:
-                return handleGetMessages(JSONInput, protocolId);
+                return handleLogoutUser(request, protocolId);
+            case SUBSCRIBE:
+                return handleSubscribe(request, protocolId);
             case CREATE_GAME:
-                return handleCreateGame(JSONInput, protocolId);
+                return handleCreateGame(request, protocolId);
             case JOIN_GAME:
-                return handleJoinGame(JSONInput, protocolId);
+                return handleJoinGame(request, protocolId);
             case QUIT_GAME:
-                return handleQuitGame(JSONInput, protocolId);
+                return handleQuitGame(request, protocolId);
+            case PUSH_GAME_NAMES:
+                return handleGetGameNames(protocolId);
+            default:
+                // requests about a game, when no game has been joined
+                return handleGameRequest(request, requestType, protocolId, null);
+        }
+    }
+
+    /**
+     * This method returns a response as per the request sent, for requests about
+     * the game joined. It is run as a command on the game, so the game does not
+     * change while it runs.
+     *
+     * @param request     the request, as the class for its type.
+     * @param requestType
+     * @param protocolId
+     * @param game        the game joined, or null if none is.
+     * @return ResponseProtocol which is sent to the client.
+     */
+    private ResponseProtocol handleGameRequest(RequestProtocol request, int requestType, int protocolId,
+                                               GameLobby game) {
+        switch (requestType) {
             case BET:
-                return handleBet(JSONInput, protocolId);
+                return handleBet(request, protocolId, game);
             case HIT:
-                return handleHit(JSONInput, protocolId);
+                return handleHit(request, protocolId, game);
             case STAND:
-                return handleStand(JSONInput, protocolId);
-            case PUSH_GAME_NAMES:
-                return handleGetGameNames(protocolId);
+                return handleStand(request, protocolId, game);
             case PUSH_PLAYER_NAMES:
-                return handleGetPlayerNames(protocolId);
+                return handleGetPlayerNames(protocolId, game);
             case PUSH_PLAYER_HANDS:
-                return handleGetPlayerHands(protocolId);
+                return handleGetPlayerHands(protocolId, game);
             case PUSH_PLAYER_BETS:
-                return handleGetPlayerBets(protocolId);
+                return handleGetPlayerBets(protocolId, game);
             case PUSH_PLAYER_BUDGETS:
-                return handleGetPlayerBudgets(protocolId);
+                return handleGetPlayerBudgets(protocolId, game);
             case PUSH_PLAYERS_STAND:
-                return handleGetPlayersStand(protocolId);
+                return handleGetPlayersStand(protocolId, game);
             case PUSH_PLAYERS_WON:
-                return handleGetPlayersWon(protocolId);
+                return handleGetPlayersWon(protocolId, game);
             case PUSH_PLAYERS_BUST:
-                return handleGetPlayersBust(protocolId);
+                return handleGetPlayersBust(protocolId, game);
             case PUSH_DEALER_HAND:
-                return handleGetDealerhand(protocolId);
+                return handleGetDealerhand(protocolId, game);
+            case PUSH_GAME_STATE:
+                return handleGetGameState(request, protocolId, game);
             case PUSH_ARE_PLAYERS_FINISHED:
-                return handleGetAllPlayersFinished(protocolId);
+                return handleGetAllPlayersFinished(protocolId, game);
             case PUSH_ARE_ALL_BETS_PLACED:
-                return handleGetAllBetsPlaced(protocolId);
+                return handleGetAllBetsPlaced(protocolId, game);
+            case SEND_MESSAGE:
+                return handleSendMessage(request, protocolId, game);
+            case GET_MESSAGE:
+                return handleGetMessages(request, protocolId, game);
             default:
                 return new ResponseProtocol(protocolId, UNKNOWN_TYPE, FAIL, UNKNOWN_ERROR);
         }
     }
 
+    /**
+     * This method handles the HELLO sent after connecting. The first codec,
+     * framing and compression the client lists which the server knows are chosen,
+     * and uncompressed JSON in the short framing if there are none. A HELLO can
+     * only be sent while the connection is still speaking JSON in the short framing.
+     *
+     * @param request
+     * @param protocolId
+     * @return
+     */
+    private ResponseProtocol handleHello(RequestProtocol request, int protocolId) {
+        RequestHello requestHello = (RequestHello) request;
+
+        if (codec != Codecs.JSON_CODEC) {
+            // return fail if a codec was already negotiated
+            return new ResponseHello(protocolId, FAIL, codec.getName(), codec.getFrames().getName(),
+                    Codecs.getCompression(codec), CODEC_ALREADY_CHOSEN);
+        }
+
+        String codecName = Codecs.JSON;
+        if (requestHello.getCodecs() != null) {
+            for (String requestCodec : requestHello.getCodecs()) {
+                if (Codecs.get(requestCodec) != null) {
+                    codecName = requestCodec;
+                    break;
+                }
+            }
+        }
+
+        // older clients send no framings and only read the short framing
+        String framing = Frames.SHORT_NAME;
+        if (requestHello.getFramings() != null) {
+            for (String requestFraming : requestHello.getFramings()) {
+                if (Frames.get(requestFraming) != null) {
+                    framing = requestFraming;
+                    break;
+                }
+            }
+        }
+
+        // and older clients send no compressions and only read uncompressed frames
+        String compression = Codecs.NO_COMPRESSION;
+        if (requestHello.getCompressions() != null) {
+            for (String requestCompression : requestHello.getCompressions()) {
+                if (Codecs.get(codecName, framing, requestCompression) != null) {
+                    compression = requestCompression;
+                    break;
+                }
+            }
+        }
+
+        return new ResponseHello(protocolId, SUCCESS, codecName, framing, compression, "");
+    }
+
+    /**
+     * This method handles requests to subscribe to pushes. Once subscribed,
+     * the client is sent the game names while it is not in a game, and the game
+     * data and chat of the game it joined, whenever they change.
+     *
+     * @param request
+     * @param protocolId
+     * @return
+     */
+    private ResponseProtocol handleSubscribe(RequestProtocol request, int protocolId) {
+        RequestSubscribe requestSubscribe = (RequestSubscribe) request;
+
+        if (connection == null) {
+            // return fail if there is no connection to push to
+            return new ResponseSubscribe(protocolId, FAIL, UNKNOWN_ERROR);
+        }
+
+        subscribed = requestSubscribe.isSubscribe();
+        GameLobby game = gameJoined != null ? getGame(gameJoined) : null;
+
+        if (subscribed) {
+            subscribers.add(this);
+            if (game != null) {
+                subscribeToGame(game);
+            }
+        } else {
+            subscribers.remove(this);
+            if (game != null) {
+                game.removeListener(this);
+            }
+        }
+
+        return new ResponseSubscribe(protocolId, SUCCESS);
+    }
+
+    /**
+     * This method listens to the game for changes. Chat messages already in the
+     * game are not pushed, the client gets those with a GET_MESSAGE request.
+     *
+     * @param game
+     */
+    private void subscribeToGame(GameLobby game) {
+        pushLock.lock();
+        try {
+            messagesPushed = game.getMessageQueue().size();
+            gameStatePushed = -1;
+        } finally {
+            pushLock.unlock();
+        }
+        game.addListener(this);
+    }
+
+    /**
+     * This method is called when the game joined changes and pushes what changed since the last push to
+     * the client. The first push after joining is the whole game, and so is a push while the last one is
+     * still waiting to be written, which it replaces, so a slow client gets fewer frames and not more.
+     *
+     * @param lobby the lobby which changed.
+     */
+    @Override
+    public void gameChanged(GameLobby lobby) {
+        if (!subscribed || !lobby.getLobbyName().equals(gameJoined)) {
+            return;
+        }
+
+        pushLock.lock();
+        try {
+            boolean behind = gameStatePushed != -1 && connection.hasQueued(PUSH_GAME_STATE);
+            GameState gameState = lobby.getGameState(behind ? -1 : gameStatePushed);
+            if (gameState != null) {
+                gameStatePushed = gameState.getVersion();
+                connection.send(new PushGameState(PUSH_PROTOCOL_ID, SUCCESS, gameState));
+            }
+        } finally {
+            pushLock.unlock();
+        }
+    }
+
+    /**
+     * This method is called when a message is added to the game joined and pushes
+     * the messages the client has not been sent. The offset is the size of the
+     * message queue, as for a GET_MESSAGE response.
+     *
+     * @param lobby the lobby which changed.
+     */
+    @Override
+    public void messagesChanged(GameLobby lobby) {
+        if (!subscribed || !lobby.getLobbyName().equals(gameJoined)) {
+            return;
+        }
+
+        pushLock.lock();
+        try {
+            ArrayList<MessageObject> messageArrayList = new ArrayList<>(lobby.getMessageQueue());
+            if (messageArrayList.size() <= messagesPushed) {
+                return;
+            }
+
+            ArrayList<MessageObject> messagesToClient =
+                    new ArrayList<>(messageArrayList.subList(messagesPushed, messageArrayList.size()));
+            messagesPushed = messageArrayList.size();
+            connection.send(new ResponseGetMessages(PUSH_PROTOCOL_ID, SUCCESS, messagesToClient, messagesPushed));
+        } finally {
+            pushLock.unlock();
+        }
+    }
+
+    /**
+     * This method pushes the game names to every subscribed client which is not in a game.
+     */
+    private void pushGameNames() {
+        pushGameNames(subscribers, getGameNames());
+    }
+
+    /**
+     * This method pushes the game names to every subscribed client which is not in a game.
+     *
+     * @param subscribers the server threads whose clients subscribed to pushes.
+     * @param gameNames
+     */
+    static void pushGameNames(Set<GameServerThread> subscribers, Set<String> gameNames) {
+        PushGameNames pushGameNames = new PushGameNames(PUSH_PROTOCOL_ID, SUCCESS, gameNames);
+
+        for (GameServerThread subscriber : subscribers) {
+            if (subscriber.getGameJoined() == null) {
+                subscriber.connection.send(pushGameNames);
+            }
+        }
+    }
+
+    /**
+     * This method tells the client its game has moved to another server, where it
+     * resumes its session in the game.
+     *
+     * @param owner     the server the game moved to.
+     * @param lobbyName
+     */
+    public void redirectTo(ClusterMember owner, String lobbyName) {
+        if (lobbyName.equals(gameJoined)) {
+            connection.send(new PushRedirect(PUSH_PROTOCOL_ID, SUCCESS, owner.getHost(), owner.getPort(), lobbyName));
+        }
+    }
+
+    /**
+     * This method handles requests for a snapshot of the game joined. Only what
+     * changed since the version in the request is sent, and nothing if the game is unchanged.
+     *
+     * @param request
+     * @param protocolId
+     * @param game
+     * @return
+     */
+    private ResponseProtocol handleGetGameState(RequestProtocol request, int protocolId, GameLobby game) {
+        RequestGetGameState requestGetGameState = (RequestGetGameState) request;
+
+        if (game == null) {
+            // return fail if user has not joined a game
+            return new PushGameState(protocolId, FAIL, NO_GAME_JOINED);
+        }
+
+        return new PushGameState(protocolId, SUCCESS, game.getGameState(requestGetGameState.getVersion()));
+    }
+
     /**
      * This method handles requests for allBetsPlaced variable.
      * @param protocolId
+     * @param game
      * @return
      */
-    private ResponseProtocol handleGetAllBetsPlaced(int protocolId) {
+    private ResponseProtocol handleGetAllBetsPlaced(int protocolId, GameLobby game) {
         boolean allBetsPlaced = false;
-        if (gameJoined != null) {
-            allBetsPlaced = this.getGame(gameJoined).isAllPlayersBetPlaced();
+        if (game != null) {
+            allBetsPlaced = game.isAllPlayersBetPlaced();
         }
 
-        return new PushAreAllPlayersFinished(protocolId, SUCCESS, allBetsPlaced);
+        return new PushAreAllBetsPlaced(protocolId, SUCCESS, allBetsPlaced);
 
     }
 
@@ -233,12 +898,13 @@ public class GameServerThread implements Runnable {
      * This method handles requests for the AllPlayersFinished variable.
      *
      * @param protocolId
+     * @param game
      * @return
      */
-    private ResponseProtocol handleGetAllPlayersFinished(int protocolId) {
+    private ResponseProtocol handleGetAllPlayersFinished(int protocolId, GameLobby game) {
         boolean allPlayersFinished = false;
-        if (gameJoined != null) {
-            allPlayersFinished = this.getGame(gameJoined).isAllPlayersFinished();
+        if (game != null) {
+            allPlayersFinished = game.isAllPlayersFinished();
         }
 
         return new PushAreAllPlayersFinished(protocolId, SUCCESS, allPlayersFinished);
@@ -248,12 +914,13 @@ public class GameServerThread implements Runnable {
      * This method handles request for the dealer hand.
      *
      * @param protocolId
+     * @param game
      * @return
      */
-    private ResponseProtocol handleGetDealerhand(int protocolId) {
+    private ResponseProtocol handleGetDealerhand(int protocolId, GameLobby game) {
         Hand dealerHand = null;
-        if (gameJoined != null) {
-            dealerHand = this.getGame(gameJoined).getDealerHand();
+        if (game != null) {
+            dealerHand = game.getGameState().getDealerHand();
         }
 
         return new PushDealerHand(protocolId, SUCCESS, dealerHand);
@@ -263,12 +930,13 @@ public class GameServerThread implements Runnable {
      * This method handles requests for which players are bust.
      *
      * @param protocolId
+     * @param game
      * @return
      */
-    private ResponseProtocol handleGetPlayersBust(int protocolId) {
+    private ResponseProtocol handleGetPlayersBust(int protocolId, GameLobby game) {
         Map<String, Boolean> playersBust = null;
-        if (gameJoined != null) {
-            playersBust = this.getGame(gameJoined).getPlayersBust();
+        if (game != null) {
+            playersBust = new HashMap<>(game.getPlayersBust());
         }
 
         return new PushPlayersBust(protocolId, SUCCESS, playersBust);
@@ -278,12 +946,13 @@ public class GameServerThread implements Runnable {
      * This method handles request for which players have won.
      *
      * @param protocolId
+     * @param game
      * @return
      */
-    private ResponseProtocol handleGetPlayersWon(int protocolId) {
+    private ResponseProtocol handleGetPlayersWon(int protocolId, GameLobby game) {
         Map<String, Boolean> playersWon = null;
-        if (gameJoined != null) {
-            playersWon = this.getGame(gameJoined).getPlayersWon();
+        if (game != null) {
+            playersWon = new HashMap<>(game.getPlayersWon());
         }
 
         return new PushPlayersWon(protocolId, SUCCESS, playersWon);
@@ -293,12 +962,13 @@ public class GameServerThread implements Runnable {
      * This method handles requests for which players are standing.
      *
      * @param protocolId
+     * @param game
      * @return
      */
-    private ResponseProtocol handleGetPlayersStand(int protocolId) {
+    private ResponseProtocol handleGetPlayersStand(int protocolId, GameLobby game) {
         Map<String, Boolean> playersStand = null;
-        if (gameJoined != null) {
-            playersStand = this.getGame(gameJoined).getPlayersStand();
+        if (game != null) {
+            playersStand = new HashMap<>(game.getPlayersStand());
         }
 
         return new PushPlayersStand(protocolId, SUCCESS, playersStand);
@@ -308,12 +978,13 @@ public class GameServerThread implements Runnable {
      * This method handles requests for the player budgets.
      *
      * @param protocolId
+     * @param game
      * @return
      */
-    private ResponseProtocol handleGetPlayerBudgets(int protocolId) {
+    private ResponseProtocol handleGetPlayerBudgets(int protocolId, GameLobby game) {
         Map<String, Integer> playerBudgets = null;
-        if (gameJoined != null) {
-            playerBudgets = this.getGame(gameJoined).getPlayerBudgets();
+        if (game != null) {
+            playerBudgets = game.getPlayerBudgets();
         }
 
         return new PushPlayerBudgets(protocolId, SUCCESS, playerBudgets);
@@ -323,12 +994,13 @@ public class GameServerThread implements Runnable {
      * This method handles requests for the player bets.
      *
      * @param protocolId
+     * @param game
      * @return
      */
-    private ResponseProtocol handleGetPlayerBets(int protocolId) {
+    private ResponseProtocol handleGetPlayerBets(int protocolId, GameLobby game) {
         Map<String, Integer> playerBets = null;
-        if (gameJoined != null) {
-            playerBets = this.getGame(gameJoined).getPlayerBets();
+        if (game != null) {
+            playerBets = game.getPlayerBets();
         }
 
         return new PushPlayerBets(protocolId, SUCCESS, playerBets);
@@ -338,12 +1010,13 @@ public class GameServerThread implements Runnable {
      * This method handles requests for the player hands (cards).
      *
      * @param protocolId
+     * @param game
      * @return
      */
-    private ResponseProtocol handleGetPlayerHands(int protocolId) {
+    private ResponseProtocol handleGetPlayerHands(int protocolId, GameLobby game) {
         Map<String, Hand> playerHands = null;
-        if (gameJoined != null) {
-            playerHands = this.getGame(gameJoined).getPlayerHands();
+        if (game != null) {
+            playerHands = game.getGameState().getPlayerHands();
         }
 
         return new PushPlayerHands(protocolId, SUCCESS, playerHands);
@@ -363,12 +1036,13 @@ public class GameServerThread implements Runnable {
      * This method handles requests for the player names in a game.
      *
      * @param protocolId
+     * @param game
      * @return
      */
-    private ResponseProtocol handleGetPlayerNames(int protocolId) {
+    private ResponseProtocol handleGetPlayerNames(int protocolId, GameLobby game) {
         Set<String> playerNames = null;
-        if (gameJoined != null) {
-            playerNames = new TreeSet<>(this.getGame(gameJoined).getPlayerNames());
+        if (game != null) {
+            playerNames = new TreeSet<>(game.getPlayerNames());
         }
 
         return new PushPlayerNames(protocolId, SUCCESS, playerNames);
@@ -377,12 +1051,13 @@ public class GameServerThread implements Runnable {
     /**
      * This method handles requests for making a player stand.
      *
-     * @param jsonInput
+     * @param request
      * @param protocolId
+     * @param game
      * @return
      */
-    private ResponseProtocol handleStand(String jsonInput, int protocolId) {
-        RequestStand requestStand = gson.fromJson(jsonInput, RequestStand.class);
+    private ResponseProtocol handleStand(RequestProtocol request, int protocolId, GameLobby game) {
+        RequestStand requestStand = (RequestStand) request;
         String userFromRequest = requestStand.getUsername();
 
 
@@ -398,17 +1073,21 @@ public class GameServerThread implements Runnable {
             // return fail if request user does not match logged in user
             return new ResponseStand(protocolId, FAIL, USERNAME_MISMATCH);
 
-        } else if (!getGame(gameJoined).getPlayer(getLoggedInUser()).isBetPlaced()) {
+        } else if (game == null || game.getPlayer(getLoggedInUser()) == null) {
+            // return fail if user has not joined a game
+            return new ResponseStand(protocolId, FAIL, NO_GAME_JOINED);
+
+        } else if (!game.getPlayer(getLoggedInUser()).isBetPlaced()) {
             // return fail if user has not places a bet
             return new ResponseStand(protocolId, FAIL, NO_BET);
 
-        } else if (getGame(gameJoined).getPlayer(getLoggedInUser()).isPlayerStand()) {
+        } else if (game.getPlayer(getLoggedInUser()).isPlayerStand()) {
             // return fail if player is already standing
             return new ResponseStand(protocolId, FAIL, ALREADY_STANDING);
 
-        } else if (!getGame(gameJoined).getPlayer(getLoggedInUser()).isPlayerStand()) {
+        } else if (!game.getPlayer(getLoggedInUser()).isPlayerStand()) {
             // if the player is not standing, make player stand
-            getGame(gameJoined).setPlayerStand(getLoggedInUser().getUserName());
+            game.setPlayerStand(getLoggedInUser().getUserName());
             // return success if player is now standing
             return new ResponseStand(protocolId, SUCCESS);
 
@@ -422,12 +1101,13 @@ public class GameServerThread implements Runnable {
      * This method handles requests for 'Hit', which means giving another
      * card to the player.
      *
-     * @param jsonInput
+     * @param request
      * @param protocolId
+     * @param game
      * @return
      */
-    private ResponseProtocol handleHit(String jsonInput, int protocolId) {
-        RequestHit requestHit = gson.fromJson(jsonInput, RequestHit.class);
+    private ResponseProtocol handleHit(RequestProtocol request, int protocolId, GameLobby game) {
+        RequestHit requestHit = (RequestHit) request;
         String userFromRequest = requestHit.getUsername();
 
         if (isLoggedInUserNull()) {
@@ -442,25 +1122,29 @@ public class GameServerThread implements Runnable {
             // return fail if request user does not match logged in user
             return new ResponseHit(protocolId, FAIL, USERNAME_MISMATCH);
 
-        } else if (getGame(gameJoined).getPlayer(getLoggedInUser()).isFinishedRound()) {
+        } else if (game == null || game.getPlayer(getLoggedInUser()) == null) {
+            // return fail if user has not joined a game
+            return new ResponseHit(protocolId, FAIL, NO_GAME_JOINED);
+
+        } else if (game.getPlayer(getLoggedInUser()).isFinishedRound()) {
             // return fail if user has finished round
             return new ResponseHit(protocolId, FAIL, FINISHED_ROUND);
 
-        } else if (getGame(gameJoined).getPlayer(getLoggedInUser()).isBust()) {
+        } else if (game.getPlayer(getLoggedInUser()).isBust()) {
             // return fail if user is bust
             return new ResponseHit(protocolId, FAIL, PLAYER_BUST);
 
-        } else if (!getGame(gameJoined).getPlayer(getLoggedInUser()).isBetPlaced()) {
+        } else if (!game.getPlayer(getLoggedInUser()).isBetPlaced()) {
             // return fail if user has not places a bet
             return new ResponseHit(protocolId, FAIL, NO_BET);
 
-        } else if (getGame(gameJoined).getPlayer(getLoggedInUser()).isPlayerStand()) {
+        } else if (game.getPlayer(getLoggedInUser()).isPlayerStand()) {
             // return fail if all players standing
             return new ResponseHit(protocolId, FAIL, ALREADY_STANDING);
 
-        } else if (!getGame(gameJoined).getPlayer(getLoggedInUser()).isPlayerStand()) {
+        } else if (!game.getPlayer(getLoggedInUser()).isPlayerStand()) {
             // if player has not finished the round, give the player a card
-            getGame(gameJoined).hit(getLoggedInUser());
+            game.hit(getLoggedInUser());
             // return success
             return new ResponseHit(protocolId, SUCCESS);
 
@@ -474,12 +1158,13 @@ public class GameServerThread implements Runnable {
      * This method handles requests for 'Bet', which places a bet for a player
      * in a game.
      *
-     * @param jsonInput
+     * @param request
      * @param protocolId
+     * @param game
      * @return
      */
-    private ResponseProtocol handleBet(String jsonInput, int protocolId) {
-        RequestBet requestBet = gson.fromJson(jsonInput, RequestBet.class);
+    private ResponseProtocol handleBet(RequestProtocol request, int protocolId, GameLobby game) {
+        RequestBet requestBet = (RequestBet) request;
         String userFromRequest = requestBet.getUsername();
         int betAmount = requestBet.getBetAmount();
 
@@ -495,21 +1180,25 @@ public class GameServerThread implements Runnable {
             // return fail if request user does not match logged in user
             return new ResponseBet(protocolId, FAIL, USERNAME_MISMATCH);
 
+        } else if (game == null || game.getPlayer(getLoggedInUser()) == null) {
+            // return fail if user has not joined a game
+            return new ResponseBet(protocolId, FAIL, NO_GAME_JOINED);
+
         } else if (betAmount < 5) {
             // return fail if bet is less than 5 pounds
             return new ResponseBet(protocolId, FAIL, BET_TOO_SMALL);
 
-        } else if (!isBetWithinBudget(betAmount)) {
+        } else if (!isBetWithinBudget(game, betAmount)) {
             // return fail if bet amount is not within budget
             return new ResponseBet(protocolId, FAIL, BET_NOT_IN_BUDGET);
 
-        } else if (isBetPlaced()) {
+        } else if (isBetPlaced(game)) {
             // return fail
             return new ResponseBet(protocolId, FAIL, PLAYER_BET_PLACED);
 
-        } else if (isBetWithinBudget(betAmount)) {
+        } else if (isBetWithinBudget(game, betAmount)) {
             // make bet and push it to all players
-            makeBet(betAmount);
+            makeBet(game, betAmount);
             // return success if bet within budget
             return new ResponseBet(protocolId, SUCCESS);
 
@@ -524,26 +1213,27 @@ public class GameServerThread implements Runnable {
      * This method checks that the bet sent in the request is
      * within the player budget. Returns true if it is, false if not.
      *
+     * @param game
      * @param betAmount
      * @return
      */
-    private boolean isBetWithinBudget(int betAmount) {
+    private boolean isBetWithinBudget(GameLobby game, int betAmount) {
         User l = getLoggedInUser();
-        GameLobby g = getGame(gameJoined);
-        Player p = g.getPlayer(l);
+        Player p = game.getPlayer(l);
         Boolean b = p.isBetWithinBudget(betAmount);
         return b;
-//        return getGame(gameJoined).getPlayer(getLoggedInUser()).isBetWithinBudget(betAmount);
+//        return game.getPlayer(getLoggedInUser()).isBetWithinBudget(betAmount);
     }
 
     /**
      * This method checks whether the players is bet
      * Returns true if it is, false if not.
      *
+     * @param game
      * @return
      */
-    private boolean isBetPlaced() {
-        return getGame(gameJoined).getPlayer(getLoggedInUser()).isBetPlaced();
+    private boolean isBetPlaced(GameLobby game) {
+        return game.getPlayer(getLoggedInUser()).isBetPlaced();
     }
 
     /**
@@ -552,13 +1242,14 @@ public class GameServerThread implements Runnable {
      * then pushes bets, budgets and playersFinished to all clients
      * in the same game.
      *
+     * @param game
      * @param increaseAmountOfBet
      */
-    private void doubleBet(int increaseAmountOfBet) {
+    private void doubleBet(GameLobby game, int increaseAmountOfBet) {
         // set player bet
-        getGame(gameJoined).getPlayer(getLoggedInUser()).setBet(increaseAmountOfBet);
-        getGame(gameJoined).hit(getLoggedInUser().getUserName());
-        getGame(gameJoined).getPlayer(getLoggedInUser()).setFinishedRound(true);
+        game.getPlayer(getLoggedInUser()).setBet(increaseAmountOfBet);
+        game.hit(getLoggedInUser().getUserName());
+        game.getPlayer(getLoggedInUser()).setFinishedRound(true);
 
     }
 
@@ -568,39 +1259,23 @@ public class GameServerThread implements Runnable {
      * then pushes bets, budgets and playersFinished to all clients
      * in the same game.
      *
+     * @param game
      * @param betAmount
      */
-    private void makeBet(int betAmount) {
-        if (getGame(gameJoined).isAllPlayersBetPlaced()) {
-            getGame(gameJoined).nextGame();
-        }
-
-        // set player bet
-        getGame(gameJoined).getPlayer(getLoggedInUser()).setBet(betAmount);
-
-        // set player bet placed
-        getGame(gameJoined).getPlayer(getLoggedInUser()).setBetPlaced(true);
-
-        //check all bets are placed and set allbetplaced to true if so
-        getGame(gameJoined).allPlayersBetPlaced();
-
-
-        if (getGame(gameJoined).isAllPlayersBetPlaced()) {
-            // if all players finished deal cards to players and dealer i.e. start game
-            getGame(gameJoined).startGame();
-        }
+    private void makeBet(GameLobby game, int betAmount) {
+        game.placeBet(getLoggedInUser().getUserName(), betAmount);
     }
 
 
     /**
      * This method logs a user out of the client.
      *
-     * @param jsonInput
+     * @param request
      * @param protocolId
      * @return
      */
-    private ResponseProtocol handleLogoutUser(String jsonInput, int protocolId) {
-        RequestLogOut requestLogOut = gson.fromJson(jsonInput, RequestLogOut.class);
+    private ResponseProtocol handleLogoutUser(RequestProtocol request, int protocolId) {
+        RequestLogOut requestLogOut = (RequestLogOut) request;
         String userFromRequest = requestLogOut.getUsername();
 
         if (isLoggedInUserNull()) {
@@ -616,7 +1291,8 @@ public class GameServerThread implements Runnable {
             return new ResponseLogOut(protocolId, FAIL, USERNAME_MISMATCH);
 
         } else if (getLoggedInUser().getUserName().equals(userFromRequest)) {
-            // log user out
+            // log user out, and stop its session tokens resuming the session
+            sessions.getTokens().revoke(userFromRequest);
             logUserOut();
             // return success if request user matches logged in user
             return new ResponseLogOut(protocolId, SUCCESS);
@@ -628,16 +1304,18 @@ public class GameServerThread implements Runnable {
     }
 
     /**
-     * This method sets user to null and removes
-     * user from users.
+     * This method sets user to null and releases
+     * the username for other sessions.
      */
     private void logUserOut() {
         // set logged in user to null
         User tempUser = getLoggedInUser();
         user = null;
 
-        // remove user from users
-        removeUserFromUsers(tempUser);
+        // release the username if this session claimed it
+        if (tempUser != null) {
+            sessions.release(tempUser.getUserName(), this);
+        }
     }
 
     /**
@@ -645,12 +1323,12 @@ public class GameServerThread implements Runnable {
      * the user is no longer subscribed to the game pushes, and sets
      * gameJoined to null.
      *
-     * @param JSONinput
+     * @param request
      * @param protocolId
      * @return
      */
-    private ResponseProtocol handleQuitGame(String JSONinput, int protocolId) {
-        RequestQuitGame requestQuitGame = this.gson.fromJson(JSONinput, RequestQuitGame.class);
+    private ResponseProtocol handleQuitGame(RequestProtocol request, int protocolId) {
+        RequestQuitGame requestQuitGame = (RequestQuitGame) request;
 
         String requestUsername = requestQuitGame.getUsername();
         String gameToQuit = requestQuitGame.getGameToQuit();
@@ -663,7 +1341,7 @@ public class GameServerThread implements Runnable {
             // return fail if log in user does not match request user
             return new ResponseQuitGame(protocolId, FAIL, USERNAME_MISMATCH);
 
-        } else if (this.getGames().size() == 0) {
+        } else if (lobbies.isEmpty()) {
             // return fail if no games exist
             return new ResponseQuitGame(protocolId, FAIL, NO_GAMES);
 
@@ -687,49 +1365,41 @@ public class GameServerThread implements Runnable {
      */
     private void quitGame(String gameToQuit, String requestUsername) {
         if (getGame(gameToQuit) != null && getGame(gameToQuit).getPlayer(requestUsername) != null) {
+            getGame(gameToQuit).removeListener(this);
             getGame(gameToQuit).removePlayer(requestUsername);
             this.gameJoined = null;
 
             // if no players in the game, remove the game
-            if (getGame(gameToQuit).getPlayers().size() == 0) {
-                removeGame(gameToQuit);
-                gameNames.remove(gameToQuit);
+            if (lobbies.removeIfEmpty(gameToQuit)) {
+                pushGameNames();
             }
 
-            updateGameNames();
-
         }
     }
 
     /**
-     * This method removes games from the list, 'games'.
+     * This method removes the game, if no player is left in it.
      *
      * @param gameToRemove The name of the game to remove.
+     * @return true if the game was removed.
      */
-    public void removeGame(String gameToRemove) {
-        int gameIndex = 0;
-        for (GameLobby game : games) {
-            if (game.getLobbyName().equals(gameToRemove)) {
-                break;
-            }
-            gameIndex++;
-        }
-
-        games.remove(gameIndex);
+    public boolean removeGame(String gameToRemove) {
+        return lobbies.removeIfEmpty(gameToRemove);
     }
 
     /**
      * This method joins the user to the game sent in the request.
      *
-     * @param JSONinput
+     * @param request
      * @param protocolId
      * @return
      */
-    private ResponseProtocol handleJoinGame(String JSONinput, int protocolId) {
-        RequestJoinGame requestJoinGame = this.gson.fromJson(JSONinput, RequestJoinGame.class);
+    private ResponseProtocol handleJoinGame(RequestProtocol request, int protocolId) {
+        RequestJoinGame requestJoinGame = (RequestJoinGame) request;
 
         String requestUsername = requestJoinGame.getUsername();
         String gameToJoin = requestJoinGame.getGameToJoin();
+        ClusterMember owner = getGame(gameToJoin) == null ? getOwner(gameToJoin) : null;
 
         if (this.getLoggedInUser() == null) {
             // return fail if no one logged in
@@ -739,7 +1409,11 @@ public class GameServerThread implements Runnable {
             // return fail if log in user does not match request user
             return new ResponseJoinGame(protocolId, FAIL, USERNAME_MISMATCH);
 
-        } else if (this.getGames().size() == 0) {
+        } else if (owner != null) {
+            // return fail with the server to connect to if the game is on another server
+            return new ResponseJoinGame(protocolId, FAIL, GAME_ON_OTHER_SERVER, owner.getHost(), owner.getPort());
+
+        } else if (lobbies.isEmpty()) {
             // return fail if no games exist
             return new ResponseJoinGame(protocolId, FAIL, NO_GAMES);
 
@@ -747,13 +1421,17 @@ public class GameServerThread implements Runnable {
             // return fail if game to join does not exist
             return new ResponseJoinGame(protocolId, FAIL, NO_GAME);
 
-        } else if (getGame(gameToJoin).getPlayers().size() >= 4) {
+        } else if (getGame(gameToJoin).getPlayers().size() >= MAX_PLAYERS_PER_GAME) {
             // return fail if game full (more than 4 players)
             return new ResponseJoinGame(protocolId, FAIL, GAME_FULL);
 
         } else {
             this.gameJoined = gameToJoin;
-            joinGame(gameToJoin);
+            if (joinGame(gameToJoin) == null) {
+                // return fail if the game filled up or was removed since it was checked
+                this.gameJoined = null;
+                return new ResponseJoinGame(protocolId, FAIL, getGame(gameToJoin) == null ? NO_GAME : GAME_FULL);
+            }
             return new ResponseJoinGame(protocolId, SUCCESS);
         }
     }
@@ -765,9 +1443,9 @@ public class GameServerThread implements Runnable {
      * @param protocolId
      * @return
      */
-    private ResponseProtocol handleCreateGame(String JSONInput, int protocolId) {
-        RequestCreateGame request = gson.fromJson(JSONInput, RequestCreateGame.class);
-        String requestUsername = request.getUsername();
+    private ResponseProtocol handleCreateGame(RequestProtocol request, int protocolId) {
+        RequestCreateGame requestCreateGame = (RequestCreateGame) request;
+        String requestUsername = requestCreateGame.getUsername();
 
         if (isLoggedInUserNull()) {
             // return fail if not logged in
@@ -786,6 +1464,10 @@ public class GameServerThread implements Runnable {
             return new ResponseCreateGame(protocolId, FAIL,
                     getGame(requestUsername).getLobbyName(), GAME_ALREADY_EXISTS);
 
+        } else if (getOwner(requestUsername) != null) {
+            // return fail if another server has a game with the name
+            return new ResponseCreateGame(protocolId, FAIL, requestUsername, GAME_ALREADY_EXISTS);
+
         } else if (gameJoined != null) {
             // return fail if already in a game
             return new ResponseCreateGame(protocolId, FAIL,
@@ -793,10 +1475,15 @@ public class GameServerThread implements Runnable {
 
         } else if (getGame(requestUsername) == null) {
             // create game if game does not exist
-            GameLobby newGame = createGame();
-            String gameName = newGame.getLobbyName();
             // set game joined to logged in user name
             this.gameJoined = getLoggedInUser().getUserName();
+            GameLobby newGame = createGame();
+            if (newGame == null) {
+                // return fail if the game was created by another client since it was checked
+                this.gameJoined = null;
+                return new ResponseCreateGame(protocolId, FAIL, requestUsername, GAME_ALREADY_EXISTS);
+            }
+            String gameName = newGame.getLobbyName();
             // return success
             return new ResponseCreateGame(protocolId, SUCCESS, gameName);
 
@@ -807,23 +1494,45 @@ public class GameServerThread implements Runnable {
     }
 
 
-    private void joinGame(String lobbyname) {
-        getGame(lobbyname).addPlayer(this.getLoggedInUser());
+    /**
+     * This method adds the logged in user to the game. The client subscribes
+     * first, so it is pushed the game it joined.
+     *
+     * @param lobbyname
+     * @return the game joined, or null if it is full or no longer exists.
+     */
+    private GameLobby joinGame(String lobbyname) {
+        GameLobby lobby = getGame(lobbyname);
+        if (lobby == null) {
+            return null;
+        }
+        if (subscribed) {
+            subscribeToGame(lobby);
+        }
+
+        GameLobby joined = lobbies.join(lobbyname, this.getLoggedInUser(), MAX_PLAYERS_PER_GAME);
+        if (joined == null) {
+            lobby.removeListener(this);
+        }
+        return joined;
     }
 
     /**
      * This method creates a game with the name of the logged in user.
-     * It adds the new game to the list of games, updates the gamesNames, and pushes
-     * the gamesList to all clients.
+     * It adds the new game to the lobbies and pushes the game names to all clients.
      *
-     * @return
+     * @return the game created, or null if a game with the name exists.
      */
     private GameLobby createGame() {
-        GameLobby newGame = new GameLobby(getLoggedInUser());
-
-        this.getGames().add(newGame);
+        GameLobby newGame = lobbies.create(getLoggedInUser());
+        if (newGame == null) {
+            return null;
+        }
+        if (subscribed) {
+            subscribeToGame(newGame);
+        }
 
-        updateGameNames();
+        pushGameNames();
 
         return newGame;
     }
@@ -834,20 +1543,21 @@ public class GameServerThread implements Runnable {
      * method returns a responseGetMessages which contains all the messages
      * as specified by the offset in the request.
      *
-     * @param JSONInput
+     * @param request
      * @param protocolId
+     * @param game       the game joined, or null if none is or it is being moved.
      * @return
      */
-    private ResponseProtocol handleGetMessages(String JSONInput, int protocolId) {
-        RequestGetMessages requestGetMessages = this.gson.fromJson(JSONInput, RequestGetMessages.class);
+    private ResponseProtocol handleGetMessages(RequestProtocol request, int protocolId, GameLobby game) {
+        RequestGetMessages requestGetMessages = (RequestGetMessages) request;
         int offset = requestGetMessages.getOffset();
 
         if (getLoggedInUser() == null) {
             // return fail if user not logged in
             return new ResponseGetMessages(protocolId, FAIL, null, NOT_LOGGED_IN);
 
-        } else if (gameJoined == null) {
-            // return fail if user has not joined a game
+        } else if (gameJoined == null || game == null) {
+            // return fail if user has not joined a game, or it is moving to another server
             return new ResponseGetMessages(protocolId, FAIL, null, NO_GAME_JOINED);
 
         } else if (offset < -1) {
@@ -856,9 +1566,9 @@ public class GameServerThread implements Runnable {
 
         } else if (offset >= -1) {
             // get messages from queue as per the offset
-            ArrayList<MessageObject> messagesToClient = getMessages(requestGetMessages);
+            ArrayList<MessageObject> messagesToClient = getMessages(requestGetMessages, game);
             // get offset
-            int offsetFromQueue = getGame(gameJoined).getMessageQueue().size();
+            int offsetFromQueue = game.getMessageQueue().size();
             // return success if offset greater than -2
             return new ResponseGetMessages(protocolId, SUCCESS, messagesToClient, offsetFromQueue);
 
@@ -875,13 +1585,14 @@ public class GameServerThread implements Runnable {
      * return an arraylist of the messages as specified by the offset in the request.
      *
      * @param requestGetMessages
+     * @param game
      * @return
      */
-    private ArrayList<MessageObject> getMessages(RequestGetMessages requestGetMessages) {
+    private ArrayList<MessageObject> getMessages(RequestGetMessages requestGetMessages, GameLobby game) {
 
         int offset = requestGetMessages.getOffset();
 
-        ArrayList<MessageObject> messageArrayList = new ArrayList<>(getGame(gameJoined).getMessageQueue());
+        ArrayList<MessageObject> messageArrayList = new ArrayList<>(game.getMessageQueue());
         ArrayList<MessageObject> messagesToClient = new ArrayList<>();
 
         for (int i = offset + 1; i < messageArrayList.size(); i++) {
@@ -896,20 +1607,21 @@ public class GameServerThread implements Runnable {
      * adds the message the message queue and returns a response depending on
      * if it was successfully added.
      *
-     * @param JSONInput
+     * @param request
      * @param protocolId
+     * @param game       the game joined, or null if none is or it is being moved.
      * @return
      */
-    private ResponseProtocol handleSendMessage(String JSONInput, int protocolId) {
-        RequestSendMessage requestSendMessage = this.gson.fromJson(JSONInput, RequestSendMessage.class);
+    private ResponseProtocol handleSendMessage(RequestProtocol request, int protocolId, GameLobby game) {
+        RequestSendMessage requestSendMessage = (RequestSendMessage) request;
         MessageObject messageFromRequest = requestSendMessage.getMessageObject();
 
         if (getLoggedInUser() == null) {
             // return fail if user not logged in
             return new ResponseSendMessage(protocolId, FAIL, NOT_LOGGED_IN);
 
-        } else if (gameJoined == null) {
-            // return fail if user has not joined a game
+        } else if (gameJoined == null || game == null) {
+            // return fail if user has not joined a game, or it is moving to another server
             return new ResponseSendMessage(protocolId, FAIL, NO_GAME_JOINED);
 
         } else if (messageFromRequest.isEmpty()) {
@@ -918,7 +1630,7 @@ public class GameServerThread implements Runnable {
 
         } else if (!messageFromRequest.isEmpty()) {
             // add message from request to message queue
-            addToMessageQueue(messageFromRequest);
+            game.addMessage(messageFromRequest);
             // return success if message is not empty
             return new ResponseSendMessage(protocolId, SUCCESS);
 
@@ -935,24 +1647,16 @@ public class GameServerThread implements Runnable {
      * with the password stored in the database, if they match, we return a successful response,
      * otherwise, we return a failed response.
      *
-     * @param JSONInput
+     * @param request
      * @param protocolId
      * @return
      */
-    private ResponseProtocol handleLoginUser(String JSONInput, int protocolId) {
-        // We deserialize it again but as a RequestRegisterUser object
-        RequestLoginUser requestLoginUser = this.gson.fromJson(JSONInput, RequestLoginUser.class);
+    private ResponseProtocol handleLoginUser(RequestProtocol request, int protocolId) {
+        RequestLoginUser requestLoginUser = (RequestLoginUser) request;
 
         User userFromDatabase = null;
         User userFromRequest = requestLoginUser.getUser();
 
-        try {
-            // retrieve user from database
-            userFromDatabase = this.functionDB.retrieveUserFromDatabase(userFromRequest.getUserName());
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-
         if (isUserLoggedIn(userFromRequest)) {
             // return fail if user logged in on any client
             return new ResponseLoginUser(protocolId, FAIL, null, ALREADY_LOGGED_IN);
@@ -962,25 +1666,115 @@ public class GameServerThread implements Runnable {
         } else if (userFromRequest.getUserName().equals("") || userFromRequest.getPassword().equals("")) {
             // return fail if user from request is empty
             return new ResponseLoginUser(protocolId, FAIL, null, USERNAME_MISMATCH);
-        } else if (userFromDatabase == null) {
+        }
+
+        try {
+            // retrieve user from database, once the checks which need no database have passed
+            userFromDatabase = this.functionDB.retrieveUserFromDatabase(userFromRequest.getUserName());
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+
+        if (userFromDatabase == null) {
             // return fail if user does not exist in database
             return new ResponseLoginUser(protocolId, FAIL, null, NON_EXIST);
         } else if (!userFromRequest.checkPassword(userFromDatabase)) {
             // return fail if passwords mismatch
             return new ResponseLoginUser(protocolId, FAIL, null, PASSWORD_MISMATCH);
+        } else if (!sessions.claim(userFromDatabase.getUserName(), this)) {
+            // return fail if another client logged in as the user since it was checked
+            return new ResponseLoginUser(protocolId, FAIL, null, ALREADY_LOGGED_IN);
         } else if (userFromRequest.checkPassword(userFromDatabase)) {
             // if username and password match, we set this.user to user
             this.user = userFromDatabase;
-            this.addUsertoUsers(this.user);
 
-            // return success if password and username match
-            return new ResponseLoginUser(protocolId, SUCCESS, userFromDatabase);
+            // return success if password and username match, with a token to resume the session
+            String sessionToken = sessions.getTokens().issue(userFromDatabase.getUserName());
+            return new ResponseLoginUser(protocolId, SUCCESS, userFromDatabase, sessionToken, "");
         } else {
             // return fail for unknown error
             return new ResponseLoginUser(protocolId, FAIL, null, UNKNOWN_ERROR);
         }
     }
 
+    /**
+     * A method to resume the session of a client which reconnected. The token given at
+     * login says who the user is, so the database is not needed. If the user is still
+     * logged in on its old connection, that session is closed and its seat is handed
+     * over; otherwise the user is seated again in the game it asks for, if it can be.
+     *
+     * @param request
+     * @param protocolId
+     * @return
+     */
+    private ResponseProtocol handleResumeSession(RequestProtocol request, int protocolId) {
+        RequestResumeSession requestResumeSession = (RequestResumeSession) request;
+        String gameToRejoin = requestResumeSession.getGameToRejoin();
+        String username = sessions.getTokens().verify(requestResumeSession.getSessionToken());
+
+        if (!isLoggedInUserNull()) {
+            // return fail if already logged in
+            return new ResponseResumeSession(protocolId, FAIL, ALREADY_LOGGED_IN);
+        } else if (username == null) {
+            // return fail if the token is not ours or has expired
+            return new ResponseResumeSession(protocolId, FAIL, INVALID_SESSION_TOKEN);
+        }
+
+        GameServerThread previous = sessions.takeOver(username, this);
+        String seatedGame = previous != null && previous != this ? previous.handOver() : null;
+        this.user = new User(username);
+
+        GameLobby seat = getGame(seatedGame);
+        if (seat != null && seatedGame.equals(gameToRejoin) && seat.getPlayer(username) != null) {
+            // keep the seat, with its hand and bet, in the game the old session was in
+            this.gameJoined = seatedGame;
+            if (subscribed) {
+                subscribeToGame(seat);
+            }
+        } else {
+            if (seat != null) {
+                quitGame(seatedGame, username);
+            }
+            GameLobby rejoin = getGame(gameToRejoin);
+            if (rejoin != null && rejoin.getPlayer(username) != null) {
+                // the seat moved here with its game from another server, or was rebuilt from the lobby log
+                this.gameJoined = gameToRejoin;
+                if (subscribed) {
+                    subscribeToGame(rejoin);
+                }
+            } else if (rejoin != null) {
+                this.gameJoined = gameToRejoin;
+                if (joinGame(gameToRejoin) == null) {
+                    this.gameJoined = null;
+                }
+            }
+        }
+
+        return new ResponseResumeSession(protocolId, SUCCESS, username, sessions.getTokens().issue(username),
+                gameJoined);
+    }
+
+    /**
+     * This method hands the seat of this session to a session resuming it, and
+     * closes the connection without logging the user out or quitting the game.
+     *
+     * @return the game the user is seated in, or null if none.
+     */
+    private String handOver() {
+        String seatedGame = gameJoined;
+        GameLobby lobby = getGame(seatedGame);
+        if (lobby != null) {
+            lobby.removeListener(this);
+        }
+
+        gameJoined = null;
+        user = null;
+        subscribers.remove(this);
+        subscribed = false;
+        closeConnection();
+        return seatedGame;
+    }
+
     /**
      * This method checks if a user is logged in.
      *
@@ -988,28 +1782,22 @@ public class GameServerThread implements Runnable {
      * @return true if logged in, false if not
      */
     private boolean isUserLoggedIn(User userFromRequest) {
-        for (User user : users) {
-            if (userFromRequest.getUserName().equals(user.getUserName())) {
-                return true;
-            }
-        }
-        return false;
+        return sessions.isLoggedIn(userFromRequest.getUserName());
     }
 
     /**
      * Method to handle a user Registering. This method will
      * insert a users details into the database.
      *
-     * @param JSONInput
+     * @param request
      * @param protocolId
      * @return
      */
-    private ResponseProtocol handleRegisterUser(String JSONInput, int protocolId) {
+    private ResponseProtocol handleRegisterUser(RequestProtocol request, int protocolId) {
         boolean successRegister = false;
         String sqlState = "";
 
-        // We deserialize the request again but as a RequestRegisterUser object
-        RequestRegisterUser requestRegisterUser = this.gson.fromJson(JSONInput, RequestRegisterUser.class);
+        RequestRegisterUser requestRegisterUser = (RequestRegisterUser) request;
         User userFromRequest = requestRegisterUser.getUser();
 
         try {
@@ -1045,22 +1833,6 @@ public class GameServerThread implements Runnable {
         }
     }
 
-    /**
-     * This method updates the gameNames list with the
-     * current games in games.
-     */
-    public synchronized void updateGameNames() {
-
-        if (this.games.size() != 0) {
-            for (GameLobby game : games) {
-                if (!gameNames.contains(game.getLobbyName())) {
-                    this.gameNames.add(game.getLobbyName());
-                }
-            }
-        }
-
-    }
-
     /**
      * Add a message to the message queue.
      *
@@ -1068,19 +1840,14 @@ public class GameServerThread implements Runnable {
      * @throws IOException
      */
     public void addToMessageQueue(MessageObject msg) {
-        getGame(gameJoined).getMessageQueue().add(msg);
+        GameLobby game = getGame(gameJoined);
+        if (game != null) {
+            game.addMessage(msg);
+        }
     }
 
     // HELPER METHODS BELOW
 
-    public synchronized void addUsertoUsers(User user) {
-        this.users.add(user);
-    }
-
-    public synchronized void removeUserFromUsers(User user) {
-        this.users.remove(user);
-    }
-
     public User getLoggedInUser() {
         return user;
     }
@@ -1093,37 +1860,45 @@ public class GameServerThread implements Runnable {
         return user;
     }
 
-    public CopyOnWriteArrayList<User> getUsers() {
-        return users;
+    public SessionRegistry getSessions() {
+        return sessions;
     }
 
-    public synchronized CopyOnWriteArrayList<GameLobby> getGames() {
-        return games;
+    public LobbyRegistry getLobbies() {
+        return lobbies;
     }
 
+    /**
+     * @return the sorted names of the games, on every server of the cluster, which must not be changed.
+     */
     public Set<String> getGameNames() {
-        return new TreeSet<>(this.gameNames);
+        LobbyDirectory directory = this.directory;
+        return directory == null ? lobbies.getNames() : directory.withRemoteNames(lobbies.getNames());
+    }
+
+    /**
+     * @param lobbyName
+     * @return the server of the cluster the game is on, or null if it is not on another server.
+     */
+    private ClusterMember getOwner(String lobbyName) {
+        LobbyDirectory directory = this.directory;
+        return directory == null ? null : directory.getOwner(lobbyName);
     }
 
     public String getGameJoined() {
         return gameJoined;
     }
 
-    public synchronized GameLobby getGame(User user) {
-        for (GameLobby game : games) {
-            if (game.getLobbyName().equals(user.getUserName())) {
-                return game;
-            }
-        }
-        return null;
+    public GameLobby getGame(User user) {
+        return getGame(user.getUserName());
     }
 
-    public synchronized GameLobby getGame(String lobbyName) {
-        for (GameLobby game : games) {
-            if (game.getLobbyName().equals(lobbyName)) {
-                return game;
-            }
-        }
-        return null;
+    /**
+     * @param lobbyName
+     * @return the lobby, or null if there is none or it is being moved to another server.
+     */
+    public GameLobby getGame(String lobbyName) {
+        GameLobby lobby = lobbies.get(lobbyName);
+        return lobby == null || lobby.isFrozen() ? null : lobby;
     }
 }
@@ -0,0 +1,526 @@
+package CardGame.Gateway;
+
+import CardGame.Cluster.ClusterService;
+import CardGame.Codec.Codecs;
+import CardGame.Codec.WireCodec;
+import CardGame.Network.OutboundQueue;
+import CardGame.Requests.RequestProtocol;
+import CardGame.Responses.ResponseHeartbeat;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static CardGame.ProtocolMessages.SUCCESS;
+import static CardGame.ProtocolTypes.HEARTBEAT;
+import static CardGame.ProtocolTypes.HELLO;
+
+/**
+ * This class is a gateway in front of one or more GameServers. GameClients
+ * connect to the gateway as they would to a server, and the gateway sends
+ * their frames on to a backend over a few MuxConnections, tagged with a
+ * session for each client, and writes the frames that come back to the
+ * client as they are. The backends only handle requests: connections
+ * coming and going, heartbeats and idle clients stay with the gateway.
+ *
+ * A client is given to the backend connections in turn when it connects
+ * and stays on that connection. The gateway reads the codec each client
+ * negotiated from the backend, so it can answer heartbeats itself, and
+ * reads nothing more from a client after a HELLO until it has. A backend
+ * connection which closes is opened again every second.
+ *
+ * The frames for a client wait in an OutboundQueue and are written a batch
+ * at a time, and the backend is given credit for them, half its window at
+ * a time, so it sends more. The backend holds back the frames of a client
+ * it has no credit for, so a slow client's frames pile up there and not
+ * here; the queue's limits disconnect a client if they ever do.
+ */
+public class GameGateway {
+    public static final int DEFAULT_LINKS_PER_BACKEND = 2;
+    private static final long RECONNECT_MILLIS = 1000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+
+    private final InetSocketAddress address;
+    private final List<InetSocketAddress> backends;
+    private final int linksPerBackend;
+    private final int idleTimeoutSeconds;
+
+    // the connections to the backends, replaced when one closes
+    private final MuxConnection[] links;
+    private final Map<Integer, ClientSession> clients;
+    private final AtomicInteger nextSessionId;
+    private final ExecutorService clientThreads;
+    private final ExecutorService writers;
+    private ScheduledExecutorService linkKeeper;
+    private ServerSocket serverSocket;
+    private volatile boolean closed;
+
+    private final LongAdder accepted;
+    private final LongAdder framesForwarded;
+    private final LongAdder heartbeatsAnswered;
+
+    /**
+     * Constructor for the GameGateway class.
+     *
+     * @param address            the address clients connect to.
+     * @param backends           the gateway addresses of the servers.
+     * @param linksPerBackend    the connections to each server the clients share.
+     * @param idleTimeoutSeconds the seconds a client can send nothing before it is closed.
+     */
+    public GameGateway(InetSocketAddress address, List<InetSocketAddress> backends, int linksPerBackend,
+                       int idleTimeoutSeconds) {
+        this.address = address;
+        this.backends = new ArrayList<>(backends);
+        this.linksPerBackend = linksPerBackend;
+        this.idleTimeoutSeconds = idleTimeoutSeconds;
+        this.links = new MuxConnection[backends.size() * linksPerBackend];
+        this.clients = new ConcurrentHashMap<>();
+        this.nextSessionId = new AtomicInteger();
+        this.clientThreads = Executors.newCachedThreadPool();
+        this.writers = Executors.newCachedThreadPool();
+        this.accepted = new LongAdder();
+        this.framesForwarded = new LongAdder();
+        this.heartbeatsAnswered = new LongAdder();
+    }
+
+    /**
+     * This method connects to the backends, opens the server socket and keeps
+     * the backend connections open. It must be called before acceptClients.
+     *
+     * @throws IOException if the address is already in use.
+     */
+    public void bind() throws IOException {
+        connectLinks();
+        serverSocket = new ServerSocket();
+        serverSocket.bind(address);
+
+        linkKeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "gateway-link-keeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        linkKeeper.scheduleWithFixedDelay(this::connectLinks, RECONNECT_MILLIS, RECONNECT_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * This method opens the backend connections which are not open.
+     */
+    private synchronized void connectLinks() {
+        for (int i = 0; i < links.length; i++) {
+            if (links[i] != null && !links[i].isClosed()) {
+                continue;
+            }
+
+            InetSocketAddress backend = backends.get(i / linksPerBackend);
+            try {
+                Socket socket = new Socket();
+                socket.connect(backend, CONNECT_TIMEOUT_MILLIS);
+                socket.setTcpNoDelay(true);
+                MuxConnection link = new MuxConnection(socket, new LinkListener());
+                link.start("gateway-backend-" + i);
+                links[i] = link;
+            } catch (IOException e) {
+                if (links[i] != null) {
+                    System.out.println("Cannot connect to backend " + backend + ".");
+                }
+                links[i] = null;
+            }
+        }
+    }
+
+    /**
+     * @param sessionId
+     * @return the open backend connection for the session, or null if there is none.
+     */
+    private synchronized MuxConnection linkFor(int sessionId) {
+        for (int i = 0; i < links.length; i++) {
+            MuxConnection link = links[Math.floorMod(sessionId + i, links.length)];
+            if (link != null && !link.isClosed()) {
+                return link;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * This method accepts clients until the gateway is closed, each read on a thread of its own.
+     */
+    public void acceptClients() {
+        System.out.println("Gateway waiting for GameClients on " + serverSocket.getLocalSocketAddress()
+                + " for backends " + backends);
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                accepted.increment();
+                int sessionId = nextSessionId.incrementAndGet();
+                MuxConnection link = linkFor(sessionId);
+                if (link == null) {
+                    System.out.println("No backend to send GameClient to.");
+                    socket.close();
+                    continue;
+                }
+
+                ClientSession client = new ClientSession(sessionId, socket, link);
+                clients.put(sessionId, client);
+                link.send(sessionId, MuxConnection.OPEN, null);
+                clientThreads.execute(client::readFrames);
+            } catch (IOException e) {
+                if (!closed) {
+                    System.out.println("Problem accepting GameClient.");
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the port clients connect to.
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    /**
+     * @return the clients accepted, frames sent to backends and heartbeats answered by the gateway.
+     */
+    public String countersToString() {
+        return String.format("Gateway: clients=%d accepted=%d forwarded=%d heartbeats=%d",
+                clients.size(), accepted.sum(), framesForwarded.sum(), heartbeatsAnswered.sum());
+    }
+
+    /**
+     * This method stops accepting clients and closes every connection.
+     */
+    public void close() {
+        closed = true;
+        if (linkKeeper != null) {
+            linkKeeper.shutdownNow();
+        }
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            System.out.println("Problem closing gateway server socket.");
+        }
+        for (ClientSession client : clients.values()) {
+            client.close(true);
+        }
+        synchronized (this) {
+            for (MuxConnection link : links) {
+                if (link != null) {
+                    link.close();
+                }
+            }
+        }
+        clientThreads.shutdownNow();
+        writers.shutdownNow();
+    }
+
+    /**
+     * One client connected to the gateway.
+     */
+    private class ClientSession {
+        private final int sessionId;
+        private final Socket socket;
+        private final MuxConnection link;
+        private final OutboundQueue writeQueue;
+        private final AtomicBoolean writing;
+        private final AtomicInteger fromBackend;
+        private final AtomicBoolean closed;
+        private int uncredited;
+        private volatile boolean closeWhenWritten;
+        private volatile WireCodec codec;
+        private final Semaphore codecChosen;
+        private final OutputStream outputStream;
+
+        ClientSession(int sessionId, Socket socket, MuxConnection link) throws IOException {
+            this.sessionId = sessionId;
+            this.socket = socket;
+            this.outputStream = socket.getOutputStream();
+            this.link = link;
+            this.writeQueue = new OutboundQueue();
+            this.writing = new AtomicBoolean(false);
+            this.fromBackend = new AtomicInteger();
+            this.closed = new AtomicBoolean(false);
+            this.codec = Codecs.JSON_CODEC;
+            this.codecChosen = new Semaphore(0);
+        }
+
+        /**
+         * This method reads frames from the client until it disconnects or goes idle,
+         * answering heartbeats and sending everything else to the backend.
+         */
+        void readFrames() {
+            try {
+                socket.setSoTimeout(idleTimeoutSeconds * 1000);
+                DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+                while (!closed.get()) {
+                    // the codec only changes after a HELLO is answered, so it is read for each frame
+                    WireCodec codec = this.codec;
+                    byte[] frame = codec.getFrames().readFrame(inputStream);
+                    RequestProtocol request = decode(codec, frame);
+                    if (request != null && request.getType() == HEARTBEAT) {
+                        heartbeatsAnswered.increment();
+                        write(codec.encode(new ResponseHeartbeat(request.getProtocolId(), SUCCESS)));
+                        continue;
+                    }
+
+                    framesForwarded.increment();
+                    link.send(sessionId, MuxConnection.DATA, frame);
+
+                    // the frames after a HELLO may be in the codec it chose, so wait to hear which
+                    if (request != null && request.getType() == HELLO) {
+                        awaitCodec();
+                    }
+                }
+            } catch (SocketTimeoutException e) {
+                System.out.println("GameClient idle for " + idleTimeoutSeconds + "s. GameClient disconnected.");
+            } catch (IOException e) {
+                // the client disconnected
+            } catch (IllegalArgumentException e) {
+                System.out.println("Frame too large. GameClient disconnected.");
+            } finally {
+                close(true);
+            }
+        }
+
+        /**
+         * This method waits for the backend to say which codec the client chose.
+         *
+         * @throws IOException if the client is closed while waiting.
+         */
+        private void awaitCodec() throws IOException {
+            try {
+                while (!codecChosen.tryAcquire(1, TimeUnit.SECONDS)) {
+                    if (closed.get()) {
+                        throw new IOException("Closed waiting for the codec.");
+                    }
+                }
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted waiting for the codec.");
+            }
+        }
+
+        /**
+         * This method queues a frame from the backend to be written to the client, after those before it.
+         *
+         * @param frame
+         */
+        void forward(byte[] frame) {
+            fromBackend.incrementAndGet();
+            write(frame);
+        }
+
+        /**
+         * This method queues a frame to be written to the client, after those before it.
+         *
+         * @param frame
+         */
+        void write(byte[] frame) {
+            if (closed.get()) {
+                return;
+            }
+            if (!writeQueue.add(frame)) {
+                System.out.println("GameClient too slow to read responses. GameClient disconnected.");
+                close(true);
+                return;
+            }
+            startWriting();
+        }
+
+        /**
+         * This method closes the client once the frames queued before have been written.
+         */
+        void closeAfterWrites() {
+            closeWhenWritten = true;
+            startWriting();
+        }
+
+        private void startWriting() {
+            if (writing.compareAndSet(false, true)) {
+                writers.execute(this::writeQueuedFrames);
+            }
+        }
+
+        /**
+         * This method writes the queued frames to the client, a batch in each write, and gives
+         * the backend credit for them once there is half a window of it. Only one writer runs
+         * at a time for each client.
+         */
+        private void writeQueuedFrames() {
+            try {
+                while (!closed.get()) {
+                    byte[][] batch = writeQueue.pollBatch();
+                    if (batch == null) {
+                        if (closeWhenWritten) {
+                            // the backend is told too, so it forgets the session
+                            close(true);
+                            return;
+                        }
+                        writing.set(false);
+
+                        // a frame may have been queued after the last poll and before writing was cleared
+                        if ((writeQueue.isEmpty() && !closeWhenWritten) || !writing.compareAndSet(false, true)) {
+                            return;
+                        }
+                        continue;
+                    }
+
+                    outputStream.write(batch.length == 1 ? batch[0] : concatenate(batch));
+                    outputStream.flush();
+
+                    // heartbeats the gateway answered are not the backend's, so its frames are counted
+                    int written = Math.min(batch.length, fromBackend.get());
+                    fromBackend.addAndGet(-written);
+                    uncredited += written;
+                    if (uncredited >= GatewaySession.WINDOW_FRAMES / 2) {
+                        link.sendCredit(sessionId, uncredited);
+                        uncredited = 0;
+                    }
+                }
+            } catch (IOException e) {
+                close(true);
+            }
+        }
+
+        private byte[] concatenate(byte[][] batch) {
+            int size = 0;
+            for (byte[] frame : batch) {
+                size += frame.length;
+            }
+            byte[] frames = new byte[size];
+            int position = 0;
+            for (byte[] frame : batch) {
+                System.arraycopy(frame, 0, frames, position, frame.length);
+                position += frame.length;
+            }
+            return frames;
+        }
+
+        /**
+         * This method closes the client.
+         *
+         * @param tellBackend true if the backend should be told the client has gone.
+         */
+        void close(boolean tellBackend) {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+
+            clients.remove(sessionId);
+            if (tellBackend) {
+                link.send(sessionId, MuxConnection.CLOSE, null);
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                System.out.println("Problem closing connections.");
+            }
+        }
+    }
+
+    /**
+     * @return the request, or null if the frame is not one the gateway can read.
+     */
+    private static RequestProtocol decode(WireCodec codec, byte[] frame) {
+        try {
+            return codec.decode(frame, RequestProtocol.class);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * This class hands what the backends send to the clients.
+     */
+    private class LinkListener implements MuxConnection.Listener {
+
+        @Override
+        public void received(MuxConnection link, int sessionId, byte kind, byte[] payload) {
+            ClientSession client = clients.get(sessionId);
+            if (client == null) {
+                return;
+            }
+
+            if (kind == MuxConnection.DATA) {
+                client.forward(payload);
+            } else if (kind == MuxConnection.CODEC) {
+                String[] names = new String(payload, StandardCharsets.UTF_8).split(" ");
+                client.codec = Codecs.get(names[0], names[1], names[2]);
+                client.codecChosen.release();
+            } else if (kind == MuxConnection.CLOSE) {
+                // the backend closed the client, so the frames it queued before are written first
+                client.closeAfterWrites();
+            } else if (kind == MuxConnection.CLOSE_NOW) {
+                // the client is too slow to be written to, so the gateway may be stuck writing to it
+                client.close(true);
+            }
+        }
+
+        @Override
+        public void closed(MuxConnection link) {
+            if (closed) {
+                return;
+            }
+
+            System.out.println("Backend connection closed, closing its GameClients.");
+            for (ClientSession client : clients.values()) {
+                if (client.link == link) {
+                    client.close(false);
+                }
+            }
+        }
+    }
+
+    /**
+     * This method is run to start a gateway from the command line.
+     *
+     * @param args the port, host, backends as host:port,host:port, connections to each backend
+     *             and idle timeout in seconds. All optional.
+     */
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("-h")) {
+            System.out.println("Enter: \'[port] [host] [backends] [connections per backend] [idle timeout seconds]\'" +
+                    "\nOr default is \'[7654] [0.0.0.0] [localhost:7754] [2] [60]\'");
+            return;
+        }
+
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7654;
+        String host = args.length > 1 ? args[1] : "0.0.0.0";
+        String backends = args.length > 2 ? args[2] : "localhost:7754";
+        int linksPerBackend = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_LINKS_PER_BACKEND;
+        int idleTimeout = args.length > 4 ? Integer.parseInt(args[4]) : 60;
+
+        try {
+            GameGateway gateway = new GameGateway(new InetSocketAddress(InetAddress.getByName(host), port),
+                    ClusterService.parseAddresses(backends), linksPerBackend, idleTimeout);
+            gateway.bind();
+            gateway.acceptClients();
+        } catch (IOException e) {
+            System.out.println("Cannot open gateway socket, host likely already in use.");
+        }
+    }
+}
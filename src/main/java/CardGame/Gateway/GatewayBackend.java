@@ -0,0 +1,158 @@
+package CardGame.Gateway;
+
+import CardGame.GameServerThread;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * This class is the side of a GameServer which gateways connect to. A
+ * gateway holds the client sockets and sends the frames of all of its
+ * clients over a few MuxConnections, so the server has a session for each
+ * client but no socket, and connections coming and going, heartbeats and
+ * idle clients are dealt with by the gateway.
+ *
+ * Each session is handled by a GameServerThread on the worker pool, as for
+ * the NioGameServer, so clients see the same behaviour through a gateway.
+ */
+public class GatewayBackend {
+    private static final int BACKLOG = 50;
+
+    private final InetSocketAddress address;
+    private final Supplier<GameServerThread> sessionFactory;
+    private final Executor workers;
+    private final Map<MuxConnection, Map<Integer, GatewaySession>> links;
+    private ServerSocket serverSocket;
+    private volatile boolean closed;
+
+    /**
+     * Constructor for the GatewayBackend class.
+     *
+     * @param address        the address gateways connect to.
+     * @param sessionFactory creates a GameServerThread (with no socket) for each client.
+     * @param workers        the threads which handle requests.
+     */
+    public GatewayBackend(InetSocketAddress address, Supplier<GameServerThread> sessionFactory, Executor workers) {
+        this.address = address;
+        this.sessionFactory = sessionFactory;
+        this.workers = workers;
+        this.links = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * This method opens the server socket. It must be called before acceptGateways.
+     *
+     * @throws IOException if the address is already in use.
+     */
+    public void bind() throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.bind(address, BACKLOG);
+    }
+
+    /**
+     * This method accepts gateway connections until the backend is closed.
+     */
+    public void acceptGateways() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                MuxConnection link = new MuxConnection(socket, new LinkListener());
+                links.put(link, new ConcurrentHashMap<>());
+                link.start("gateway-link");
+                System.out.println("Gateway connected from " + socket.getRemoteSocketAddress());
+            } catch (IOException e) {
+                if (!closed) {
+                    System.out.println("Problem accepting gateway.");
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the port gateways connect to.
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return the clients connected through every gateway.
+     */
+    public int getSessionCount() {
+        int count = 0;
+        for (Map<Integer, GatewaySession> sessions : links.values()) {
+            count += sessions.size();
+        }
+        return count;
+    }
+
+    /**
+     * This method stops accepting gateways and closes their connections, which logs out their clients.
+     */
+    public void close() {
+        closed = true;
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            System.out.println("Problem closing gateway server socket.");
+        }
+        for (MuxConnection link : links.keySet()) {
+            link.close();
+        }
+    }
+
+    /**
+     * This class starts, feeds and ends the sessions of one gateway connection.
+     */
+    private class LinkListener implements MuxConnection.Listener {
+
+        @Override
+        public void received(MuxConnection link, int sessionId, byte kind, byte[] payload) {
+            Map<Integer, GatewaySession> sessions = links.get(link);
+            if (sessions == null) {
+                return;
+            }
+
+            if (kind == MuxConnection.OPEN) {
+                sessions.put(sessionId, new GatewaySession(sessionId, link, sessionFactory.get(), workers));
+            } else if (kind == MuxConnection.DATA) {
+                GatewaySession session = sessions.get(sessionId);
+                if (session != null) {
+                    session.dispatch(payload);
+                }
+            } else if (kind == MuxConnection.CREDIT) {
+                GatewaySession session = sessions.get(sessionId);
+                if (session != null) {
+                    session.credited(MuxConnection.readCredit(payload));
+                }
+            } else if (kind == MuxConnection.CLOSE) {
+                GatewaySession session = sessions.remove(sessionId);
+                if (session != null) {
+                    session.disconnected();
+                }
+            }
+        }
+
+        @Override
+        public void closed(MuxConnection link) {
+            Map<Integer, GatewaySession> sessions = links.remove(link);
+            if (sessions == null) {
+                return;
+            }
+
+            System.out.println("Gateway disconnected, logging out its " + sessions.size() + " clients.");
+            for (GatewaySession session : sessions.values()) {
+                session.disconnected();
+            }
+        }
+    }
+}
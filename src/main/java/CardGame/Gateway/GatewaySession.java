@@ -0,0 +1,223 @@
+package CardGame.Gateway;
+
+import CardGame.Codec.Codecs;
+import CardGame.Codec.WireCodec;
+import CardGame.GameServerThread;
+import CardGame.Network.ClientConnection;
+import CardGame.Network.OutboundQueue;
+import CardGame.Network.SerialExecutor;
+import CardGame.Responses.ResponseHello;
+import CardGame.Responses.ResponseProtocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class is one client of a gateway, as the backend server sees it.
+ * Its frames come over a MuxConnection rather than a socket of its own,
+ * and are handled by a GameServerThread (with no socket) on the worker
+ * pool, one at a time and in order, as for a NioConnection.
+ *
+ * Frames to send wait in an OutboundQueue, as for a NioConnection, and
+ * only WINDOW_FRAMES of them are sent on before the gateway gives credit
+ * for having written them to the client. So the frames of a slow client
+ * wait here, where pushes are coalesced and the queue's limits disconnect
+ * it, and not at the gateway.
+ */
+class GatewaySession implements ClientConnection {
+    static final int WINDOW_FRAMES = 64;
+
+    private final int sessionId;
+    private final MuxConnection link;
+    private final GameServerThread session;
+    private final SerialExecutor requests;
+    private final Executor workers;
+    private final OutboundQueue writeQueue;
+    // messages which found no room on the link, sent in order on a worker, which may wait for it
+    private final SerialExecutor linkWrites;
+    private final AtomicBoolean closed;
+    private int inFlight;
+    private int waitingWrites;
+
+    GatewaySession(int sessionId, MuxConnection link, GameServerThread session, Executor workers) {
+        this.sessionId = sessionId;
+        this.link = link;
+        this.session = session;
+        this.requests = new SerialExecutor(workers);
+        this.workers = workers;
+        this.writeQueue = new OutboundQueue();
+        this.linkWrites = new SerialExecutor(workers);
+        this.closed = new AtomicBoolean(false);
+        session.setConnection(this);
+    }
+
+    /**
+     * This method handles a frame the client sent, after the frames before it.
+     *
+     * @param frame
+     */
+    void dispatch(byte[] frame) {
+        requests.executeAsync(() -> {
+            if (closed.get()) {
+                return CompletableFuture.completedFuture(null);
+            }
+
+            try {
+                return session.handleFrameAsync(frame).handle((response, error) -> {
+                    if (error != null) {
+                        error.printStackTrace();
+                        System.out.println("Exception while handling requests.");
+                        close();
+                    } else {
+                        send(response);
+                    }
+                    return null;
+                });
+            } catch (IllegalArgumentException e) {
+                System.out.println("Malformed frame. GameClient disconnected.");
+                close();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                System.out.println("Exception while handling requests.");
+                close();
+            }
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /**
+     * This method queues the response to be sent to the gateway, which writes it to the
+     * client as it is. The answer to a HELLO is sent at once, with everything before it,
+     * and is followed by the codec the client now uses, so the gateway reads the next
+     * frames from the client in it.
+     *
+     * @param response
+     */
+    @Override
+    public void send(ResponseProtocol response) {
+        if (closed.get()) {
+            return;
+        }
+
+        // frames are queued in the order they are encoded, as the codec can change between them
+        boolean queued;
+        synchronized (this) {
+            queued = writeQueue.add(response, session.encodeFrame(response));
+            if (queued && response instanceof ResponseHello) {
+                byte[][] frames = writeQueue.pollBatch(Integer.MAX_VALUE);
+                inFlight += frames.length;
+                WireCodec codec = session.getCodec();
+                String codecName = codec.getName() + " " + codec.getFrames().getName() + " "
+                        + Codecs.getCompression(codec);
+                sendLater(frames, MuxConnection.CODEC, codecName.getBytes(StandardCharsets.UTF_8));
+            } else if (queued) {
+                sendQueued(WINDOW_FRAMES);
+            }
+        }
+        if (!queued) {
+            System.out.println("GameClient too slow to read responses. GameClient disconnected.");
+            synchronized (this) {
+                if (disconnected()) {
+                    sendLater(null, MuxConnection.CLOSE_NOW, null);
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean hasQueued(int pushType) {
+        return writeQueue.hasQueued(pushType);
+    }
+
+    /**
+     * This method takes the credit the gateway gave for frames written to the
+     * client, and sends on the frames waiting for it. It is run on a worker, off
+     * the link's reader, which must not send on the link.
+     *
+     * @param frames
+     */
+    void credited(int frames) {
+        workers.execute(() -> {
+            synchronized (this) {
+                // the gateway's count is not exact when heartbeats it answered are written with frames from here
+                inFlight = Math.max(0, inFlight - frames);
+                sendQueued(WINDOW_FRAMES);
+            }
+        });
+    }
+
+    /**
+     * This method sends queued frames on to the gateway while fewer than window are in flight
+     * and the link has room, without waiting, as it is called on the lobby shards. The frames
+     * left wait in the queue, where pushes are still coalesced, and the first of them is sent
+     * on a worker, which then sends the rest the same way.
+     */
+    private void sendQueued(int window) {
+        byte[] frame;
+        while (!closed.get() && waitingWrites == 0 && inFlight < window && (frame = writeQueue.peek()) != null) {
+            if (link.offer(sessionId, MuxConnection.DATA, frame)) {
+                writeQueue.poll();
+            } else {
+                sendLater(null, MuxConnection.DATA, writeQueue.poll());
+            }
+            inFlight++;
+        }
+    }
+
+    /**
+     * This method sends frames and then one more message on a worker, after those sent this way
+     * before, waiting for room on the link. Frames queued meanwhile wait until it is done, so they
+     * go after it. It is called holding the session's lock.
+     *
+     * @param frames  the frames to send first, or null for none.
+     * @param kind
+     * @param payload
+     */
+    private void sendLater(byte[][] frames, byte kind, byte[] payload) {
+        waitingWrites++;
+        linkWrites.execute(() -> {
+            try {
+                if (frames != null) {
+                    for (byte[] frame : frames) {
+                        link.send(sessionId, MuxConnection.DATA, frame);
+                    }
+                }
+                link.send(sessionId, kind, payload);
+            } finally {
+                synchronized (this) {
+                    waitingWrites--;
+                    sendQueued(WINDOW_FRAMES);
+                }
+            }
+        });
+    }
+
+    /**
+     * This method ends the session from the server side, and tells the gateway to close the
+     * client once the frames queued before have been written.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            byte[][] frames = writeQueue.pollBatch(Integer.MAX_VALUE);
+            if (disconnected()) {
+                sendLater(frames, MuxConnection.CLOSE, null);
+            }
+        }
+    }
+
+    /**
+     * This method logs the client out once it has gone, after the requests it sent.
+     *
+     * @return true if the session was still open.
+     */
+    boolean disconnected() {
+        if (!closed.compareAndSet(false, true)) {
+            return false;
+        }
+        requests.execute(session::handleDisconnect);
+        return true;
+    }
+}
@@ -0,0 +1,255 @@
+package CardGame.Gateway;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static CardGame.Codec.Frames.MAX_LONG_PAYLOAD;
+
+/**
+ * This class is one connection between a gateway and a backend server,
+ * which carries the frames of many clients at once. Every message is
+ * tagged with the session of the client it is for:
+ *
+ * session id (4 bytes), kind (1 byte), length (4 bytes), payload
+ *
+ * OPEN and CLOSE start and end a session, DATA carries a client frame as
+ * it is on the client socket, CODEC tells the gateway the codec a client
+ * negotiated, as "codec framing compression", and CREDIT tells the
+ * backend how many frames of a session the gateway has written to the
+ * client, as a 4 byte count, so it may send that many more. CLOSE_NOW
+ * ends a session without writing what is still queued for the client.
+ *
+ * One thread reads the messages and hands them to the listener, and one
+ * writes them. The writer takes every message queued before it flushes,
+ * so messages of many sessions share one write. At most
+ * MAX_QUEUED_MESSAGES wait to be written; a sender waits for room, so a
+ * connection which cannot keep up slows its senders down, or offers the
+ * message and keeps it if there is none. The listener
+ * must not send on the connection it is called for, as the reader would
+ * then wait on the other side's reader.
+ */
+public class MuxConnection {
+    public static final byte OPEN = 1;
+    public static final byte DATA = 2;
+    public static final byte CLOSE = 3;
+    public static final byte CODEC = 4;
+    public static final byte CREDIT = 5;
+    public static final byte CLOSE_NOW = 6;
+
+    public static final int MAX_QUEUED_MESSAGES = 4096;
+
+    private static final int HEADER = 9;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte[] NO_PAYLOAD = new byte[0];
+    private static final long SEND_WAIT_MILLIS = 1000;
+
+    private final Socket socket;
+    private final Listener listener;
+    private final LinkedBlockingQueue<byte[]> outbound;
+    private final AtomicBoolean closed;
+    private Thread writeThread;
+
+    /**
+     * What a MuxConnection tells about the messages it reads.
+     */
+    public interface Listener {
+
+        /**
+         * This method is called on the reading thread for every message, in the order they were sent.
+         *
+         * @param connection
+         * @param sessionId
+         * @param kind
+         * @param payload
+         */
+        void received(MuxConnection connection, int sessionId, byte kind, byte[] payload);
+
+        /**
+         * This method is called once the connection has closed, from either side.
+         *
+         * @param connection
+         */
+        void closed(MuxConnection connection);
+    }
+
+    /**
+     * Constructor for the MuxConnection class.
+     *
+     * @param socket   the connected socket.
+     * @param listener told of every message read.
+     */
+    public MuxConnection(Socket socket, Listener listener) {
+        this.socket = socket;
+        this.listener = listener;
+        this.outbound = new LinkedBlockingQueue<>(MAX_QUEUED_MESSAGES);
+        this.closed = new AtomicBoolean(false);
+    }
+
+    /**
+     * This method starts the threads reading and writing the connection.
+     *
+     * @param name the name the threads are given.
+     */
+    public void start(String name) {
+        Thread readThread = new Thread(this::readMessages, name + "-reader");
+        readThread.setDaemon(true);
+        writeThread = new Thread(this::writeMessages, name + "-writer");
+        writeThread.setDaemon(true);
+        readThread.start();
+        writeThread.start();
+    }
+
+    /**
+     * This method queues a message for the session, waiting while the queue is
+     * full. It may be called from any thread but the reader's.
+     *
+     * @param sessionId
+     * @param kind
+     * @param payload   the payload, or null for none.
+     */
+    public void send(int sessionId, byte kind, byte[] payload) {
+        byte[] message = message(sessionId, kind, payload);
+        try {
+            while (!closed.get()) {
+                if (outbound.offer(message, SEND_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * This method queues a message for the session if there is room, without waiting.
+     *
+     * @param sessionId
+     * @param kind
+     * @param payload   the payload, or null for none.
+     * @return false if the queue is full or the connection is closed.
+     */
+    public boolean offer(int sessionId, byte kind, byte[] payload) {
+        return !closed.get() && outbound.offer(message(sessionId, kind, payload));
+    }
+
+    private static byte[] message(int sessionId, byte kind, byte[] payload) {
+        if (payload == null) {
+            payload = NO_PAYLOAD;
+        }
+
+        byte[] message = new byte[HEADER + payload.length];
+        message[0] = (byte) (sessionId >>> 24);
+        message[1] = (byte) (sessionId >>> 16);
+        message[2] = (byte) (sessionId >>> 8);
+        message[3] = (byte) sessionId;
+        message[4] = kind;
+        message[5] = (byte) (payload.length >>> 24);
+        message[6] = (byte) (payload.length >>> 16);
+        message[7] = (byte) (payload.length >>> 8);
+        message[8] = (byte) payload.length;
+        System.arraycopy(payload, 0, message, HEADER, payload.length);
+        return message;
+    }
+
+    /**
+     * This method sends the frames of a session written to the client, so the backend may send more.
+     *
+     * @param sessionId
+     * @param frames
+     */
+    public void sendCredit(int sessionId, int frames) {
+        send(sessionId, CREDIT, new byte[]{(byte) (frames >>> 24), (byte) (frames >>> 16), (byte) (frames >>> 8),
+                (byte) frames});
+    }
+
+    /**
+     * @param payload the payload of a CREDIT message.
+     * @return the frames it gives back, or 0 if it is malformed.
+     */
+    public static int readCredit(byte[] payload) {
+        if (payload.length != 4) {
+            return 0;
+        }
+        return (payload[0] & 0xff) << 24 | (payload[1] & 0xff) << 16 | (payload[2] & 0xff) << 8
+                | (payload[3] & 0xff);
+    }
+
+    private void readMessages() {
+        try {
+            DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+            while (!closed.get()) {
+                int sessionId = inputStream.readInt();
+                byte kind = inputStream.readByte();
+                int length = inputStream.readInt();
+                if (length < 0 || length > MAX_LONG_PAYLOAD + HEADER) {
+                    System.out.println("Malformed message on gateway connection.");
+                    break;
+                }
+
+                byte[] payload = new byte[length];
+                inputStream.readFully(payload);
+                listener.received(this, sessionId, kind, payload);
+            }
+        } catch (IOException e) {
+            if (!closed.get()) {
+                System.out.println("Gateway connection closed.");
+            }
+        } finally {
+            close();
+        }
+    }
+
+    private void writeMessages() {
+        try {
+            DataOutputStream outputStream = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE));
+            while (!closed.get()) {
+                outputStream.write(outbound.take());
+
+                // write everything else queued before flushing, so sessions share a write
+                byte[] message;
+                while ((message = outbound.poll()) != null) {
+                    outputStream.write(message);
+                }
+                outputStream.flush();
+            }
+        } catch (IOException e) {
+            if (!closed.get()) {
+                System.out.println("IO problem writing to gateway connection.");
+            }
+        } catch (InterruptedException e) {
+            // closed
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * This method closes the connection and tells the listener, once.
+     */
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            socket.close();
+        } catch (IOException e) {
+            System.out.println("Problem closing gateway connection.");
+        }
+        if (writeThread != null) {
+            writeThread.interrupt();
+        }
+        listener.closed(this);
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+}
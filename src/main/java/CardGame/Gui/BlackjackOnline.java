@@ -1,5 +1,6 @@
 package CardGame.Gui;
 
+import CardGame.Codec.Codecs;
 import CardGame.GameClient;
 
 import javax.swing.*;
@@ -245,9 +246,15 @@ public class BlackjackOnline extends JFrame implements Observer, ComponentListen
         // parse command line arguments
         int port = 0;
         String host = "";
+        boolean subscribe = false;
+        String codec = Codecs.JSON;
+        String compression = Codecs.NO_COMPRESSION;
 
         if (args.length == 1 && args[0].equals("-h")) {
             System.out.println("Enter: \'[host]\' or \'[host] [post]\' " +
+                    "\nOr \'[host] [post] [subscribe]\' to have the server push updates" +
+                    "\nOr \'[host] [post] [subscribe|poll] [json|binary]\' to choose the codec" +
+                    "\nOr \'[host] [post] [subscribe|poll] [json|binary] [none|deflate]\' to compress frames" +
                     "\nOr default is \'[localhost] [7654]\'");
             return;
         } else if (args.length == 0) {
@@ -259,23 +266,41 @@ public class BlackjackOnline extends JFrame implements Observer, ComponentListen
         } else if (args.length == 2) {
             host = args[0];
             port = Integer.parseInt(args[1]);
+        } else if (args.length == 3) {
+            host = args[0];
+            port = Integer.parseInt(args[1]);
+            subscribe = args[2].equals("subscribe");
+        } else if (args.length == 4) {
+            host = args[0];
+            port = Integer.parseInt(args[1]);
+            subscribe = args[2].equals("subscribe");
+            codec = args[3];
+        } else if (args.length == 5) {
+            host = args[0];
+            port = Integer.parseInt(args[1]);
+            subscribe = args[2].equals("subscribe");
+            codec = args[3];
+            compression = args[4];
         } else {
             System.out.println("Enter: \'[port]\' or \'[port] [host]\' " +
                     "\nOr \'[port] [host] [max number of clients]\'" +
                     "\nOr default is \'[7654] [0.0.0.0] [20]\'");
         }
-        System.out.println("Host: " + host + ", Port: " + port);
+        System.out.println("Host: " + host + ", Port: " + port + ", Codec: " + codec + ", Compression: " + compression);
 
         // set host and port to final
         String finalHost = host;
         int finalPort = port;
+        boolean finalSubscribe = subscribe;
+        String finalCodec = codec;
+        String finalCompression = compression;
 
         // start gui thread
         EventQueue.invokeLater(() -> {
             GameClient gameClient = null;
 
             try {
-                gameClient = new GameClient(finalHost, finalPort);
+                gameClient = new GameClient(finalHost, finalPort, finalSubscribe, finalCodec, finalCompression);
                 frame = new BlackjackOnline(gameClient);
                 frame.setVisible(true);
 
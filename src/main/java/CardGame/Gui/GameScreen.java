@@ -171,18 +171,17 @@ public class GameScreen extends JPanel implements Observer {
                 return;
             }
 
-            // send message from text area to server
-            ResponseProtocol responseProtocol = client.requestSendMessage(textArea.getText());
+            // send message from text area to server, without waiting for the response
+            client.requestSendMessageAsync(textArea.getText()).thenAccept(responseProtocol -> {
+
+                // We display the error if not successful
+                if (responseProtocol != null && responseProtocol.getRequestSuccess() == 0) {
+                    EventQueue.invokeLater(() -> JOptionPane.showMessageDialog(null,
+                            responseProtocol.getErrorMsg(), "Warning", JOptionPane.WARNING_MESSAGE));
+                }
+            });
             textArea.setText("");
             textArea.grabFocus();
-
-            // We display the error if not successful
-            int success = responseProtocol.getRequestSuccess();
-            String errorMsg = responseProtocol.getErrorMsg();
-            if (success == 0) {
-                JOptionPane.showMessageDialog(null, errorMsg, "Warning",
-                        JOptionPane.WARNING_MESSAGE);
-            }
         });
         btnSendMessage.setContentAreaFilled(false);
         btnSendMessage.setBorderPainted(false);
@@ -0,0 +1,185 @@
+package CardGame.Network;
+
+import CardGame.Codec.Codecs;
+import CardGame.Responses.ResponseServerFull;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import static CardGame.ProtocolMessages.SERVER_FULL;
+import static CardGame.ProtocolMessages.TOO_MANY_CONNECTIONS;
+
+/**
+ * This class decides which accepted clients the server takes. It limits the
+ * connections open at once, overall and from each address, so a client
+ * the server has no room for is told the server is full straight away,
+ * rather than waiting unseen for a thread, and one address cannot take
+ * every place.
+ *
+ * It also counts the clients accepted and refused, and how long an accepted
+ * client waited before its connection was served, which is the time it
+ * spent queued for a thread or an event loop.
+ */
+public class AdmissionController {
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+
+    // milliseconds a refused client is told to wait before connecting again
+    public static final long RETRY_AFTER_MILLIS = 5000;
+
+    private final int maxConnections;
+    private final int maxConnectionsPerAddress;
+    private final Map<InetAddress, Integer> connectionsPerAddress;
+    private int connections;
+
+    private final LongAdder accepted;
+    private final LongAdder rejectedFull;
+    private final LongAdder rejectedPerAddress;
+    private final LongAdder queueWaits;
+    private final LongAdder queueWaitNanos;
+    private volatile long maxQueueWaitNanos;
+
+    // the accepted count and time of the last counters printed, for the accept rate
+    private long lastAccepted;
+    private long lastCountersAt;
+
+    /**
+     * Constructor for the AdmissionController class.
+     *
+     * @param maxConnections           the most clients connected at once.
+     * @param maxConnectionsPerAddress the most clients connected at once from one address.
+     */
+    public AdmissionController(int maxConnections, int maxConnectionsPerAddress) {
+        this.maxConnections = maxConnections;
+        this.maxConnectionsPerAddress = maxConnectionsPerAddress;
+        this.connectionsPerAddress = new HashMap<>();
+        this.accepted = new LongAdder();
+        this.rejectedFull = new LongAdder();
+        this.rejectedPerAddress = new LongAdder();
+        this.queueWaits = new LongAdder();
+        this.queueWaitNanos = new LongAdder();
+        this.lastCountersAt = System.nanoTime();
+    }
+
+    /**
+     * This method takes a place for a client which has just been accepted.
+     * An admitted client must be released once it disconnects.
+     *
+     * @param address the address the client connected from.
+     * @return null if the client is admitted, or else the response to send it before closing.
+     */
+    public synchronized ResponseServerFull admit(InetAddress address) {
+        if (connections >= maxConnections) {
+            rejectedFull.increment();
+            return new ResponseServerFull(SERVER_FULL, RETRY_AFTER_MILLIS);
+        }
+
+        int fromAddress = connectionsPerAddress.getOrDefault(address, 0);
+        if (fromAddress >= maxConnectionsPerAddress) {
+            rejectedPerAddress.increment();
+            return new ResponseServerFull(TOO_MANY_CONNECTIONS, RETRY_AFTER_MILLIS);
+        }
+
+        connections++;
+        connectionsPerAddress.put(address, fromAddress + 1);
+        accepted.increment();
+        return null;
+    }
+
+    /**
+     * This method gives back the place of an admitted client which has disconnected.
+     *
+     * @param address the address the client connected from.
+     */
+    public synchronized void release(InetAddress address) {
+        Integer fromAddress = connectionsPerAddress.get(address);
+        if (fromAddress == null) {
+            return;
+        }
+
+        connections--;
+        if (fromAddress == 1) {
+            connectionsPerAddress.remove(address);
+        } else {
+            connectionsPerAddress.put(address, fromAddress - 1);
+        }
+    }
+
+    /**
+     * This method counts how long an admitted client waited between being accepted
+     * and its connection being served.
+     *
+     * @param nanos
+     */
+    public void recordQueueWait(long nanos) {
+        queueWaits.increment();
+        queueWaitNanos.add(nanos);
+        if (nanos > maxQueueWaitNanos) {
+            synchronized (queueWaitNanos) {
+                maxQueueWaitNanos = Math.max(maxQueueWaitNanos, nanos);
+            }
+        }
+    }
+
+    /**
+     * @param response
+     * @return the frame of a refusal, which is always JSON in the short framing.
+     */
+    public static byte[] encodeRefusal(ResponseServerFull response) {
+        return Codecs.JSON_CODEC.encode(response);
+    }
+
+    public synchronized int getConnectionCount() {
+        return connections;
+    }
+
+    public long getAcceptedCount() {
+        return accepted.sum();
+    }
+
+    /**
+     * @return the clients refused as the server had no room, and as their address had no room.
+     */
+    public long getRejectedCount() {
+        return rejectedFull.sum() + rejectedPerAddress.sum();
+    }
+
+    /**
+     * @return the longest any admitted client waited to be served, in milliseconds.
+     */
+    public long getMaxQueueWaitMillis() {
+        return maxQueueWaitNanos / 1000000;
+    }
+
+    /**
+     * This method prints the counters, with the rate clients were accepted at
+     * since it was last called.
+     *
+     * @return
+     */
+    public synchronized String countersToString() {
+        long now = System.nanoTime();
+        long acceptedNow = accepted.sum();
+        double seconds = Math.max(1e-9, (now - lastCountersAt) / 1e9);
+        double acceptRate = (acceptedNow - lastAccepted) / seconds;
+        lastAccepted = acceptedNow;
+        lastCountersAt = now;
+
+        long waits = queueWaits.sum();
+        double averageWaitMillis = waits == 0 ? 0 : queueWaitNanos.sum() / 1e6 / waits;
+        return String.format("Admission: connected=%d accepted=%d (%.1f/s) rejected full=%d address=%d"
+                        + " queue wait avg=%.2fms max=%dms",
+                connections, acceptedNow, acceptRate, rejectedFull.sum(), rejectedPerAddress.sum(),
+                averageWaitMillis, getMaxQueueWaitMillis());
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "AdmissionController{" +
+                "connections=" + connections + "/" + maxConnections +
+                ", maxConnectionsPerAddress=" + maxConnectionsPerAddress +
+                ", addresses=" + connectionsPerAddress.size() +
+                '}';
+    }
+}
@@ -0,0 +1,36 @@
+package CardGame.Network;
+
+import CardGame.Responses.ResponseProtocol;
+
+/**
+ * A ClientConnection sends responses and pushes to one client. It is how
+ * a GameServerThread pushes data to its client outside of a request, and
+ * closes a connection which has gone idle, whichever transport the client
+ * is connected by.
+ */
+public interface ClientConnection {
+
+    /**
+     * This method sends the response to the client. It may be called from
+     * any thread.
+     *
+     * @param response
+     */
+    void send(ResponseProtocol response);
+
+    /**
+     * This method tells whether a push of the type is still waiting to be
+     * written, so a pusher can send something which supersedes it instead
+     * of adding to it.
+     *
+     * @param pushType
+     * @return true if a push of the type has been sent and not yet written.
+     */
+    boolean hasQueued(int pushType);
+
+    /**
+     * This method closes the connection to the client. The client is logged
+     * out once the transport sees the connection has gone.
+     */
+    void close();
+}
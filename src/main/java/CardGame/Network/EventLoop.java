@@ -0,0 +1,230 @@
+package CardGame.Network;
+
+import CardGame.GameServerThread;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class runs a selector on its own thread. It owns the channels
+ * registered with it and does all reads and writes for them. Other threads
+ * talk to the loop by queueing a task and waking the selector up.
+ *
+ * A connection can stop being read for a while, when its client was told
+ * to slow down. The loop wakes up in time to read from it again.
+ */
+public class EventLoop implements Runnable {
+    private final Selector selector;
+    private final Queue<Runnable> tasks;
+    private final Executor workers;
+    private final AtomicInteger connectionCount;
+    private final List<NioConnection> pausedConnections;
+    private volatile AdmissionController admission;
+    private volatile boolean running;
+
+    public EventLoop(Executor workers) throws IOException {
+        this.selector = Selector.open();
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.workers = workers;
+        this.connectionCount = new AtomicInteger();
+        this.pausedConnections = new ArrayList<>();
+        this.running = true;
+    }
+
+    /**
+     * This method hands an accepted channel to the loop. The loop creates the
+     * connection and registers it with the selector.
+     *
+     * @param channel The accepted channel.
+     * @param session The server thread which handles requests for the channel.
+     */
+    public void register(final SocketChannel channel, final GameServerThread session) {
+        final long acceptedAt = System.nanoTime();
+        execute(() -> {
+            AdmissionController admission = this.admission;
+            if (admission != null) {
+                admission.recordQueueWait(System.nanoTime() - acceptedAt);
+            }
+
+            NioConnection connection = new NioConnection(channel, this, session, workers);
+            session.setConnection(connection);
+            connectionCount.incrementAndGet();
+            try {
+                channel.configureBlocking(false);
+                connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+            } catch (IOException e) {
+                System.out.println("Cannot register client channel with selector.");
+                connection.close();
+            }
+        });
+    }
+
+    /**
+     * This method asks the loop to write the queued frames of a connection.
+     *
+     * @param connection
+     */
+    void requestWrite(final NioConnection connection) {
+        execute(() -> {
+            // try to write straight away and only wait for OP_WRITE if the socket is full
+            if (!connection.isClosed() && !connection.onWritable()) {
+                SelectionKey key = connection.getKey();
+                if (key != null && key.isValid()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                }
+            }
+        });
+    }
+
+    /**
+     * This method asks the loop to stop reading from a connection for a while.
+     * Frames already read are still handled, and unread frames wait in the socket.
+     *
+     * @param connection
+     * @param millis     how long to stop reading for.
+     */
+    void pauseReading(final NioConnection connection, final long millis) {
+        execute(() -> {
+            SelectionKey key = connection.getKey();
+            if (connection.isClosed() || key == null || !key.isValid()) {
+                return;
+            }
+
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            if (connection.getResumeReadingAt() == 0) {
+                pausedConnections.add(connection);
+            }
+            connection.setResumeReadingAt(Math.max(connection.getResumeReadingAt(),
+                    System.currentTimeMillis() + millis));
+        });
+    }
+
+    /**
+     * This method reads from paused connections again once their time is up.
+     *
+     * @return the milliseconds until the next connection is due, or 0 if none are paused.
+     */
+    private long resumeReading() {
+        long now = System.currentTimeMillis();
+        long nextDue = 0;
+
+        Iterator<NioConnection> connections = pausedConnections.iterator();
+        while (connections.hasNext()) {
+            NioConnection connection = connections.next();
+            SelectionKey key = connection.getKey();
+            if (connection.getResumeReadingAt() <= now || connection.isClosed() || !key.isValid()) {
+                connection.setResumeReadingAt(0);
+                connections.remove();
+                if (key.isValid()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                }
+            } else {
+                long wait = connection.getResumeReadingAt() - now;
+                nextDue = nextDue == 0 ? wait : Math.min(nextDue, wait);
+            }
+        }
+        return nextDue;
+    }
+
+    private void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        long timeout = 0;
+        while (running) {
+            try {
+                // a timeout of 0 waits until woken up
+                selector.select(timeout);
+            } catch (IOException e) {
+                System.out.println("Selector failed, stopping event loop.");
+                break;
+            }
+
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+            timeout = resumeReading();
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                handleKey(key);
+            }
+        }
+
+        closeAll();
+    }
+
+    private void handleKey(SelectionKey key) {
+        NioConnection connection = (NioConnection) key.attachment();
+
+        if (key.isValid() && key.isReadable()) {
+            connection.onReadable();
+        }
+
+        if (key.isValid() && key.isWritable() && connection.onWritable() && key.isValid()) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * This method stops the loop and closes all its connections.
+     */
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof NioConnection) {
+                ((NioConnection) key.attachment()).close();
+            }
+        }
+
+        try {
+            selector.close();
+        } catch (IOException e) {
+            System.out.println("Problem closing selector.");
+        }
+    }
+
+    void connectionClosed(NioConnection connection) {
+        AdmissionController admission = this.admission;
+        if (admission != null) {
+            admission.release(connection.getAddress());
+        }
+        connectionCount.decrementAndGet();
+    }
+
+    /**
+     * This method sets the admission controller the connections of this loop
+     * were admitted by, so their places are given back as they close.
+     *
+     * @param admission
+     */
+    public void setAdmissionController(AdmissionController admission) {
+        this.admission = admission;
+    }
+
+    /**
+     * @return the number of open connections owned by this loop.
+     */
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+}
@@ -0,0 +1,94 @@
+package CardGame.Network;
+
+import CardGame.GameServerThread;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class closes the connections of clients the server has heard nothing
+ * from for the idle timeout. A client which goes away without closing its
+ * socket would otherwise hold its thread, its user and its seat in a game
+ * forever. Clients send a HEARTBEAT when they have nothing else to send, so
+ * only dead connections go idle.
+ *
+ * One timer thread checks every session, whichever transport it is on.
+ */
+public class IdleReaper {
+    private final long idleTimeoutMillis;
+    private final Set<GameServerThread> sessions;
+    private final AtomicLong reapedCount;
+    private final ScheduledExecutorService timer;
+
+    /**
+     * Constructor for the IdleReaper class. The sessions are checked four times
+     * in each timeout, so a dead connection is closed at most a quarter late.
+     *
+     * @param idleTimeoutSeconds the seconds a client can send nothing before it is disconnected.
+     */
+    public IdleReaper(int idleTimeoutSeconds) {
+        this.idleTimeoutMillis = TimeUnit.SECONDS.toMillis(idleTimeoutSeconds);
+        this.sessions = ConcurrentHashMap.newKeySet();
+        this.reapedCount = new AtomicLong();
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "idle-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long period = Math.max(1, idleTimeoutMillis / 4);
+        timer.scheduleAtFixedRate(this::reapIdleSessions, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public void add(GameServerThread session) {
+        sessions.add(session);
+    }
+
+    public void remove(GameServerThread session) {
+        sessions.remove(session);
+    }
+
+    /**
+     * This method closes every session idle for longer than the timeout.
+     */
+    void reapIdleSessions() {
+        long now = System.currentTimeMillis();
+        for (GameServerThread session : sessions) {
+            if (now - session.getLastActive() > idleTimeoutMillis && session.closeConnection()) {
+                sessions.remove(session);
+                reapedCount.incrementAndGet();
+                System.out.println("GameClient idle for " + (now - session.getLastActive())
+                        + " ms. GameClient disconnected.");
+            }
+        }
+    }
+
+    /**
+     * @return the number of sessions closed for being idle.
+     */
+    public long getReapedCount() {
+        return reapedCount.get();
+    }
+
+    /**
+     * @return the number of sessions being watched.
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    /**
+     * This method stops the timer. Connections are left open.
+     */
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+}
@@ -0,0 +1,266 @@
+package CardGame.Network;
+
+import CardGame.Codec.Frames;
+import CardGame.GameServerThread;
+import CardGame.Responses.ResponseProtocol;
+import CardGame.Responses.ResponseSlowDown;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class is one client connected to the NioGameServer. The event loop
+ * that owns the channel reads frames in and writes frames out. Requests are
+ * handed to a GameServerThread (with no socket) on the worker pool, one at a time
+ * and in order, so the request/response semantics are the same as for a
+ * blocking GameServerThread. A request run as a command on a game does not
+ * hold a worker while it waits its turn; the next request is handled once
+ * its response has been sent.
+ *
+ * Frames are a length followed by the message in the codec and framing
+ * negotiated for the client, which is writeUTF's JSON until a HELLO. Frames
+ * to send wait in an OutboundQueue and are written a batch at a time with
+ * one gathering write.
+ */
+public class NioConnection implements ClientConnection {
+    private static final int READ_BUFFER_SIZE = 1024;
+
+    private final SocketChannel channel;
+    private final InetAddress address;
+    private final EventLoop eventLoop;
+    private final GameServerThread session;
+    private final SerialExecutor requests;
+    private final OutboundQueue writeQueue;
+    private final AtomicBoolean closed;
+    private SelectionKey key;
+    private ByteBuffer readBuffer;
+    private ByteBuffer[] writeBatch;
+    private long resumeReadingAt;
+
+    NioConnection(SocketChannel channel, EventLoop eventLoop, GameServerThread session, Executor workers) {
+        this.channel = channel;
+        this.address = channel.socket().getInetAddress();
+        this.eventLoop = eventLoop;
+        this.session = session;
+        this.requests = new SerialExecutor(workers);
+        this.writeQueue = new OutboundQueue();
+        this.closed = new AtomicBoolean(false);
+        this.readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    public GameServerThread getSession() {
+        return session;
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * This method is called by the event loop when the channel is readable.
+     * It reads what is available and dispatches every complete frame.
+     */
+    void onReadable() {
+        try {
+            int read = channel.read(readBuffer);
+            if (read == -1) {
+                System.out.println("GameClient disconnected.");
+                close();
+                return;
+            }
+        } catch (IOException e) {
+            System.out.println("IO problem. GameClient disconnected.");
+            close();
+            return;
+        }
+
+        readBuffer.flip();
+        int frameSize = 0;
+        try {
+            while (!isClosed()) {
+                // the framing only changes after a HELLO is answered, so it is read for each frame
+                Frames frames = session.getFrames();
+                if (readBuffer.remaining() < frames.getHeader()) {
+                    break;
+                }
+
+                frameSize = frames.getHeader() + frames.readLength(readBuffer, readBuffer.position());
+                if (readBuffer.remaining() < frameSize) {
+                    break;
+                }
+
+                byte[] frame = new byte[frameSize];
+                readBuffer.get(frame);
+                dispatch(frame);
+                frameSize = 0;
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println("Frame too large. GameClient disconnected.");
+            close();
+            return;
+        }
+        readBuffer.compact();
+
+        // grow the buffer once to fit the frame being read
+        if (frameSize > readBuffer.capacity()) {
+            ByteBuffer bigger = ByteBuffer.allocate(frameSize);
+            readBuffer.flip();
+            bigger.put(readBuffer);
+            readBuffer = bigger;
+        } else if (frameSize == 0 && readBuffer.capacity() > READ_BUFFER_SIZE && readBuffer.position() == 0) {
+            // give back the memory of a large frame once it has been read
+            readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        }
+    }
+
+    /**
+     * This method is called by the event loop when the channel is writable.
+     * It writes queued frames, a batch at a time, until the socket buffer is full.
+     *
+     * @return true if everything queued has been written.
+     */
+    boolean onWritable() {
+        try {
+            while (true) {
+                if (writeBatch == null) {
+                    byte[][] frames = writeQueue.pollBatch();
+                    if (frames == null) {
+                        return true;
+                    }
+
+                    writeBatch = new ByteBuffer[frames.length];
+                    for (int i = 0; i < frames.length; i++) {
+                        writeBatch[i] = ByteBuffer.wrap(frames[i]);
+                    }
+                }
+
+                channel.write(writeBatch);
+                if (writeBatch[writeBatch.length - 1].hasRemaining()) {
+                    return false;
+                }
+                writeBatch = null;
+            }
+        } catch (IOException e) {
+            System.out.println("IO problem. GameClient disconnected.");
+            close();
+        }
+        return true;
+    }
+
+    /**
+     * This method queues the response to be written to the client by the event loop.
+     *
+     * @param response
+     */
+    @Override
+    public void send(ResponseProtocol response) {
+        if (isClosed()) {
+            return;
+        }
+
+        // frames are queued in the order they are encoded, as the codec can change between them
+        boolean queued;
+        synchronized (writeQueue) {
+            queued = writeQueue.add(response, session.encodeFrame(response));
+        }
+        if (!queued) {
+            System.out.println("GameClient too slow to read responses. GameClient disconnected.");
+            close();
+            return;
+        }
+        eventLoop.requestWrite(this);
+
+        // stop reading from a client over its budget until it may send again
+        if (response instanceof ResponseSlowDown) {
+            eventLoop.pauseReading(this, ((ResponseSlowDown) response).getRetryAfter());
+        }
+    }
+
+    @Override
+    public boolean hasQueued(int pushType) {
+        return writeQueue.hasQueued(pushType);
+    }
+
+    /**
+     * This method closes the channel and logs the user out of the game and client.
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.out.println("Problem closing connections.");
+        }
+
+        eventLoop.connectionClosed(this);
+        requests.execute(session::handleDisconnect);
+    }
+
+    /**
+     * @return the address the client connected from.
+     */
+    public InetAddress getAddress() {
+        return address;
+    }
+
+    SelectionKey getKey() {
+        return key;
+    }
+
+    /**
+     * @return the time reading starts again, or 0 if reading is not paused. Only used by the event loop.
+     */
+    long getResumeReadingAt() {
+        return resumeReadingAt;
+    }
+
+    void setResumeReadingAt(long resumeReadingAt) {
+        this.resumeReadingAt = resumeReadingAt;
+    }
+
+    private void dispatch(byte[] frame) {
+        requests.executeAsync(() -> {
+            if (isClosed()) {
+                return CompletableFuture.completedFuture(null);
+            }
+
+            try {
+                return session.handleFrameAsync(frame).handle((response, error) -> {
+                    if (error != null) {
+                        error.printStackTrace();
+                        System.out.println("Exception while handling requests.");
+                        close();
+                    } else {
+                        send(response);
+                    }
+                    return null;
+                });
+            } catch (IllegalArgumentException e) {
+                System.out.println("Malformed frame. GameClient disconnected.");
+                close();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                System.out.println("Exception while handling requests.");
+                close();
+            }
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+}
@@ -0,0 +1,192 @@
+package CardGame.Network;
+
+import CardGame.GameServerThread;
+import CardGame.Responses.ResponseServerFull;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * This class runs the game server on a small number of event loops rather
+ * than a thread per client. An idle client costs a channel and a buffer,
+ * not a thread, so many more players can stay connected.
+ *
+ * The calling thread accepts connections and hands them to the event loops in turn.
+ * Requests are handled by a GameServerThread on a shared pool of workers, so
+ * clients see the same request/response behaviour as before.
+ *
+ * One accepting thread is enough: an accept and a hand-off take microseconds,
+ * so it keeps up with thousands of connections a second, and the backlog
+ * only has to hold a burst while it catches up. The event loops are sized to
+ * the cores (half of them, as the workers need the rest), and the workers to
+ * the work done for each request. A client the admission controller has no
+ * room for is told the server is full by the accepting thread and closed.
+ */
+public class NioGameServer {
+    private final InetSocketAddress address;
+    private final int backlog;
+    private final Supplier<GameServerThread> sessionFactory;
+    private final EventLoop[] eventLoops;
+    private final Thread[] eventLoopThreads;
+    private final ExecutorService workers;
+    private ServerSocketChannel serverChannel;
+    private volatile AdmissionController admission;
+    private volatile boolean running;
+
+    /**
+     * Constructor for the NioGameServer class.
+     *
+     * @param address         the address the server listens on.
+     * @param backlog         the number of pending connections the server socket queues.
+     * @param numberOfLoops   the number of event loop threads.
+     * @param numberOfWorkers the number of threads which handle requests.
+     * @param sessionFactory  creates a GameServerThread (with no socket) for each client.
+     */
+    public NioGameServer(InetSocketAddress address, int backlog, int numberOfLoops, int numberOfWorkers,
+                         Supplier<GameServerThread> sessionFactory) throws IOException {
+        this.address = address;
+        this.backlog = backlog;
+        this.sessionFactory = sessionFactory;
+        this.workers = Executors.newFixedThreadPool(numberOfWorkers);
+        this.eventLoops = new EventLoop[numberOfLoops];
+        this.eventLoopThreads = new Thread[numberOfLoops];
+
+        for (int i = 0; i < numberOfLoops; i++) {
+            eventLoops[i] = new EventLoop(workers);
+            eventLoopThreads[i] = new Thread(eventLoops[i], "event-loop-" + i);
+        }
+    }
+
+    /**
+     * This method opens the server channel and starts the event loops. It
+     * must be called before acceptConnections.
+     *
+     * @throws IOException if the address is already in use.
+     */
+    public void bind() throws IOException {
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(address, backlog);
+        this.running = true;
+
+        for (Thread eventLoopThread : eventLoopThreads) {
+            eventLoopThread.start();
+        }
+    }
+
+    /**
+     * This method accepts clients until the server is closed. Each
+     * accepted channel is given to the next event loop.
+     */
+    public void acceptConnections() {
+        int next = 0;
+
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                if (admission != null) {
+                    ResponseServerFull refusal = admission.admit(channel.socket().getInetAddress());
+                    if (refusal != null) {
+                        refuse(channel, refusal);
+                        continue;
+                    }
+                }
+                channel.socket().setTcpNoDelay(true);
+
+                eventLoops[next].register(channel, sessionFactory.get());
+                next = (next + 1) % eventLoops.length;
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                System.out.println("Problem accepting connection from client.");
+            }
+        }
+    }
+
+    /**
+     * This method tells a client the server has no room for it and closes the channel.
+     * The channel is still blocking, and the refusal fits in the empty socket buffer.
+     *
+     * @param channel
+     * @param refusal
+     */
+    private static void refuse(SocketChannel channel, ResponseServerFull refusal) {
+        try {
+            channel.write(ByteBuffer.wrap(AdmissionController.encodeRefusal(refusal)));
+        } catch (IOException e) {
+            System.out.println("Problem refusing connection from client.");
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.out.println("Problem closing connections.");
+            }
+        }
+    }
+
+    /**
+     * This method sets the admission controller which decides which accepted
+     * clients are taken. With none, every client is taken.
+     *
+     * @param admission
+     */
+    public void setAdmissionController(AdmissionController admission) {
+        this.admission = admission;
+        for (EventLoop eventLoop : eventLoops) {
+            eventLoop.setAdmissionController(admission);
+        }
+    }
+
+    /**
+     * @return the port the server is listening on.
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * @return the number of clients connected across all event loops.
+     */
+    public int getConnectionCount() {
+        int count = 0;
+        for (EventLoop eventLoop : eventLoops) {
+            count += eventLoop.getConnectionCount();
+        }
+        return count;
+    }
+
+    /**
+     * This method stops accepting, closes all connections and stops the threads.
+     */
+    public void close() {
+        running = false;
+
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            System.out.println("Problem closing server channel.");
+        }
+
+        for (EventLoop eventLoop : eventLoops) {
+            eventLoop.shutdown();
+        }
+
+        // wait for the loops to close their connections before stopping the workers
+        for (Thread eventLoopThread : eventLoopThreads) {
+            try {
+                eventLoopThread.join(1000);
+            } catch (InterruptedException e) {
+                System.out.println("Interrupted while waiting for event loops to stop.");
+            }
+        }
+        workers.shutdown();
+    }
+}
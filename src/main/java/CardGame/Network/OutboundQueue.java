@@ -0,0 +1,181 @@
+package CardGame.Network;
+
+import CardGame.Pushes.PushGameState;
+import CardGame.Responses.ResponseProtocol;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+import static CardGame.ProtocolTypes.*;
+
+/**
+ * This class holds the frames waiting to be written to one client. Frames
+ * are taken off in batches, so several frames go out in one write.
+ *
+ * A push of the whole of some state supersedes the same push still waiting
+ * in the queue, so the older one is dropped rather than sent. A full game
+ * state supersedes every game state waiting, but a delta supersedes nothing,
+ * as the client needs every delta since the last full one. So a delta is
+ * not added behind a game state still waiting: the pusher asks hasQueued
+ * first and sends the full game state instead, which replaces them all.
+ *
+ * A client which stays slow fills the queue past MAX_QUEUED_FRAMES or
+ * MAX_QUEUED_BYTES, and is then disconnected.
+ */
+public class OutboundQueue {
+    public static final int MAX_QUEUED_FRAMES = 1024;
+    public static final int MAX_QUEUED_BYTES = 4 * 1024 * 1024;
+    public static final int MAX_BATCH_FRAMES = 64;
+
+    private static final int NOT_A_PUSH = -1;
+
+    private final ArrayDeque<Entry> entries;
+    private int queuedBytes;
+    private long framesCoalesced;
+
+    public OutboundQueue() {
+        this.entries = new ArrayDeque<>();
+    }
+
+    /**
+     * This method queues the frame of a response, after dropping any waiting
+     * push it supersedes.
+     *
+     * @param response the response the frame was encoded from.
+     * @param frame    the frame, including the length.
+     * @return false if the queue is over its limits and the client should be disconnected.
+     */
+    public synchronized boolean add(ResponseProtocol response, byte[] frame) {
+        int pushType = response.getProtocolId() == PUSH_PROTOCOL_ID ? response.getType() : NOT_A_PUSH;
+
+        if (supersedes(response)) {
+            Iterator<Entry> waiting = entries.iterator();
+            while (waiting.hasNext()) {
+                Entry entry = waiting.next();
+                if (entry.pushType == pushType) {
+                    waiting.remove();
+                    queuedBytes -= entry.frame.length;
+                    framesCoalesced++;
+                }
+            }
+        }
+
+        entries.add(new Entry(pushType, frame));
+        queuedBytes += frame.length;
+        return entries.size() <= MAX_QUEUED_FRAMES && queuedBytes <= MAX_QUEUED_BYTES;
+    }
+
+    /**
+     * This method queues a frame which supersedes nothing and is never superseded,
+     * for a transport which only has the frame.
+     *
+     * @param frame the frame, including the length.
+     * @return false if the queue is over its limits and the client should be disconnected.
+     */
+    public synchronized boolean add(byte[] frame) {
+        entries.add(new Entry(NOT_A_PUSH, frame));
+        queuedBytes += frame.length;
+        return entries.size() <= MAX_QUEUED_FRAMES && queuedBytes <= MAX_QUEUED_BYTES;
+    }
+
+    /**
+     * This method takes the next frames to write, oldest first.
+     *
+     * @return up to MAX_BATCH_FRAMES frames, or null if the queue is empty.
+     */
+    public byte[][] pollBatch() {
+        return pollBatch(MAX_BATCH_FRAMES);
+    }
+
+    /**
+     * This method takes the next frames to write, oldest first.
+     *
+     * @param maxFrames the most frames to take.
+     * @return up to maxFrames frames, or null if the queue is empty or maxFrames is 0.
+     */
+    public synchronized byte[][] pollBatch(int maxFrames) {
+        if (entries.isEmpty() || maxFrames <= 0) {
+            return null;
+        }
+
+        byte[][] batch = new byte[Math.min(entries.size(), maxFrames)][];
+        for (int i = 0; i < batch.length; i++) {
+            batch[i] = entries.poll().frame;
+            queuedBytes -= batch[i].length;
+        }
+        return batch;
+    }
+
+    /**
+     * @return the next frame to write, left in the queue, or null if the queue is empty.
+     */
+    public synchronized byte[] peek() {
+        Entry entry = entries.peek();
+        return entry == null ? null : entry.frame;
+    }
+
+    /**
+     * This method takes the next frame to write.
+     *
+     * @return the frame, or null if the queue is empty.
+     */
+    public synchronized byte[] poll() {
+        Entry entry = entries.poll();
+        if (entry == null) {
+            return null;
+        }
+        queuedBytes -= entry.frame.length;
+        return entry.frame;
+    }
+
+    /**
+     * @param pushType
+     * @return true if a push of the type is waiting to be taken.
+     */
+    public synchronized boolean hasQueued(int pushType) {
+        for (Entry entry : entries) {
+            if (entry.pushType == pushType) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the number of pushes dropped as a newer one superseded them.
+     */
+    public synchronized long getFramesCoalesced() {
+        return framesCoalesced;
+    }
+
+    /**
+     * @param response
+     * @return true if the response is a push of the whole state of its type.
+     */
+    private static boolean supersedes(ResponseProtocol response) {
+        if (response.getProtocolId() != PUSH_PROTOCOL_ID) {
+            return false;
+        } else if (response instanceof PushGameState) {
+            return ((PushGameState) response).getGameState().isFull();
+        }
+        return response.getType() >= PUSH_GAME_NAMES && response.getType() < PUSH_GAME_STATE;
+    }
+
+    private static class Entry {
+        private final int pushType;
+        private final byte[] frame;
+
+        Entry(int pushType, byte[] frame) {
+            this.pushType = pushType;
+            this.frame = frame;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package CardGame.Network;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import static CardGame.ProtocolTypes.*;
+
+/**
+ * This class limits the requests one client can send. There is a token bucket
+ * for each budget: game actions, polls and chat. Each request takes a token
+ * from the bucket for its type, and the buckets refill at a steady rate up to
+ * their burst size. A request with no token left is refused with a retry-after
+ * time, so a client sending too fast is told to slow down rather than slowing
+ * every client down.
+ *
+ * Counts of allowed and limited requests are kept for each client and for
+ * the whole server, so the budgets can be tuned under real load.
+ */
+public class RateLimiter {
+    public static final int ACTIONS = 0;
+    public static final int POLLS = 1;
+    public static final int CHAT = 2;
+    public static final String[] BUDGET_NAMES = {"actions", "polls", "chat"};
+
+    // tokens added each second, and the most tokens a bucket holds, for each budget
+    public static final double[] DEFAULT_RATES = {10, 20, 2};
+    public static final int[] DEFAULT_BURSTS = {20, 40, 5};
+
+    private static final LongAdder[] TOTAL_ALLOWED = newAdders();
+    private static final LongAdder[] TOTAL_LIMITED = newAdders();
+
+    private final double[] rates;
+    private final int[] bursts;
+    private final double[] tokens;
+    private final long[] allowed;
+    private final long[] limited;
+    private long lastRefill;
+
+    /**
+     * Constructor for a limiter with the default budgets.
+     */
+    public RateLimiter() {
+        this(DEFAULT_RATES, DEFAULT_BURSTS);
+    }
+
+    /**
+     * Constructor for a limiter with the budgets given.
+     *
+     * @param rates  the tokens added each second, for each budget.
+     * @param bursts the most tokens a bucket holds, for each budget.
+     */
+    public RateLimiter(double[] rates, int[] bursts) {
+        this.rates = rates.clone();
+        this.bursts = bursts.clone();
+        this.tokens = new double[BUDGET_NAMES.length];
+        this.allowed = new long[BUDGET_NAMES.length];
+        this.limited = new long[BUDGET_NAMES.length];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = bursts[i];
+        }
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * @param requestType
+     * @return the budget requests of the type are taken from.
+     */
+    public static int budgetFor(int requestType) {
+        if (requestType == SEND_MESSAGE) {
+            return CHAT;
+        } else if (requestType == GET_MESSAGE || requestType == HEARTBEAT
+                || (requestType >= PUSH_GAME_NAMES && requestType <= PUSH_GAME_STATE)) {
+            return POLLS;
+        }
+        return ACTIONS;
+    }
+
+    /**
+     * This method takes a token for the request type, if there is one.
+     *
+     * @param requestType
+     * @return 0 if the request is allowed, or else the milliseconds until it would be.
+     */
+    public synchronized long tryAcquire(int requestType) {
+        int budget = budgetFor(requestType);
+        refill();
+
+        if (tokens[budget] >= 1) {
+            tokens[budget] -= 1;
+            allowed[budget]++;
+            TOTAL_ALLOWED[budget].increment();
+            return 0;
+        }
+
+        limited[budget]++;
+        TOTAL_LIMITED[budget].increment();
+        return Math.max(1, (long) Math.ceil((1 - tokens[budget]) * 1000 / rates[budget]));
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        double seconds = (now - lastRefill) / 1e9;
+        lastRefill = now;
+
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = Math.min(bursts[i], tokens[i] + seconds * rates[i]);
+        }
+    }
+
+    /**
+     * @param budget
+     * @return the requests this client was allowed in the budget.
+     */
+    public synchronized long getAllowed(int budget) {
+        return allowed[budget];
+    }
+
+    /**
+     * @param budget
+     * @return the requests this client was told to slow down for in the budget.
+     */
+    public synchronized long getLimited(int budget) {
+        return limited[budget];
+    }
+
+    /**
+     * @param budget
+     * @return the requests all clients were allowed in the budget.
+     */
+    public static long getTotalAllowed(int budget) {
+        return TOTAL_ALLOWED[budget].sum();
+    }
+
+    /**
+     * @param budget
+     * @return the requests all clients were told to slow down for in the budget.
+     */
+    public static long getTotalLimited(int budget) {
+        return TOTAL_LIMITED[budget].sum();
+    }
+
+    /**
+     * @return the allowed and limited requests of all clients, for each budget.
+     */
+    public static String totalsToString() {
+        StringBuilder totals = new StringBuilder("Rate limits:");
+        for (int i = 0; i < BUDGET_NAMES.length; i++) {
+            totals.append(' ').append(BUDGET_NAMES[i]).append(" allowed=").append(getTotalAllowed(i))
+                    .append(" limited=").append(getTotalLimited(i));
+        }
+        return totals.toString();
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder counts = new StringBuilder("RateLimiter{");
+        for (int i = 0; i < BUDGET_NAMES.length; i++) {
+            counts.append(i == 0 ? "" : ", ").append(BUDGET_NAMES[i]).append('=')
+                    .append(allowed[i]).append('/').append(limited[i]);
+        }
+        return counts.append('}').toString();
+    }
+
+    private static LongAdder[] newAdders() {
+        LongAdder[] adders = new LongAdder[BUDGET_NAMES.length];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+}
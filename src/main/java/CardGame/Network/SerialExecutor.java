@@ -0,0 +1,69 @@
+package CardGame.Network;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * This executor runs its tasks one at a time, in the order they were
+ * submitted, on a shared executor. We use one per connection so that the
+ * requests from a client are handled in order without the client owning
+ * a thread. A task may also finish later than it returns, in which case
+ * the next task waits for the stage it returned.
+ */
+public class SerialExecutor implements Executor {
+    private final Queue<Runnable> tasks;
+    private final Executor executor;
+    private Runnable active;
+
+    public SerialExecutor(Executor executor) {
+        this.tasks = new ArrayDeque<>();
+        this.executor = executor;
+    }
+
+    @Override
+    public synchronized void execute(final Runnable task) {
+        tasks.add(() -> {
+            try {
+                task.run();
+            } finally {
+                scheduleNext();
+            }
+        });
+
+        if (active == null) {
+            scheduleNext();
+        }
+    }
+
+    /**
+     * This method queues a task which finishes when the stage it returns
+     * completes, so the next task does not start until then.
+     *
+     * @param task
+     */
+    public synchronized void executeAsync(final Supplier<? extends CompletionStage<?>> task) {
+        tasks.add(() -> {
+            CompletionStage<?> stage;
+            try {
+                stage = task.get();
+            } catch (RuntimeException e) {
+                scheduleNext();
+                throw e;
+            }
+            stage.whenComplete((result, error) -> scheduleNext());
+        });
+
+        if (active == null) {
+            scheduleNext();
+        }
+    }
+
+    private synchronized void scheduleNext() {
+        if ((active = tasks.poll()) != null) {
+            executor.execute(active);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package CardGame.Network;
+
+import CardGame.GameServerThread;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class holds the logged in users of the server, keyed by username,
+ * with the session each is logged in on. A login claims the username, and
+ * only one claim can win, so two clients logging in as the same user at
+ * once cannot both succeed. Checking a user is logged in is a map lookup,
+ * so a storm of logins after a restart does not slow down as more succeed.
+ *
+ * A user who logged in is given a session token, with which it can resume
+ * its session after a reconnect without the database.
+ */
+public class SessionRegistry {
+    private final ConcurrentHashMap<String, GameServerThread> sessions;
+    private final SessionTokens tokens;
+
+    public SessionRegistry() {
+        this(new SessionTokens());
+    }
+
+    /**
+     * Constructor for the SessionRegistry class.
+     *
+     * @param tokens issues and checks the session tokens.
+     */
+    public SessionRegistry(SessionTokens tokens) {
+        this.sessions = new ConcurrentHashMap<>();
+        this.tokens = tokens;
+    }
+
+    /**
+     * This method logs the username in on the session, unless it is logged in already.
+     *
+     * @param username
+     * @param session  the session the user logs in on.
+     * @return true if the username was claimed for the session.
+     */
+    public boolean claim(String username, GameServerThread session) {
+        return sessions.putIfAbsent(username, session) == null;
+    }
+
+    /**
+     * This method logs the username in on the session, taking it from the
+     * session it is logged in on, if any. It is only for a user who proved
+     * who it is with a session token.
+     *
+     * @param username
+     * @param session  the session the user resumes on.
+     * @return the session the user was logged in on, or null if there was none.
+     */
+    public GameServerThread takeOver(String username, GameServerThread session) {
+        return sessions.put(username, session);
+    }
+
+    /**
+     * This method logs the username out, if it is logged in on the session.
+     * A session can only release its own claim.
+     *
+     * @param username
+     * @param session
+     * @return true if the username was released.
+     */
+    public boolean release(String username, GameServerThread session) {
+        return username != null && sessions.remove(username, session);
+    }
+
+    /**
+     * @param username
+     * @return true if the username is logged in on any session.
+     */
+    public boolean isLoggedIn(String username) {
+        return username != null && sessions.containsKey(username);
+    }
+
+    /**
+     * @param username
+     * @return the session the username is logged in on, or null if it is not logged in.
+     */
+    public GameServerThread getSession(String username) {
+        return username == null ? null : sessions.get(username);
+    }
+
+    /**
+     * @return the usernames logged in, which must not be changed.
+     */
+    public Set<String> getUsernames() {
+        return Collections.unmodifiableSet(sessions.keySet());
+    }
+
+    public SessionTokens getTokens() {
+        return tokens;
+    }
+
+    /**
+     * @return the number of users logged in.
+     */
+    public int size() {
+        return sessions.size();
+    }
+}
@@ -0,0 +1,207 @@
+package CardGame.Network;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.EnumSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class issues and checks the session tokens a client uses to resume
+ * its session after a reconnect, without logging in against the database.
+ * A token is the username and the time it expires, signed with HMAC-SHA256:
+ *
+ * base64(username).expiresAt.base64(signature)
+ *
+ * The key is read from the cardgame.tokenKey system property or the
+ * CARDGAME_TOKEN_KEY environment variable, so tokens stay valid when the
+ * server restarts. With neither set the server generates a key once and
+ * keeps it in a key file. A user logging out revokes the tokens issued to
+ * it until then.
+ */
+public class SessionTokens {
+    public static final String KEY_PROPERTY = "cardgame.tokenKey";
+    public static final String KEY_ENVIRONMENT = "CARDGAME_TOKEN_KEY";
+    public static final String KEY_FILE_PROPERTY = "cardgame.tokenKeyFile";
+    public static final String DEFAULT_KEY_FILE = "session-token.key";
+    public static final long DEFAULT_TTL_SECONDS = 12 * 60 * 60;
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int RANDOM_KEY_BYTES = 32;
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final SecretKeySpec key;
+    private final long ttlMillis;
+    private final ConcurrentHashMap<String, Long> revokedAt;
+
+    /**
+     * Constructor for tokens signed with a random key, lasting the default time.
+     * The tokens only last as long as the server, so a server uses {@link #load(File)}.
+     */
+    public SessionTokens() {
+        this(randomKey(), DEFAULT_TTL_SECONDS);
+    }
+
+    /**
+     * Constructor for the SessionTokens class.
+     *
+     * @param key        the key tokens are signed with.
+     * @param ttlSeconds the seconds a token is valid for after it is issued.
+     */
+    public SessionTokens(byte[] key, long ttlSeconds) {
+        this.key = new SecretKeySpec(key, ALGORITHM);
+        this.ttlMillis = ttlSeconds * 1000;
+        this.revokedAt = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * This method makes tokens signed with the configured key, or else the key
+     * in the key file. If the file does not exist a random key is generated
+     * and written to it, readable only by the owner.
+     *
+     * @param keyFile the file the key is kept in when none is configured.
+     * @return tokens lasting the default time.
+     * @throws IOException if the key file can neither be read nor written.
+     */
+    public static SessionTokens load(File keyFile) throws IOException {
+        String configured = System.getProperty(KEY_PROPERTY, System.getenv(KEY_ENVIRONMENT));
+        if (configured != null && !configured.isEmpty()) {
+            return new SessionTokens(configured.getBytes(StandardCharsets.UTF_8), DEFAULT_TTL_SECONDS);
+        }
+        return new SessionTokens(loadKey(keyFile), DEFAULT_TTL_SECONDS);
+    }
+
+    /**
+     * @param username
+     * @return a token for the user, valid for the ttl from now.
+     */
+    public String issue(String username) {
+        String payload = ENCODER.encodeToString(username.getBytes(StandardCharsets.UTF_8))
+                + "." + (System.currentTimeMillis() + ttlMillis);
+        return payload + "." + ENCODER.encodeToString(sign(payload));
+    }
+
+    /**
+     * This method makes every token issued to the user until now invalid,
+     * so a token captured before the user logged out cannot resume its session.
+     *
+     * @param username
+     */
+    public void revoke(String username) {
+        long now = System.currentTimeMillis();
+        revokedAt.put(username, now);
+        // a revocation older than the ttl only covers tokens that have expired
+        revokedAt.values().removeIf(revoked -> revoked < now - ttlMillis);
+    }
+
+    /**
+     * This method checks the token was signed with our key, has not expired
+     * and was not revoked.
+     *
+     * @param token
+     * @return the username in the token, or null if the token is not valid.
+     */
+    public String verify(String token) {
+        if (token == null) {
+            return null;
+        }
+
+        int signatureStart = token.lastIndexOf('.');
+        int expiresStart = signatureStart > 0 ? token.lastIndexOf('.', signatureStart - 1) : -1;
+        if (expiresStart <= 0) {
+            return null;
+        }
+
+        try {
+            String payload = token.substring(0, signatureStart);
+            byte[] signature = DECODER.decode(token.substring(signatureStart + 1));
+            if (!MessageDigest.isEqual(signature, sign(payload))) {
+                return null;
+            }
+
+            long expiresAt = Long.parseLong(token.substring(expiresStart + 1, signatureStart));
+            if (expiresAt < System.currentTimeMillis()) {
+                return null;
+            }
+            String username = new String(DECODER.decode(token.substring(0, expiresStart)), StandardCharsets.UTF_8);
+            Long revoked = revokedAt.get(username);
+            if (revoked != null && expiresAt - ttlMillis <= revoked) {
+                return null;
+            }
+            return username;
+        } catch (IllegalArgumentException e) {
+            // not base64, or not a number
+            return null;
+        }
+    }
+
+    private byte[] sign(String payload) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available.", e);
+        }
+    }
+
+    /**
+     * @param keyFile
+     * @return the key in the file, or a random one written to the file if it does not exist.
+     * @throws IOException if the key file can neither be read nor written.
+     */
+    private static byte[] loadKey(File keyFile) throws IOException {
+        if (!keyFile.exists()) {
+            byte[] key = randomKey();
+            try {
+                createOwnerOnly(keyFile);
+                Files.write(keyFile.toPath(), ENCODER.encodeToString(key).getBytes(StandardCharsets.US_ASCII));
+                System.out.println("Generated a session token key in " + keyFile + ".");
+                return key;
+            } catch (FileAlreadyExistsException e) {
+                // another server wrote it first, so use its key
+            }
+        }
+
+        String encoded = new String(Files.readAllBytes(keyFile.toPath()), StandardCharsets.US_ASCII).trim();
+        try {
+            byte[] key = DECODER.decode(encoded);
+            if (key.length == 0) {
+                throw new IOException("The session token key file " + keyFile + " is empty.");
+            }
+            return key;
+        } catch (IllegalArgumentException e) {
+            throw new IOException("The session token key file " + keyFile + " is not base64.", e);
+        }
+    }
+
+    private static void createOwnerOnly(File keyFile) throws IOException {
+        try {
+            Files.createFile(keyFile.toPath(), PosixFilePermissions.asFileAttribute(
+                    EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE)));
+        } catch (UnsupportedOperationException e) {
+            // not a POSIX file system
+            Files.createFile(keyFile.toPath());
+            keyFile.setReadable(false, false);
+            keyFile.setReadable(true, true);
+        }
+    }
+
+    private static byte[] randomKey() {
+        byte[] key = new byte[RANDOM_KEY_BYTES];
+        new SecureRandom().nextBytes(key);
+        return key;
+    }
+}
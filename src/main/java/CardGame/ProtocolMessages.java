@@ -26,6 +26,7 @@ public class ProtocolMessages {
     public static final String NO_GAME = "game requested does not exist.";
     public static final String NO_GAME_JOINED = "user is not in a game.";
     public static final String GAME_FULL = "the game is full.";
+    public static final String GAME_ON_OTHER_SERVER = "the game is on another server; connect to it to join.";
     public static final String EMPTY_MSG = "message sent is empty or null.";
     public static final String EMPTY = "protocol sent contains empty or null elements.";
     public static final String BET_NOT_IN_BUDGET = "bet not within player budget.";
@@ -38,6 +39,11 @@ public class ProtocolMessages {
     public static final String PLAYER_BET_PLACED = "you have already bet.";
     public static final String PLAYER_BUST = "you are bust. Please wait for other players to finish or place a bet.";
     public static final String PLAYER_STAND_ALL = "all players are standing."; // need to be fixed
+    public static final String CODEC_ALREADY_CHOSEN = "codec has already been chosen.";
+    public static final String SLOW_DOWN = "too many requests; please slow down.";
+    public static final String SERVER_FULL = "server is full; please try again later.";
+    public static final String INVALID_SESSION_TOKEN = "session token is invalid or has expired.";
+    public static final String TOO_MANY_CONNECTIONS = "too many connections from your address; please try again later.";
     public static final int SUCCESS = 1;
     public static final int FAIL = 0;
 
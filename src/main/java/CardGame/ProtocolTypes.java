@@ -13,6 +13,10 @@ public class ProtocolTypes {
     public static final int GET_MESSAGE = 3;
     public static final int CLIENT_ID = 4;
     public static final int LOG_OUT_USER = 5;
+    public static final int SUBSCRIBE = 6;
+    public static final int HELLO = 7;
+    public static final int HEARTBEAT = 8;
+    public static final int RESUME_SESSION = 9;
     public static final int CREATE_GAME = 20;
     public static final int JOIN_GAME = 21;
     public static final int QUIT_GAME = 22;
@@ -33,5 +37,12 @@ public class ProtocolTypes {
     public static final int PUSH_PLAYERS_STAND = 59;
     public static final int PUSH_ARE_PLAYERS_FINISHED = 60;
     public static final int PUSH_ARE_ALL_BETS_PLACED = 61;
+    public static final int PUSH_GAME_STATE = 62;
+    public static final int PUSH_REDIRECT = 63;
+    public static final int SERVER_FULL_TYPE = 97;
+    public static final int SLOW_DOWN_TYPE = 98;
     public static final int UNKNOWN_TYPE = 99;
+
+    // protocol id of pushes the server sends without a request
+    public static final int PUSH_PROTOCOL_ID = 0;
 }
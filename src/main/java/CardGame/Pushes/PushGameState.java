@@ -0,0 +1,43 @@
+package CardGame.Pushes;
+
+import CardGame.GameEngine.GameState;
+import CardGame.Responses.ResponseProtocol;
+
+import static CardGame.ProtocolTypes.PUSH_GAME_STATE;
+
+/**
+ * This class pushes the whole table, or that it has not changed, to a client.
+ */
+public class PushGameState extends ResponseProtocol {
+    private GameState gameState;
+    private boolean unchanged;
+
+    public PushGameState(int protocolID, int success, GameState gameState) {
+        super(protocolID, PUSH_GAME_STATE, success);
+        this.gameState = gameState;
+        this.unchanged = gameState == null;
+    }
+
+    public PushGameState(int protocolID, int success, String errorMsg) {
+        super(protocolID, PUSH_GAME_STATE, success, errorMsg);
+    }
+
+    public GameState getGameState() {
+        return gameState;
+    }
+
+    /**
+     * @return true if the game has not changed since the version the client sent.
+     */
+    public boolean isUnchanged() {
+        return unchanged;
+    }
+
+    @Override
+    public String toString() {
+        return "PushGameState{" +
+                "gameState=" + gameState +
+                ", unchanged=" + unchanged +
+                "} " + super.toString();
+    }
+}
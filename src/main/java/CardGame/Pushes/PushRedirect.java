@@ -0,0 +1,43 @@
+package CardGame.Pushes;
+
+import CardGame.Responses.ResponseProtocol;
+
+import static CardGame.ProtocolTypes.PUSH_REDIRECT;
+
+/**
+ * This push tells a client its game has moved to another server, which it
+ * should connect to and resume its session on.
+ */
+public class PushRedirect extends ResponseProtocol {
+    private String host;
+    private int port;
+    private String gameName;
+
+    public PushRedirect(int protocolID, int success, String host, int port, String gameName) {
+        super(protocolID, PUSH_REDIRECT, success);
+        this.host = host;
+        this.port = port;
+        this.gameName = gameName;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getGameName() {
+        return gameName;
+    }
+
+    @Override
+    public String toString() {
+        return "PushRedirect{" +
+                "host='" + host + '\'' +
+                ", port=" + port +
+                ", gameName='" + gameName + '\'' +
+                "} " + super.toString();
+    }
+}
@@ -0,0 +1,38 @@
+package CardGame.Requests;
+
+import CardGame.ProtocolTypes;
+
+/**
+ * This request asks for a snapshot of the whole game in one response,
+ * instead of one request for each of the game data pushes. The client sends
+ * the version of the game it has, and only gets what changed since then,
+ * or -1 to get the whole game.
+ */
+public class RequestGetGameState extends RequestProtocol {
+    private long version;
+
+    public RequestGetGameState(int protocolId, long version) {
+        super(protocolId, ProtocolTypes.PUSH_GAME_STATE);
+        this.version = version;
+    }
+
+    public RequestGetGameState(long version) {
+        super(ProtocolTypes.PUSH_GAME_STATE);
+        this.version = version;
+    }
+
+    public RequestGetGameState() {
+        this(-1);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return "RequestGetGameState{" +
+                "version=" + version +
+                "} " + super.toString();
+    }
+}
@@ -0,0 +1,19 @@
+package CardGame.Requests;
+
+import static CardGame.ProtocolTypes.HEARTBEAT;
+
+/**
+ * This request is sent by the client every so often when it has nothing
+ * else to send, so the server knows the connection is still alive. A
+ * connection the server hears nothing on for its idle timeout is closed.
+ */
+public class RequestHeartbeat extends RequestProtocol {
+
+    public RequestHeartbeat(int protocolId) {
+        super(protocolId, HEARTBEAT);
+    }
+
+    public RequestHeartbeat() {
+        super(HEARTBEAT);
+    }
+}
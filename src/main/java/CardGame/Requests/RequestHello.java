@@ -0,0 +1,66 @@
+package CardGame.Requests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static CardGame.ProtocolTypes.HELLO;
+
+/**
+ * This request is sent as JSON straight after connecting. It lists the
+ * codecs, framings and compressions the client can speak, the ones it prefers
+ * first. Once the response has been read both sides use the codec, framing and
+ * compression the server chose.
+ */
+public class RequestHello extends RequestProtocol {
+    private ArrayList<String> codecs;
+    private ArrayList<String> framings;
+    private ArrayList<String> compressions;
+
+    public RequestHello(int protocolId, String... codecs) {
+        super(protocolId, HELLO);
+        this.codecs = new ArrayList<>(Arrays.asList(codecs));
+    }
+
+    public RequestHello(String... codecs) {
+        super(HELLO);
+        this.codecs = new ArrayList<>(Arrays.asList(codecs));
+    }
+
+    public RequestHello(String[] codecs, String[] framings) {
+        super(HELLO);
+        this.codecs = new ArrayList<>(Arrays.asList(codecs));
+        this.framings = new ArrayList<>(Arrays.asList(framings));
+    }
+
+    public RequestHello(String[] codecs, String[] framings, String[] compressions) {
+        this(codecs, framings);
+        this.compressions = new ArrayList<>(Arrays.asList(compressions));
+    }
+
+    public ArrayList<String> getCodecs() {
+        return codecs;
+    }
+
+    /**
+     * @return the framings the client can speak, or null if it only speaks the short framing.
+     */
+    public ArrayList<String> getFramings() {
+        return framings;
+    }
+
+    /**
+     * @return the compressions the client can read, or null if it only reads uncompressed frames.
+     */
+    public ArrayList<String> getCompressions() {
+        return compressions;
+    }
+
+    @Override
+    public String toString() {
+        return "RequestHello{" +
+                "codecs=" + codecs +
+                ", framings=" + framings +
+                ", compressions=" + compressions +
+                "} " + super.toString();
+    }
+}
@@ -1,6 +1,6 @@
 package CardGame.Requests;
 
-import com.google.gson.Gson;
+import CardGame.Codec.JsonCodec;
 
 /**
  * Created by tom on 06/03/17.
@@ -23,6 +23,15 @@ public class RequestProtocol {
         return protocolId;
     }
 
+    /**
+     * The client numbers its requests, so no two requests in flight share a protocol id.
+     *
+     * @param protocolId
+     */
+    public void setProtocolId(int protocolId) {
+        this.protocolId = protocolId;
+    }
+
     public int getType() {
         return type;
     }
@@ -38,13 +47,13 @@ public class RequestProtocol {
     /**
      * We use a method to create a RequestProtocol from
      * a string input, where the string must be a json string.
+     * The request is read as the request class for its type.
      *
      * @param input
      * @return
      */
     public static RequestProtocol decodeRequest(String input){
-        Gson gson = new Gson();
-        return gson.fromJson(input, RequestProtocol.class);
+        return JsonCodec.decodeRequest(input);
     }
 
     /**
@@ -55,7 +64,6 @@ public class RequestProtocol {
      * @return
      */
     public static String encodeRequest(RequestProtocol request){
-        Gson gson = new Gson();
-        return gson.toJson(request);
+        return JsonCodec.GSON.toJson(request);
     }
 }
@@ -0,0 +1,42 @@
+package CardGame.Requests;
+
+import static CardGame.ProtocolTypes.RESUME_SESSION;
+
+/**
+ * This class sends a request to resume the session a client had before it
+ * lost its connection, in place of logging in again. The session token
+ * was given to the client when it logged in, so the server does not need
+ * the database to know who it is. The client is seated again in the game
+ * it was in, if that game is still there.
+ */
+public class RequestResumeSession extends RequestProtocol {
+    private String sessionToken;
+    private String gameToRejoin;
+
+    public RequestResumeSession(int protocolId, String sessionToken, String gameToRejoin) {
+        super(protocolId, RESUME_SESSION);
+        this.sessionToken = sessionToken;
+        this.gameToRejoin = gameToRejoin;
+    }
+
+    public RequestResumeSession(String sessionToken, String gameToRejoin) {
+        super(RESUME_SESSION);
+        this.sessionToken = sessionToken;
+        this.gameToRejoin = gameToRejoin;
+    }
+
+    public String getSessionToken() {
+        return sessionToken;
+    }
+
+    public String getGameToRejoin() {
+        return gameToRejoin;
+    }
+
+    @Override
+    public String toString() {
+        return "RequestResumeSession{" +
+                "gameToRejoin='" + gameToRejoin + '\'' +
+                "} " + super.toString();
+    }
+}
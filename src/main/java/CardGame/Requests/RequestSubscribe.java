@@ -0,0 +1,33 @@
+package CardGame.Requests;
+
+import static CardGame.ProtocolTypes.SUBSCRIBE;
+
+/**
+ * This request asks the server to push the game names, game data and
+ * chat messages to the client when they change, instead of the client
+ * polling for them.
+ */
+public class RequestSubscribe extends RequestProtocol {
+    private boolean subscribe;
+
+    public RequestSubscribe(int protocolId, boolean subscribe) {
+        super(protocolId, SUBSCRIBE);
+        this.subscribe = subscribe;
+    }
+
+    public RequestSubscribe(boolean subscribe) {
+        super(SUBSCRIBE);
+        this.subscribe = subscribe;
+    }
+
+    public boolean isSubscribe() {
+        return subscribe;
+    }
+
+    @Override
+    public String toString() {
+        return "RequestSubscribe{" +
+                "subscribe=" + subscribe +
+                "} " + super.toString();
+    }
+}
@@ -0,0 +1,14 @@
+package CardGame.Responses;
+
+import static CardGame.ProtocolTypes.HEARTBEAT;
+
+/**
+ * This class is a response for a HEARTBEAT, so the client knows the server
+ * is still alive too.
+ */
+public class ResponseHeartbeat extends ResponseProtocol {
+
+    public ResponseHeartbeat(int protocolId, int requestSuccess) {
+        super(protocolId, HEARTBEAT, requestSuccess);
+    }
+}
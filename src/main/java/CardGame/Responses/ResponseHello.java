@@ -0,0 +1,59 @@
+package CardGame.Responses;
+
+import static CardGame.ProtocolTypes.HELLO;
+
+/**
+ * This class is a response for a HELLO. It is always sent as JSON in the
+ * short framing and names the codec, framing and compression used for every
+ * frame after it.
+ */
+public class ResponseHello extends ResponseProtocol {
+    private String codec;
+    private String framing;
+    private String compression;
+
+    public ResponseHello(int protocolId, int requestSuccess, String codec) {
+        super(protocolId, HELLO, requestSuccess);
+        this.codec = codec;
+    }
+
+    public ResponseHello(int protocolId, int requestSuccess, String codec, String errorMsg) {
+        super(protocolId, HELLO, requestSuccess, errorMsg);
+        this.codec = codec;
+    }
+
+    public ResponseHello(int protocolId, int requestSuccess, String codec, String framing, String compression,
+                         String errorMsg) {
+        super(protocolId, HELLO, requestSuccess, errorMsg);
+        this.codec = codec;
+        this.framing = framing;
+        this.compression = compression;
+    }
+
+    public String getCodec() {
+        return codec;
+    }
+
+    /**
+     * @return the framing chosen, or null for the short framing.
+     */
+    public String getFraming() {
+        return framing;
+    }
+
+    /**
+     * @return the compression chosen, or null for none.
+     */
+    public String getCompression() {
+        return compression;
+    }
+
+    @Override
+    public String toString() {
+        return "ResponseHello{" +
+                "codec='" + codec + '\'' +
+                ", framing='" + framing + '\'' +
+                ", compression='" + compression + '\'' +
+                "} " + super.toString();
+    }
+}
@@ -9,9 +9,15 @@ import static CardGame.ProtocolTypes.JOIN_GAME;
  * game and therefore has been added to the gameLobby. This means
  * the user is now subscribed to all pushes for that gamelobby.
  *
+ * If the game is on another server of the cluster, the request fails
+ * and the response has the host and port of that server, which the
+ * client connects to in order to join it.
+ *
  * Created by tom on 12/03/17.
  */
 public class ResponseJoinGame extends ResponseProtocol {
+    private String redirectHost;
+    private int redirectPort;
 
     public ResponseJoinGame(int protocolId, int requestSuccess) {
         super(protocolId, JOIN_GAME, requestSuccess);
@@ -20,4 +26,22 @@ public class ResponseJoinGame extends ResponseProtocol {
     public ResponseJoinGame(int protocolId, int requestSuccess, String errorMsg) {
         super(protocolId, JOIN_GAME, requestSuccess, errorMsg);
     }
+
+    public ResponseJoinGame(int protocolId, int requestSuccess, String errorMsg, String redirectHost,
+                            int redirectPort) {
+        super(protocolId, JOIN_GAME, requestSuccess, errorMsg);
+        this.redirectHost = redirectHost;
+        this.redirectPort = redirectPort;
+    }
+
+    /**
+     * @return the host of the server the game is on, or null if it is on this server.
+     */
+    public String getRedirectHost() {
+        return redirectHost;
+    }
+
+    public int getRedirectPort() {
+        return redirectPort;
+    }
 }
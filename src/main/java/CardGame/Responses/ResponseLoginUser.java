@@ -8,6 +8,7 @@ import CardGame.User;
  */
 public class ResponseLoginUser extends ResponseProtocol {
     private User user;
+    private String sessionToken;
 
     public ResponseLoginUser(int protocolId, int requestSuccess, User user) {
         super(protocolId, ProtocolTypes.LOGIN_USER, requestSuccess); // type is 1 for login
@@ -19,7 +20,20 @@ public class ResponseLoginUser extends ResponseProtocol {
         this.user = user;
     }
 
+    public ResponseLoginUser(int protocolId, int requestSuccess, User user, String sessionToken, String errorMsg) {
+        super(protocolId, ProtocolTypes.LOGIN_USER, requestSuccess, errorMsg);
+        this.user = user;
+        this.sessionToken = sessionToken;
+    }
+
     public User getUser() {
         return user;
     }
+
+    /**
+     * @return the token the client presents to resume its session after a reconnect.
+     */
+    public String getSessionToken() {
+        return sessionToken;
+    }
 }
@@ -1,6 +1,6 @@
 package CardGame.Responses;
 
-import com.google.gson.Gson;
+import CardGame.Codec.JsonCodec;
 
 /**
  * Created by tom on 06/03/17.
@@ -60,8 +60,7 @@ public class ResponseProtocol {
      * @return
      */
     public static ResponseProtocol decodeResponse(String input) {
-        Gson gson = new Gson();
-        return gson.fromJson(input, ResponseProtocol.class);
+        return JsonCodec.GSON.fromJson(input, ResponseProtocol.class);
     }
 
     /**
@@ -72,7 +71,6 @@ public class ResponseProtocol {
      * @return
      */
     public static String encodeResponse(ResponseProtocol response) {
-        Gson gson = new Gson();
-        return gson.toJson(response);
+        return JsonCodec.GSON.toJson(response);
     }
 }
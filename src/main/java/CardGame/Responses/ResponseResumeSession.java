@@ -0,0 +1,46 @@
+package CardGame.Responses;
+
+import static CardGame.ProtocolTypes.RESUME_SESSION;
+
+/**
+ * This class is a response for resuming a session. On success it holds the
+ * user logged in again, a new session token, and the game the user is seated
+ * in, which is null if the game could not be rejoined.
+ */
+public class ResponseResumeSession extends ResponseProtocol {
+    private String username;
+    private String sessionToken;
+    private String gameJoined;
+
+    public ResponseResumeSession(int protocolId, int requestSuccess, String errorMsg) {
+        super(protocolId, RESUME_SESSION, requestSuccess, errorMsg);
+    }
+
+    public ResponseResumeSession(int protocolId, int requestSuccess, String username, String sessionToken,
+                                 String gameJoined) {
+        super(protocolId, RESUME_SESSION, requestSuccess);
+        this.username = username;
+        this.sessionToken = sessionToken;
+        this.gameJoined = gameJoined;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getSessionToken() {
+        return sessionToken;
+    }
+
+    public String getGameJoined() {
+        return gameJoined;
+    }
+
+    @Override
+    public String toString() {
+        return "ResponseResumeSession{" +
+                "username='" + username + '\'' +
+                ", gameJoined='" + gameJoined + '\'' +
+                "} " + super.toString();
+    }
+}
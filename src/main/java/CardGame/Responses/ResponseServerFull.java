@@ -0,0 +1,34 @@
+package CardGame.Responses;
+
+import static CardGame.ProtocolMessages.FAIL;
+import static CardGame.ProtocolTypes.PUSH_PROTOCOL_ID;
+import static CardGame.ProtocolTypes.SERVER_FULL_TYPE;
+
+/**
+ * This class is sent to a client the server will not take, straight after
+ * it connects and before the connection is closed. It is always JSON in the
+ * short framing, as nothing has been negotiated, so a client reading the
+ * response to its HELLO reads this instead.
+ */
+public class ResponseServerFull extends ResponseProtocol {
+    private long retryAfter;
+
+    public ResponseServerFull(String errorMsg, long retryAfter) {
+        super(PUSH_PROTOCOL_ID, SERVER_FULL_TYPE, FAIL, errorMsg);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @return the milliseconds to wait before connecting again.
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+
+    @Override
+    public String toString() {
+        return "ResponseServerFull{" +
+                "retryAfter=" + retryAfter +
+                "} " + super.toString();
+    }
+}
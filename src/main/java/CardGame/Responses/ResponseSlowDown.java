@@ -0,0 +1,33 @@
+package CardGame.Responses;
+
+import static CardGame.ProtocolMessages.FAIL;
+import static CardGame.ProtocolMessages.SLOW_DOWN;
+import static CardGame.ProtocolTypes.SLOW_DOWN_TYPE;
+
+/**
+ * This class is sent in place of the response to a request when the client
+ * has gone over its budget for the request type. The request was not handled,
+ * and the client should wait retryAfter milliseconds before sending it again.
+ */
+public class ResponseSlowDown extends ResponseProtocol {
+    private long retryAfter;
+
+    public ResponseSlowDown(int protocolId, long retryAfter) {
+        super(protocolId, SLOW_DOWN_TYPE, FAIL, SLOW_DOWN);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @return the milliseconds to wait before sending the request again.
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+
+    @Override
+    public String toString() {
+        return "ResponseSlowDown{" +
+                "retryAfter=" + retryAfter +
+                "} " + super.toString();
+    }
+}
@@ -0,0 +1,19 @@
+package CardGame.Responses;
+
+import static CardGame.ProtocolTypes.SUBSCRIBE;
+
+/**
+ * This class is a response for a SUBSCRIBE. Once it is successful the
+ * server sends pushes with a protocol id of PUSH_PROTOCOL_ID whenever
+ * the game names, game data or chat change.
+ */
+public class ResponseSubscribe extends ResponseProtocol {
+
+    public ResponseSubscribe(int protocolId, int requestSuccess) {
+        super(protocolId, SUBSCRIBE, requestSuccess);
+    }
+
+    public ResponseSubscribe(int protocolId, int requestSuccess, String errorMsg) {
+        super(protocolId, SUBSCRIBE, requestSuccess, errorMsg);
+    }
+}
@@ -0,0 +1,91 @@
+package CardGame.Benchmarks;
+
+import CardGame.Codec.Codecs;
+import CardGame.Codec.WireCodec;
+import CardGame.GameEngine.GameLobby;
+import CardGame.MessageObject;
+import CardGame.Pushes.PushGameState;
+import CardGame.Pushes.PushPlayerHands;
+import CardGame.Requests.RequestBet;
+import CardGame.Responses.ResponseGetMessages;
+import CardGame.User;
+
+import java.util.ArrayList;
+
+import static CardGame.ProtocolMessages.SUCCESS;
+import static CardGame.ProtocolTypes.PUSH_PROTOCOL_ID;
+
+/**
+ * This benchmark compares the Gson JSON codec, in both framings, with the binary codec,
+ * and both with deflate. For a few typical messages of a four player table it
+ * prints the bytes per frame and the time to encode and decode one, so we can
+ * see what each codec saves on the wire and what it costs in CPU.
+ *
+ * Run with: java CardGame.Benchmarks.CodecBenchmark [iterations]
+ * (the default is 200000). The database is not needed.
+ */
+public class CodecBenchmark {
+    private static volatile Object sink;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+
+        // a table of four players part way through a round
+        GameLobby lobby = new GameLobby(new User("boris99"));
+        lobby.addPlayer(new User("jack"));
+        lobby.addPlayer(new User("queen"));
+        lobby.addPlayer(new User("king"));
+        for (String player : lobby.getPlayerNames()) {
+            lobby.placeBet(player, 20);
+        }
+        lobby.startGameForTesting();
+        lobby.hit("jack");
+
+        ArrayList<MessageObject> messages = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            messages.add(new MessageObject("boris99", "good luck everyone " + i));
+        }
+
+        Object[] payloads = {
+                new RequestBet(1, 20, "boris99"),
+                new PushPlayerHands(PUSH_PROTOCOL_ID, SUCCESS, lobby.getPlayerHands()),
+                new PushGameState(PUSH_PROTOCOL_ID, SUCCESS, lobby.getGameState()),
+                new ResponseGetMessages(PUSH_PROTOCOL_ID, SUCCESS, messages, messages.size())
+        };
+        WireCodec[] codecs = {Codecs.JSON_CODEC, Codecs.JSON_LONG_CODEC, Codecs.JSON_DEFLATE_CODEC,
+                Codecs.BINARY_CODEC, Codecs.BINARY_DEFLATE_CODEC};
+
+        System.out.printf("%-22s %-7s %-7s %-8s %8s %12s %12s%n", "message", "codec", "framing", "compress",
+                "bytes", "encode ns", "decode ns");
+        for (Object payload : payloads) {
+            for (WireCodec codec : codecs) {
+                run(codec, payload, iterations);
+            }
+        }
+    }
+
+    private static void run(WireCodec codec, Object payload, int iterations) {
+        byte[] frame = codec.encode(payload);
+        Class<?> payloadClass = payload.getClass();
+
+        // warm up before timing
+        for (int i = 0; i < iterations / 10; i++) {
+            sink = codec.decode(codec.encode(payload), payloadClass);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink = codec.encode(payload);
+        }
+        long encodeNanos = (System.nanoTime() - start) / iterations;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink = codec.decode(frame, payloadClass);
+        }
+        long decodeNanos = (System.nanoTime() - start) / iterations;
+
+        System.out.printf("%-22s %-7s %-7s %-8s %8d %12d %12d%n", payloadClass.getSimpleName(), codec.getName(),
+                codec.getFrames().getName(), Codecs.getCompression(codec), frame.length, encodeNanos, decodeNanos);
+    }
+}
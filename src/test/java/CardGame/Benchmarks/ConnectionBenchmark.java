@@ -0,0 +1,142 @@
+package CardGame.Benchmarks;
+
+import CardGame.GameServer;
+import CardGame.Network.AdmissionController;
+import CardGame.Requests.RequestGetGameNames;
+import CardGame.Responses.ResponseProtocol;
+import com.google.gson.Gson;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static CardGame.ProtocolTypes.SERVER_FULL_TYPE;
+import static CardGame.Requests.RequestProtocol.encodeRequest;
+
+/**
+ * This benchmark shows how many clients one server can serve at once in
+ * each server mode. It opens a number of connections which all stay
+ * connected, sends one request on each, and counts how many get an answer
+ * before the deadline.
+ *
+ * With the fixed thread pool only maxNumberOfClients connections are served
+ * and the rest are told the server is full. The virtual and nio modes should
+ * serve them all. Every client connects from localhost, so there is no limit
+ * for each address. The virtual mode only runs virtual threads on Java 21
+ * or newer; on an older runtime it measures the thread per client it falls
+ * back to, so the Java version is printed with the results.
+ *
+ * Run with: java CardGame.Benchmarks.ConnectionBenchmark [clients...]
+ * (the default is 20 200 1000 2000). The database is not needed.
+ */
+public class ConnectionBenchmark {
+    private static final int POOL_SIZE = 20;
+    private static final long DEADLINE_MILLIS = 3000;
+    private static final Gson GSON = new Gson();
+
+    public static void main(String[] args) throws Exception {
+        int[] clientCounts = {20, 200, 1000, 2000};
+        if (args.length > 0) {
+            clientCounts = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                clientCounts[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        String[] modes = {GameServer.THREAD_MODE, GameServer.VIRTUAL_MODE, GameServer.NIO_MODE};
+
+        System.out.println("Java " + System.getProperty("java.version"));
+        System.out.printf("%-8s %8s %8s %8s %10s %12s%n", "mode", "clients", "served", "refused", "timedOut",
+                "millis");
+        for (String mode : modes) {
+            for (int clients : clientCounts) {
+                run(mode, clients);
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void run(String mode, int clients) throws Exception {
+        int port = freePort();
+        final GameServer server = new GameServer(port, "localhost", POOL_SIZE);
+        server.setConnectionLimits(GameServer.DEFAULT_MAX_CONNECTIONS, AdmissionController.UNLIMITED);
+
+        Thread serverThread = new Thread(() -> {
+            if (mode.equals(GameServer.NIO_MODE)) {
+                server.connectToClientsNio(2);
+            } else if (mode.equals(GameServer.VIRTUAL_MODE)) {
+                server.connectToClientsVirtual();
+            } else {
+                server.connectToClients();
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+        waitForServer(port);
+
+        List<Socket> sockets = new ArrayList<>();
+        int served = 0;
+        int refused = 0;
+        long start = System.nanoTime();
+        try {
+            // every client connects and sends a request before we read any answer
+            for (int i = 0; i < clients; i++) {
+                Socket socket = new Socket("localhost", port);
+                sockets.add(socket);
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                out.writeUTF(encodeRequest(new RequestGetGameNames(i + 1)));
+                out.flush();
+            }
+
+            long deadline = System.currentTimeMillis() + DEADLINE_MILLIS;
+            for (Socket socket : sockets) {
+                int timeLeft = (int) Math.max(1, deadline - System.currentTimeMillis());
+                socket.setSoTimeout(timeLeft);
+                try {
+                    String response = new DataInputStream(socket.getInputStream()).readUTF();
+                    if (GSON.fromJson(response, ResponseProtocol.class).getType() == SERVER_FULL_TYPE) {
+                        refused++;
+                    } else {
+                        served++;
+                    }
+                } catch (SocketTimeoutException e) {
+                    // not served before the deadline
+                } catch (IOException e) {
+                    // closed by the server after refusing
+                    refused++;
+                }
+            }
+        } finally {
+            long millis = (System.nanoTime() - start) / 1000000;
+            System.out.printf("%-8s %8d %8d %8d %10d %12d%n", mode, clients, served, refused,
+                    sockets.size() - served - refused, millis);
+
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            server.shutdown();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void waitForServer(int port) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            try {
+                new Socket("localhost", port).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(20);
+            }
+        }
+    }
+}
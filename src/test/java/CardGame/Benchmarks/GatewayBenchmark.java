@@ -0,0 +1,182 @@
+package CardGame.Benchmarks;
+
+import CardGame.GameEngine.LobbyRegistry;
+import CardGame.GameServerThread;
+import CardGame.Gateway.GameGateway;
+import CardGame.Gateway.GatewayBackend;
+import CardGame.Network.NioGameServer;
+import CardGame.Network.RateLimiter;
+import CardGame.Network.SessionRegistry;
+import CardGame.Requests.RequestGetGameNames;
+import CardGame.Requests.RequestHeartbeat;
+import CardGame.Requests.RequestProtocol;
+import CardGame.User;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import static CardGame.Requests.RequestProtocol.encodeRequest;
+
+/**
+ * This benchmark compares clients talking to a NioGameServer directly with
+ * clients going through a GameGateway to a GatewayBackend, all on loopback.
+ * It measures three things for each:
+ *
+ * requests - clients which stay connected and send game names requests
+ * heartbeats - clients which stay connected and only send heartbeats
+ * churn - clients which connect, send one request and disconnect
+ *
+ * Each client waits for the answer before sending the next request. The
+ * clients have no rate limit, so the servers are what is measured.
+ *
+ * Run with: java CardGame.Benchmarks.GatewayBenchmark [clients] [requests] [churn]
+ * (the default is 20 clients sending 500 requests each, and 1000 connections
+ * for churn). The database is not needed.
+ */
+public class GatewayBenchmark {
+    private static final int WORKERS = 2;
+    private static final int LINKS = 2;
+    private static final int IDLE_TIMEOUT_SECONDS = 60;
+    private static final double[] NO_LIMIT_RATES = {1e9, 1e9, 1e9};
+    private static final int[] NO_LIMIT_BURSTS = {1000000000, 1000000000, 1000000000};
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        int churn = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+
+        LobbyRegistry lobbies = new LobbyRegistry();
+        SessionRegistry sessions = new SessionRegistry();
+        Set<GameServerThread> subscribers = ConcurrentHashMap.newKeySet();
+        for (int i = 0; i < 10; i++) {
+            lobbies.create(new User("table" + i));
+        }
+        Supplier<GameServerThread> sessionFactory = () -> {
+            GameServerThread session = new GameServerThread(sessions, null, lobbies, subscribers);
+            session.setRateLimiter(new RateLimiter(NO_LIMIT_RATES, NO_LIMIT_BURSTS));
+            return session;
+        };
+
+        NioGameServer direct = new NioGameServer(new InetSocketAddress("localhost", 0), 50, 1, WORKERS,
+                sessionFactory);
+        direct.bind();
+        Thread directThread = new Thread(direct::acceptConnections);
+        directThread.setDaemon(true);
+        directThread.start();
+
+        GatewayBackend backend = new GatewayBackend(new InetSocketAddress("localhost", 0), sessionFactory,
+                Executors.newFixedThreadPool(WORKERS));
+        backend.bind();
+        Thread backendThread = new Thread(backend::acceptGateways);
+        backendThread.setDaemon(true);
+        backendThread.start();
+        GameGateway gateway = new GameGateway(new InetSocketAddress("localhost", 0),
+                Collections.singletonList(new InetSocketAddress("localhost", backend.getPort())),
+                LINKS, IDLE_TIMEOUT_SECONDS);
+        gateway.bind();
+        Thread gatewayThread = new Thread(gateway::acceptClients);
+        gatewayThread.setDaemon(true);
+        gatewayThread.start();
+
+        ExecutorService clientThreads = Executors.newFixedThreadPool(clients);
+        System.out.printf("%d clients, %d requests each, %d connections for churn%n", clients, requests, churn);
+        System.out.printf("%-8s %-12s %12s %10s%n", "path", "test", "per second", "millis");
+
+        // the first run of each is to warm up
+        for (int round = 0; round < 2; round++) {
+            boolean print = round == 1;
+            for (String path : new String[]{"direct", "gateway"}) {
+                int port = path.equals("direct") ? direct.getPort() : gateway.getPort();
+                run(path, "requests", print, clients * requests,
+                        () -> talk(clientThreads, clients, port, requests, false));
+                run(path, "heartbeats", print, clients * requests,
+                        () -> talk(clientThreads, clients, port, requests, true));
+                run(path, "churn", print, churn, () -> churn(clientThreads, clients, port, churn));
+            }
+        }
+        System.out.println(gateway.countersToString());
+
+        clientThreads.shutdownNow();
+        gateway.close();
+        backend.close();
+        direct.close();
+        System.exit(0);
+    }
+
+    private interface Test {
+        void run() throws Exception;
+    }
+
+    private static void run(String path, String test, boolean print, int operations, Test body) throws Exception {
+        long start = System.nanoTime();
+        body.run();
+        long nanos = System.nanoTime() - start;
+        if (print) {
+            System.out.printf("%-8s %-12s %12.0f %10d%n", path, test, operations / (nanos / 1e9), nanos / 1000000);
+        }
+    }
+
+    /**
+     * This method has every client connect and send its requests, one at a time.
+     */
+    private static void talk(ExecutorService clientThreads, int clients, int port, int requests,
+                             boolean heartbeats) throws Exception {
+        List<Future<?>> done = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            done.add(clientThreads.submit(() -> {
+                try (Socket socket = new Socket("localhost", port)) {
+                    socket.setTcpNoDelay(true);
+                    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                    DataInputStream in = new DataInputStream(socket.getInputStream());
+                    for (int j = 1; j <= requests; j++) {
+                        RequestProtocol request = heartbeats ? new RequestHeartbeat(j) : new RequestGetGameNames(j);
+                        out.writeUTF(encodeRequest(request));
+                        out.flush();
+                        in.readUTF();
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : done) {
+            future.get();
+        }
+    }
+
+    /**
+     * This method connects, sends one request and disconnects, the number of times given.
+     */
+    private static void churn(ExecutorService clientThreads, int clients, int port, int connections)
+            throws Exception {
+        List<Future<?>> done = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            int share = connections / clients + (i < connections % clients ? 1 : 0);
+            done.add(clientThreads.submit(() -> {
+                for (int j = 1; j <= share; j++) {
+                    try (Socket socket = new Socket("localhost", port)) {
+                        socket.setTcpNoDelay(true);
+                        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                        out.writeUTF(encodeRequest(new RequestGetGameNames(j)));
+                        out.flush();
+                        new DataInputStream(socket.getInputStream()).readUTF();
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : done) {
+            future.get();
+        }
+    }
+}
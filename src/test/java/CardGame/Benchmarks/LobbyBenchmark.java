@@ -0,0 +1,130 @@
+package CardGame.Benchmarks;
+
+import CardGame.GameEngine.GameLobby;
+import CardGame.GameEngine.LobbyRegistry;
+import CardGame.User;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * This benchmark measures the lobby registry with many lobbies. It creates
+ * the lobbies, joins a player to each, then looks lobbies up by name from
+ * every core and takes snapshots of the names, and prints the operations
+ * a second of each.
+ *
+ * For comparison the lookups are also run against a synchronized scan of a
+ * CopyOnWriteArrayList, which is how lobbies were found before.
+ *
+ * Run with: java CardGame.Benchmarks.LobbyBenchmark [lobbies...]
+ * (the default is 1000 10000). The database is not needed.
+ */
+public class LobbyBenchmark {
+    private static final int LOOKUPS_PER_THREAD = 200000;
+    private static final int SNAPSHOTS = 100000;
+    private static volatile Object sink;
+
+    public static void main(String[] args) throws Exception {
+        int[] lobbyCounts = {1000, 10000};
+        if (args.length > 0) {
+            lobbyCounts = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                lobbyCounts[i] = Integer.parseInt(args[i]);
+            }
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        System.out.printf("%-8s %-12s %14s%n", "lobbies", "operation", "ops/s");
+        for (int lobbyCount : lobbyCounts) {
+            // run twice so the second run is warmed up
+            run(lobbyCount, threads, false);
+            run(lobbyCount, threads, true);
+        }
+    }
+
+    private static void run(int lobbyCount, int threads, boolean print) throws Exception {
+        LobbyRegistry lobbies = new LobbyRegistry();
+        String[] names = new String[lobbyCount];
+        for (int i = 0; i < lobbyCount; i++) {
+            names[i] = "table" + i;
+        }
+
+        long start = System.nanoTime();
+        for (String name : names) {
+            lobbies.create(new User(name));
+        }
+        report(print, lobbyCount, "create", lobbyCount, start);
+
+        start = System.nanoTime();
+        for (String name : names) {
+            sink = lobbies.join(name, new User(name + " guest"), 4);
+        }
+        report(print, lobbyCount, "join", lobbyCount, start);
+
+        start = System.nanoTime();
+        runOnThreads(threads, () -> {
+            for (int i = 0; i < LOOKUPS_PER_THREAD; i++) {
+                sink = lobbies.get(names[spread(i, names.length)]);
+            }
+        });
+        report(print, lobbyCount, "lookup", (long) threads * LOOKUPS_PER_THREAD, start);
+
+        start = System.nanoTime();
+        for (int i = 0; i < SNAPSHOTS; i++) {
+            sink = lobbies.getNames();
+        }
+        report(print, lobbyCount, "names", SNAPSHOTS, start);
+
+        // the lookup as it was, scanning a list under one lock
+        CopyOnWriteArrayList<GameLobby> games = new CopyOnWriteArrayList<>(lobbies.getLobbies());
+        Object lock = new Object();
+        int scans = Math.max(1, LOOKUPS_PER_THREAD / lobbyCount);
+        start = System.nanoTime();
+        runOnThreads(threads, () -> {
+            for (int i = 0; i < scans; i++) {
+                synchronized (lock) {
+                    sink = scan(games, names[spread(i, names.length)]);
+                }
+            }
+        });
+        report(print, lobbyCount, "list lookup", (long) threads * scans, start);
+    }
+
+    /**
+     * @param i
+     * @param length
+     * @return an index which jumps around the names, so lookups are not all near the start of the list.
+     */
+    private static int spread(int i, int length) {
+        return (int) ((long) i * 7919 % length);
+    }
+
+    private static GameLobby scan(List<GameLobby> games, String lobbyName) {
+        for (GameLobby game : games) {
+            if (game.getLobbyName().equals(lobbyName)) {
+                return game;
+            }
+        }
+        return null;
+    }
+
+    private static void runOnThreads(int threads, Runnable job) throws InterruptedException {
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(job);
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    private static void report(boolean print, int lobbyCount, String operation, long operations, long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (print) {
+            System.out.printf("%-8d %-12s %14.0f%n", lobbyCount, operation, operations / seconds);
+        }
+    }
+}
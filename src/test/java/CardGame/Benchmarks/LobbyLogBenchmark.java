@@ -0,0 +1,131 @@
+package CardGame.Benchmarks;
+
+import CardGame.GameEngine.GameLobby;
+import CardGame.GameEngine.LobbyEventLog;
+import CardGame.GameEngine.LobbyRegistry;
+import CardGame.User;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This benchmark measures what logging every change to the lobbies costs.
+ * It plays rounds in lobbies of four players, each bet and stand being one
+ * change, first with no log and then with a LobbyEventLog in a temporary
+ * directory, and prints the time of a change and how long rebuilding the
+ * lobbies from the log takes. It then seats many more lobbies, snapshots
+ * them, plays a round in a tenth of them after the snapshot, and prints
+ * how long the snapshot and rebuilding from it and the log after it take.
+ *
+ * Run with: java CardGame.Benchmarks.LobbyLogBenchmark [lobbies] [rounds] [snapshot lobbies]
+ * (the default is 200 lobbies playing 50 rounds, and 50000 lobbies snapshot).
+ * The database is not needed.
+ */
+public class LobbyLogBenchmark {
+    private static final int PLAYERS_PER_LOBBY = 4;
+    private static final int WARM_UP_ROUNDS = 50;
+
+    public static void main(String[] args) throws Exception {
+        int lobbyCount = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int snapshotCount = args.length > 2 ? Integer.parseInt(args[2]) : 50000;
+        File directory = Files.createTempDirectory("lobby-log").toFile();
+
+        long changes = (long) lobbyCount * rounds * PLAYERS_PER_LOBBY * 2;
+        List<GameLobby> games = seat(new LobbyRegistry(), lobbyCount);
+        play(games, WARM_UP_ROUNDS);
+        long noLog = play(games, rounds);
+
+        LobbyEventLog eventLog = new LobbyEventLog(directory);
+        LobbyRegistry logged = new LobbyRegistry();
+        logged.recover(eventLog);
+        List<GameLobby> loggedGames = seat(logged, lobbyCount);
+        play(loggedGames, WARM_UP_ROUNDS);
+        long withLog = play(loggedGames, rounds);
+        String counters = eventLog.countersToString();
+        eventLog.close();
+
+        long start = System.nanoTime();
+        LobbyEventLog reopened = new LobbyEventLog(directory);
+        int recovered = new LobbyRegistry().recover(reopened);
+        long recovery = System.nanoTime() - start;
+        reopened.close();
+
+        System.out.printf("%d lobbies of %d players, %d rounds, %d changes%n",
+                lobbyCount, PLAYERS_PER_LOBBY, rounds, changes);
+        System.out.printf("no log:   %.2fus a change%n", noLog / 1e3 / changes);
+        System.out.printf("with log: %.2fus a change%n", withLog / 1e3 / changes);
+        System.out.println(counters);
+        System.out.printf("rebuilt %d lobbies in %.1fms%n", recovered, recovery / 1e6);
+        delete(directory);
+
+        directory = Files.createTempDirectory("lobby-log").toFile();
+        LobbyEventLog snapshotLog = new LobbyEventLog(directory, LobbyEventLog.DEFAULT_SEGMENT_SIZE,
+                LobbyEventLog.DEFAULT_FORCE_MILLIS, 0);
+        LobbyRegistry snapshotLobbies = new LobbyRegistry();
+        snapshotLobbies.recover(snapshotLog);
+        List<GameLobby> snapshotGames = seat(snapshotLobbies, snapshotCount);
+        start = System.nanoTime();
+        snapshotLog.snapshot();
+        long snapshot = System.nanoTime() - start;
+        play(snapshotGames.subList(0, snapshotCount / 10), 1);
+        snapshotLog.close();
+
+        start = System.nanoTime();
+        LobbyEventLog restored = new LobbyEventLog(directory, LobbyEventLog.DEFAULT_SEGMENT_SIZE,
+                LobbyEventLog.DEFAULT_FORCE_MILLIS, 0);
+        long restore = System.nanoTime() - start;
+        int restoredCount = new LobbyRegistry().recover(restored);
+        long restoreAndAdopt = System.nanoTime() - start;
+        restored.close();
+
+        System.out.printf("snapshot of %d lobbies in %.1fms%n", snapshotCount, snapshot / 1e6);
+        System.out.printf("read %d lobbies from the snapshot and the log after it in %.1fms, "
+                + "running again in %.1fms%n", restoredCount, restore / 1e6, restoreAndAdopt / 1e6);
+        delete(directory);
+    }
+
+    private static void delete(File directory) {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    /**
+     * This method creates the lobbies, each with every seat taken.
+     */
+    private static List<GameLobby> seat(LobbyRegistry lobbies, int lobbyCount) {
+        List<GameLobby> games = new ArrayList<>();
+        for (int i = 0; i < lobbyCount; i++) {
+            String name = "table" + i;
+            games.add(lobbies.create(new User(name)));
+            for (int j = 1; j < PLAYERS_PER_LOBBY; j++) {
+                lobbies.join(name, new User(name + "-" + j), PLAYERS_PER_LOBBY);
+            }
+        }
+        return games;
+    }
+
+    /**
+     * This method plays the rounds in the lobbies, every player betting and then standing.
+     *
+     * @return the nanoseconds the rounds took.
+     */
+    private static long play(List<GameLobby> games, int rounds) {
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (GameLobby lobby : games) {
+                for (String player : lobby.getPlayerNames()) {
+                    lobby.placeBet(player, 1);
+                }
+                for (String player : lobby.getPlayerNames()) {
+                    lobby.setPlayerStand(player);
+                }
+            }
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,123 @@
+package CardGame.Benchmarks;
+
+import CardGame.Cluster.ClusterMember;
+import CardGame.Cluster.ClusterService;
+import CardGame.GameEngine.GameLobby;
+import CardGame.GameEngine.LobbyRegistry;
+import CardGame.MessageObject;
+import CardGame.User;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This benchmark measures how long a lobby is paused while it is moved to
+ * another node. It starts two cluster nodes on loopback, fills lobbies of
+ * four players in the middle of a round with some chat, and moves every
+ * lobby from one node to the other and back, printing the pauses.
+ *
+ * Run with: java CardGame.Benchmarks.MigrationBenchmark [lobbies] [messages]
+ * (the default is 200 lobbies with 50 messages each). The database is not needed.
+ */
+public class MigrationBenchmark {
+    private static final int PLAYERS_PER_LOBBY = 4;
+    private static final int WARM_UP_ROUNDS = 3;
+    private static final byte[] CLUSTER_SECRET = "benchmark".getBytes(StandardCharsets.UTF_8);
+
+    public static void main(String[] args) throws Exception {
+        int lobbyCount = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int messageCount = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+        InetSocketAddress addressA = new InetSocketAddress("localhost", freePort());
+        InetSocketAddress addressB = new InetSocketAddress("localhost", freePort());
+        LobbyRegistry lobbiesA = new LobbyRegistry();
+        LobbyRegistry lobbiesB = new LobbyRegistry();
+        ClusterService nodeA = new ClusterService(new ClusterMember("localhost", 1),
+                addressA, Collections.<InetSocketAddress>emptyList(), lobbiesA, CLUSTER_SECRET);
+        ClusterService nodeB = new ClusterService(new ClusterMember("localhost", 2),
+                addressB, Collections.<InetSocketAddress>emptyList(), lobbiesB, CLUSTER_SECRET);
+        nodeA.start();
+        nodeB.start();
+
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < lobbyCount; i++) {
+            names.add(fillLobby(lobbiesA, "table" + i, messageCount));
+        }
+
+        // moving every lobby there and back is a round; the first are to warm up
+        for (int round = 0; round < WARM_UP_ROUNDS; round++) {
+            moveAll(names, nodeA, addressB, nodeB, addressA);
+        }
+        List<Long> pauses = moveAll(names, nodeA, addressB, nodeB, addressA);
+
+        Collections.sort(pauses);
+        long total = 0;
+        for (long pause : pauses) {
+            total += pause;
+        }
+        System.out.printf("%d lobbies of %d players with %d messages, %d moves%n",
+                lobbyCount, PLAYERS_PER_LOBBY, messageCount, pauses.size());
+        System.out.printf("pause avg=%.2fms p50=%.2fms p99=%.2fms max=%.2fms%n",
+                total / 1e6 / pauses.size(), percentile(pauses, 50), percentile(pauses, 99),
+                pauses.get(pauses.size() - 1) / 1e6);
+
+        nodeA.close();
+        nodeB.close();
+    }
+
+    /**
+     * This method creates a lobby of players who have all bet, so their cards are dealt.
+     */
+    private static String fillLobby(LobbyRegistry lobbies, String name, int messageCount) {
+        GameLobby lobby = lobbies.create(new User(name));
+        for (int i = 1; i < PLAYERS_PER_LOBBY; i++) {
+            lobbies.join(name, new User(name + "-" + i), PLAYERS_PER_LOBBY);
+        }
+        for (int i = 0; i < messageCount; i++) {
+            lobby.addMessage(new MessageObject(name, "message " + i));
+        }
+        for (String player : lobby.getPlayerNames()) {
+            lobby.placeBet(player, 10);
+        }
+        return name;
+    }
+
+    /**
+     * This method moves every lobby from the first node to the second, and back again.
+     *
+     * @return the pause of each move, in nanoseconds.
+     */
+    private static List<Long> moveAll(List<String> names, ClusterService from, InetSocketAddress toAddress,
+                                      ClusterService to, InetSocketAddress fromAddress) {
+        List<Long> pauses = new ArrayList<>();
+        for (String name : names) {
+            pauses.add(check(from.moveLobby(name, toAddress), name));
+        }
+        for (String name : names) {
+            pauses.add(check(to.moveLobby(name, fromAddress), name));
+        }
+        return pauses;
+    }
+
+    private static long check(long pause, String name) {
+        if (pause < 0) {
+            throw new IllegalStateException("Lobby " + name + " was not moved.");
+        }
+        return pause;
+    }
+
+    private static double percentile(List<Long> sorted, int percent) {
+        int index = Math.min(sorted.size() - 1, (int) Math.ceil(percent / 100.0 * sorted.size()) - 1);
+        return sorted.get(Math.max(0, index)) / 1e6;
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package CardGame.Benchmarks;
+
+import CardGame.GameEngine.GameLobby;
+import CardGame.GameEngine.GameLobbyListener;
+import CardGame.GameEngine.LobbyRegistry;
+import CardGame.GameEngine.LobbyShards;
+import CardGame.User;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This benchmark measures how the rounds played a second grow with the
+ * number of lobby shards. Every lobby has four players, and plays rounds
+ * back to back through its command queue: each player bets, then each
+ * stands, which deals the cards and settles the round. Each lobby has a
+ * listener which takes a snapshot of the game whenever it changes, as a
+ * push to a subscribed client does.
+ *
+ * The rounds should go up with the shards until there is a shard for each
+ * core, and stay level after that.
+ *
+ * Run with: java CardGame.Benchmarks.ShardBenchmark [shards...]
+ * (the default is 1 2 4 8 16). The database is not needed.
+ */
+public class ShardBenchmark {
+    private static final int LOBBIES = 1024;
+    private static final int PLAYERS_PER_LOBBY = 4;
+    private static final long RUN_MILLIS = 3000;
+    private static final long WARM_UP_MILLIS = 2000;
+    private static volatile Object sink;
+
+    public static void main(String[] args) throws Exception {
+        int[] shardCounts = {1, 2, 4, 8, 16};
+        if (args.length > 0) {
+            shardCounts = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                shardCounts[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        System.out.println("cores: " + Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-8s %14s %10s%n", "shards", "rounds/s", "speedup");
+
+        // warm up with every shard count, so the first measured is not slower for being compiled last
+        for (int shardCount : shardCounts) {
+            run(shardCount, WARM_UP_MILLIS);
+        }
+
+        double baseline = 0;
+        for (int shardCount : shardCounts) {
+            double roundsPerSecond = run(shardCount, RUN_MILLIS);
+            if (baseline == 0) {
+                baseline = roundsPerSecond;
+            }
+            System.out.printf("%-8d %14.0f %9.2fx%n", shardCount, roundsPerSecond, roundsPerSecond / baseline);
+        }
+    }
+
+    private static double run(int shardCount, long millis) throws InterruptedException {
+        LobbyShards shards = new LobbyShards(shardCount);
+        LobbyRegistry lobbies = new LobbyRegistry(shards);
+        AtomicLong rounds = new AtomicLong();
+        CountDownLatch finished = new CountDownLatch(LOBBIES);
+
+        List<GameLobby> tables = new ArrayList<>();
+        List<List<String>> players = new ArrayList<>();
+        for (int i = 0; i < LOBBIES; i++) {
+            String lobbyName = "table" + i;
+            GameLobby lobby = lobbies.create(new User(lobbyName));
+            List<String> names = new ArrayList<>();
+            names.add(lobbyName);
+            for (int j = 1; j < PLAYERS_PER_LOBBY; j++) {
+                lobbies.join(lobbyName, new User(lobbyName + " player" + j), PLAYERS_PER_LOBBY);
+                names.add(lobbyName + " player" + j);
+            }
+            lobby.addListener(new SnapshotListener());
+            tables.add(lobby);
+            players.add(names);
+        }
+
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(millis);
+        for (int i = 0; i < LOBBIES; i++) {
+            playRound(tables.get(i), players.get(i), deadline, rounds, finished);
+        }
+        finished.await();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        shards.shutdown();
+        return rounds.get() / seconds;
+    }
+
+    /**
+     * This method submits the commands of one round, and the next round once it has been played,
+     * until the deadline.
+     */
+    private static void playRound(GameLobby lobby, List<String> players, long deadline, AtomicLong rounds,
+                                  CountDownLatch finished) {
+        CompletableFuture<?> last = null;
+        for (String player : players) {
+            last = lobby.submit(game -> {
+                game.placeBet(player, 10);
+                return null;
+            });
+        }
+        for (String player : players) {
+            last = lobby.submit(game -> {
+                game.setPlayerStand(player);
+                return null;
+            });
+        }
+
+        last.whenComplete((result, error) -> {
+            if (error != null) {
+                error.printStackTrace();
+                finished.countDown();
+                return;
+            }
+
+            rounds.incrementAndGet();
+            if (System.nanoTime() < deadline) {
+                playRound(lobby, players, deadline, rounds, finished);
+            } else {
+                finished.countDown();
+            }
+        });
+    }
+
+    private static class SnapshotListener implements GameLobbyListener {
+        private long version = -1;
+
+        @Override
+        public void gameChanged(GameLobby lobby) {
+            sink = lobby.getGameState(version);
+            version = lobby.getVersion();
+        }
+
+        @Override
+        public void messagesChanged(GameLobby lobby) {
+        }
+    }
+}
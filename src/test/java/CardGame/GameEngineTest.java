@@ -3,10 +3,24 @@ package CardGame;
 import CardGame.GameEngine.Card;
 import CardGame.GameEngine.Deck;
 import CardGame.GameEngine.GameLobby;
+import CardGame.GameEngine.GameLobbyListener;
+import CardGame.GameEngine.GameState;
+import CardGame.GameEngine.LobbyEventLog;
+import CardGame.GameEngine.LobbyRecorder;
+import CardGame.GameEngine.LobbyRegistry;
+import CardGame.GameEngine.LobbyReplay;
+import CardGame.GameEngine.LobbyState;
 import CardGame.GameEngine.Player;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.RandomAccessFile;
 import java.net.Socket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.Assert.assertEquals;
 
@@ -66,6 +80,56 @@ public class GameEngineTest {
         assertEquals(user.getUserName(),gameLobby.getPlayer(user).getUsername());
     }
 
+    /**
+     * Test a player is not seated in a full lobby, or in one being moved
+     */
+    @Test
+    public void addPlayerTest2() {
+        GameLobby gameLobby = new GameLobby(user);
+        int seated = gameLobby.getPlayers().size();
+
+        assertEquals(true, gameLobby.addPlayer(user2, seated + 1));
+        assertEquals(false, gameLobby.addPlayer(new User("TestUser3"), seated + 1));
+        gameLobby.submit(GameLobby::freeze).join();
+        assertEquals(false, gameLobby.addPlayer(new User("TestUser3"), 4));
+        assertEquals(seated + 1, gameLobby.getPlayers().size());
+    }
+
+    /**
+     * Test a frozen copy of a lobby does not change with the lobby
+     */
+    @Test
+    public void freezeTest1() {
+        GameLobby gameLobby = new GameLobby(user);
+        int playerCards = gameLobby.getPlayers().get(0).getPlayerHand().getCardCount();
+        int dealerCards = gameLobby.getDealerHand().getCardCount();
+        LobbyState state = gameLobby.submit(GameLobby::freeze).join();
+        gameLobby.thaw();
+
+        gameLobby.getPlayers().get(0).getPlayerHand().addCard(new Card(Card.ACE, Card.SPADES));
+        gameLobby.getDealerHand().addCard(new Card(Card.KING, Card.HEARTS));
+        GameLobby adopted = new LobbyRegistry().adopt(state);
+        assertEquals(playerCards, adopted.getPlayers().get(0).getPlayerHand().getCardCount());
+        assertEquals(dealerCards, adopted.getDealerHand().getCardCount());
+    }
+
+    /**
+     * Test a player is not seated in a lobby removed once it was empty
+     */
+    @Test
+    public void removeIfEmptyTest1() {
+        LobbyRegistry lobbies = new LobbyRegistry();
+        GameLobby gameLobby = lobbies.create(user);
+        assertEquals(false, lobbies.removeIfEmpty("TestUser1"));
+
+        gameLobby.removePlayer("TestUser1");
+        assertEquals(true, lobbies.removeIfEmpty("TestUser1"));
+        assertEquals(null, lobbies.get("TestUser1"));
+        assertEquals(null, lobbies.join("TestUser1", user2, 4));
+        assertEquals(false, gameLobby.addPlayer(user2, 4));
+        assertEquals(false, lobbies.getNames().contains("TestUser1"));
+    }
+
     /**
      * Test remove player part
      */
@@ -411,6 +475,325 @@ public class GameEngineTest {
 
     }
 
+    /**
+     * Test a listener is told once about a bet which starts the game
+     */
+    @Test
+    public void listenerGameChangedTest1(){
+        GameLobby gameLobby = new GameLobby(user);
+        final int[] changes = new int[2];
+        gameLobby.addListener(new GameLobbyListener() {
+            @Override
+            public void gameChanged(GameLobby lobby) {
+                changes[0]++;
+            }
+
+            @Override
+            public void messagesChanged(GameLobby lobby) {
+                changes[1]++;
+            }
+        });
+
+        gameLobby.placeBet("TestUser1", 10);
+
+        assertEquals(true, gameLobby.isAllPlayersBetPlaced());
+        assertEquals(1, changes[0]);
+        assertEquals(0, changes[1]);
+    }
+
+    /**
+     * Test a listener is told about new messages and not after it is removed
+     */
+    @Test
+    public void listenerMessagesChangedTest1(){
+        GameLobby gameLobby = new GameLobby(user);
+        final int[] changes = new int[1];
+        GameLobbyListener listener = new GameLobbyListener() {
+            @Override
+            public void gameChanged(GameLobby lobby) {
+            }
+
+            @Override
+            public void messagesChanged(GameLobby lobby) {
+                changes[0]++;
+            }
+        };
+        gameLobby.addListener(listener);
+
+        gameLobby.addMessage(new MessageObject("TestUser1", "hello"));
+        gameLobby.removeListener(listener);
+        gameLobby.addMessage(new MessageObject("TestUser1", "again"));
+
+        assertEquals(2, gameLobby.getMessageQueue().size());
+        assertEquals(1, changes[0]);
+    }
+
+    /**
+     * Test the game state is a snapshot which does not change with the game
+     */
+    @Test
+    public void gameStateTest1(){
+        GameLobby gameLobby = new GameLobby(user);
+        gameLobby.addPlayer(user2);
+        gameLobby.placeBet("TestUser1", 10);
+        gameLobby.placeBet("TestUser2", 20);
+
+        GameState gameState = gameLobby.getGameState();
+        int cards = gameState.getPlayerHands().get("TestUser1").getCardCount();
+        gameLobby.hit("TestUser1");
+
+        assertEquals(true, gameState.getAllBetsPlaced());
+        assertEquals(Integer.valueOf(20), gameState.getPlayerBets().get("TestUser2"));
+        assertEquals(2, gameState.getPlayerNames().size());
+        assertEquals(2, cards);
+        assertEquals(cards, gameState.getPlayerHands().get("TestUser1").getCardCount());
+        assertEquals(cards + 1, gameLobby.getPlayer("TestUser1").getPlayerHand().getCardCount());
+    }
+
+    /**
+     * Test the game state since a version only has what changed
+     */
+    @Test
+    public void gameStateVersionTest1(){
+        GameLobby gameLobby = new GameLobby(user);
+        gameLobby.addPlayer(user2);
+        gameLobby.placeBet("TestUser1", 10);
+        gameLobby.placeBet("TestUser2", 20);
+
+        long version = gameLobby.getVersion();
+        assertEquals(null, gameLobby.getGameState(version));
+
+        gameLobby.hit("TestUser1");
+        GameState gameState = gameLobby.getGameState(version);
+
+        assertEquals(false, gameState.isFull());
+        assertEquals(version + 1, gameState.getVersion());
+        assertEquals(1, gameState.getPlayerHands().size());
+        assertEquals(3, gameState.getPlayerHands().get("TestUser1").getCardCount());
+        assertEquals(null, gameState.getPlayerNames());
+        assertEquals(null, gameState.getDealerHand());
+    }
+
+    /**
+     * Test the version only goes up when the game changes
+     */
+    @Test
+    public void gameStateVersionTest2(){
+        GameLobby gameLobby = new GameLobby(user);
+        long version = gameLobby.getVersion();
+
+        gameLobby.removePlayer("TestUser2");
+        gameLobby.allPlayersBetPlaced();
+        assertEquals(version, gameLobby.getVersion());
+
+        gameLobby.addPlayer(user2);
+        GameState gameState = gameLobby.getGameState(version);
+        assertEquals(version + 1, gameLobby.getVersion());
+        assertEquals(2, gameState.getPlayerNames().size());
+        assertEquals(true, gameLobby.getGameState(-1).isFull());
+    }
+
+    /**
+     * Test commands run in the order submitted, and a command is one version and one notification
+     */
+    @Test
+    public void commandQueueTest1(){
+        GameLobby gameLobby = new GameLobby(user);
+        gameLobby.addPlayer(user2);
+        final int[] changes = new int[1];
+        gameLobby.addListener(new GameLobbyListener() {
+            @Override
+            public void gameChanged(GameLobby lobby) {
+                changes[0]++;
+            }
+
+            @Override
+            public void messagesChanged(GameLobby lobby) {
+            }
+        });
+        long version = gameLobby.getVersion();
+
+        List<CompletableFuture<Integer>> order = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            final int command = i;
+            order.add(gameLobby.submit(lobby -> command));
+        }
+        CompletableFuture<Boolean> bets = gameLobby.submit(lobby -> {
+            lobby.placeBet("TestUser1", 10);
+            lobby.placeBet("TestUser2", 20);
+            return lobby.isAllPlayersBetPlaced();
+        });
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Integer.valueOf(i), order.get(i).join());
+        }
+        assertEquals(true, bets.join());
+        assertEquals(version + 1, gameLobby.getVersion());
+        assertEquals(1, changes[0]);
+    }
+
+    /**
+     * Test the lobbies are rebuilt from the event log as they were, and removed lobbies are not,
+     * over segments small enough that the log moves to new ones
+     */
+    @Test
+    public void lobbyEventLogTest1() throws Exception {
+        File directory = Files.createTempDirectory("lobby-log").toFile();
+        LobbyEventLog eventLog = new LobbyEventLog(directory, 4096, 1, 0);
+        LobbyRegistry lobbies = new LobbyRegistry();
+        lobbies.recover(eventLog);
+
+        GameLobby gameLobby = lobbies.create(user);
+        lobbies.join("TestUser1", user2, 4);
+        for (int i = 0; i < 20; i++) {
+            gameLobby.placeBet("TestUser1", 1);
+            gameLobby.placeBet("TestUser2", 2);
+            gameLobby.setPlayerStand("TestUser1");
+            gameLobby.setPlayerStand("TestUser2");
+        }
+        gameLobby.placeBet("TestUser1", 5);
+        gameLobby.placeBet("TestUser2", 5);
+        gameLobby.hit("TestUser2");
+        lobbies.create(new User("TestUser3"));
+        lobbies.get("TestUser3").removePlayer("TestUser3");
+        lobbies.removeIfEmpty("TestUser3");
+        eventLog.close();
+
+        LobbyRegistry recovered = new LobbyRegistry();
+        LobbyEventLog reopened = new LobbyEventLog(directory, 4096, 1, 0);
+        assertEquals(1, recovered.recover(reopened));
+        GameLobby recoveredLobby = recovered.get("TestUser1");
+        assertEquals(gameLobby.getPlayerNames(), recoveredLobby.getPlayerNames());
+        assertEquals(gameLobby.getPlayerBudgets(), recoveredLobby.getPlayerBudgets());
+        assertEquals(gameLobby.getPlayerBets(), recoveredLobby.getPlayerBets());
+        assertEquals(gameLobby.getPlayer("TestUser2").getPlayerHand().getBlackjackValue(),
+                recoveredLobby.getPlayer("TestUser2").getPlayerHand().getBlackjackValue());
+        assertEquals(null, recovered.get("TestUser3"));
+        reopened.close();
+
+        for (File segment : directory.listFiles()) {
+            segment.delete();
+        }
+        directory.delete();
+    }
+
+    /**
+     * Test a record whose version was corrupted is not replayed as valid
+     */
+    @Test
+    public void lobbyEventLogCorruptTest1() throws Exception {
+        File directory = Files.createTempDirectory("lobby-log").toFile();
+        LobbyEventLog eventLog = new LobbyEventLog(directory, 4096, 1, 0);
+        LobbyRegistry lobbies = new LobbyRegistry();
+        lobbies.recover(eventLog);
+        lobbies.create(user);
+        eventLog.close();
+
+        File[] segments = directory.listFiles((dir, name) -> name.endsWith(".log"));
+        Arrays.sort(segments);
+        try (RandomAccessFile segment = new RandomAccessFile(segments[0], "rw")) {
+            // the last byte of the version of the first record
+            segment.seek(16);
+            int versionByte = segment.read();
+            segment.seek(16);
+            segment.write(versionByte ^ 1);
+        }
+
+        LobbyRegistry recovered = new LobbyRegistry();
+        LobbyEventLog reopened = new LobbyEventLog(directory, 4096, 1, 0);
+        assertEquals(0, recovered.recover(reopened));
+        reopened.close();
 
+        for (File segment : directory.listFiles()) {
+            segment.delete();
+        }
+        directory.delete();
+    }
 
-}
\ No newline at end of file
+    /**
+     * Test the lobbies are rebuilt from a snapshot and the log after it, with the chat of the snapshot,
+     * and the segments before the snapshot are deleted
+     */
+    @Test
+    public void lobbyEventLogSnapshotTest1() throws Exception {
+        File directory = Files.createTempDirectory("lobby-log").toFile();
+        LobbyEventLog eventLog = new LobbyEventLog(directory, 4096, 1, 0);
+        LobbyRegistry lobbies = new LobbyRegistry();
+        lobbies.recover(eventLog);
+
+        GameLobby gameLobby = lobbies.create(user);
+        lobbies.join("TestUser1", user2, 4);
+        lobbies.create(new User("TestUser3"));
+        for (int i = 0; i < 20; i++) {
+            gameLobby.placeBet("TestUser1", 1);
+            gameLobby.placeBet("TestUser2", 2);
+            gameLobby.setPlayerStand("TestUser1");
+            gameLobby.setPlayerStand("TestUser2");
+        }
+        gameLobby.addMessage(new MessageObject("TestUser1", "before"));
+        eventLog.snapshot();
+        assertEquals(1, directory.listFiles((dir, name) -> name.endsWith(".snap")).length);
+        // the segment being written, and the next one mapped ahead of time
+        assertEquals(true, directory.listFiles((dir, name) -> name.endsWith(".log")).length <= 2);
+
+        gameLobby.placeBet("TestUser1", 5);
+        gameLobby.placeBet("TestUser2", 5);
+        gameLobby.hit("TestUser2");
+        lobbies.get("TestUser3").removePlayer("TestUser3");
+        lobbies.removeIfEmpty("TestUser3");
+        eventLog.close();
+
+        LobbyRegistry recovered = new LobbyRegistry();
+        LobbyEventLog reopened = new LobbyEventLog(directory, 4096, 1, 0);
+        assertEquals(1, recovered.recover(reopened));
+        GameLobby recoveredLobby = recovered.get("TestUser1");
+        assertEquals(gameLobby.getPlayerBudgets(), recoveredLobby.getPlayerBudgets());
+        assertEquals(gameLobby.getPlayerBets(), recoveredLobby.getPlayerBets());
+        assertEquals(gameLobby.getPlayer("TestUser2").getPlayerHand().getBlackjackValue(),
+                recoveredLobby.getPlayer("TestUser2").getPlayerHand().getBlackjackValue());
+        assertEquals("before", recoveredLobby.getMessageQueue().getLast().getMessage());
+        assertEquals(null, recovered.get("TestUser3"));
+        reopened.close();
+
+        for (File segment : directory.listFiles()) {
+            segment.delete();
+        }
+        directory.delete();
+    }
+
+    /**
+     * Test a recorded lobby is played again with the same cards, bets and budgets
+     */
+    @Test
+    public void lobbyReplayTest1() throws Exception {
+        File history = File.createTempFile("lobby-history", ".log");
+        LobbyRecorder recorder = new LobbyRecorder(history);
+        LobbyRegistry lobbies = new LobbyRegistry();
+        lobbies.setRecorder(recorder);
+
+        GameLobby gameLobby = lobbies.create(user);
+        lobbies.join("TestUser1", user2, 4);
+        for (int i = 0; i < 5; i++) {
+            gameLobby.placeBet("TestUser1", 10);
+            gameLobby.placeBet("TestUser2", 5);
+            gameLobby.hit("TestUser1");
+            gameLobby.setPlayerStand("TestUser1");
+            gameLobby.setPlayerStand("TestUser2");
+        }
+        gameLobby.placeBet("TestUser1", 5);
+        gameLobby.placeBet("TestUser2", 5);
+        recorder.close();
+
+        List<List<LobbyRecorder.Action>> games = LobbyReplay.split(LobbyRecorder.read(history), "TestUser1");
+        assertEquals(1, games.size());
+        GameLobby replayed = LobbyReplay.replay(games.get(0), false);
+        assertEquals(gameLobby.getPlayerBudgets(), replayed.getPlayerBudgets());
+        assertEquals(gameLobby.getPlayerBets(), replayed.getPlayerBets());
+        assertEquals(gameLobby.getDealerHand().getBlackjackValue(), replayed.getDealerHand().getBlackjackValue());
+        for (String username : gameLobby.getPlayerNames()) {
+            assertEquals(gameLobby.getPlayer(username).getPlayerHand().getBlackjackValue(),
+                    replayed.getPlayer(username).getPlayerHand().getBlackjackValue());
+        }
+        history.delete();
+    }
+}
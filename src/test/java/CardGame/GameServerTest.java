@@ -1,6 +1,8 @@
 package CardGame;
 
 import CardGame.GameEngine.GameLobby;
+import CardGame.GameEngine.LobbyRegistry;
+import CardGame.Network.SessionRegistry;
 import CardGame.Requests.*;
 import CardGame.Responses.*;
 import com.google.gson.Gson;
@@ -10,7 +12,6 @@ import org.junit.Test;
 import java.net.Socket;
 import java.util.ArrayList;
 import java.util.concurrent.ConcurrentLinkedDeque;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 import static CardGame.Hasher.hashPassword;
 import static CardGame.ProtocolMessages.*;
@@ -31,9 +32,8 @@ public class GameServerTest {
 
     GameServer server;
     FunctionDB functionDB;
-    CopyOnWriteArrayList<GameLobby> games = new CopyOnWriteArrayList<>();
-    ConcurrentLinkedDeque<String> gameNames = new ConcurrentLinkedDeque<>();
-    CopyOnWriteArrayList<User> users = new CopyOnWriteArrayList<>();
+    LobbyRegistry lobbies = new LobbyRegistry();
+    SessionRegistry sessions = new SessionRegistry();
 
     // THREADS
     GameServerThread serverThread1;
@@ -63,15 +63,15 @@ public class GameServerTest {
 
         // threads
         serverThread1 = new GameServerThread(new Socket(),
-                users, functionDB, games, gameNames);
+                sessions, functionDB, lobbies);
         serverThread2 = new GameServerThread(new Socket(),
-                users, functionDB, games, gameNames);
+                sessions, functionDB, lobbies);
         serverThread3 = new GameServerThread(new Socket(),
-                users, functionDB, games, gameNames);
+                sessions, functionDB, lobbies);
         serverThread4 = new GameServerThread(new Socket(),
-                users, functionDB, games, gameNames);
+                sessions, functionDB, lobbies);
         serverThread5 = new GameServerThread(new Socket(),
-                users, functionDB, games, gameNames);
+                sessions, functionDB, lobbies);
 
     }
 
@@ -238,8 +238,8 @@ public class GameServerTest {
         User fromDB = responseLoginUser.getUser();
         assertEquals("Should return user from database matching usertest ", this.userTest1, fromDB);
 
-        // We check user is added to users on clientSideThread
-        int userSize = this.serverThread1.getUsers().size();
+        // We check user is added to sessions on clientSideThread
+        int userSize = this.serverThread1.getSessions().size();
         assertEquals("Should return size of 1 ", 1, userSize);
 
         // We check correct user is added to users on clientSideThread
@@ -457,10 +457,9 @@ public class GameServerTest {
 
         GameServerThread cardGameServerThreadEmpty = new GameServerThread(
                 new Socket(),
-                new CopyOnWriteArrayList<User>(),
+                new SessionRegistry(),
                 new FunctionDB(),
-                new CopyOnWriteArrayList<GameLobby>(),
-                new ConcurrentLinkedDeque<>());
+                new LobbyRegistry());
 
         RequestProtocol requestCreateGame = new RequestCreateGame(userTest1.getUserName());
 
@@ -557,7 +556,7 @@ public class GameServerTest {
         ConcurrentLinkedDeque<String> expectedGames = new ConcurrentLinkedDeque<>();
         expectedGames.add(this.userTest1.getUserName());
 
-        assertEquals("Should return list of gamenames matching expected gamesList ", expectedGames.toString(), gameNames.toString());
+        assertEquals("Should return list of gamenames matching expected gamesList ", expectedGames.toString(), lobbies.getNames().toString());
     }
 
     /**
@@ -627,7 +626,7 @@ public class GameServerTest {
         ConcurrentLinkedDeque<String> expectedGames = new ConcurrentLinkedDeque<>();
         expectedGames.add(this.userTest1.getUserName());
 
-        assertEquals("Should return list of gamenames matching expected gamesList ", expectedGames.toString(), gameNames.toString());
+        assertEquals("Should return list of gamenames matching expected gamesList ", expectedGames.toString(), lobbies.getNames().toString());
 
         // JOIN GAME
         RequestJoinGame requestJoinGame = new RequestJoinGame(userTest1.getUserName(), userBoris.getUserName());
@@ -719,7 +718,7 @@ public class GameServerTest {
         expectedGames.add(this.userTest1.getUserName());
 
         assertEquals("Should return list of gamenames matching expected gamesList ", expectedGames.toString(),
-                gameNames.toString());
+                lobbies.getNames().toString());
 
         // SECOND USER JOIN GAME
         String gameName = userTest1.getUserName();
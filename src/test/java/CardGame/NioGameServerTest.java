@@ -0,0 +1,847 @@
+package CardGame;
+
+import CardGame.Cluster.ClusterMember;
+import CardGame.Cluster.ClusterService;
+import CardGame.Codec.Codecs;
+import CardGame.Codec.Frames;
+import CardGame.GameEngine.GameLobby;
+import CardGame.GameEngine.GameState;
+import CardGame.GameEngine.LobbyRegistry;
+import CardGame.GameEngine.LobbyState;
+import CardGame.Gateway.GameGateway;
+import CardGame.Gateway.GatewayBackend;
+import CardGame.Network.AdmissionController;
+import CardGame.Network.IdleReaper;
+import CardGame.Network.NioGameServer;
+import CardGame.Network.OutboundQueue;
+import CardGame.Network.RateLimiter;
+import CardGame.Network.SessionRegistry;
+import CardGame.Network.SessionTokens;
+import CardGame.Pushes.PushGameNames;
+import CardGame.Pushes.PushGameState;
+import CardGame.Requests.RequestGetGameNames;
+import CardGame.Requests.RequestGetMessages;
+import CardGame.Requests.RequestHeartbeat;
+import CardGame.Requests.RequestHello;
+import CardGame.Requests.RequestJoinGame;
+import CardGame.Requests.RequestLogOut;
+import CardGame.Requests.RequestProtocol;
+import CardGame.Requests.RequestResumeSession;
+import CardGame.Requests.RequestSendMessage;
+import CardGame.Responses.ResponseHello;
+import CardGame.Responses.ResponseJoinGame;
+import CardGame.Responses.ResponseLogOut;
+import CardGame.Responses.ResponseProtocol;
+import CardGame.Responses.ResponseResumeSession;
+import CardGame.Responses.ResponseSlowDown;
+import com.google.gson.Gson;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+
+import static CardGame.ProtocolMessages.FAIL;
+import static CardGame.ProtocolMessages.NO_GAME_JOINED;
+import static CardGame.ProtocolMessages.SUCCESS;
+import static CardGame.ProtocolTypes.PUSH_GAME_STATE;
+import static CardGame.ProtocolTypes.PUSH_PROTOCOL_ID;
+import static CardGame.ProtocolTypes.SERVER_FULL_TYPE;
+import static CardGame.ProtocolTypes.SLOW_DOWN_TYPE;
+import static CardGame.Requests.RequestProtocol.encodeRequest;
+import static org.junit.Assert.*;
+
+/**
+ * This class tests the NioGameServer over loopback sockets.
+ * None of these tests need the database.
+ */
+public class NioGameServerTest {
+    static final byte[] CLUSTER_SECRET = "secret".getBytes(StandardCharsets.UTF_8);
+
+    NioGameServer server;
+    Thread acceptThread;
+    LobbyRegistry lobbies = new LobbyRegistry();
+    SessionRegistry sessions = new SessionRegistry();
+    Set<GameServerThread> subscribers = ConcurrentHashMap.newKeySet();
+    Gson gson = new Gson();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new NioGameServer(new InetSocketAddress("localhost", 0), 50, 2, 2,
+                () -> new GameServerThread(sessions, null, lobbies, subscribers));
+        server.bind();
+
+        acceptThread = new Thread(server::acceptConnections);
+        acceptThread.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+        acceptThread.join(1000);
+    }
+
+    /**
+     * We test a request gets a response with the same protocol id.
+     */
+    @Test
+    public void requestResponse01_test() throws Exception {
+        lobbies.create(new User("boris99"));
+
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            RequestProtocol request = new RequestGetGameNames();
+            out.writeUTF(encodeRequest(request));
+            out.flush();
+
+            PushGameNames response = gson.fromJson(in.readUTF(), PushGameNames.class);
+            assertEquals("Should return the same protocol ID", request.getProtocolId(), response.getProtocolId());
+            assertEquals("Should return success", SUCCESS, response.getRequestSuccess());
+            assertTrue("Should return the game names", response.getGameNames().contains("boris99"));
+        }
+    }
+
+    /**
+     * We test requests written back to back are answered in order.
+     */
+    @Test
+    public void pipelinedRequests01_test() throws Exception {
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            List<Integer> expectedIds = new ArrayList<>();
+            for (int i = 1; i <= 50; i++) {
+                out.writeUTF(encodeRequest(new RequestGetGameNames(i)));
+                expectedIds.add(i);
+            }
+            out.flush();
+
+            List<Integer> actualIds = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                actualIds.add(gson.fromJson(in.readUTF(), ResponseProtocol.class).getProtocolId());
+            }
+
+            assertEquals("Should answer requests in the order they were sent", expectedIds, actualIds);
+        }
+    }
+
+    /**
+     * We test a HELLO switches the connection to the binary codec after its response.
+     */
+    @Test
+    public void helloBinary01_test() throws Exception {
+        lobbies.create(new User("boris99"));
+
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            out.writeUTF(encodeRequest(new RequestHello(1, Codecs.BINARY, Codecs.JSON)));
+            out.flush();
+
+            ResponseHello responseHello = gson.fromJson(in.readUTF(), ResponseHello.class);
+            assertEquals("Should return success", SUCCESS, responseHello.getRequestSuccess());
+            assertEquals("Should choose the binary codec", Codecs.BINARY, responseHello.getCodec());
+
+            out.write(Codecs.BINARY_CODEC.encode(new RequestGetGameNames(2)));
+            out.flush();
+
+            PushGameNames response = Codecs.BINARY_CODEC.decode(Frames.SHORT.readFrame(in), PushGameNames.class);
+            assertEquals("Should return the same protocol ID", 2, response.getProtocolId());
+            assertTrue("Should return the game names", response.getGameNames().contains("boris99"));
+        }
+    }
+
+    /**
+     * We test a HELLO with no known codec keeps the connection on JSON.
+     */
+    @Test
+    public void helloUnknown01_test() throws Exception {
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            out.writeUTF(encodeRequest(new RequestHello(1, "protobuf")));
+            out.writeUTF(encodeRequest(new RequestGetGameNames(2)));
+            out.flush();
+
+            ResponseHello responseHello = gson.fromJson(in.readUTF(), ResponseHello.class);
+            assertEquals("Should fall back to JSON", Codecs.JSON, responseHello.getCodec());
+            assertEquals("Should still answer in JSON", 2,
+                    gson.fromJson(in.readUTF(), ResponseProtocol.class).getProtocolId());
+        }
+    }
+
+    /**
+     * We test the long framing carries a response larger than writeUTF can.
+     */
+    @Test
+    public void helloLongFraming01_test() throws Exception {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            name.append("boris99");
+        }
+        for (int i = 0; i < 20; i++) {
+            lobbies.create(new User(name.toString() + i));
+        }
+
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            out.writeUTF(encodeRequest(new RequestHello(new String[]{Codecs.JSON},
+                    new String[]{Frames.LONG_NAME, Frames.SHORT_NAME})));
+            out.flush();
+
+            ResponseHello responseHello = gson.fromJson(in.readUTF(), ResponseHello.class);
+            assertEquals("Should choose the long framing", Frames.LONG_NAME, responseHello.getFraming());
+
+            out.write(Codecs.JSON_LONG_CODEC.encode(new RequestGetGameNames(2)));
+            out.flush();
+
+            byte[] frame = Frames.LONG.readFrame(in);
+            assertTrue("Should be larger than a short frame", frame.length > Frames.MAX_SHORT_PAYLOAD);
+            PushGameNames response = Codecs.JSON_LONG_CODEC.decode(frame, PushGameNames.class);
+            assertEquals("Should return the same protocol ID", 2, response.getProtocolId());
+            assertEquals("Should return every game name", 20, response.getGameNames().size());
+        }
+    }
+
+    /**
+     * We test a HELLO with deflate compresses a large response and leaves a small one raw.
+     */
+    @Test
+    public void helloDeflate01_test() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            lobbies.create(new User("boris99 table " + i));
+        }
+
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            out.writeUTF(encodeRequest(new RequestHello(new String[]{Codecs.JSON},
+                    new String[]{Frames.SHORT_NAME}, new String[]{"zstd", Codecs.DEFLATE})));
+            out.flush();
+
+            ResponseHello responseHello = gson.fromJson(in.readUTF(), ResponseHello.class);
+            assertEquals("Should choose deflate", Codecs.DEFLATE, responseHello.getCompression());
+
+            out.write(Codecs.JSON_DEFLATE_CODEC.encode(new RequestGetGameNames(2)));
+            out.flush();
+
+            byte[] frame = Frames.SHORT.readFrame(in);
+            PushGameNames response = Codecs.JSON_DEFLATE_CODEC.decode(frame, PushGameNames.class);
+            assertEquals("Should return the same protocol ID", 2, response.getProtocolId());
+            assertEquals("Should return every game name", 50, response.getGameNames().size());
+            assertTrue("Should be smaller than the JSON", frame.length < Codecs.JSON_CODEC.encode(response).length);
+        }
+    }
+
+    /**
+     * We test a client sending polls faster than its budget is told to slow down,
+     * and every request is still answered.
+     */
+    @Test
+    public void slowDown01_test() throws Exception {
+        int requests = RateLimiter.DEFAULT_BURSTS[RateLimiter.POLLS] + 20;
+
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            for (int i = 1; i <= requests; i++) {
+                out.writeUTF(encodeRequest(new RequestGetGameNames(i)));
+            }
+            out.flush();
+
+            int slowDowns = 0;
+            for (int i = 1; i <= requests; i++) {
+                String json = in.readUTF();
+                ResponseProtocol response = gson.fromJson(json, ResponseProtocol.class);
+                assertEquals("Should answer requests in the order they were sent", i, response.getProtocolId());
+
+                if (response.getType() == SLOW_DOWN_TYPE) {
+                    slowDowns++;
+                    assertTrue("Should say when to retry",
+                            gson.fromJson(json, ResponseSlowDown.class).getRetryAfter() > 0);
+                }
+            }
+
+            assertTrue("Should tell the client to slow down", slowDowns > 0);
+        }
+    }
+
+    /**
+     * We test a client which sends nothing is disconnected after the idle timeout,
+     * and one sending heartbeats is not.
+     */
+    @Test
+    public void idleReaper01_test() throws Exception {
+        IdleReaper idleReaper = new IdleReaper(1);
+        NioGameServer reapingServer = new NioGameServer(new InetSocketAddress("localhost", 0), 50, 1, 2, () -> {
+            GameServerThread session = new GameServerThread(sessions, null, lobbies, subscribers);
+            session.setIdleReaper(idleReaper);
+            return session;
+        });
+        reapingServer.bind();
+        Thread reapingAcceptThread = new Thread(reapingServer::acceptConnections);
+        reapingAcceptThread.start();
+
+        try (Socket idleSocket = new Socket("localhost", reapingServer.getPort());
+             Socket heartbeatSocket = new Socket("localhost", reapingServer.getPort())) {
+            DataOutputStream out = new DataOutputStream(heartbeatSocket.getOutputStream());
+            DataInputStream in = new DataInputStream(heartbeatSocket.getInputStream());
+
+            for (int i = 1; i <= 8; i++) {
+                out.writeUTF(encodeRequest(new RequestHeartbeat(i)));
+                out.flush();
+                assertEquals("Should answer the heartbeat", i,
+                        gson.fromJson(in.readUTF(), ResponseProtocol.class).getProtocolId());
+                Thread.sleep(300);
+            }
+
+            assertEquals("Should close the idle client", -1, idleSocket.getInputStream().read());
+            assertEquals("Should count the idle client", 1, idleReaper.getReapedCount());
+            assertEquals("Should keep the client sending heartbeats", 1, reapingServer.getConnectionCount());
+        } finally {
+            idleReaper.shutdown();
+            reapingServer.close();
+            reapingAcceptThread.join(1000);
+        }
+    }
+
+    /**
+     * We test a client the server has no room for is told the server is full
+     * and closed, and its place is taken again once a client disconnects.
+     */
+    @Test
+    public void serverFull01_test() throws Exception {
+        AdmissionController admission = new AdmissionController(1, 1);
+        server.setAdmissionController(admission);
+
+        Socket admittedSocket = new Socket("localhost", server.getPort());
+        try {
+            waitForConnectionCount(1);
+
+            try (Socket refusedSocket = new Socket("localhost", server.getPort())) {
+                DataInputStream in = new DataInputStream(refusedSocket.getInputStream());
+                ResponseProtocol response = gson.fromJson(in.readUTF(), ResponseProtocol.class);
+                assertEquals("Should be told the server is full", SERVER_FULL_TYPE, response.getType());
+                assertEquals("Should close the refused client", -1, in.read());
+            }
+            assertEquals("Should count the refused client", 1, admission.getRejectedCount());
+        } finally {
+            admittedSocket.close();
+        }
+
+        waitForConnectionCount(0);
+        assertEquals("Should give the place back", 0, admission.getConnectionCount());
+        Socket socket = new Socket("localhost", server.getPort());
+        try {
+            waitForConnectionCount(1);
+            assertEquals("Should admit a client again", 2, admission.getAcceptedCount());
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * We test a game state waiting to be written is found, so a full game state
+     * is pushed instead of another delta, and the full one replaces those waiting.
+     */
+    @Test
+    public void gameStateCoalescing01_test() throws Exception {
+        GameLobby lobby = new GameLobby(new User("table"));
+        lobby.addPlayer(new User("player"));
+        OutboundQueue queue = new OutboundQueue();
+
+        queue.add(new PushGameState(PUSH_PROTOCOL_ID, SUCCESS, lobby.getGameState(-1)), new byte[10]);
+        long version = lobby.getVersion();
+        lobby.placeBet("table", 10);
+        assertTrue("Should find the game state waiting", queue.hasQueued(PUSH_GAME_STATE));
+        queue.add(new PushGameState(PUSH_PROTOCOL_ID, SUCCESS, lobby.getGameState(version)), new byte[10]);
+        assertEquals("Should keep every delta", 2, queue.size());
+
+        queue.add(new PushGameState(PUSH_PROTOCOL_ID, SUCCESS, lobby.getGameState(-1)), new byte[10]);
+        assertEquals("Should replace them with the full game state", 1, queue.size());
+        assertEquals("Should count the replaced pushes", 2, queue.getFramesCoalesced());
+        queue.pollBatch();
+        assertFalse("Should find nothing waiting once written", queue.hasQueued(PUSH_GAME_STATE));
+    }
+
+    /**
+     * We test many idle clients can be connected at once and are
+     * removed once they disconnect.
+     */
+    @Test
+    public void manyConnections01_test() throws Exception {
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            for (int i = 0; i < 200; i++) {
+                sockets.add(new Socket("localhost", server.getPort()));
+            }
+
+            waitForConnectionCount(200);
+            assertEquals("Should hold all clients open", 200, server.getConnectionCount());
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+
+        waitForConnectionCount(0);
+        assertEquals("Should close all disconnected clients", 0, server.getConnectionCount());
+    }
+
+    /**
+     * We test a session token resumes the session without the database, and a
+     * client resuming takes the seat of the connection it left behind.
+     */
+    @Test
+    public void resumeSession01_test() throws Exception {
+        lobbies.create(new User("boris99"));
+        String token = sessions.getTokens().issue("sarah");
+
+        try (Socket oldSocket = new Socket("localhost", server.getPort());
+             Socket newSocket = new Socket("localhost", server.getPort())) {
+            DataInputStream oldIn = new DataInputStream(oldSocket.getInputStream());
+            DataOutputStream oldOut = new DataOutputStream(oldSocket.getOutputStream());
+
+            oldOut.writeUTF(encodeRequest(new RequestResumeSession("nonsense", "boris99")));
+            oldOut.flush();
+            ResponseResumeSession response = gson.fromJson(oldIn.readUTF(), ResponseResumeSession.class);
+            assertEquals("Should refuse a token we did not sign", FAIL, response.getRequestSuccess());
+
+            oldOut.writeUTF(encodeRequest(new RequestResumeSession(token, "boris99")));
+            oldOut.flush();
+            response = gson.fromJson(oldIn.readUTF(), ResponseResumeSession.class);
+            assertEquals("Should resume the session", SUCCESS, response.getRequestSuccess());
+            assertEquals("Should log in the user in the token", "sarah", response.getUsername());
+            assertEquals("Should join the game asked for", "boris99", response.getGameJoined());
+
+            DataOutputStream newOut = new DataOutputStream(newSocket.getOutputStream());
+            newOut.writeUTF(encodeRequest(new RequestResumeSession(response.getSessionToken(), "boris99")));
+            newOut.flush();
+            response = gson.fromJson(new DataInputStream(newSocket.getInputStream()).readUTF(),
+                    ResponseResumeSession.class);
+            assertEquals("Should resume the session again", SUCCESS, response.getRequestSuccess());
+            assertEquals("Should keep the seat in the game", "boris99", response.getGameJoined());
+
+            assertEquals("Should close the connection left behind", -1, oldIn.read());
+            assertEquals("Should seat the user once", 2, lobbies.get("boris99").getPlayers().size());
+            assertTrue("Should keep the user logged in", sessions.isLoggedIn("sarah"));
+        }
+    }
+
+    /**
+     * We test a token stops resuming the session once the user logs out.
+     */
+    @Test
+    public void resumeSession02_test() throws Exception {
+        String token = sessions.getTokens().issue("sarah");
+
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+
+            out.writeUTF(encodeRequest(new RequestResumeSession(token, null)));
+            out.flush();
+            ResponseResumeSession response = gson.fromJson(in.readUTF(), ResponseResumeSession.class);
+            assertEquals("Should resume the session", SUCCESS, response.getRequestSuccess());
+
+            out.writeUTF(encodeRequest(new RequestLogOut("sarah")));
+            out.flush();
+            assertEquals("Should log out", SUCCESS,
+                    gson.fromJson(in.readUTF(), ResponseLogOut.class).getRequestSuccess());
+
+            out.writeUTF(encodeRequest(new RequestResumeSession(token, null)));
+            out.flush();
+            assertEquals("Should refuse a token issued before the logout", FAIL,
+                    gson.fromJson(in.readUTF(), ResponseResumeSession.class).getRequestSuccess());
+            out.writeUTF(encodeRequest(new RequestResumeSession(response.getSessionToken(), null)));
+            out.flush();
+            assertEquals("Should refuse a resumed token issued before the logout", FAIL,
+                    gson.fromJson(in.readUTF(), ResponseResumeSession.class).getRequestSuccess());
+        }
+        assertNull("Should not verify a revoked token", sessions.getTokens().verify(token));
+    }
+
+    /**
+     * We test a generated token key is kept in the key file, so tokens issued
+     * before a restart are still valid after it.
+     */
+    @Test
+    public void sessionTokenKey01_test() throws Exception {
+        File keyFile = new File(Files.createTempDirectory("tokens").toFile(), SessionTokens.DEFAULT_KEY_FILE);
+        try {
+            String token = SessionTokens.load(keyFile).issue("sarah");
+            assertTrue("Should keep the key in the file", keyFile.exists());
+            assertEquals("Should verify the token after a restart", "sarah",
+                    SessionTokens.load(keyFile).verify(token));
+            assertNull("Should not verify the token with another key", new SessionTokens().verify(token));
+        } finally {
+            keyFile.delete();
+            keyFile.getParentFile().delete();
+        }
+    }
+
+    /**
+     * We test chat is run as a command on the game, after the commands queued before it.
+     */
+    @Test
+    public void chatOrdered01_test() throws Exception {
+        GameLobby lobby = lobbies.create(new User("boris99"));
+        GameServerThread session = new GameServerThread(sessions, null, lobbies, subscribers);
+        session.handleInput(encodeRequest(new RequestResumeSession(sessions.getTokens().issue("sarah"), "boris99")));
+
+        CountDownLatch running = new CountDownLatch(1);
+        lobby.submit(game -> {
+            try {
+                running.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        });
+        CompletableFuture<ResponseProtocol> sent = session.handleFrameAsync(
+                Codecs.JSON_CODEC.encode(new RequestSendMessage("sarah", "hello")));
+        Thread.sleep(100);
+        assertFalse("Should wait for the command queued before it", sent.isDone());
+        assertTrue("Should not chat before the command queued before it", lobby.getMessageQueue().isEmpty());
+
+        running.countDown();
+        assertEquals("Should chat in the game", SUCCESS, sent.get().getRequestSuccess());
+        assertEquals("Should add the message", "hello", lobby.getMessageQueue().peek().getMessage());
+    }
+
+    /**
+     * We test chat in a game being moved to another server fails rather than
+     * finding no game.
+     */
+    @Test
+    public void chatWhileMoving01_test() throws Exception {
+        GameLobby lobby = lobbies.create(new User("boris99"));
+        GameServerThread session = new GameServerThread(sessions, null, lobbies, subscribers);
+        session.handleInput(encodeRequest(new RequestResumeSession(sessions.getTokens().issue("sarah"), "boris99")));
+        assertEquals("Should chat in the game", SUCCESS,
+                session.handleInput(encodeRequest(new RequestSendMessage("sarah", "hello"))).getRequestSuccess());
+
+        lobby.submit(GameLobby::freeze).get();
+        ResponseProtocol sent = session.handleInput(encodeRequest(new RequestSendMessage("sarah", "lost")));
+        assertEquals("Should not chat in a game being moved", FAIL, sent.getRequestSuccess());
+        assertEquals("Should say there is no game to chat in", NO_GAME_JOINED, sent.getErrorMsg());
+        ResponseProtocol got = session.handleInput(encodeRequest(new RequestGetMessages(-1)));
+        assertEquals("Should not read the chat of a game being moved", FAIL, got.getRequestSuccess());
+        assertEquals("Should keep the chat as it was", 1, lobby.getMessageQueue().size());
+    }
+
+    /**
+     * We test a server in a cluster lists the games of another server,
+     * and sends a client joining one of them to the server it is on.
+     */
+    @Test
+    public void clusterDirectory01_test() throws Exception {
+        int portA = freePort();
+        int portB = freePort();
+        LobbyRegistry lobbiesB = new LobbyRegistry();
+        ClusterService nodeA = new ClusterService(new ClusterMember("localhost", server.getPort()),
+                new InetSocketAddress("localhost", portA),
+                Collections.singletonList(new InetSocketAddress("localhost", portB)), lobbies, CLUSTER_SECRET);
+        ClusterService nodeB = new ClusterService(new ClusterMember("localhost", server.getPort() + 1),
+                new InetSocketAddress("localhost", portB),
+                Collections.singletonList(new InetSocketAddress("localhost", portA)), lobbiesB, CLUSTER_SECRET);
+        try {
+            nodeA.start();
+            nodeB.start();
+            lobbies.create(new User("boris99"));
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (nodeB.getDirectory().getOwner("boris99") == null && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+
+            GameServerThread session = new GameServerThread(new SessionRegistry(sessions.getTokens()), null,
+                    lobbiesB, subscribers);
+            session.setLobbyDirectory(nodeB.getDirectory());
+            String token = sessions.getTokens().issue("sarah");
+            session.handleInput(encodeRequest(new RequestResumeSession(token, null)));
+
+            assertTrue("Should list the game on the other server",
+                    session.getGameNames().contains("boris99"));
+            ResponseJoinGame response = (ResponseJoinGame) session.handleInput(
+                    encodeRequest(new RequestJoinGame("boris99", "sarah")));
+            assertEquals("Should not join the game here", FAIL, response.getRequestSuccess());
+            assertEquals("Should send the client to the server the game is on", "localhost",
+                    response.getRedirectHost());
+            assertEquals("Should send the client to the server the game is on", server.getPort(),
+                    response.getRedirectPort());
+        } finally {
+            nodeA.close();
+            nodeB.close();
+        }
+    }
+
+    /**
+     * We test a node does not listen to a node which signs its messages with
+     * another secret, so it cannot list games there or move games here.
+     */
+    @Test
+    public void clusterSecret01_test() throws Exception {
+        int portA = freePort();
+        int portB = freePort();
+        LobbyRegistry lobbiesB = new LobbyRegistry();
+        ClusterService nodeA = new ClusterService(new ClusterMember("localhost", server.getPort()),
+                new InetSocketAddress("localhost", portA), Collections.<InetSocketAddress>emptyList(), lobbies,
+                CLUSTER_SECRET);
+        ClusterService nodeB = new ClusterService(new ClusterMember("localhost", server.getPort() + 1),
+                new InetSocketAddress("localhost", portB),
+                Collections.singletonList(new InetSocketAddress("localhost", portA)), lobbiesB,
+                "forged".getBytes(StandardCharsets.UTF_8));
+        try {
+            nodeA.start();
+            nodeB.start();
+            GameLobby lobby = lobbiesB.create(new User("boris99"));
+
+            Thread.sleep(3 * ClusterService.GOSSIP_INTERVAL_MILLIS);
+            assertNull("Should not list a game of a node with another secret",
+                    nodeA.getDirectory().getOwner("boris99"));
+
+            assertEquals("Should not take a game from a node with another secret", -1,
+                    nodeB.moveLobby("boris99", new InetSocketAddress("localhost", portA)));
+            assertNull("Should not be on this server", lobbies.get("boris99"));
+            assertFalse("Should keep the game running on its node", lobby.isFrozen());
+        } finally {
+            nodeA.close();
+            nodeB.close();
+        }
+    }
+
+    /**
+     * We test a lobby moved to another server in the middle of a round keeps
+     * its players, hands, bets and chat, and is no longer on this server.
+     */
+    @Test
+    public void moveLobby01_test() throws Exception {
+        int portA = freePort();
+        int portB = freePort();
+        LobbyRegistry lobbiesB = new LobbyRegistry();
+        ClusterService nodeA = new ClusterService(new ClusterMember("localhost", server.getPort()),
+                new InetSocketAddress("localhost", portA), Collections.<InetSocketAddress>emptyList(), lobbies, CLUSTER_SECRET);
+        ClusterService nodeB = new ClusterService(new ClusterMember("localhost", server.getPort() + 1),
+                new InetSocketAddress("localhost", portB), Collections.<InetSocketAddress>emptyList(), lobbiesB, CLUSTER_SECRET);
+        try {
+            nodeA.start();
+            nodeB.start();
+            GameLobby lobby = lobbies.create(new User("boris99"));
+            lobbies.join("boris99", new User("sarah"), 4);
+            lobby.placeBet("boris99", 10);
+            lobby.placeBet("sarah", 20);
+            lobby.addMessage(new MessageObject("sarah", "hello"));
+            GameState before = lobby.getGameState();
+
+            assertTrue("Should move the lobby", nodeA.moveLobby("boris99",
+                    new InetSocketAddress("localhost", portB)) >= 0);
+
+            GameLobby moved = lobbiesB.get("boris99");
+            assertNotNull("Should be on the other server", moved);
+            assertNull("Should not be on this server", lobbies.get("boris99"));
+            assertEquals("Should send clients to the other server", server.getPort() + 1,
+                    nodeA.getDirectory().getOwner("boris99").getPort());
+
+            GameState after = moved.getGameState();
+            assertEquals("Should keep the bets", before.getPlayerBets(), after.getPlayerBets());
+            assertEquals("Should keep the hands", gson.toJson(before.getPlayerHands()),
+                    gson.toJson(after.getPlayerHands()));
+            assertEquals("Should keep the dealer hand", gson.toJson(before.getDealerHand()),
+                    gson.toJson(after.getDealerHand()));
+            assertEquals("Should keep the chat", "hello", moved.getMessageQueue().peek().getMessage());
+
+            // the copy left behind deals the card the moved lobby should deal next
+            moved.hit("sarah");
+            lobby.hit("sarah");
+            assertEquals("Should deal on from the same deck", gson.toJson(lobby.getPlayer("sarah").getPlayerHand()),
+                    gson.toJson(moved.getPlayer("sarah").getPlayerHand()));
+        } finally {
+            nodeA.close();
+            nodeB.close();
+        }
+    }
+
+    /**
+     * We test a lobby whose new node takes it slower than the move waits for
+     * stays frozen here, rather than running on both nodes, until that node
+     * says it has the lobby.
+     */
+    @Test
+    public void moveLobby02_test() throws Exception {
+        int portA = freePort();
+        int portB = freePort();
+        LobbyRegistry lobbiesB = new LobbyRegistry() {
+            @Override
+            public GameLobby adopt(LobbyState state) {
+                try {
+                    Thread.sleep(1500);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.adopt(state);
+            }
+        };
+        ClusterService nodeA = new ClusterService(new ClusterMember("localhost", server.getPort()),
+                new InetSocketAddress("localhost", portA), Collections.<InetSocketAddress>emptyList(), lobbies, CLUSTER_SECRET);
+        ClusterService nodeB = new ClusterService(new ClusterMember("localhost", server.getPort() + 1),
+                new InetSocketAddress("localhost", portB), Collections.<InetSocketAddress>emptyList(), lobbiesB, CLUSTER_SECRET);
+        try {
+            nodeA.start();
+            nodeB.start();
+            GameLobby lobby = lobbies.create(new User("boris99"));
+
+            assertEquals("Should not have moved the lobby yet", -1,
+                    nodeA.moveLobby("boris99", new InetSocketAddress("localhost", portB)));
+            assertTrue("Should keep the lobby frozen while the move is unknown", lobby.isFrozen());
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (lobbies.get("boris99") != null && System.currentTimeMillis() < deadline) {
+                assertTrue("Should not run the lobby here while the other node may have it", lobby.isFrozen());
+                Thread.sleep(20);
+            }
+            assertNull("Should not be on this server", lobbies.get("boris99"));
+            assertNotNull("Should be on the other server", lobbiesB.get("boris99"));
+            assertTrue("Should never have thawed the lobby here", lobby.isFrozen());
+            assertEquals("Should send clients to the other server", server.getPort() + 1,
+                    nodeA.getDirectory().getOwner("boris99").getPort());
+            assertEquals("Should count the move once", 1, nodeA.getMoveCount());
+        } finally {
+            nodeA.close();
+            nodeB.close();
+        }
+    }
+
+    /**
+     * We test a client behind a gateway talks to the server as it would
+     * directly, heartbeats are answered by the gateway in the codec the
+     * client chose, and the client is logged out when it disconnects.
+     */
+    @Test
+    public void gateway01_test() throws Exception {
+        lobbies.create(new User("boris99"));
+        GatewayBackend backend = new GatewayBackend(new InetSocketAddress("localhost", 0),
+                () -> new GameServerThread(sessions, null, lobbies, subscribers), Executors.newFixedThreadPool(2));
+        backend.bind();
+        new Thread(backend::acceptGateways).start();
+        GameGateway gateway = new GameGateway(new InetSocketAddress("localhost", 0),
+                Collections.singletonList(new InetSocketAddress("localhost", backend.getPort())), 2, 60);
+        gateway.bind();
+        new Thread(gateway::acceptClients).start();
+
+        try (Socket socket = new Socket("localhost", gateway.getPort())) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            out.writeUTF(encodeRequest(new RequestResumeSession(sessions.getTokens().issue("sarah"), null)));
+            out.writeUTF(encodeRequest(new RequestHello(2, Codecs.BINARY)));
+            out.flush();
+            assertEquals("Should log in through the gateway", SUCCESS,
+                    gson.fromJson(in.readUTF(), ResponseResumeSession.class).getRequestSuccess());
+            assertEquals("Should choose the binary codec", Codecs.BINARY,
+                    gson.fromJson(in.readUTF(), ResponseHello.class).getCodec());
+
+            out.write(Codecs.BINARY_CODEC.encode(new RequestHeartbeat(3)));
+            out.write(Codecs.BINARY_CODEC.encode(new RequestGetGameNames(4)));
+            out.flush();
+            assertEquals("Should answer the heartbeat", 3,
+                    Codecs.BINARY_CODEC.decode(Frames.SHORT.readFrame(in), ResponseProtocol.class).getProtocolId());
+            PushGameNames response = Codecs.BINARY_CODEC.decode(Frames.SHORT.readFrame(in), PushGameNames.class);
+            assertTrue("Should return the game names", response.getGameNames().contains("boris99"));
+            assertTrue("Should be logged in on the server", sessions.isLoggedIn("sarah"));
+        }
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sessions.isLoggedIn("sarah") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertFalse("Should log out a client which left the gateway", sessions.isLoggedIn("sarah"));
+        gateway.close();
+        backend.close();
+    }
+
+    /**
+     * We test a client behind a gateway which does not read is disconnected once
+     * the backend has queued too much for it, rather than filling the gateway.
+     */
+    @Test
+    public void gatewaySlowClient01_test() throws Exception {
+        for (int i = 0; i < 2000; i++) {
+            lobbies.create(new User("table" + i));
+        }
+        GatewayBackend backend = new GatewayBackend(new InetSocketAddress("localhost", 0), () -> {
+            GameServerThread session = new GameServerThread(sessions, null, lobbies, subscribers);
+            session.setRateLimiter(new RateLimiter(new double[]{1e9, 1e9, 1e9},
+                    new int[]{1000000000, 1000000000, 1000000000}));
+            return session;
+        }, Executors.newFixedThreadPool(2));
+        backend.bind();
+        new Thread(backend::acceptGateways).start();
+        GameGateway gateway = new GameGateway(new InetSocketAddress("localhost", 0),
+                Collections.singletonList(new InetSocketAddress("localhost", backend.getPort())), 1, 60);
+        gateway.bind();
+        new Thread(gateway::acceptClients).start();
+
+        try (Socket socket = new Socket("localhost", gateway.getPort())) {
+            socket.setReceiveBufferSize(4096);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            try {
+                for (int i = 1; i <= 3000; i++) {
+                    out.writeUTF(encodeRequest(new RequestGetGameNames(i)));
+                }
+                out.flush();
+            } catch (IOException e) {
+                // closed while sending
+            }
+
+            long deadline = System.currentTimeMillis() + 10000;
+            while (gateway.getClientCount() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals("Should close the client at the gateway", 0, gateway.getClientCount());
+            while (backend.getSessionCount() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals("Should forget the session on the backend", 0, backend.getSessionCount());
+        }
+        gateway.close();
+        backend.close();
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private void waitForConnectionCount(int expected) throws InterruptedException {
+        for (int i = 0; i < 100 && server.getConnectionCount() != expected; i++) {
+            Thread.sleep(20);
+        }
+    }
+}